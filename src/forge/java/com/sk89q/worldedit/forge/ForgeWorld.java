@@ -90,6 +90,54 @@ public int getBlockData(Vector pt) {
         return this.world.getBlockMetadata(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
     }
 
+    @Override
+    public void getBlocks(int chunkX, int chunkZ, int minY, int maxY, int[] types, int[] data) {
+        Chunk chunk = this.world.getChunkFromChunkCoords(chunkX, chunkZ);
+
+        for (int y = minY; y <= maxY; ++y) {
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    int index = getColumnIndex(x, y, z, minY);
+                    types[index] = chunk.getBlockID(x, y, z);
+                    data[index] = chunk.getBlockMetadata(x, y, z);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int setBlocks(int chunkX, int chunkZ, int minY, int maxY, int[] types, int[] data, boolean notifyAdjacent) {
+        // Writes still go through the world so that lighting and clients are updated
+        int baseX = chunkX << 4;
+        int baseZ = chunkZ << 4;
+        int changed = 0;
+
+        for (int y = minY; y <= maxY; ++y) {
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    int index = getColumnIndex(x, y, z, minY);
+                    int type = types[index];
+                    if (type < 0) {
+                        continue;
+                    }
+
+                    boolean result;
+                    if (notifyAdjacent) {
+                        result = this.world.setBlockAndMetadataWithNotify(baseX + x, y, baseZ + z, type, data[index]);
+                    } else {
+                        result = this.world.setBlockAndMetadata(baseX + x, y, baseZ + z, type, data[index]);
+                    }
+
+                    if (result) {
+                        ++changed;
+                    }
+                }
+            }
+        }
+
+        return changed;
+    }
+
     public int getBlockLightLevel(Vector pt) {
         return this.world.getBlockLightValue(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
     }
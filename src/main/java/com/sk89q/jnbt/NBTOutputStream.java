@@ -1,10 +1,12 @@
 package com.sk89q.jnbt;
 
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 import com.sk89q.jnbt.ByteArrayTag;
 import com.sk89q.jnbt.ByteTag;
@@ -20,6 +22,7 @@
 import com.sk89q.jnbt.ShortTag;
 import com.sk89q.jnbt.StringTag;
 import com.sk89q.jnbt.Tag;
+import com.sk89q.util.ParallelGZIPOutputStream;
 
 /*
  * JNBT License
@@ -71,6 +74,11 @@
  */
 public final class NBTOutputStream implements Closeable {
 
+    /**
+     * The size of the buffers in front of the compressor.
+     */
+    private static final int BUFFER_SIZE = 65536;
+
     /**
      * The output stream.
      */
@@ -86,7 +94,72 @@ public final class NBTOutputStream implements Closeable {
      *             if an I/O error occurs.
      */
     public NBTOutputStream(OutputStream os) throws IOException {
-        this.os = new DataOutputStream(new GZIPOutputStream(os));
+        this(os, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a new <code>NBTOutputStream</code>, which will write data to the
+     * specified underlying output stream with the given compression level.
+     * 
+     * @param os
+     *            The output stream.
+     * @param level
+     *            The compression level, from 0 to 9, or -1 for the default.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public NBTOutputStream(OutputStream os, int level) throws IOException {
+        this(os, level, 1);
+    }
+
+    /**
+     * Creates a new <code>NBTOutputStream</code>, which will write data to the
+     * specified underlying output stream with the given compression level.
+     * With more than one thread, blocks of data are compressed in parallel
+     * into a gzip stream of several members, which the
+     * <code>GZIPInputStream</code> of Java 6 cannot read past the first of.
+     * 
+     * @param os
+     *            The output stream.
+     * @param level
+     *            The compression level, from 0 to 9, or -1 for the default.
+     * @param threads
+     *            The number of threads compressing the data.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public NBTOutputStream(OutputStream os, int level, int threads) throws IOException {
+        this(os, level, threads, true);
+    }
+
+    /**
+     * Creates a new <code>NBTOutputStream</code>, which will write data to the
+     * specified underlying output stream, compressed or as it is.
+     * 
+     * @param os
+     *            The output stream.
+     * @param gzip
+     *            Whether to compress the data with gzip.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public NBTOutputStream(OutputStream os, boolean gzip) throws IOException {
+        this(os, Deflater.DEFAULT_COMPRESSION, 1, gzip);
+    }
+
+    private NBTOutputStream(OutputStream os, int level, int threads, boolean gzip) throws IOException {
+        if (!gzip) {
+            this.os = new DataOutputStream(os);
+            return;
+        }
+
+        OutputStream compressed;
+        if (threads > 1) {
+            compressed = new ParallelGZIPOutputStream(os, level, threads);
+        } else {
+            compressed = new LevelGZIPOutputStream(os, level);
+        }
+        this.os = new DataOutputStream(new BufferedOutputStream(compressed, BUFFER_SIZE));
     }
 
     /**
@@ -113,6 +186,82 @@ public void writeTag(Tag tag) throws IOException {
         writeTagPayload(tag);
     }
 
+    /**
+     * Writes the header of a <code>TAG_Compound</code>. Its children are
+     * written next with {@link #writeTag(Tag)} or the other methods for
+     * writing a tag in parts, followed by {@link #writeCompoundEnd()}.
+     * 
+     * @param name
+     *            The name of the tag.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeCompoundStart(String name) throws IOException {
+        writeTagHeader(NBTConstants.TYPE_COMPOUND, name);
+    }
+
+    /**
+     * Writes the end of a <code>TAG_Compound</code> started with
+     * {@link #writeCompoundStart(String)}.
+     * 
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeCompoundEnd() throws IOException {
+        os.writeByte(NBTConstants.TYPE_END);
+    }
+
+    /**
+     * Writes the header and length of a <code>TAG_Byte_Array</code>. The
+     * bytes are written next with {@link #writeBytes(byte[], int, int)}.
+     * 
+     * @param name
+     *            The name of the tag.
+     * @param length
+     *            The length of the array.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeByteArrayStart(String name, int length) throws IOException {
+        writeTagHeader(NBTConstants.TYPE_BYTE_ARRAY, name);
+        os.writeInt(length);
+    }
+
+    /**
+     * Writes part of the bytes of a <code>TAG_Byte_Array</code> started with
+     * {@link #writeByteArrayStart(String, int)}.
+     * 
+     * @param bytes
+     *            The bytes.
+     * @param offset
+     *            The index of the first byte to write.
+     * @param length
+     *            The number of bytes to write.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    public void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        os.write(bytes, offset, length);
+    }
+
+    /**
+     * Writes the type and name of a tag.
+     * 
+     * @param type
+     *            The type of the tag.
+     * @param name
+     *            The name of the tag.
+     * @throws IOException
+     *             if an I/O error occurs.
+     */
+    private void writeTagHeader(int type, String name) throws IOException {
+        byte[] nameBytes = name.getBytes(NBTConstants.CHARSET);
+
+        os.writeByte(type);
+        os.writeShort(nameBytes.length);
+        os.write(nameBytes);
+    }
+
     /**
      * Writes tag payload.
      * 
@@ -324,4 +473,16 @@ public void close() throws IOException {
         os.close();
     }
 
+    /**
+     * A <code>GZIPOutputStream</code> with a compression level.
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+        public LevelGZIPOutputStream(OutputStream os, int level) throws IOException {
+            super(os, BUFFER_SIZE);
+            def.setLevel(level);
+        }
+
+    }
+
 }
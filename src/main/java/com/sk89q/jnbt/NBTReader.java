@@ -0,0 +1,641 @@
+package com.sk89q.jnbt;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * JNBT License
+ * 
+ * Copyright (c) 2010 Graham Edgecombe
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     * Redistributions of source code must retain the above copyright notice,
+ *       this list of conditions and the following disclaimer.
+ *       
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *       
+ *     * Neither the name of the JNBT team nor the names of its
+ *       contributors may be used to endorse or promote products derived from
+ *       this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE. 
+ */
+
+/**
+ * <p>
+ * Reads <strong>NBT</strong> streams one tag at a time, without building a
+ * tree of <code>Tag</code> objects. Unwanted tags, including whole compounds
+ * and lists, can be skipped without being decoded, and arrays are returned
+ * as they are read.
+ * </p>
+ *
+ * <p>
+ * {@link #next()} moves to the next tag and returns its type. The payload of
+ * that tag is then consumed with one of the <code>read</code> methods,
+ * {@link #readTag()}, {@link #enter()} or {@link #skip()}; if it isn't,
+ * the next call to {@link #next()} skips it. Inside a compound or list,
+ * {@link #next()} returns {@link NBTConstants#TYPE_END} once every child has
+ * been read and then continues with the parent.
+ * </p>
+ *
+ * <pre>
+ * reader.next(); // the root compound
+ * reader.enter();
+ * while (reader.next() != NBTConstants.TYPE_END) {
+ *     if (reader.nameEquals("Blocks")) {
+ *         blocks = reader.readByteArray();
+ *     }
+ * }
+ * </pre>
+ */
+public final class NBTReader implements Closeable {
+
+    /**
+     * The data input stream.
+     */
+    private final DataInputStream is;
+
+    /**
+     * The types of the containers that have been entered, innermost last.
+     */
+    private int[] containerTypes = new int[16];
+
+    /**
+     * The number of elements left in each list that has been entered.
+     */
+    private int[] remaining = new int[16];
+
+    /**
+     * The element type of each list that has been entered.
+     */
+    private int[] listTypes = new int[16];
+
+    /**
+     * The number of containers that have been entered.
+     */
+    private int depth = 0;
+
+    /**
+     * The type of the current tag.
+     */
+    private int type = NBTConstants.TYPE_END;
+
+    /**
+     * Whether the payload of the current tag has yet to be consumed.
+     */
+    private boolean pending = false;
+
+    /**
+     * The number of bytes of an opened byte array that have not been read.
+     */
+    private int arrayRemaining = 0;
+
+    /**
+     * The encoded name of the current tag.
+     */
+    private byte[] nameBytes = new byte[32];
+    private int nameLength = 0;
+    private String name = "";
+
+    /**
+     * Creates a new <code>NBTReader</code>, which will source its data
+     * from the specified input stream.
+     *
+     * @param is The input stream.
+     */
+    public NBTReader(InputStream is) {
+        this.is = new DataInputStream(is);
+    }
+
+    /**
+     * Moves to the next tag, skipping the payload of the current tag if it
+     * was not read.
+     *
+     * @return The type of the tag, or {@link NBTConstants#TYPE_END} at the
+     *         end of the current compound or list.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int next() throws IOException {
+        if (pending) {
+            skip();
+        }
+        skipArrayRemaining();
+
+        if (depth > 0 && containerTypes[depth - 1] == NBTConstants.TYPE_LIST) {
+            if (remaining[depth - 1] == 0) {
+                return end();
+            }
+
+            --remaining[depth - 1];
+            type = listTypes[depth - 1];
+            setName(0);
+        } else {
+            type = is.readByte() & 0xFF;
+            if (type == NBTConstants.TYPE_END) {
+                if (depth == 0) {
+                    throw new IOException(
+                            "TAG_End found without a TAG_Compound/TAG_List tag preceding it.");
+                }
+                return end();
+            }
+
+            int length = is.readShort() & 0xFFFF;
+            if (nameBytes.length < length) {
+                nameBytes = new byte[length];
+            }
+            is.readFully(nameBytes, 0, length);
+            setName(length);
+        }
+
+        if (type > NBTConstants.TYPE_INT_ARRAY) {
+            throw new IOException("Invalid tag type: " + type + ".");
+        }
+
+        pending = true;
+        return type;
+    }
+
+    /**
+     * Leave the innermost container after its last child.
+     *
+     * @return {@link NBTConstants#TYPE_END}
+     */
+    private int end() {
+        --depth;
+        type = NBTConstants.TYPE_END;
+        pending = false;
+        setName(0);
+        return type;
+    }
+
+    private void setName(int length) {
+        nameLength = length;
+        name = length == 0 ? "" : null;
+    }
+
+    /**
+     * Get the type of the current tag.
+     *
+     * @return The type.
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Get the name of the current tag. Tags in lists have no name.
+     *
+     * @return The name.
+     */
+    public String getName() {
+        if (name == null) {
+            name = new String(nameBytes, 0, nameLength, NBTConstants.CHARSET);
+        }
+        return name;
+    }
+
+    /**
+     * Checks the name of the current tag without decoding it.
+     *
+     * @param other The name to compare with.
+     * @return Whether the name of the current tag is equal.
+     */
+    public boolean nameEquals(String other) {
+        if (name != null) {
+            return name.equals(other);
+        }
+
+        final int length = other.length();
+        for (int i = 0; i < length; ++i) {
+            if (other.charAt(i) >= 0x80) {
+                return getName().equals(other);
+            }
+        }
+
+        // An ASCII name is encoded as one byte per character
+        if (nameLength != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; ++i) {
+            if (nameBytes[i] != other.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of containers that have been entered.
+     *
+     * @return The depth.
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Get the element type of the list that was last entered.
+     *
+     * @return The element type.
+     */
+    public int getListType() {
+        checkList();
+        return listTypes[depth - 1];
+    }
+
+    /**
+     * Get the number of elements of the list that was last entered that
+     * have not been moved to yet.
+     *
+     * @return The number of elements left.
+     */
+    public int getListRemaining() {
+        checkList();
+        return remaining[depth - 1];
+    }
+
+    private void checkList() {
+        if (depth == 0 || containerTypes[depth - 1] != NBTConstants.TYPE_LIST) {
+            throw new IllegalStateException("Not in a TAG_List");
+        }
+    }
+
+    /**
+     * Enters the current compound or list, so that {@link #next()} moves
+     * through its children.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void enter() throws IOException {
+        consume(type == NBTConstants.TYPE_COMPOUND ? NBTConstants.TYPE_COMPOUND : NBTConstants.TYPE_LIST);
+
+        if (depth == containerTypes.length) {
+            containerTypes = grow(containerTypes);
+            remaining = grow(remaining);
+            listTypes = grow(listTypes);
+        }
+
+        containerTypes[depth] = type;
+        if (type == NBTConstants.TYPE_LIST) {
+            listTypes[depth] = is.readByte() & 0xFF;
+            remaining[depth] = Math.max(0, is.readInt());
+        }
+        ++depth;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] newArray = new int[array.length * 2];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    /**
+     * Skips the rest of the container that was last entered and continues
+     * with its parent.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void exit() throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("Not in a TAG_Compound or TAG_List");
+        }
+
+        if (pending) {
+            skip();
+        }
+        skipArrayRemaining();
+
+        if (containerTypes[depth - 1] == NBTConstants.TYPE_LIST) {
+            int elementType = listTypes[depth - 1];
+            for (int i = remaining[depth - 1]; i > 0; --i) {
+                skipPayload(elementType);
+            }
+        } else {
+            skipPayload(NBTConstants.TYPE_COMPOUND);
+        }
+
+        end();
+    }
+
+    /**
+     * Checks that the payload of the current tag is pending and of the
+     * given type, and marks it as consumed.
+     *
+     * @param expected The type.
+     */
+    private void consume(int expected) {
+        if (!pending) {
+            throw new IllegalStateException("No tag payload to read");
+        }
+        if (type != expected) {
+            throw new IllegalStateException("Tag is a " + NBTUtils.getTypeName(NBTUtils.getTypeClass(type))
+                    + ", not a " + NBTUtils.getTypeName(NBTUtils.getTypeClass(expected)));
+        }
+        pending = false;
+    }
+
+    /**
+     * Reads the payload of the current tag, which must be a TAG_Byte.
+     *
+     * @return The value.
+     * @throws IOException if an I/O error occurs.
+     */
+    public byte readByte() throws IOException {
+        consume(NBTConstants.TYPE_BYTE);
+        return is.readByte();
+    }
+
+    /**
+     * Reads the payload of the current tag, which must be a TAG_Short.
+     *
+     * @return The value.
+     * @throws IOException if an I/O error occurs.
+     */
+    public short readShort() throws IOException {
+        consume(NBTConstants.TYPE_SHORT);
+        return is.readShort();
+    }
+
+    /**
+     * Reads the payload of the current tag, which must be a TAG_Int.
+     *
+     * @return The value.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int readInt() throws IOException {
+        consume(NBTConstants.TYPE_INT);
+        return is.readInt();
+    }
+
+    /**
+     * Reads the payload of the current tag, which must be a TAG_Long.
+     *
+     * @return The value.
+     * @throws IOException if an I/O error occurs.
+     */
+    public long readLong() throws IOException {
+        consume(NBTConstants.TYPE_LONG);
+        return is.readLong();
+    }
+
+    /**
+     * Reads the payload of the current tag, which must be a TAG_Float.
+     *
+     * @return The value.
+     * @throws IOException if an I/O error occurs.
+     */
+    public float readFloat() throws IOException {
+        consume(NBTConstants.TYPE_FLOAT);
+        return is.readFloat();
+    }
+
+    /**
+     * Reads the payload of the current tag, which must be a TAG_Double.
+     *
+     * @return The value.
+     * @throws IOException if an I/O error occurs.
+     */
+    public double readDouble() throws IOException {
+        consume(NBTConstants.TYPE_DOUBLE);
+        return is.readDouble();
+    }
+
+    /**
+     * Reads the payload of the current tag, which must be a TAG_String.
+     *
+     * @return The value.
+     * @throws IOException if an I/O error occurs.
+     */
+    public String readString() throws IOException {
+        consume(NBTConstants.TYPE_STRING);
+        byte[] bytes = new byte[is.readShort() & 0xFFFF];
+        is.readFully(bytes);
+        return new String(bytes, NBTConstants.CHARSET);
+    }
+
+    /**
+     * Reads the payload of the current tag, which must be a TAG_Byte_Array.
+     *
+     * @return The value.
+     * @throws IOException if an I/O error occurs.
+     */
+    public byte[] readByteArray() throws IOException {
+        consume(NBTConstants.TYPE_BYTE_ARRAY);
+        byte[] bytes = new byte[is.readInt()];
+        is.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Starts reading the payload of the current tag, which must be a
+     * TAG_Byte_Array, in parts with {@link #readBytes(byte[], int, int)}.
+     * Any bytes that are not read are skipped by the next call to
+     * {@link #next()}.
+     *
+     * @return The length of the array.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int openByteArray() throws IOException {
+        consume(NBTConstants.TYPE_BYTE_ARRAY);
+        int length = is.readInt();
+        if (length < 0) {
+            throw new IOException("Negative array length: " + length + ".");
+        }
+        arrayRemaining = length;
+        return length;
+    }
+
+    /**
+     * Reads the next bytes of the array opened with {@link #openByteArray()}.
+     *
+     * @param bytes The array to read into.
+     * @param offset The index to read the first byte into.
+     * @param length The number of bytes to read.
+     * @throws IOException if an I/O error occurs.
+     */
+    public void readBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length > arrayRemaining) {
+            throw new IllegalStateException("Only " + arrayRemaining + " bytes of the array are left");
+        }
+        is.readFully(bytes, offset, length);
+        arrayRemaining -= length;
+    }
+
+    private void skipArrayRemaining() throws IOException {
+        if (arrayRemaining > 0) {
+            skipFully(arrayRemaining);
+            arrayRemaining = 0;
+        }
+    }
+
+    /**
+     * Reads the payload of the current tag, which must be a TAG_Int_Array.
+     *
+     * @return The value.
+     * @throws IOException if an I/O error occurs.
+     */
+    public int[] readIntArray() throws IOException {
+        consume(NBTConstants.TYPE_INT_ARRAY);
+        int[] data = new int[is.readInt()];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = is.readInt();
+        }
+        return data;
+    }
+
+    /**
+     * Reads the current tag, and all of its children, as a tree.
+     *
+     * @return The tag that was read.
+     * @throws IOException if an I/O error occurs.
+     */
+    public Tag readTag() throws IOException {
+        String name = getName();
+
+        switch (type) {
+        case NBTConstants.TYPE_BYTE:
+            return new ByteTag(name, readByte());
+        case NBTConstants.TYPE_SHORT:
+            return new ShortTag(name, readShort());
+        case NBTConstants.TYPE_INT:
+            return new IntTag(name, readInt());
+        case NBTConstants.TYPE_LONG:
+            return new LongTag(name, readLong());
+        case NBTConstants.TYPE_FLOAT:
+            return new FloatTag(name, readFloat());
+        case NBTConstants.TYPE_DOUBLE:
+            return new DoubleTag(name, readDouble());
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            return new ByteArrayTag(name, readByteArray());
+        case NBTConstants.TYPE_STRING:
+            return new StringTag(name, readString());
+        case NBTConstants.TYPE_INT_ARRAY:
+            return new IntArrayTag(name, readIntArray());
+        case NBTConstants.TYPE_LIST:
+            enter();
+            int childType = getListType();
+            if (childType == NBTConstants.TYPE_END && getListRemaining() > 0) {
+                throw new IOException("TAG_End not permitted in a list.");
+            }
+
+            List<Tag> tagList = new ArrayList<Tag>(getListRemaining());
+            while (next() != NBTConstants.TYPE_END) {
+                tagList.add(readTag());
+            }
+
+            return new ListTag(name, NBTUtils.getTypeClass(childType), tagList);
+        case NBTConstants.TYPE_COMPOUND:
+            enter();
+            Map<String, Tag> tagMap = new HashMap<String, Tag>();
+            while (next() != NBTConstants.TYPE_END) {
+                Tag tag = readTag();
+                tagMap.put(tag.getName(), tag);
+            }
+
+            return new CompoundTag(name, tagMap);
+        default:
+            throw new IllegalStateException("No tag payload to read");
+        }
+    }
+
+    /**
+     * Skips the payload of the current tag, including all of its children.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    public void skip() throws IOException {
+        if (!pending) {
+            throw new IllegalStateException("No tag payload to skip");
+        }
+        pending = false;
+        skipPayload(type);
+    }
+
+    private void skipPayload(int type) throws IOException {
+        switch (type) {
+        case NBTConstants.TYPE_BYTE:
+            skipFully(1);
+            break;
+        case NBTConstants.TYPE_SHORT:
+            skipFully(2);
+            break;
+        case NBTConstants.TYPE_INT:
+        case NBTConstants.TYPE_FLOAT:
+            skipFully(4);
+            break;
+        case NBTConstants.TYPE_LONG:
+        case NBTConstants.TYPE_DOUBLE:
+            skipFully(8);
+            break;
+        case NBTConstants.TYPE_BYTE_ARRAY:
+            skipFully(is.readInt());
+            break;
+        case NBTConstants.TYPE_STRING:
+            skipFully(is.readShort() & 0xFFFF);
+            break;
+        case NBTConstants.TYPE_INT_ARRAY:
+            skipFully(is.readInt() * 4L);
+            break;
+        case NBTConstants.TYPE_LIST:
+            int childType = is.readByte() & 0xFF;
+            int length = is.readInt();
+            for (int i = 0; i < length; ++i) {
+                skipPayload(childType);
+            }
+            break;
+        case NBTConstants.TYPE_COMPOUND:
+            while (true) {
+                int childTypeId = is.readByte() & 0xFF;
+                if (childTypeId == NBTConstants.TYPE_END) {
+                    break;
+                }
+                skipFully(is.readShort() & 0xFFFF);
+                skipPayload(childTypeId);
+            }
+            break;
+        default:
+            throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            long skipped = is.skip(n);
+            if (skipped <= 0) {
+                if (is.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    public void close() throws IOException {
+        is.close();
+    }
+
+}
@@ -0,0 +1,286 @@
+// $Id$
+/*
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.sk89q.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * An output stream that writes gzip data, compressing blocks of input on
+ * several threads at once. Each block is deflated on its own and written as
+ * a separate gzip member, in order, so the result is a valid gzip stream
+ * made of concatenated members (RFC 1952, section 2.2).
+ *
+ * <p>Readers need to support concatenated members to read all of the data.
+ * The <code>GZIPInputStream</code> of Java 7 and later does, while the one
+ * of Java 6 stops after the first member without an error, so check
+ * {@link #isSupported()} before using this class for files that are read
+ * back by this runtime.</p>
+ */
+public class ParallelGZIPOutputStream extends OutputStream {
+
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final byte[] HEADER = {
+        0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff
+    };
+
+    private static Boolean supported;
+
+    private final OutputStream out;
+    private final int level;
+    private final int blockSize;
+    private final int maxInFlight;
+    private final ExecutorService executor;
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    private byte[] buffer;
+    private int count;
+    private boolean written;
+    private boolean closed;
+
+    /**
+     * Returns whether the <code>GZIPInputStream</code> of this runtime reads
+     * every member of a stream written by this class.
+     *
+     * @return
+     */
+    public static synchronized boolean isSupported() {
+        if (supported == null) {
+            byte[] first = compress(new byte[] { 1 }, 1, Deflater.DEFAULT_COMPRESSION);
+            byte[] second = compress(new byte[] { 2 }, 1, Deflater.DEFAULT_COMPRESSION);
+            byte[] both = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, both, first.length, second.length);
+
+            try {
+                InputStream in = new GZIPInputStream(new ByteArrayInputStream(both));
+                supported = in.read() == 1 && in.read() == 2 && in.read() == -1;
+                in.close();
+            } catch (IOException e) {
+                supported = false;
+            }
+        }
+        return supported;
+    }
+
+    /**
+     * Create a stream with the default block size.
+     *
+     * @param out
+     * @param level compression level for the deflater
+     * @param threads number of compressing threads
+     */
+    public ParallelGZIPOutputStream(OutputStream out, int level, int threads) {
+        this(out, level, threads, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a stream.
+     *
+     * @param out
+     * @param level compression level for the deflater
+     * @param threads number of compressing threads
+     * @param blockSize number of bytes compressed as one member
+     */
+    public ParallelGZIPOutputStream(OutputStream out, int level, int threads, int blockSize) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be at least 1");
+        }
+
+        // Fails early on a bad level instead of on a compressing thread
+        new Deflater(level, true).end();
+
+        this.out = out;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxInFlight = threads * 2;
+        this.buffer = new byte[blockSize];
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Parallel gzip compressor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        buffer[count++] = (byte) b;
+        if (count == blockSize) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        while (len > 0) {
+            int n = Math.min(len, blockSize - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == blockSize) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * Compresses and writes everything written so far. This ends the
+     * current member, so flushing often makes the output larger.
+     */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        if (count > 0) {
+            submitBlock();
+        }
+        while (!pending.isEmpty()) {
+            writeNext();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            // An empty gzip stream still needs one member
+            if (count > 0 || !written) {
+                submitBlock();
+            }
+            while (!pending.isEmpty()) {
+                writeNext();
+            }
+        } finally {
+            closed = true;
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] block = buffer;
+        final int length = count;
+        buffer = new byte[blockSize];
+        count = 0;
+        written = true;
+
+        pending.add(executor.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+                return compress(block, length, level);
+            }
+        }));
+
+        while (pending.size() >= maxInFlight) {
+            writeNext();
+        }
+    }
+
+    private void writeNext() throws IOException {
+        Future<byte[]> future = pending.removeFirst();
+        try {
+            out.write(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compress block", e.getCause());
+        }
+    }
+
+    /**
+     * Compress data into a complete gzip member.
+     *
+     * @param data
+     * @param length
+     * @param level
+     * @return the member
+     */
+    static byte[] compress(byte[] data, int length, int level) {
+        // Stored blocks cost 5 bytes per 16k, so this is almost always enough
+        byte[] member = new byte[HEADER.length + length + (length >> 10) + 64];
+        System.arraycopy(HEADER, 0, member, 0, HEADER.length);
+        int size = HEADER.length;
+
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (size == member.length - 8) {
+                    member = Arrays.copyOf(member, member.length * 2);
+                }
+                size += deflater.deflate(member, size, member.length - 8 - size);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        writeIntLE(member, size, (int) crc.getValue());
+        writeIntLE(member, size + 4, length);
+        size += 8;
+
+        return size == member.length ? member : Arrays.copyOf(member, size);
+    }
+
+    private static void writeIntLE(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >> 8);
+        b[off + 2] = (byte) (value >> 16);
+        b[off + 3] = (byte) (value >> 24);
+    }
+}
@@ -19,6 +19,12 @@
 
 package com.sk89q.worldedit;
 
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.patterns.Pattern;
 import com.sk89q.worldedit.regions.Region;
@@ -30,6 +36,16 @@
  * @author TomyLobo
  */
 public abstract class ArbitraryShape {
+    /**
+     * Number of blocks handed to {@link #getMaterials} at once.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * Number of batches that may be computed ahead of the placed blocks.
+     */
+    private static final int MAX_PENDING_BATCHES = 16;
+
     private final Region extent;
     private int cacheOffsetX;
     private int cacheOffsetY;
@@ -80,6 +96,24 @@ protected Region getExtent() {
      */
     protected abstract BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial);
 
+    /**
+     * Override this function to compute the materials of many blocks at once.
+     * It is used for solid shapes and calls {@link #getMaterial} for each
+     * block by default.
+     *
+     * @param count number of blocks
+     * @param x
+     * @param y
+     * @param z
+     * @param defaultMaterials The materials returned by the pattern for the blocks.
+     * @param materials receives the material to place for each block, or null to not place anything.
+     */
+    protected void getMaterials(int count, int[] x, int[] y, int[] z, BaseBlock[] defaultMaterials, BaseBlock[] materials) {
+        for (int i = 0; i < count; ++i) {
+            materials[i] = getMaterial(x[i], y[i], z[i], defaultMaterials[i]);
+        }
+    }
+
     private BaseBlock getMaterialCached(int x, int y, int z, Pattern pattern) {
         final int index = (y - cacheOffsetY) + (z - cacheOffsetZ) * cacheSizeY + (x - cacheOffsetX) * cacheSizeY * cacheSizeZ;
 
@@ -143,6 +177,27 @@ private boolean isInsideCached(int x, int y, int z, Pattern pattern) {
      * @throws MaxChangedBlocksException
      */
     public int generate(EditSession editSession, Pattern pattern, boolean hollow) throws MaxChangedBlocksException {
+        return generate(editSession, pattern, hollow, null);
+    }
+
+    /**
+     * Generates the shape. Solid shapes have their materials computed on the
+     * given executor, so {@link #getMaterials} may then run on several
+     * threads at once. Blocks are still placed by the calling thread and in
+     * the same order as without an executor.
+     *
+     * @param editSession
+     * @param pattern The pattern to generate default materials from.
+     * @param hollow Specifies whether to generate a hollow shape.
+     * @param executor The executor to compute materials on, or null.
+     * @return number of affected blocks.
+     * @throws MaxChangedBlocksException
+     */
+    public int generate(EditSession editSession, Pattern pattern, boolean hollow, ExecutorService executor) throws MaxChangedBlocksException {
+        if (!hollow) {
+            return generateSolid(editSession, pattern, executor);
+        }
+
         int affected = 0;
 
         for (BlockVector position : getExtent()) {
@@ -150,15 +205,6 @@ public int generate(EditSession editSession, Pattern pattern, boolean hollow) th
             int y = position.getBlockY();
             int z = position.getBlockZ();
 
-            if (!hollow) {
-                final BaseBlock material = getMaterial(x, y, z, pattern.next(position));
-                if (material != null && editSession.setBlock(position, material)) {
-                    ++affected;
-                }
-
-                continue;
-            }
-
             final BaseBlock material = getMaterialCached(x, y, z, pattern);
             if (material == null) {
                 continue;
@@ -205,4 +251,101 @@ public int generate(EditSession editSession, Pattern pattern, boolean hollow) th
 
         return affected;
     }
+
+    private int generateSolid(EditSession editSession, Pattern pattern, ExecutorService executor) throws MaxChangedBlocksException {
+        final LinkedList<Batch> pending = new LinkedList<Batch>();
+        Batch batch = new Batch();
+        int affected = 0;
+
+        try {
+            for (BlockVector position : getExtent()) {
+                batch.add(position, pattern.next(position));
+                if (batch.count < BATCH_SIZE) {
+                    continue;
+                }
+
+                if (executor == null) {
+                    batch.call();
+                    affected += batch.place(editSession);
+                    batch.count = 0;
+                    continue;
+                }
+
+                batch.future = executor.submit(batch);
+                pending.add(batch);
+                batch = new Batch();
+
+                if (pending.size() >= MAX_PENDING_BATCHES) {
+                    affected += pending.removeFirst().place(editSession);
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                affected += pending.removeFirst().place(editSession);
+            }
+
+            batch.call();
+            return affected + batch.place(editSession);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return affected;
+        } finally {
+            for (Batch unplaced : pending) {
+                unplaced.future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * A run of blocks whose materials are computed together.
+     */
+    private final class Batch implements Callable<Batch> {
+        private final BlockVector[] positions = new BlockVector[BATCH_SIZE];
+        private final int[] x = new int[BATCH_SIZE];
+        private final int[] y = new int[BATCH_SIZE];
+        private final int[] z = new int[BATCH_SIZE];
+        private final BaseBlock[] defaultMaterials = new BaseBlock[BATCH_SIZE];
+        private final BaseBlock[] materials = new BaseBlock[BATCH_SIZE];
+        private int count;
+        private Future<Batch> future;
+
+        private void add(BlockVector position, BaseBlock defaultMaterial) {
+            positions[count] = position;
+            x[count] = position.getBlockX();
+            y[count] = position.getBlockY();
+            z[count] = position.getBlockZ();
+            defaultMaterials[count] = defaultMaterial;
+            ++count;
+        }
+
+        @Override
+        public Batch call() {
+            if (count > 0) {
+                getMaterials(count, x, y, z, defaultMaterials, materials);
+            }
+            return this;
+        }
+
+        private int place(EditSession editSession) throws MaxChangedBlocksException, InterruptedException {
+            if (future != null) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw (RuntimeException) cause;
+                }
+            }
+
+            int affected = 0;
+            for (int i = 0; i < count; ++i) {
+                if (materials[i] != null && editSession.setBlock(positions[i], materials[i])) {
+                    ++affected;
+                }
+            }
+            return affected;
+        }
+    }
 }
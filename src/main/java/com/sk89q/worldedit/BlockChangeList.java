@@ -0,0 +1,573 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.ChestBlock;
+import com.sk89q.worldedit.blocks.DispenserBlock;
+import com.sk89q.worldedit.blocks.FurnaceBlock;
+import com.sk89q.worldedit.blocks.MobSpawnerBlock;
+import com.sk89q.worldedit.blocks.NoteBlock;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.blocks.SkullBlock;
+import com.sk89q.worldedit.data.DataException;
+
+/**
+ * A list of block changes stored in growable primitive arrays. Positions
+ * are packed into a single long and type/data into a single int, so a
+ * change costs 12 bytes instead of a BlockVector and a BaseBlock. Blocks
+ * that carry extra data (signs, chests, etc.) are kept as-is in a side map.
+ */
+public class BlockChangeList implements Iterable<Map.Entry<BlockVector, BaseBlock>> {
+    /**
+     * Smallest and largest storable X/Z coordinate (26 bits).
+     */
+    public static final int MIN_XZ = -(1 << 25);
+    public static final int MAX_XZ = (1 << 25) - 1;
+
+    /**
+     * Smallest and largest storable Y coordinate (12 bits).
+     */
+    public static final int MIN_Y = -(1 << 11);
+    public static final int MAX_Y = (1 << 11) - 1;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Rough heap cost of a block kept in the side map.
+     */
+    private static final int TILE_ENTITY_COST = 256;
+
+    /**
+     * Version of the format used by {@link #write(DataOutputStream)}.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Largest number of changes allocated up front by
+     * {@link #read(DataInputStream)}.
+     */
+    private static final int MAX_READ_CAPACITY = 1 << 16;
+
+    /**
+     * Largest compressed extra data of a block accepted by
+     * {@link #read(DataInputStream)}.
+     */
+    private static final int MAX_TILE_ENTITY_LENGTH = 1 << 24;
+
+    /**
+     * Packed positions.
+     */
+    private long[] positions;
+    /**
+     * Packed type and data values.
+     */
+    private int[] blocks;
+    /**
+     * Number of stored changes.
+     */
+    private int size = 0;
+    /**
+     * Blocks with extra data, keyed by index. Created when first needed.
+     */
+    private Map<Integer, BaseBlock> tileEntities;
+    /**
+     * Is reversed when iterating.
+     */
+    private boolean isReversed = false;
+
+    /**
+     * Construct the object.
+     *
+     * @param isReversed
+     */
+    public BlockChangeList(boolean isReversed) {
+        this(isReversed, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Construct the object with an initial capacity.
+     *
+     * @param isReversed
+     * @param capacity
+     */
+    public BlockChangeList(boolean isReversed, int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must be >= 0");
+        }
+
+        this.isReversed = isReversed;
+        positions = new long[capacity];
+        blocks = new int[capacity];
+    }
+
+    /**
+     * Add an item.
+     *
+     * @param pt
+     * @param block
+     */
+    public void put(Vector pt, BaseBlock block) {
+        put(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ(), block);
+    }
+
+    /**
+     * Add an item.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param block
+     */
+    public void put(int x, int y, int z, BaseBlock block) {
+        put(x, y, z, block.getType(), block.getData());
+
+        if (block.getClass() != BaseBlock.class || block.hasNbtData()) {
+            if (tileEntities == null) {
+                tileEntities = new HashMap<Integer, BaseBlock>();
+            }
+            tileEntities.put(size - 1, block);
+        }
+    }
+
+    /**
+     * Add an item without any extra block data.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     */
+    public void put(int x, int y, int z, int type, int data) {
+        if (!canStore(x, y, z)) {
+            throw new IllegalArgumentException("Position out of range: " + x + ", " + y + ", " + z);
+        }
+        if (type < 0 || type > 0xFFFF) {
+            throw new IllegalArgumentException("Block type out of range: " + type);
+        }
+
+        ensureCapacity(size + 1);
+        positions[size] = pack(x, y, z);
+        blocks[size] = (type << 16) | (data & 0xFFFF);
+        ++size;
+    }
+
+    /**
+     * Returns whether a position can be stored in this list.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public static boolean canStore(int x, int y, int z) {
+        return x >= MIN_XZ && x <= MAX_XZ
+                && z >= MIN_XZ && z <= MAX_XZ
+                && y >= MIN_Y && y <= MAX_Y;
+    }
+
+    /**
+     * Get size.
+     *
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Clear the list.
+     */
+    public void clear() {
+        size = 0;
+        tileEntities = null;
+        if (positions.length > DEFAULT_CAPACITY) {
+            positions = new long[DEFAULT_CAPACITY];
+            blocks = new int[DEFAULT_CAPACITY];
+        }
+    }
+
+    /**
+     * Shrink the backing arrays to the number of stored changes.
+     */
+    public void trimToSize() {
+        if (positions.length != size) {
+            positions = Arrays.copyOf(positions, size);
+            blocks = Arrays.copyOf(blocks, size);
+        }
+    }
+
+    /**
+     * Get the X coordinate of a change.
+     *
+     * @param index
+     * @return
+     */
+    public int getX(int index) {
+        checkIndex(index);
+        return (int) (positions[index] >> 38);
+    }
+
+    /**
+     * Get the Y coordinate of a change.
+     *
+     * @param index
+     * @return
+     */
+    public int getY(int index) {
+        checkIndex(index);
+        return (int) (positions[index] << 52 >> 52);
+    }
+
+    /**
+     * Get the Z coordinate of a change.
+     *
+     * @param index
+     * @return
+     */
+    public int getZ(int index) {
+        checkIndex(index);
+        return (int) (positions[index] << 26 >> 38);
+    }
+
+    /**
+     * Get the block type of a change.
+     *
+     * @param index
+     * @return
+     */
+    public int getType(int index) {
+        checkIndex(index);
+        return blocks[index] >>> 16;
+    }
+
+    /**
+     * Get the block data of a change.
+     *
+     * @param index
+     * @return
+     */
+    public int getData(int index) {
+        checkIndex(index);
+        return (short) blocks[index];
+    }
+
+    /**
+     * Get the position of a change.
+     *
+     * @param index
+     * @return
+     */
+    public BlockVector getPosition(int index) {
+        return new BlockVector(getX(index), getY(index), getZ(index));
+    }
+
+    /**
+     * Get the block of a change. Blocks without extra data are created
+     * on demand, so the returned object may be freely modified.
+     *
+     * @param index
+     * @return
+     */
+    public BaseBlock getBlock(int index) {
+        if (tileEntities != null) {
+            BaseBlock block = tileEntities.get(index);
+            if (block != null) {
+                return block;
+            }
+        }
+
+        return new BaseBlock(getType(index), getData(index));
+    }
+
+    /**
+     * Get an estimate of the heap used by this list, in bytes.
+     *
+     * @return
+     */
+    public long getMemoryUsage() {
+        long usage = positions.length * 8L + blocks.length * 4L;
+        if (tileEntities != null) {
+            usage += tileEntities.size() * (long) TILE_ENTITY_COST;
+        }
+        return usage;
+    }
+
+    /**
+     * Get an entry set.
+     *
+     * @return
+     */
+    public Iterator<Map.Entry<BlockVector, BaseBlock>> iterator() {
+        return new EntryIterator();
+    }
+
+    /**
+     * Write this list to a stream. Extra block data is stored as NBT.
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeByte(FORMAT_VERSION);
+        out.writeBoolean(isReversed);
+        out.writeInt(size);
+
+        // Neighbouring changes are usually close together, so deltas
+        // compress far better than the packed positions themselves
+        long last = 0;
+        for (int i = 0; i < size; ++i) {
+            out.writeLong(positions[i] - last);
+            last = positions[i];
+        }
+        for (int i = 0; i < size; ++i) {
+            out.writeInt(blocks[i]);
+        }
+
+        if (tileEntities == null) {
+            out.writeInt(0);
+            return;
+        }
+
+        out.writeInt(tileEntities.size());
+        for (Map.Entry<Integer, BaseBlock> entry : tileEntities.entrySet()) {
+            BaseBlock block = entry.getValue();
+            out.writeInt(entry.getKey());
+
+            CompoundTag tag = block.getNbtData();
+            if (tag == null) {
+                out.writeInt(0);
+                continue;
+            }
+
+            Map<String, Tag> values = new HashMap<String, Tag>(tag.getValue());
+            values.put("id", new StringTag("id", block.getNbtId()));
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            NBTOutputStream nbtStream = new NBTOutputStream(bytes);
+            nbtStream.writeTag(new CompoundTag(tag.getName(), values));
+            nbtStream.close();
+
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    /**
+     * Read a list previously written with {@link #write(DataOutputStream)}.
+     *
+     * @param in
+     * @return
+     * @throws IOException
+     */
+    public static BlockChangeList read(DataInputStream in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported change list version " + version);
+        }
+
+        boolean isReversed = in.readBoolean();
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid change list size " + size);
+        }
+
+        // A damaged size can't be trusted to allocate, so the arrays only
+        // grow as changes are actually read
+        BlockChangeList list = new BlockChangeList(isReversed, Math.min(size, MAX_READ_CAPACITY));
+        long last = 0;
+        for (int i = 0; i < size; ++i) {
+            list.ensureCapacity(i + 1);
+            last += in.readLong();
+            list.positions[i] = last;
+        }
+        for (int i = 0; i < size; ++i) {
+            list.blocks[i] = in.readInt();
+        }
+        list.size = size;
+
+        int tileEntityCount = in.readInt();
+        if (tileEntityCount < 0 || tileEntityCount > size) {
+            throw new IOException("Invalid tile entity count " + tileEntityCount);
+        }
+        for (int i = 0; i < tileEntityCount; ++i) {
+            int index = in.readInt();
+            if (index < 0 || index >= size) {
+                throw new IOException("Invalid tile entity index " + index);
+            }
+            BaseBlock block = createBlock(list.getType(index), list.getData(index));
+
+            int length = in.readInt();
+            if (length < 0 || length > MAX_TILE_ENTITY_LENGTH) {
+                throw new IOException("Invalid tile entity length " + length);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            if (bytes.length > 0) {
+                NBTInputStream nbtStream = new NBTInputStream(
+                        new GZIPInputStream(new ByteArrayInputStream(bytes)));
+                try {
+                    Tag tag = nbtStream.readTag();
+                    if (!(tag instanceof CompoundTag)) {
+                        throw new IOException("Invalid block data");
+                    }
+                    block.setNbtData((CompoundTag) tag);
+                } catch (DataException e) {
+                    throw new IOException("Invalid block data: " + e.getMessage());
+                } finally {
+                    nbtStream.close();
+                }
+            }
+
+            if (list.tileEntities == null) {
+                list.tileEntities = new HashMap<Integer, BaseBlock>();
+            }
+            list.tileEntities.put(index, block);
+        }
+
+        return list;
+    }
+
+    /**
+     * Create an empty block of the right class to receive its extra data.
+     *
+     * @param type
+     * @param data
+     * @return
+     */
+    private static BaseBlock createBlock(int type, int data) {
+        switch (type) {
+        case BlockID.WALL_SIGN:
+        case BlockID.SIGN_POST:
+            return new SignBlock(type, data);
+
+        case BlockID.CHEST:
+            return new ChestBlock(data);
+
+        case BlockID.FURNACE:
+        case BlockID.BURNING_FURNACE:
+            return new FurnaceBlock(type, data);
+
+        case BlockID.DISPENSER:
+            return new DispenserBlock(data);
+
+        case BlockID.MOB_SPAWNER:
+            return new MobSpawnerBlock(data);
+
+        case BlockID.NOTE_BLOCK:
+            return new NoteBlock(data);
+
+        case BlockID.HEAD:
+            return new SkullBlock(data);
+
+        default:
+            return new BaseBlock(type, data);
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > positions.length) {
+            int newCapacity = Math.max(capacity, positions.length + (positions.length >> 1) + 1);
+            positions = Arrays.copyOf(positions, newCapacity);
+            blocks = Arrays.copyOf(blocks, newCapacity);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38)
+                | ((long) (z & 0x3FFFFFF) << 12)
+                | (y & 0xFFF);
+    }
+
+    /**
+     * Entry iterator, honoring the reversed flag.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<BlockVector, BaseBlock>> {
+        private int next = isReversed ? size - 1 : 0;
+
+        public boolean hasNext() {
+            return isReversed ? next >= 0 : next < size;
+        }
+
+        public Map.Entry<BlockVector, BaseBlock> next() throws NoSuchElementException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final int index = next;
+            next += isReversed ? -1 : 1;
+            return new Entry(getPosition(index), getBlock(index));
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Class to masquerade as Map.Entry.
+     */
+    private static class Entry implements Map.Entry<BlockVector, BaseBlock> {
+        private final BlockVector key;
+        private final BaseBlock value;
+
+        private Entry(BlockVector key, BaseBlock value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        public BlockVector getKey() {
+            return key;
+        }
+
+        public BaseBlock getValue() {
+            return value;
+        }
+
+        public BaseBlock setValue(BaseBlock value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+
+/**
+ * Supplies the blocks to place for a bulk edit, see
+ * {@link EditSession#setCuboidBlocks(Vector, Vector, BulkBlockSource)}.
+ */
+public interface BulkBlockSource {
+    /**
+     * Get the block to place at a position.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param existingType the type currently at the position
+     * @param existingData the data value currently at the position
+     * @return the block to place, or null to leave the position alone
+     */
+    public BaseBlock getBlock(int x, int y, int z, int existingType, int existingData);
+}
@@ -0,0 +1,40 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+
+/**
+ * Receives the blocks of a cuboid read in bulk, see
+ * {@link EditSession#getCuboidBlocks(Vector, Vector, BulkBlockVisitor)}.
+ */
+public interface BulkBlockVisitor {
+    /**
+     * Called for every block in the cuboid.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param type
+     * @param data
+     * @param tileEntity the full block for blocks with tile entity data, otherwise null
+     */
+    public void visit(int x, int y, int z, int type, int data, BaseBlock tileEntity);
+}
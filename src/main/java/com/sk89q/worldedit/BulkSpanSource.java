@@ -0,0 +1,50 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.sk89q.worldedit;
+
+/**
+ * A {@link BulkBlockSource} that can also supply a whole row of plain
+ * blocks at once, see
+ * {@link EditSession#setCuboidBlocks(Vector, Vector, BulkBlockSource)}.
+ */
+public interface BulkSpanSource extends BulkBlockSource {
+    /**
+     * Get the blocks to place along a row of positions, from x to
+     * x + length - 1 at the given y and z. A type of -1 leaves the position
+     * alone.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param length
+     * @param existingTypes the types currently at the positions
+     * @param existingData the data values currently at the positions
+     * @param existingOffset index of the first position in the existing arrays
+     * @param types array to write types to, starting at 0
+     * @param data array to write data values to, starting at 0
+     * @return false if the row has blocks that need more than a type and
+     *         data value, in which case {@link #getBlock(int, int, int, int, int)}
+     *         is used for the row instead
+     */
+    public boolean getSpan(int x, int y, int z, int length,
+            int[] existingTypes, int[] existingData, int existingOffset,
+            int[] types, int[] data);
+}
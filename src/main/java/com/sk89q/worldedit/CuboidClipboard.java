@@ -23,12 +23,14 @@
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockData;
 import com.sk89q.worldedit.data.DataException;
 import com.sk89q.worldedit.schematic.SchematicFormat;
 
@@ -47,11 +49,38 @@ public enum FlipDirection {
         UP_DOWN
     }
 
-    private BaseBlock[][][] data;
+    /**
+     * Rough heap cost of a block kept in {@link #tileEntities}.
+     */
+    private static final int TILE_ENTITY_COST = 256;
+
+    /**
+     * Block types, indexed by {@link #getIndex(int, int, int)}.
+     */
+    private short[] ids;
+    /**
+     * Block data values, indexed like {@link #ids}.
+     */
+    private byte[] data;
+    /**
+     * Blocks that can't be stored as just a type and data value, keyed by
+     * index. Created when first needed.
+     */
+    private Map<Integer, BaseBlock> tileEntities;
+    /**
+     * Indexes that have an entry in {@link #tileEntities}, so that other
+     * blocks don't need a map lookup.
+     */
+    private BitSet tileEntityIndexes;
     private Vector offset;
     private Vector origin;
     private Vector size;
     private List<CopiedEntity> entities = new ArrayList<CopiedEntity>();
+    /**
+     * Whether the storage may be used by another clipboard made with
+     * {@link #copy()}, so it must be copied before it is changed.
+     */
+    private boolean shared;
 
     /**
      * Constructs the clipboard.
@@ -60,7 +89,7 @@ public enum FlipDirection {
      */
     public CuboidClipboard(Vector size) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        allocate();
         origin = new Vector();
         offset = new Vector();
     }
@@ -73,7 +102,7 @@ public CuboidClipboard(Vector size) {
      */
     public CuboidClipboard(Vector size, Vector origin) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        allocate();
         this.origin = origin;
         offset = new Vector();
     }
@@ -87,11 +116,140 @@ public CuboidClipboard(Vector size, Vector origin) {
      */
     public CuboidClipboard(Vector size, Vector origin, Vector offset) {
         this.size = size;
-        data = new BaseBlock[size.getBlockX()][size.getBlockY()][size.getBlockZ()];
+        allocate();
         this.origin = origin;
         this.offset = offset;
     }
 
+    /**
+     * Constructs a clipboard that shares the storage of another one until
+     * either of them is changed.
+     *
+     * @param other
+     */
+    private CuboidClipboard(CuboidClipboard other) {
+        size = other.size;
+        origin = other.origin;
+        offset = other.offset;
+        ids = other.ids;
+        data = other.data;
+        tileEntities = other.tileEntities;
+        tileEntityIndexes = other.tileEntityIndexes;
+        entities.addAll(other.entities);
+        shared = true;
+        other.shared = true;
+    }
+
+    /**
+     * Allocate empty storage for the current size.
+     */
+    private void allocate() {
+        int volume = size.getBlockX() * size.getBlockY() * size.getBlockZ();
+        ids = new short[volume];
+        data = new byte[volume];
+        tileEntities = null;
+        tileEntityIndexes = null;
+        shared = false;
+    }
+
+    /**
+     * Give this clipboard storage of its own if it may still be shared
+     * with a copy. Called before anything changes the storage.
+     */
+    private void unshare() {
+        if (!shared) {
+            return;
+        }
+
+        ids = ids.clone();
+        data = data.clone();
+        if (tileEntities != null) {
+            // Rotating and flipping change these blocks in place
+            Map<Integer, BaseBlock> copied = new HashMap<Integer, BaseBlock>();
+            for (Map.Entry<Integer, BaseBlock> entry : tileEntities.entrySet()) {
+                copied.put(entry.getKey(), entry.getValue().copy());
+            }
+            tileEntities = copied;
+            tileEntityIndexes = (BitSet) tileEntityIndexes.clone();
+        }
+        shared = false;
+    }
+
+    /**
+     * Get the index of a point in the storage arrays. The order is the same
+     * as the one used by .schematic files.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    private int getIndex(int x, int y, int z) throws ArrayIndexOutOfBoundsException {
+        int width = size.getBlockX();
+        int height = size.getBlockY();
+        int length = size.getBlockZ();
+
+        if (x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= length) {
+            throw new ArrayIndexOutOfBoundsException("(" + x + ", " + y + ", " + z + ") is outside of the clipboard");
+        }
+
+        return (y * length + z) * width + x;
+    }
+
+    /**
+     * Get the block at an index.
+     *
+     * @param index
+     * @return
+     */
+    private BaseBlock getBlock(int index) {
+        if (hasTileEntity(index)) {
+            return tileEntities.get(index);
+        }
+
+        return new BaseBlock(ids[index] & 0xFFFF, data[index] & 0xFF);
+    }
+
+    /**
+     * Returns whether the block at an index is kept in the tile entity map.
+     *
+     * @param index
+     * @return
+     */
+    private boolean hasTileEntity(int index) {
+        return tileEntityIndexes != null && tileEntityIndexes.get(index);
+    }
+
+    /**
+     * Set the block at an index. Blocks with extra data, or with a type or
+     * data value that doesn't fit the arrays, are kept as they are.
+     *
+     * @param index
+     * @param block
+     */
+    private void setBlock(int index, BaseBlock block) {
+        unshare();
+        int type = block.getType();
+        int blockData = block.getData();
+
+        if (block.getClass() != BaseBlock.class || block.hasNbtData()
+                || type > 0xFFFF || blockData < 0 || blockData > 0xFF) {
+            if (tileEntities == null) {
+                tileEntities = new HashMap<Integer, BaseBlock>();
+                tileEntityIndexes = new BitSet(ids.length);
+            }
+            tileEntities.put(index, block);
+            tileEntityIndexes.set(index);
+        } else if (hasTileEntity(index)) {
+            tileEntities.remove(index);
+            tileEntityIndexes.clear(index);
+        }
+
+        ids[index] = (short) type;
+        data[index] = (byte) blockData;
+    }
+
     /**
      * Get the width (X-direction) of the clipboard.
      *
@@ -129,6 +287,7 @@ public void rotate2D(int angle) {
         if (angle % 90 != 0) { // Can only rotate 90 degrees at the moment
             return;
         }
+        unshare();
         boolean reverse = angle < 0;
         int numRotations = Math.abs((int) Math.floor(angle / 90.0));
 
@@ -139,19 +298,42 @@ public void rotate2D(int angle) {
         int shiftX = sizeRotated.getX() < 0 ? -sizeRotated.getBlockX() - 1 : 0;
         int shiftZ = sizeRotated.getZ() < 0 ? -sizeRotated.getBlockZ() - 1 : 0;
 
-        BaseBlock newData[][][] = new BaseBlock
-                [Math.abs(sizeRotated.getBlockX())]
-                [Math.abs(sizeRotated.getBlockY())]
-                [Math.abs(sizeRotated.getBlockZ())];
+        Vector newSize = new Vector(Math.abs(sizeRotated.getBlockX()),
+                                    Math.abs(sizeRotated.getBlockY()),
+                                    Math.abs(sizeRotated.getBlockZ()));
+        int newWidth = newSize.getBlockX();
+        short[] newIds = new short[ids.length];
+        byte[] newData = new byte[data.length];
+        Map<Integer, BaseBlock> newTileEntities = null;
+        BitSet newTileEntityIndexes = null;
+        if (tileEntities != null) {
+            newTileEntities = new HashMap<Integer, BaseBlock>();
+            newTileEntityIndexes = new BitSet(ids.length);
+        }
 
-        for (int x = 0; x < width; ++x) {
-            for (int z = 0; z < length; ++z) {
+        // Columns map to the same column on every layer, so work out where
+        // each one ends up once and then walk the arrays layer by layer
+        int area = width * length;
+        int[] columns = new int[area];
+        for (int z = 0; z < length; ++z) {
+            for (int x = 0; x < width; ++x) {
                 Vector v = (new Vector(x, 0, z)).transform2D(angle, 0, 0, 0, 0);
-                int newX = v.getBlockX();
-                int newZ = v.getBlockZ();
-                for (int y = 0; y < height; ++y) {
-                    BaseBlock block = data[x][y][z];
-                    newData[shiftX + newX][y][shiftZ + newZ] = block;
+                columns[z * width + x] = (shiftZ + v.getBlockZ()) * newWidth + shiftX + v.getBlockX();
+            }
+        }
+
+        for (int y = 0; y < height; ++y) {
+            int layer = y * area;
+            for (int column = 0; column < area; ++column) {
+                int index = layer + column;
+                int newIndex = layer + columns[column];
+                int type = ids[index] & 0xFFFF;
+                int blockData = data[index] & 0xFF;
+
+                if (hasTileEntity(index)) {
+                    BaseBlock block = tileEntities.get(index);
+                    newTileEntities.put(newIndex, block);
+                    newTileEntityIndexes.set(newIndex);
 
                     if (reverse) {
                         for (int i = 0; i < numRotations; ++i) {
@@ -162,14 +344,27 @@ public void rotate2D(int angle) {
                             block.rotate90();
                         }
                     }
+                    blockData = block.getData();
+                } else if (reverse) {
+                    for (int i = 0; i < numRotations; ++i) {
+                        blockData = BlockData.rotate90Reverse(type, blockData);
+                    }
+                } else {
+                    for (int i = 0; i < numRotations; ++i) {
+                        blockData = BlockData.rotate90(type, blockData);
+                    }
                 }
+
+                newIds[newIndex] = (short) type;
+                newData[newIndex] = (byte) blockData;
             }
         }
 
+        ids = newIds;
         data = newData;
-        size = new Vector(Math.abs(sizeRotated.getBlockX()),
-                          Math.abs(sizeRotated.getBlockY()),
-                          Math.abs(sizeRotated.getBlockZ()));
+        tileEntities = newTileEntities;
+        tileEntityIndexes = newTileEntityIndexes;
+        size = newSize;
         offset = offset.transform2D(angle, 0, 0, 0, 0)
                 .subtract(shiftX, 0, shiftZ);
     }
@@ -190,6 +385,7 @@ public void flip(FlipDirection dir) {
      * @param aroundPlayer flip the offset around the player
      */
     public void flip(FlipDirection dir, boolean aroundPlayer) {
+        unshare();
         final int width = getWidth();
         final int length = getLength();
         final int height = getHeight();
@@ -200,10 +396,7 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
             for (int xs = 0; xs < wid; ++xs) {
                 for (int z = 0; z < length; ++z) {
                     for (int y = 0; y < height; ++y) {
-                        BaseBlock old = data[xs][y][z].flip(dir);
-                        if (xs == width - xs - 1) continue;
-                        data[xs][y][z] = data[width - xs - 1][y][z].flip(dir);
-                        data[width - xs - 1][y][z] = old;
+                        flipAndSwap(getIndex(xs, y, z), getIndex(width - xs - 1, y, z), dir);
                     }
                 }
             }
@@ -219,10 +412,7 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
             for (int zs = 0; zs < len; ++zs) {
                 for (int x = 0; x < width; ++x) {
                     for (int y = 0; y < height; ++y) {
-                        BaseBlock old = data[x][y][zs].flip(dir);
-                        if (zs == length - zs - 1) continue;
-                        data[x][y][zs] = data[x][y][length - zs - 1].flip(dir);
-                        data[x][y][length - zs - 1] = old;
+                        flipAndSwap(getIndex(x, y, zs), getIndex(x, y, length - zs - 1), dir);
                     }
                 }
             }
@@ -238,10 +428,7 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
             for (int ys = 0; ys < hei; ++ys) {
                 for (int x = 0; x < width; ++x) {
                     for (int z = 0; z < length; ++z) {
-                        BaseBlock old = data[x][ys][z].flip(dir);
-                        if (ys == height - ys - 1) continue;
-                        data[x][ys][z] = data[x][height - ys - 1][z].flip(dir);
-                        data[x][height - ys - 1][z] = old;
+                        flipAndSwap(getIndex(x, ys, z), getIndex(x, height - ys - 1, z), dir);
                     }
                 }
             }
@@ -254,20 +441,82 @@ public void flip(FlipDirection dir, boolean aroundPlayer) {
         }
     }
 
+    /**
+     * Flip the blocks at two indexes and swap them.
+     *
+     * @param a
+     * @param b
+     * @param dir
+     */
+    private void flipAndSwap(int a, int b, FlipDirection dir) {
+        flip(a, dir);
+        if (a == b) {
+            return;
+        }
+        flip(b, dir);
+
+        short id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+
+        byte blockData = data[a];
+        data[a] = data[b];
+        data[b] = blockData;
+
+        boolean hasA = hasTileEntity(a);
+        boolean hasB = hasTileEntity(b);
+        if (hasA || hasB) {
+            BaseBlock blockA = tileEntities.remove(a);
+            BaseBlock blockB = tileEntities.remove(b);
+            if (hasB) {
+                tileEntities.put(a, blockB);
+            }
+            if (hasA) {
+                tileEntities.put(b, blockA);
+            }
+            tileEntityIndexes.set(a, hasB);
+            tileEntityIndexes.set(b, hasA);
+        }
+    }
+
+    /**
+     * Flip the block at an index in place.
+     *
+     * @param index
+     * @param dir
+     */
+    private void flip(int index, FlipDirection dir) {
+        if (hasTileEntity(index)) {
+            data[index] = (byte) tileEntities.get(index).flip(dir).getData();
+        } else {
+            data[index] = (byte) BlockData.flip(ids[index] & 0xFFFF, data[index] & 0xFF, dir);
+        }
+    }
+
     /**
      * Copy to the clipboard.
      *
      * @param editSession
      */
     public void copy(EditSession editSession) {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
-                    data[x][y][z] =
-                            editSession.getBlock(new Vector(x, y, z).add(getOrigin()));
+        unshare();
+        final int originX = origin.getBlockX();
+        final int originY = origin.getBlockY();
+        final int originZ = origin.getBlockZ();
+
+        editSession.getCuboidBlocks(origin, origin.add(size).subtract(1, 1, 1), new BulkBlockVisitor() {
+            public void visit(int x, int y, int z, int type, int blockData, BaseBlock tileEntity) {
+                int index = getIndex(x - originX, y - originY, z - originZ);
+                if (tileEntity != null) {
+                    setBlock(index, tileEntity);
+                } else if (type <= 0xFFFF && blockData >= 0 && blockData <= 0xFF) {
+                    ids[index] = (short) type;
+                    data[index] = (byte) blockData;
+                } else {
+                    setBlock(index, new BaseBlock(type, blockData));
                 }
             }
-        }
+        });
     }
 
     public void paste(EditSession editSession, Vector newOrigin, boolean noAir)
@@ -299,18 +548,37 @@ public void paste(EditSession editSession, Vector newOrigin, boolean noAir, bool
      * @param noAir
      * @throws MaxChangedBlocksException
      */
-    public void place(EditSession editSession, Vector pos, boolean noAir) throws MaxChangedBlocksException {
-        for (int x = 0; x < size.getBlockX(); ++x) {
-            for (int y = 0; y < size.getBlockY(); ++y) {
-                for (int z = 0; z < size.getBlockZ(); ++z) {
-                    if (noAir && data[x][y][z].isAir()) {
-                        continue;
-                    }
+    public void place(EditSession editSession, Vector pos, final boolean noAir) throws MaxChangedBlocksException {
+        final int posX = pos.getBlockX();
+        final int posY = pos.getBlockY();
+        final int posZ = pos.getBlockZ();
+
+        editSession.setCuboidBlocks(pos, pos.add(size).subtract(1, 1, 1), new BulkBlockSource() {
+            // The edit session only reads the blocks it is given, so plain
+            // blocks of the same type and data can share one instance
+            private final BaseBlock[] cache = new BaseBlock[4096 * 16];
 
-                    editSession.setBlock(new Vector(x, y, z).add(pos), data[x][y][z]);
+            public BaseBlock getBlock(int x, int y, int z, int existingType, int existingData) {
+                int index = getIndex(x - posX, y - posY, z - posZ);
+                int type = ids[index] & 0xFFFF;
+                if (noAir && type == 0) {
+                    return null;
                 }
+
+                int blockData = data[index];
+                if (type >= 4096 || blockData < 0 || blockData >= 16 || hasTileEntity(index)) {
+                    return CuboidClipboard.this.getBlock(index);
+                }
+
+                int key = (type << 4) | blockData;
+                BaseBlock block = cache[key];
+                if (block == null) {
+                    block = new BaseBlock(type, blockData);
+                    cache[key] = block;
+                }
+                return block;
             }
-        }
+        });
     }
 
     public LocalEntity[] pasteEntities(Vector pos) {
@@ -328,16 +596,117 @@ public void storeEntity(LocalEntity entity) {
         this.entities.add(new CopiedEntity(entity));
     }
 
+    /**
+     * Create a copy of the clipboard that does not change when this one is
+     * changed. Both clipboards share their storage until either of them is
+     * changed, which copies it. Entities are shared with this clipboard.
+     *
+     * @return the copy
+     */
+    public CuboidClipboard copy() {
+        return new CuboidClipboard(this);
+    }
+
+    /**
+     * Create a copy of the clipboard that has storage of its own right
+     * away, including copies of the blocks with extra data. Unlike
+     * {@link #copy()}, it can be read by another thread while this
+     * clipboard is changed. Entities are shared with this clipboard.
+     *
+     * @return the copy
+     */
+    public CuboidClipboard snapshot() {
+        boolean wasShared = shared;
+        CuboidClipboard copy = new CuboidClipboard(this);
+        copy.unshare();
+        shared = wasShared;
+        return copy;
+    }
+
     /**
      * Get one point in the copy. The point is relative to the origin
-     * of the copy (0, 0, 0) and not to the actual copy origin.
+     * of the copy (0, 0, 0) and not to the actual copy origin. Blocks
+     * without extra data are created on each call, so changing them does
+     * not change the clipboard; use {@link #setBlock(Vector, BaseBlock)}.
      *
      * @param pos
      * @return null
      * @throws ArrayIndexOutOfBoundsException
      */
     public BaseBlock getPoint(Vector pos) throws ArrayIndexOutOfBoundsException {
-        return data[pos.getBlockX()][pos.getBlockY()][pos.getBlockZ()];
+        return getBlock(getIndex(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ()));
+    }
+
+    /**
+     * Copy the types and data values of a row of blocks along the x axis.
+     * The row is relative to the origin of the copy, like
+     * {@link #getPoint(Vector)}.
+     *
+     * @param x first x
+     * @param y
+     * @param z
+     * @param length
+     * @param types array to write types to
+     * @param data array to write data values to
+     * @param offset index to write the first block to
+     * @return false if the row has blocks with extra data, which only
+     *         {@link #getPoint(Vector)} returns in full
+     * @throws ArrayIndexOutOfBoundsException
+     */
+    public boolean getRow(int x, int y, int z, int length, int[] types, int[] data, int offset)
+            throws ArrayIndexOutOfBoundsException {
+        if (length <= 0) {
+            return true;
+        }
+
+        final int start = getIndex(x, y, z);
+        getIndex(x + length - 1, y, z);
+
+        if (tileEntityIndexes != null) {
+            final int next = tileEntityIndexes.nextSetBit(start);
+            if (next >= 0 && next < start + length) {
+                return false;
+            }
+        }
+
+        for (int i = 0; i < length; ++i) {
+            types[offset + i] = ids[start + i] & 0xFFFF;
+            data[offset + i] = this.data[start + i] & 0xFF;
+        }
+
+        return true;
+    }
+
+    /**
+     * Set the types and data values of a row of blocks along the x axis.
+     * Blocks with extra data in the row are replaced. Types must fit in 16
+     * bits and data values in 8 bits.
+     *
+     * @param x first x
+     * @param y
+     * @param z
+     * @param length
+     * @param types
+     * @param data
+     * @param offset index of the first block in the arrays
+     * @throws ArrayIndexOutOfBoundsException
+     * @see #getRow(int, int, int, int, int[], int[], int)
+     */
+    public void setRow(int x, int y, int z, int length, int[] types, int[] data, int offset)
+            throws ArrayIndexOutOfBoundsException {
+        if (length <= 0) {
+            return;
+        }
+
+        final int start = getIndex(x, y, z);
+        getIndex(x + length - 1, y, z);
+
+        unshare();
+        clearTileEntities(start, start + length);
+        for (int i = 0; i < length; ++i) {
+            ids[start + i] = (short) types[offset + i];
+            this.data[start + i] = (byte) data[offset + i];
+        }
     }
 
     /**
@@ -349,7 +718,193 @@ public BaseBlock getPoint(Vector pos) throws ArrayIndexOutOfBoundsException {
      * @throws ArrayIndexOutOfBoundsException
      */
     public void setBlock(Vector pt, BaseBlock block) {
-        data[pt.getBlockX()][pt.getBlockY()][pt.getBlockZ()] = block;
+        setBlock(getIndex(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ()), block);
+    }
+
+    /**
+     * Get the number of blocks in the clipboard. Blocks are stored in the
+     * same order as in .schematic files, and the methods that read and
+     * write the storage in bulk take indexes in that order.
+     *
+     * @return
+     */
+    public int getVolume() {
+        return ids.length;
+    }
+
+    /**
+     * Set the low 8 bits of the types of a run of blocks, as stored in the
+     * Blocks array of a .schematic file. The high bits are kept.
+     *
+     * @param index index of the first block
+     * @param bytes
+     * @param offset index of the first byte
+     * @param length number of blocks
+     */
+    public void setTypeBytes(int index, byte[] bytes, int offset, int length) {
+        unshare();
+        clearTileEntities(index, index + length);
+        for (int i = 0; i < length; ++i) {
+            ids[index + i] = (short) ((ids[index + i] & 0xFF00) | (bytes[offset + i] & 0xFF));
+        }
+    }
+
+    /**
+     * Set bits 8 to 11 of the types of a run of blocks, as stored in the
+     * AddBlocks array of a .schematic file, where every byte holds the bits
+     * of two blocks. The low 8 bits are kept.
+     *
+     * @param index index of the first byte in the AddBlocks array
+     * @param bytes
+     * @param offset index of the first byte
+     * @param length number of bytes
+     */
+    public void setAddTypeBytes(int index, byte[] bytes, int offset, int length) {
+        unshare();
+        final int first = Math.min(index << 1, ids.length);
+        final int last = Math.min((index + length) << 1, ids.length);
+        clearTileEntities(first, last);
+        for (int block = first; block < last; ++block) {
+            final int b = bytes[offset + (block >> 1) - index];
+            final int bits = (block & 1) == 0 ? b & 0x0F : (b >> 4) & 0x0F;
+            ids[block] = (short) ((bits << 8) | (ids[block] & 0xFF));
+        }
+    }
+
+    /**
+     * Set the data values of a run of blocks, as stored in the Data array of
+     * a .schematic file.
+     *
+     * @param index index of the first block
+     * @param bytes
+     * @param offset index of the first byte
+     * @param length number of blocks
+     */
+    public void setDataBytes(int index, byte[] bytes, int offset, int length) {
+        unshare();
+        clearTileEntities(index, index + length);
+        System.arraycopy(bytes, offset, data, index, length);
+    }
+
+    /**
+     * Get the low 8 bits of the types of a run of blocks.
+     *
+     * @param index index of the first block
+     * @param bytes
+     * @param offset index of the first byte
+     * @param length number of blocks
+     * @see #setTypeBytes(int, byte[], int, int)
+     */
+    public void getTypeBytes(int index, byte[] bytes, int offset, int length) {
+        for (int i = 0; i < length; ++i) {
+            bytes[offset + i] = (byte) ids[index + i];
+        }
+    }
+
+    /**
+     * Get bits 8 to 11 of the types of a run of blocks, two blocks per byte.
+     * Bytes past the last block are 0.
+     *
+     * @param index index of the first byte in the AddBlocks array
+     * @param bytes
+     * @param offset index of the first byte
+     * @param length number of bytes
+     * @see #setAddTypeBytes(int, byte[], int, int)
+     */
+    public void getAddTypeBytes(int index, byte[] bytes, int offset, int length) {
+        for (int i = 0; i < length; ++i) {
+            final int block = (index + i) << 1;
+            int b = 0;
+            if (block < ids.length) {
+                b = (ids[block] >> 8) & 0x0F;
+            }
+            if (block + 1 < ids.length) {
+                b |= ((ids[block + 1] >> 8) & 0x0F) << 4;
+            }
+            bytes[offset + i] = (byte) b;
+        }
+    }
+
+    /**
+     * Get the data values of a run of blocks.
+     *
+     * @param index index of the first block
+     * @param bytes
+     * @param offset index of the first byte
+     * @param length number of blocks
+     * @see #setDataBytes(int, byte[], int, int)
+     */
+    public void getDataBytes(int index, byte[] bytes, int offset, int length) {
+        System.arraycopy(data, index, bytes, offset, length);
+    }
+
+    /**
+     * Returns whether any block has a type above 255, which needs an
+     * AddBlocks array in a .schematic file.
+     *
+     * @return
+     */
+    public boolean hasAddTypes() {
+        for (short id : ids) {
+            if ((id & 0xFF00) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get an estimate of the heap used by the blocks of this clipboard, in
+     * bytes. Storage shared with copies is counted in full.
+     *
+     * @return
+     */
+    public long getMemoryUsage() {
+        long usage = ids.length * 2L + data.length;
+        if (tileEntities != null) {
+            usage += tileEntities.size() * (long) TILE_ENTITY_COST + tileEntityIndexes.size() / 8;
+        }
+        return usage;
+    }
+
+    /**
+     * Get the positions of the blocks that are kept with extra data, such
+     * as tile entities, in storage order. The positions are relative to the
+     * origin of the copy, like {@link #getPoint(Vector)}.
+     *
+     * @return
+     */
+    public List<BlockVector> getTileEntityPositions() {
+        List<BlockVector> positions = new ArrayList<BlockVector>();
+        if (tileEntityIndexes == null) {
+            return positions;
+        }
+
+        int width = size.getBlockX();
+        int length = size.getBlockZ();
+        for (int index = tileEntityIndexes.nextSetBit(0); index >= 0; index = tileEntityIndexes.nextSetBit(index + 1)) {
+            positions.add(new BlockVector(index % width, index / (width * length), (index / width) % length));
+        }
+        return positions;
+    }
+
+    /**
+     * Drop the extra data of the blocks in a range of indexes, whose types or
+     * data values are being overwritten in bulk.
+     *
+     * @param from first index
+     * @param to index after the last one
+     */
+    private void clearTileEntities(int from, int to) {
+        if (tileEntityIndexes == null) {
+            return;
+        }
+
+        for (int index = tileEntityIndexes.nextSetBit(from); index >= 0 && index < to;
+                index = tileEntityIndexes.nextSetBit(index + 1)) {
+            tileEntities.remove(index);
+            tileEntityIndexes.clear(index);
+        }
     }
 
     /**
@@ -431,26 +986,15 @@ public CopiedEntity(LocalEntity entity) {
      */
     public List<Countable<Integer>> getBlockDistribution() {
         List<Countable<Integer>> distribution = new ArrayList<Countable<Integer>>();
-        Map<Integer, Countable<Integer>> map = new HashMap<Integer, Countable<Integer>>();
-
-        int maxX = getWidth();
-        int maxY = getHeight();
-        int maxZ = getLength();
-
-        for (int x = 0; x < maxX; ++x) {
-            for (int y = 0; y < maxY; ++y) {
-                for (int z = 0; z < maxZ; ++z) {
+        int[] counts = new int[0x10000];
 
-                    int id = data[x][y][z].getId();
+        for (short id : ids) {
+            ++counts[id & 0xFFFF];
+        }
 
-                    if (map.containsKey(id)) {
-                        map.get(id).increment();
-                    } else {
-                        Countable<Integer> c = new Countable<Integer>(id, 1);
-                        map.put(id, c);
-                        distribution.add(c);
-                    }
-                }
+        for (int id = 0; id < counts.length; ++id) {
+            if (counts[id] > 0) {
+                distribution.add(new Countable<Integer>(id, counts[id]));
             }
         }
 
@@ -465,31 +1009,22 @@ public List<Countable<Integer>> getBlockDistribution() {
      *
      * @return
      */
-    // TODO reduce code duplication
     public List<Countable<BaseBlock>> getBlockDistributionWithData() {
         List<Countable<BaseBlock>> distribution = new ArrayList<Countable<BaseBlock>>();
-        Map<BaseBlock, Countable<BaseBlock>> map = new HashMap<BaseBlock, Countable<BaseBlock>>();
-
-        int maxX = getWidth();
-        int maxY = getHeight();
-        int maxZ = getLength();
-
-        for (int x = 0; x < maxX; ++x) {
-            for (int y = 0; y < maxY; ++y) {
-                for (int z = 0; z < maxZ; ++z) {
+        Map<Integer, Countable<BaseBlock>> map = new HashMap<Integer, Countable<BaseBlock>>();
 
-                    int id = data[x][y][z].getId();
-                    int meta = data[x][y][z].getData();
-                    BaseBlock blk = new BaseBlock(id, meta);
+        for (int index = 0; index < ids.length; ++index) {
+            int id = ids[index] & 0xFFFF;
+            int meta = data[index] & 0xFF;
+            int key = (id << 8) | meta;
 
-                    if (map.containsKey(blk)) {
-                        map.get(blk).increment();
-                    } else {
-                        Countable<BaseBlock> c = new Countable<BaseBlock>(blk, 1);
-                        map.put(blk, c);
-                        distribution.add(c);
-                    }
-                }
+            Countable<BaseBlock> c = map.get(key);
+            if (c != null) {
+                c.increment();
+            } else {
+                c = new Countable<BaseBlock>(new BaseBlock(id, meta), 1);
+                map.put(key, c);
+                distribution.add(c);
             }
         }
 
@@ -18,18 +18,39 @@
  */
 package com.sk89q.worldedit;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import com.sk89q.worldedit.bags.BlockBag;
 import com.sk89q.worldedit.bags.BlockBagException;
@@ -39,9 +60,13 @@
 import com.sk89q.worldedit.blocks.BlockType;
 import com.sk89q.worldedit.expression.Expression;
 import com.sk89q.worldedit.expression.ExpressionException;
+import com.sk89q.worldedit.expression.runtime.EvaluationException;
 import com.sk89q.worldedit.expression.runtime.RValue;
+import com.sk89q.worldedit.masks.CompiledMask;
 import com.sk89q.worldedit.masks.Mask;
+import com.sk89q.worldedit.patterns.BulkPattern;
 import com.sk89q.worldedit.patterns.Pattern;
+import com.sk89q.worldedit.patterns.SingleBlockPattern;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.util.TreeGenerator;
@@ -71,32 +96,38 @@ public class EditSession {
     /**
      * Stores the original blocks before modification.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> original =
-            new DoubleArrayList<BlockVector, BaseBlock>(true);
+    private BlockChangeList original = new BlockChangeList(true);
 
     /**
      * Stores the current blocks.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> current =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeList current = new BlockChangeList(false);
+
+    /**
+     * File that the history of this session has been written out to, or
+     * null if the history is held in memory.
+     */
+    private File historyFile;
+
+    /**
+     * Number of changes in the history while it is written out.
+     */
+    private int historyFileSize;
 
     /**
      * Blocks that should be placed before last.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> queueAfter =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeList queueAfter = new BlockChangeList(false);
 
     /**
      * Blocks that should be placed last.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> queueLast =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeList queueLast = new BlockChangeList(false);
 
     /**
      * Blocks that should be placed after all other blocks.
      */
-    private DoubleArrayList<BlockVector, BaseBlock> queueFinal =
-            new DoubleArrayList<BlockVector, BaseBlock>(false);
+    private BlockChangeList queueFinal = new BlockChangeList(false);
 
     /**
      * The maximum number of blocks to change at a time. If this number is
@@ -111,6 +142,24 @@ public class EditSession {
      */
     private boolean queued = false;
 
+    /**
+     * Indicates whether changes are only queued and applied later, over
+     * several calls to {@link #flushQueue(long)}.
+     */
+    private boolean incremental = false;
+
+    /**
+     * State of a flush that is in progress. The stage is 0 while placing
+     * the regular queue, 1 for blocks placed last and 2 for blocks placed
+     * after those.
+     */
+    private int flushStage = 0;
+    private int flushIndex = 0;
+    private int flushedBlocks = 0;
+    private Set<BlockVector> flushFinalBlocks;
+    private Map<BlockVector, BaseBlock> flushFinalTypes;
+    private Set<BlockVector2D> flushDirtyChunks = new HashSet<BlockVector2D>();
+
     /**
      * Use the fast mode, which may leave chunks not flagged "dirty".
      */
@@ -131,6 +180,16 @@ public class EditSession {
      */
     private Mask mask;
 
+    /**
+     * Compiled form of the mask that is actually evaluated.
+     */
+    private CompiledMask compiledMask;
+
+    /**
+     * Number of threads that evaluate expressions for //generate and //deform.
+     */
+    private int expressionThreads = 0;
+
     /**
      * Construct the object with a maximum number of blocks.
      *
@@ -185,8 +244,11 @@ public boolean rawSetBlock(Vector pt, BaseBlock block) {
             return false;
         }
 
-        if (mask != null) {
-            if (!mask.matches(this, pt)) {
+        if (compiledMask != null) {
+            if (!compiledMask.isCurrent()) {
+                compiledMask = CompiledMask.compile(compiledMask);
+            }
+            if (!compiledMask.matches(this, pt)) {
                 return false;
             }
         }
@@ -252,17 +314,25 @@ public boolean rawSetBlock(Vector pt, BaseBlock block) {
      */
     public boolean setBlock(Vector pt, BaseBlock block)
             throws MaxChangedBlocksException {
-        BlockVector blockPt = pt.toBlockVector();
+        final int y = pt.getBlockY();
+        if (y < 0 || y > world.getMaxY()) {
+            // Would never be placed anyway
+            return false;
+        }
+
+        if (historyFile != null) {
+            loadHistory();
+        }
 
         // if (!original.containsKey(blockPt)) {
-        original.put(blockPt, getBlock(pt));
+        original.put(pt, getBlock(pt));
 
         if (maxBlocks != -1 && original.size() > maxBlocks) {
             throw new MaxChangedBlocksException(maxBlocks);
         }
         // }
 
-        current.put(pt.toBlockVector(), block);
+        current.put(pt, block);
 
         return smartSetBlock(pt, block);
     }
@@ -275,10 +345,17 @@ public boolean setBlock(Vector pt, BaseBlock block)
      * @param block
      */
     public void rememberChange(Vector pt, BaseBlock existing, BaseBlock block) {
-        BlockVector blockPt = pt.toBlockVector();
+        final int y = pt.getBlockY();
+        if (y < 0 || y > world.getMaxY()) {
+            return;
+        }
+
+        if (historyFile != null) {
+            loadHistory();
+        }
 
-        original.put(blockPt, existing);
-        current.put(pt.toBlockVector(), block);
+        original.put(pt, existing);
+        current.put(pt, block);
     }
 
     /**
@@ -322,17 +399,17 @@ public boolean smartSetBlock(Vector pt, BaseBlock block) {
         if (queued) {
             if (BlockType.shouldPlaceLast(block.getType())) {
                 // Place torches, etc. last
-                queueLast.put(pt.toBlockVector(), block);
+                queueLast.put(pt, block);
                 return !(getBlockType(pt) == block.getType() && getBlockData(pt) == block.getData());
             } else if (BlockType.shouldPlaceFinal(block.getType())) {
                 // Place signs, reed, etc even later
-                queueFinal.put(pt.toBlockVector(), block);
+                queueFinal.put(pt, block);
                 return !(getBlockType(pt) == block.getType() && getBlockData(pt) == block.getData());
             } else if (BlockType.shouldPlaceLast(getBlockType(pt))) {
                 // Destroy torches, etc. first
                 rawSetBlock(pt, new BaseBlock(BlockID.AIR));
             } else {
-                queueAfter.put(pt.toBlockVector(), block);
+                queueAfter.put(pt, block);
                 return !(getBlockType(pt) == block.getType() && getBlockData(pt) == block.getData());
             }
         }
@@ -382,6 +459,18 @@ public int getBlockType(Vector pt) {
         return world.getBlockType(pt);
     }
 
+    /**
+     * Gets the block type at a position x, y, z.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return Block type
+     */
+    public int getBlockType(int x, int y, int z) {
+        return world.getBlockType(x, y, z);
+    }
+
     public int getBlockData(Vector pt) {
         // In the case of the queue, the block may have not actually been
         // changed yet
@@ -397,6 +486,18 @@ public int getBlockData(Vector pt) {
         return world.getBlockData(pt);
     }
 
+    /**
+     * Gets the block data at a position x, y, z.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return Block data
+     */
+    public int getBlockData(int x, int y, int z) {
+        return world.getBlockData(x, y, z);
+    }
+
     /**
      * Gets the block type at a position x, y, z.
      *
@@ -413,9 +514,13 @@ public BaseBlock rawGetBlock(Vector pt) {
      * @param sess
      */
     public void undo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : original) {
-            BlockVector pt = entry.getKey();
-            sess.smartSetBlock(pt, entry.getValue());
+        if (historyFile != null) {
+            loadHistory();
+        }
+
+        // Walk backwards so the oldest state of each block wins
+        for (int i = original.size() - 1; i >= 0; --i) {
+            sess.smartSetBlock(original.getPosition(i), original.getBlock(i));
         }
         sess.flushQueue();
     }
@@ -426,19 +531,141 @@ public void undo(EditSession sess) {
      * @param sess
      */
     public void redo(EditSession sess) {
-        for (Map.Entry<BlockVector, BaseBlock> entry : current) {
-            BlockVector pt = entry.getKey();
-            sess.smartSetBlock(pt, entry.getValue());
+        if (historyFile != null) {
+            loadHistory();
+        }
+
+        for (int i = 0; i < current.size(); ++i) {
+            sess.smartSetBlock(current.getPosition(i), current.getBlock(i));
         }
         sess.flushQueue();
     }
 
+    /**
+     * Release spare capacity held by the history of this edit session. Call
+     * this once no more changes will be made, such as when the session is
+     * stored for undo.
+     */
+    public void trimHistory() {
+        if (historyFile != null) {
+            return;
+        }
+
+        original.trimToSize();
+        current.trimToSize();
+    }
+
+    /**
+     * Get an estimate of the memory used by the history of this session,
+     * in bytes. This is 0 while the history is written out to disk.
+     *
+     * @return
+     */
+    public long getHistoryMemoryUsage() {
+        if (historyFile != null) {
+            return 0;
+        }
+
+        return original.getMemoryUsage() + current.getMemoryUsage();
+    }
+
+    /**
+     * Returns whether the history of this session is held in memory.
+     *
+     * @return
+     */
+    public boolean isHistoryResident() {
+        return historyFile == null;
+    }
+
+    /**
+     * Write the history of this session out to a file and release it from
+     * memory. It is read back in when it is next needed.
+     *
+     * @param file
+     * @throws IOException
+     */
+    public void spillHistory(File file) throws IOException {
+        if (historyFile != null) {
+            return;
+        }
+
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new DeflaterOutputStream(new FileOutputStream(file), deflater)));
+        try {
+            original.write(out);
+            current.write(out);
+        } catch (IOException e) {
+            out.close();
+            file.delete();
+            throw e;
+        } finally {
+            out.close();
+            deflater.end();
+        }
+
+        historyFileSize = original.size();
+        historyFile = file;
+        original = new BlockChangeList(true, 0);
+        current = new BlockChangeList(false, 0);
+    }
+
+    /**
+     * Delete the file the history has been written out to, if any. The
+     * history of this session is lost if it was not in memory.
+     */
+    public void discardHistory() {
+        if (historyFile != null) {
+            historyFile.delete();
+            historyFile = null;
+            historyFileSize = 0;
+        }
+    }
+
+    /**
+     * Read back history that was written out with {@link #spillHistory(File)}.
+     */
+    private void loadHistory() {
+        final File file = historyFile;
+        historyFile = null;
+        historyFileSize = 0;
+
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new InflaterInputStream(new FileInputStream(file))));
+            try {
+                original = BlockChangeList.read(in);
+                current = BlockChangeList.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            historyLost(file, e);
+        } catch (RuntimeException e) {
+            // A damaged file may still get past the checks
+            historyLost(file, e);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private void historyLost(File file, Exception e) {
+        WorldEdit.logger.log(Level.WARNING, "Failed to read edit session history from " + file, e);
+        original = new BlockChangeList(true);
+        current = new BlockChangeList(false);
+    }
+
     /**
      * Get the number of changed blocks.
      *
      * @return
      */
     public int size() {
+        if (historyFile != null) {
+            return historyFileSize;
+        }
+
         return original.size();
     }
 
@@ -490,6 +717,27 @@ public void disableQueue() {
         queued = false;
     }
 
+    /**
+     * Returns whether changes are only queued, to be applied later over
+     * several calls to {@link #flushQueue(long)}.
+     *
+     * @return
+     */
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Set whether changes are only queued, to be applied later over
+     * several calls to {@link #flushQueue(long)}. This requires the queue
+     * to be enabled.
+     *
+     * @param incremental
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
     /**
      * Set fast mode.
      *
@@ -508,6 +756,37 @@ public boolean hasFastMode() {
         return fastMode;
     }
 
+    /**
+     * Get the default number of threads for evaluating expressions.
+     *
+     * @return
+     */
+    public static int getDefaultExpressionThreads() {
+        return Math.min(4, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * Set the number of threads that evaluate expressions for
+     * {@link #makeShape} and {@link #deformRegion}. With 0, everything runs
+     * on the calling thread, and a negative number picks a default.
+     * Expressions that use dynamic functions always run on the calling
+     * thread.
+     *
+     * @param expressionThreads
+     */
+    public void setExpressionThreads(int expressionThreads) {
+        this.expressionThreads = expressionThreads < 0 ? getDefaultExpressionThreads() : expressionThreads;
+    }
+
+    /**
+     * Get the number of threads that evaluate expressions.
+     *
+     * @return
+     */
+    public int getExpressionThreads() {
+        return expressionThreads;
+    }
+
     /**
      * Set a block by chance.
      *
@@ -655,7 +934,7 @@ public LocalWorld getWorld() {
      * @return
      */
     public int getBlockChangeCount() {
-        return original.size();
+        return size();
     }
 
     /**
@@ -674,49 +953,86 @@ public Mask getMask() {
      */
     public void setMask(Mask mask) {
         this.mask = mask;
+        compiledMask = mask == null ? null : CompiledMask.compile(mask);
     }
 
     /**
      * Finish off the queue.
      */
     public void flushQueue() {
+        flushQueue(-1);
+    }
+
+    /**
+     * Place queued blocks for at most the given time. A flush that runs
+     * out of time continues where it left off on the next call.
+     *
+     * @param maxNanos time limit in nanoseconds, or -1 for no limit
+     * @return whether the queue has been flushed completely
+     */
+    public boolean flushQueue(long maxNanos) {
         if (!queued) {
-            return;
+            return true;
         }
 
-        final Set<BlockVector2D> dirtyChunks = new HashSet<BlockVector2D>();
+        final long start = System.nanoTime();
 
-        for (Map.Entry<BlockVector, BaseBlock> entry : queueAfter) {
-            BlockVector pt = entry.getKey();
-            rawSetBlock(pt, entry.getValue());
+        if (flushStage == 0) {
+            while (flushIndex < queueAfter.size()) {
+                BlockVector pt = queueAfter.getPosition(flushIndex);
+                rawSetBlock(pt, queueAfter.getBlock(flushIndex));
+                ++flushIndex;
 
-            // TODO: use ChunkStore.toChunk(pt) after optimizing it.
-            if (fastMode) {
-                dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
+                // TODO: use ChunkStore.toChunk(pt) after optimizing it.
+                if (fastMode) {
+                    flushDirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
+                }
+
+                if (isFlushTimeUp(start, maxNanos)) {
+                    return false;
+                }
             }
+
+            flushStage = 1;
+            flushIndex = 0;
         }
 
         // We don't want to place these blocks if other blocks were missing
         // because it might cause the items to drop
         if (blockBag == null || missingBlocks.size() == 0) {
-            for (Map.Entry<BlockVector, BaseBlock> entry : queueLast) {
-                BlockVector pt = entry.getKey();
-                rawSetBlock(pt, entry.getValue());
+            if (flushStage == 1) {
+                while (flushIndex < queueLast.size()) {
+                    BlockVector pt = queueLast.getPosition(flushIndex);
+                    rawSetBlock(pt, queueLast.getBlock(flushIndex));
+                    ++flushIndex;
 
-                // TODO: use ChunkStore.toChunk(pt) after optimizing it.
-                if (fastMode) {
-                    dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
+                    // TODO: use ChunkStore.toChunk(pt) after optimizing it.
+                    if (fastMode) {
+                        flushDirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
+                    }
+
+                    if (isFlushTimeUp(start, maxNanos)) {
+                        return false;
+                    }
                 }
+
+                flushStage = 2;
+                flushIndex = 0;
             }
 
-            final Set<BlockVector> blocks = new HashSet<BlockVector>();
-            final Map<BlockVector, BaseBlock> blockTypes = new HashMap<BlockVector, BaseBlock>();
-            for (Map.Entry<BlockVector, BaseBlock> entry : queueFinal) {
-                final BlockVector pt = entry.getKey();
-                blocks.add(pt);
-                blockTypes.put(pt, entry.getValue());
+            if (flushFinalBlocks == null) {
+                flushFinalBlocks = new HashSet<BlockVector>();
+                flushFinalTypes = new HashMap<BlockVector, BaseBlock>();
+                for (int i = 0; i < queueFinal.size(); ++i) {
+                    final BlockVector pt = queueFinal.getPosition(i);
+                    flushFinalBlocks.add(pt);
+                    flushFinalTypes.put(pt, queueFinal.getBlock(i));
+                }
             }
 
+            final Set<BlockVector> blocks = flushFinalBlocks;
+            final Map<BlockVector, BaseBlock> blockTypes = flushFinalTypes;
+
             while (!blocks.isEmpty()) {
                 BlockVector current = blocks.iterator().next();
                 if (!blocks.contains(current)) {
@@ -769,20 +1085,72 @@ public void flushQueue() {
                 for (BlockVector pt : walked) {
                     rawSetBlock(pt, blockTypes.get(pt));
                     blocks.remove(pt);
+                    ++flushedBlocks;
 
                     // TODO: use ChunkStore.toChunk(pt) after optimizing it.
                     if (fastMode) {
-                        dirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
+                        flushDirtyChunks.add(new BlockVector2D(pt.getBlockX() >> 4, pt.getBlockZ() >> 4));
                     }
                 }
+
+                if (maxNanos >= 0 && System.nanoTime() - start >= maxNanos) {
+                    return false;
+                }
             }
         }
 
-        if (!dirtyChunks.isEmpty()) world.fixAfterFastMode(dirtyChunks);
+        cancelQueue();
+        return true;
+    }
+
+    /**
+     * Counts a placed block and checks whether a time limited flush
+     * should stop. The clock is only read every 64 blocks.
+     *
+     * @param start
+     * @param maxNanos
+     * @return
+     */
+    private boolean isFlushTimeUp(long start, long maxNanos) {
+        ++flushedBlocks;
+        return maxNanos >= 0 && (flushedBlocks & 63) == 0 && System.nanoTime() - start >= maxNanos;
+    }
+
+    /**
+     * Drop the blocks that are still queued without placing them. History
+     * is not affected, so undoing still restores every queued position.
+     */
+    public void cancelQueue() {
+        if (!flushDirtyChunks.isEmpty()) world.fixAfterFastMode(flushDirtyChunks);
 
         queueAfter.clear();
         queueLast.clear();
         queueFinal.clear();
+        flushStage = 0;
+        flushIndex = 0;
+        flushedBlocks = 0;
+        flushFinalBlocks = null;
+        flushFinalTypes = null;
+        flushDirtyChunks = new HashSet<BlockVector2D>();
+    }
+
+    /**
+     * Get the number of blocks waiting in the queue, including those that
+     * a flush in progress has already placed.
+     *
+     * @return
+     */
+    public int getQueuedBlockCount() {
+        return queueAfter.size() + queueLast.size() + queueFinal.size();
+    }
+
+    /**
+     * Get the number of queued blocks placed so far by a flush in progress.
+     *
+     * @return
+     */
+    public int getFlushedBlockCount() {
+        return flushedBlocks;
     }
 
     /**
@@ -798,96 +1166,7 @@ public void flushQueue() {
      */
     public int fillXZ(Vector origin, BaseBlock block, double radius, int depth,
             boolean recursive) throws MaxChangedBlocksException {
-
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
-
-        queue.push(new BlockVector(originX, originY, originZ));
-
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
-
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
-            }
-
-            visited.add(pt);
-
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    if (setBlock(pt, block)) {
-                        ++affected;
-                    }
-                } else {
-                    continue;
-                }
-
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
-
-                if (dist > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, block, minY);
-                } else {
-                    continue;
-                }
-            }
-
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
-        }
-
-        return affected;
-    }
-
-    /**
-     * Recursively fills a block and below until it hits another block.
-     *
-     * @param x
-     * @param cy
-     * @param z
-     * @param block
-     * @param minY
-     * @throws MaxChangedBlocksException
-     * @return
-     */
-    private int fillY(int x, int cy, int z, BaseBlock block, int minY)
-            throws MaxChangedBlocksException {
-        int affected = 0;
-
-        for (int y = cy; y >= minY; --y) {
-            Vector pt = new Vector(x, y, z);
-
-            if (getBlock(pt).isAir()) {
-                setBlock(pt, block);
-                ++affected;
-            } else {
-                break;
-            }
-        }
-
-        return affected;
+        return fillXZ(origin, new SingleBlockPattern(block), radius, depth, recursive);
     }
 
     /**
@@ -901,69 +1180,57 @@ private int fillY(int x, int cy, int z, BaseBlock block, int minY)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int fillXZ(Vector origin, Pattern pattern, double radius, int depth,
-            boolean recursive) throws MaxChangedBlocksException {
-
-        int affected = 0;
-        int originX = origin.getBlockX();
-        int originY = origin.getBlockY();
-        int originZ = origin.getBlockZ();
+    public int fillXZ(final Vector origin, final Pattern pattern, final double radius, final int depth,
+            final boolean recursive) throws MaxChangedBlocksException {
 
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+        final int originX = origin.getBlockX();
+        final int originY = origin.getBlockY();
+        final int originZ = origin.getBlockZ();
+        final int[] affected = { 0 };
 
-        queue.push(new BlockVector(originX, originY, originZ));
+        final FloodFill fill = new FloodFill(new FloodFillVisitor() {
+            public boolean matches(int cx, int cy, int cz) {
+                if (cy < 0 || cy > originY) {
+                    return false;
+                }
 
-        while (!queue.empty()) {
-            BlockVector pt = queue.pop();
-            int cx = pt.getBlockX();
-            int cy = pt.getBlockY();
-            int cz = pt.getBlockZ();
+                final Vector pt = new Vector(cx, cy, cz);
 
-            if (cy < 0 || cy > originY || visited.contains(pt)) {
-                continue;
-            }
-
-            visited.add(pt);
+                if (recursive) {
+                    if (origin.distance(pt) > radius) {
+                        return false;
+                    }
+                } else {
+                    double dist = Math.sqrt(Math.pow(originX - cx, 2)
+                            + Math.pow(originZ - cz, 2));
 
-            if (recursive) {
-                if (origin.distance(pt) > radius) {
-                    continue;
+                    if (dist > radius) {
+                        return false;
+                    }
                 }
 
-                if (getBlock(pt).isAir()) {
+                return getBlock(pt).isAir();
+            }
+
+            public boolean visit(int cx, int cy, int cz) throws MaxChangedBlocksException {
+                if (recursive) {
+                    final Vector pt = new Vector(cx, cy, cz);
                     if (setBlock(pt, pattern.next(pt))) {
-                        ++affected;
+                        ++affected[0];
                     }
                 } else {
-                    continue;
+                    int minY = originY - depth + 1;
+                    affected[0] += fillY(cx, originY, cz, pattern, minY);
                 }
 
-                queue.push(new BlockVector(cx, cy - 1, cz));
-                queue.push(new BlockVector(cx, cy + 1, cz));
-            } else {
-                double dist = Math.sqrt(Math.pow(originX - cx, 2)
-                        + Math.pow(originZ - cz, 2));
-                int minY = originY - depth + 1;
-
-                if (dist > radius) {
-                    continue;
-                }
-
-                if (getBlock(pt).isAir()) {
-                    affected += fillY(cx, originY, cz, pattern, minY);
-                } else {
-                    continue;
-                }
+                return true;
             }
+        }, recursive ? FloodFill.FACES : FloodFill.HORIZONTAL_FACES);
 
-            queue.push(new BlockVector(cx + 1, cy, cz));
-            queue.push(new BlockVector(cx - 1, cy, cz));
-            queue.push(new BlockVector(cx, cy, cz + 1));
-            queue.push(new BlockVector(cx, cy, cz - 1));
-        }
+        fill.add(originX, originY, originZ);
+        fill.run();
 
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -1104,40 +1371,281 @@ public int removeNear(Vector pos, int blockType, int size)
     }
 
     /**
-     * Sets all the blocks inside a region to a certain block type.
+     * Read all blocks in a cuboid, one chunk column at a time. Positions
+     * outside the world are reported as air.
      *
-     * @param region
-     * @param block
+     * @param min
+     * @param max
+     * @param visitor
+     */
+    public void getCuboidBlocks(Vector min, Vector max, BulkBlockVisitor visitor) {
+        final int minX = min.getBlockX();
+        final int minY = min.getBlockY();
+        final int minZ = min.getBlockZ();
+        final int maxX = max.getBlockX();
+        final int maxY = max.getBlockY();
+        final int maxZ = max.getBlockZ();
+
+        final int lowY = Math.max(0, minY);
+        final int highY = Math.min(world.getMaxY(), maxY);
+        final int height = Math.max(0, highY - lowY + 1);
+        final int[] types = new int[height << 8];
+        final int[] data = new int[height << 8];
+
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; ++chunkX) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; ++chunkZ) {
+                if (height > 0) {
+                    world.getBlocks(chunkX, chunkZ, lowY, highY, types, data);
+                }
+
+                final int x0 = Math.max(minX, chunkX << 4);
+                final int x1 = Math.min(maxX, (chunkX << 4) + 15);
+                final int z0 = Math.max(minZ, chunkZ << 4);
+                final int z1 = Math.min(maxZ, (chunkZ << 4) + 15);
+
+                for (int y = minY; y <= maxY; ++y) {
+                    final boolean inWorld = y >= lowY && y <= highY;
+                    for (int z = z0; z <= z1; ++z) {
+                        for (int x = x0; x <= x1; ++x) {
+                            if (!inWorld) {
+                                visitor.visit(x, y, z, BlockID.AIR, 0, null);
+                                continue;
+                            }
+
+                            final int index = LocalWorld.getColumnIndex(x, y, z, lowY);
+                            final int type = types[index];
+                            final BaseBlock tileEntity = BlockType.isTileEntityBlock(type)
+                                    ? rawGetBlock(new Vector(x, y, z)) : null;
+                            visitor.visit(x, y, z, type, data[index], tileEntity);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Set the blocks in a cuboid, one chunk column at a time. This records
+     * history like {@link #setBlock(Vector, BaseBlock)}, but reads and
+     * writes plain blocks through the world in bulk. Blocks that need
+     * special handling, such as tile entities, blocks that have to be
+     * placed last and blocks with a mask or block bag active, still go
+     * through {@link #setBlock(Vector, BaseBlock)}. A {@link BulkSpanSource}
+     * is asked for whole rows of blocks at a time. As with
+     * {@link #setBlock(Vector, BaseBlock)}, queued blocks are only placed by
+     * {@link #flushQueue()}, which is up to the caller.
+     *
+     * @param min
+     * @param max
+     * @param source
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int setBlocks(Region region, BaseBlock block)
+    public int setCuboidBlocks(Vector min, Vector max, BulkBlockSource source)
             throws MaxChangedBlocksException {
-        int affected = 0;
+        final int minX = min.getBlockX();
+        final int minZ = min.getBlockZ();
+        final int maxX = max.getBlockX();
+        final int maxZ = max.getBlockZ();
+        final int minY = Math.max(0, min.getBlockY());
+        final int maxY = Math.min(world.getMaxY(), max.getBlockY());
 
-        if (region instanceof CuboidRegion) {
-            // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
+        int affected = 0;
 
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
+        if (minY > maxY) {
+            return affected;
+        }
 
+        if (mask != null || blockBag != null) {
             for (int x = minX; x <= maxX; ++x) {
                 for (int y = minY; y <= maxY; ++y) {
                     for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        if (setBlock(pt, block)) {
+                        final Vector pt = new Vector(x, y, z);
+                        final BaseBlock block = source.getBlock(x, y, z, getBlockType(pt), getBlockData(pt));
+                        if (block != null && setBlock(pt, block)) {
                             ++affected;
                         }
                     }
                 }
             }
+
+            return affected;
+        }
+
+        if (historyFile != null) {
+            loadHistory();
+        }
+
+        // Blocks still waiting in the queue would land on top of anything
+        // written straight away, so queue these behind them instead
+        final boolean deferred = queued && (incremental || queueAfter.size() > 0);
+
+        final int size = (maxY - minY + 1) << 8;
+        final int[] types = new int[size];
+        final int[] data = new int[size];
+        final int[] newTypes = new int[size];
+        final int[] newData = new int[size];
+        final int[] airTypes = new int[size];
+        final int[] airData = new int[size];
+        final Set<BlockVector2D> dirtyChunks = new HashSet<BlockVector2D>();
+        final BulkSpanSource spanSource = source instanceof BulkSpanSource ? (BulkSpanSource) source : null;
+        final int[] spanTypes = new int[16];
+        final int[] spanData = new int[16];
+
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; ++chunkX) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; ++chunkZ) {
+                world.getBlocks(chunkX, chunkZ, minY, maxY, types, data);
+                Arrays.fill(newTypes, -1);
+                Arrays.fill(airTypes, -1);
+
+                final int x0 = Math.max(minX, chunkX << 4);
+                final int x1 = Math.min(maxX, (chunkX << 4) + 15);
+                final int z0 = Math.max(minZ, chunkZ << 4);
+                final int z1 = Math.min(maxZ, (chunkZ << 4) + 15);
+
+                boolean dirty = false;
+                boolean dirtyAir = false;
+                MaxChangedBlocksException limitReached = null;
+
+                columnLoop:
+                for (int y = minY; y <= maxY; ++y) {
+                    for (int z = z0; z <= z1; ++z) {
+                        final boolean spanned = spanSource != null && spanSource.getSpan(x0, y, z, x1 - x0 + 1,
+                                types, data, LocalWorld.getColumnIndex(x0, y, z, minY), spanTypes, spanData);
+
+                        for (int x = x0; x <= x1; ++x) {
+                            final int index = LocalWorld.getColumnIndex(x, y, z, minY);
+                            final int existingType = types[index];
+                            final int existingData = data[index];
+
+                            BaseBlock block = null;
+                            final int type;
+                            final int blockData;
+                            final boolean placeable;
+
+                            if (spanned) {
+                                type = spanTypes[x - x0];
+                                if (type < 0) {
+                                    continue;
+                                }
+                                blockData = spanData[x - x0];
+                                placeable = isBulkPlaceable(type, existingType);
+                            } else {
+                                block = source.getBlock(x, y, z, existingType, existingData);
+                                if (block == null) {
+                                    continue;
+                                }
+                                type = block.getType();
+                                blockData = block.getData();
+                                placeable = block.getClass() == BaseBlock.class && !block.hasNbtData()
+                                        && isBulkPlaceable(type, existingType);
+                            }
+
+                            if (!placeable) {
+                                if (block == null) {
+                                    block = new BaseBlock(type, blockData);
+                                }
+                                try {
+                                    if (setBlock(new Vector(x, y, z), block)) {
+                                        ++affected;
+                                    }
+                                } catch (MaxChangedBlocksException e) {
+                                    limitReached = e;
+                                    break columnLoop;
+                                }
+                                continue;
+                            }
+
+                            if (maxBlocks != -1 && original.size() >= maxBlocks) {
+                                limitReached = new MaxChangedBlocksException(maxBlocks);
+                                break columnLoop;
+                            }
+
+                            original.put(x, y, z, existingType, existingData);
+                            current.put(x, y, z, type, blockData);
+
+                            if (existingType != type || existingData != blockData) {
+                                if (deferred) {
+                                    queueAfter.put(x, y, z, type, blockData);
+                                    ++affected;
+                                    continue;
+                                }
+
+                                if (type == BlockID.AIR) {
+                                    airTypes[index] = type;
+                                    airData[index] = blockData;
+                                    dirtyAir = true;
+                                } else {
+                                    newTypes[index] = type;
+                                    newData[index] = blockData;
+                                    dirty = true;
+                                }
+                                ++affected;
+                            }
+                        }
+                    }
+                }
+
+                // Physics as in rawSetBlock(): air is cleared with updates
+                // outside fast mode, other blocks as world.setBlock() does
+                if (dirty) {
+                    world.setBlocks(chunkX, chunkZ, minY, maxY, newTypes, newData, fastMode);
+                }
+                if (dirtyAir) {
+                    world.setBlocks(chunkX, chunkZ, minY, maxY, airTypes, airData, !fastMode);
+                }
+                if ((dirty || dirtyAir) && fastMode) {
+                    dirtyChunks.add(new BlockVector2D(chunkX, chunkZ));
+                }
+
+                if (limitReached != null) {
+                    if (!dirtyChunks.isEmpty()) world.fixAfterFastMode(dirtyChunks);
+                    throw limitReached;
+                }
+            }
+        }
+
+        if (!dirtyChunks.isEmpty()) world.fixAfterFastMode(dirtyChunks);
+
+        return affected;
+    }
+
+    /**
+     * Checks whether a plain block can be written by the bulk path of
+     * {@link #setCuboidBlocks(Vector, Vector, BulkBlockSource)}.
+     *
+     * @param type
+     * @param existingType
+     * @return
+     */
+    private boolean isBulkPlaceable(int type, int existingType) {
+        return world.isValidBlockType(type)
+                && !BlockType.isTileEntityBlock(type)
+                && !BlockType.shouldPlaceLast(type)
+                && !BlockType.shouldPlaceFinal(type)
+                && !BlockType.isTileEntityBlock(existingType)
+                && existingType != BlockID.ICE;
+    }
+
+    /**
+     * Sets all the blocks inside a region to a certain block type.
+     *
+     * @param region
+     * @param block
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     */
+    public int setBlocks(Region region, final BaseBlock block)
+            throws MaxChangedBlocksException {
+        int affected = 0;
+
+        if (region instanceof CuboidRegion) {
+            // Doing this for speed
+            return setCuboidBlocks(region.getMinimumPoint(), region.getMaximumPoint(), new BulkBlockSource() {
+                public BaseBlock getBlock(int x, int y, int z, int existingType, int existingData) {
+                    return block;
+                }
+            });
         } else {
             for (Vector pt : region) {
                 if (setBlock(pt, block)) {
@@ -1157,33 +1665,13 @@ public int setBlocks(Region region, BaseBlock block)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int setBlocks(Region region, Pattern pattern)
+    public int setBlocks(Region region, final Pattern pattern)
             throws MaxChangedBlocksException {
         int affected = 0;
 
         if (region instanceof CuboidRegion) {
             // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-
-                        if (setBlock(pt, pattern.next(pt))) {
-                            ++affected;
-                        }
-                    }
-                }
-            }
+            return setCuboidBlocks(region.getMinimumPoint(), region.getMaximumPoint(), createPatternSource(pattern));
         } else {
             for (Vector pt : region) {
                 if (setBlock(pt, pattern.next(pt))) {
@@ -1204,9 +1692,9 @@ public int setBlocks(Region region, Pattern pattern)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, BaseBlock toBlock) throws MaxChangedBlocksException {
+    public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, final BaseBlock toBlock) throws MaxChangedBlocksException {
         Set<BaseBlock> definiteBlockTypes = new HashSet<BaseBlock>();
-        Set<Integer> fuzzyBlockTypes = new HashSet<Integer>();
+        final Set<Integer> fuzzyBlockTypes = new HashSet<Integer>();
 
         if (fromBlockTypes != null) {
             for (BaseBlock block : fromBlockTypes) {
@@ -1222,40 +1710,29 @@ public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, BaseBlock
 
         if (region instanceof CuboidRegion) {
             // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
-
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
-
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        BaseBlock curBlockType = getBlock(pt);
-
-                        if (fromBlockTypes == null) {
-                            //replace <to-block>
-                            if (curBlockType.isAir()) {
-                                continue;
-                            }
-                        } else {
-                            //replace <from-block> <to-block>
-                            if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
-                                continue;
-                            }
+            final boolean replaceAll = fromBlockTypes == null;
+            final Set<Integer> definiteKeys = new HashSet<Integer>();
+            for (BaseBlock block : definiteBlockTypes) {
+                definiteKeys.add(getReplaceKey(block.getType(), block.getData()));
+            }
+
+            return setCuboidBlocks(region.getMinimumPoint(), region.getMaximumPoint(), new BulkBlockSource() {
+                public BaseBlock getBlock(int x, int y, int z, int existingType, int existingData) {
+                    if (replaceAll) {
+                        //replace <to-block>
+                        if (existingType == BlockID.AIR) {
+                            return null;
                         }
-
-                        if (setBlock(pt, toBlock)) {
-                            ++affected;
+                    } else {
+                        //replace <from-block> <to-block>
+                        if (!definiteKeys.contains(getReplaceKey(existingType, existingData)) && !fuzzyBlockTypes.contains(existingType)) {
+                            return null;
                         }
                     }
+
+                    return toBlock;
                 }
-            }
+            });
         } else {
             for (Vector pt : region) {
                 BaseBlock curBlockType = getBlock(pt);
@@ -1290,9 +1767,9 @@ public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, BaseBlock
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, Pattern pattern) throws MaxChangedBlocksException {
+    public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, final Pattern pattern) throws MaxChangedBlocksException {
         Set<BaseBlock> definiteBlockTypes = new HashSet<BaseBlock>();
-        Set<Integer> fuzzyBlockTypes = new HashSet<Integer>();
+        final Set<Integer> fuzzyBlockTypes = new HashSet<Integer>();
         if (fromBlockTypes != null) {
             for (BaseBlock block : fromBlockTypes) {
                 if (block.getData() == -1) {
@@ -1307,40 +1784,45 @@ public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, Pattern p
 
         if (region instanceof CuboidRegion) {
             // Doing this for speed
-            Vector min = region.getMinimumPoint();
-            Vector max = region.getMaximumPoint();
+            final boolean replaceAll = fromBlockTypes == null;
+            final Set<Integer> definiteKeys = new HashSet<Integer>();
+            for (BaseBlock block : definiteBlockTypes) {
+                definiteKeys.add(getReplaceKey(block.getType(), block.getData()));
+            }
 
-            int minX = min.getBlockX();
-            int minY = min.getBlockY();
-            int minZ = min.getBlockZ();
-            int maxX = max.getBlockX();
-            int maxY = max.getBlockY();
-            int maxZ = max.getBlockZ();
+            final BulkPattern bulkPattern = pattern instanceof BulkPattern ? (BulkPattern) pattern : null;
 
-            for (int x = minX; x <= maxX; ++x) {
-                for (int y = minY; y <= maxY; ++y) {
-                    for (int z = minZ; z <= maxZ; ++z) {
-                        Vector pt = new Vector(x, y, z);
-                        BaseBlock curBlockType = getBlock(pt);
+            return setCuboidBlocks(region.getMinimumPoint(), region.getMaximumPoint(), new BulkSpanSource() {
+                public BaseBlock getBlock(int x, int y, int z, int existingType, int existingData) {
+                    return shouldReplace(existingType, existingData) ? pattern.next(x, y, z) : null;
+                }
+
+                public boolean getSpan(int x, int y, int z, int length,
+                        int[] existingTypes, int[] existingData, int existingOffset,
+                        int[] types, int[] data) {
+                    if (bulkPattern == null || !bulkPattern.nextSpan(x, y, z, length, types, data, 0)) {
+                        return false;
+                    }
 
-                        if (fromBlockTypes == null) {
-                            //replace <to-block>
-                            if (curBlockType.isAir()) {
-                                continue;
-                            }
-                        } else {
-                            //replace <from-block> <to-block>
-                            if (!definiteBlockTypes.contains(curBlockType) && !fuzzyBlockTypes.contains(curBlockType.getType())) {
-                                continue;
-                            }
+                    for (int i = 0; i < length; ++i) {
+                        if (!shouldReplace(existingTypes[existingOffset + i], existingData[existingOffset + i])) {
+                            types[i] = -1;
                         }
+                    }
 
-                        if (setBlock(pt, pattern.next(pt))) {
-                            ++affected;
-                        }
+                    return true;
+                }
+
+                private boolean shouldReplace(int existingType, int existingData) {
+                    if (replaceAll) {
+                        //replace <to-block>
+                        return existingType != BlockID.AIR;
                     }
+
+                    //replace <from-block> <to-block>
+                    return definiteKeys.contains(getReplaceKey(existingType, existingData)) || fuzzyBlockTypes.contains(existingType);
                 }
-            }
+            });
         } else {
             for (Vector pt : region) {
                 BaseBlock curBlockType = getBlock(pt);
@@ -1366,6 +1848,34 @@ public int replaceBlocks(Region region, Set<BaseBlock> fromBlockTypes, Pattern p
         return affected;
     }
 
+    private static int getReplaceKey(int type, int data) {
+        return (type << 16) | (data & 0xFFFF);
+    }
+
+    /**
+     * Create a source for {@link #setCuboidBlocks(Vector, Vector, BulkBlockSource)}
+     * that places the blocks of a pattern, a whole row at a time if the
+     * pattern is a {@link BulkPattern}.
+     *
+     * @param pattern
+     * @return
+     */
+    private static BulkBlockSource createPatternSource(final Pattern pattern) {
+        final BulkPattern bulkPattern = pattern instanceof BulkPattern ? (BulkPattern) pattern : null;
+
+        return new BulkSpanSource() {
+            public BaseBlock getBlock(int x, int y, int z, int existingType, int existingData) {
+                return pattern.next(x, y, z);
+            }
+
+            public boolean getSpan(int x, int y, int z, int length,
+                    int[] existingTypes, int[] existingData, int existingOffset,
+                    int[] types, int[] data) {
+                return bulkPattern != null && bulkPattern.nextSpan(x, y, z, length, types, data, 0);
+            }
+        };
+    }
+
     public int center(Region region, Pattern pattern)
             throws MaxChangedBlocksException {
         Vector center = region.getCenter();
@@ -1397,53 +1907,7 @@ public int center(Region region, Pattern pattern)
      */
     public int makeCuboidFaces(Region region, BaseBlock block)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        Vector min = region.getMinimumPoint();
-        Vector max = region.getMaximumPoint();
-
-        int minX = min.getBlockX();
-        int minY = min.getBlockY();
-        int minZ = min.getBlockZ();
-        int maxX = max.getBlockX();
-        int maxY = max.getBlockY();
-        int maxZ = max.getBlockZ();
-
-        for (int x = minX; x <= maxX; ++x) {
-            for (int y = minY; y <= maxY; ++y) {
-                if (setBlock(new Vector(x, y, minZ), block)) {
-                    ++affected;
-                }
-                if (setBlock(new Vector(x, y, maxZ), block)) {
-                    ++affected;
-                }
-                ++affected;
-            }
-        }
-
-        for (int y = minY; y <= maxY; ++y) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                if (setBlock(new Vector(minX, y, z), block)) {
-                    ++affected;
-                }
-                if (setBlock(new Vector(maxX, y, z), block)) {
-                    ++affected;
-                }
-            }
-        }
-
-        for (int z = minZ; z <= maxZ; ++z) {
-            for (int x = minX; x <= maxX; ++x) {
-                if (setBlock(new Vector(x, minY, z), block)) {
-                    ++affected;
-                }
-                if (setBlock(new Vector(x, maxY, z), block)) {
-                    ++affected;
-                }
-            }
-        }
-
-        return affected;
+        return makeCuboidFaces(region, new SingleBlockPattern(block));
     }
 
     /**
@@ -1456,8 +1920,6 @@ public int makeCuboidFaces(Region region, BaseBlock block)
      */
     public int makeCuboidFaces(Region region, Pattern pattern)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
 
@@ -1468,45 +1930,18 @@ public int makeCuboidFaces(Region region, Pattern pattern)
         int maxY = max.getBlockY();
         int maxZ = max.getBlockZ();
 
-        for (int x = minX; x <= maxX; ++x) {
-            for (int y = minY; y <= maxY; ++y) {
-                Vector minV = new Vector(x, y, minZ);
-                if (setBlock(minV, pattern.next(minV))) {
-                    ++affected;
-                }
-                Vector maxV = new Vector(x, y, maxZ);
-                if (setBlock(maxV, pattern.next(maxV))) {
-                    ++affected;
-                }
-                ++affected;
-            }
-        }
+        // Each face is a flat cuboid, so it can be filled in bulk
+        final BulkBlockSource source = createPatternSource(pattern);
+        int affected = 0;
 
-        for (int y = minY; y <= maxY; ++y) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                Vector minV = new Vector(minX, y, z);
-                if (setBlock(minV, pattern.next(minV))) {
-                    ++affected;
-                }
-                Vector maxV = new Vector(maxX, y, z);
-                if (setBlock(maxV, pattern.next(maxV))) {
-                    ++affected;
-                }
-            }
-        }
+        affected += setCuboidBlocks(new Vector(minX, minY, minZ), new Vector(maxX, maxY, minZ), source);
+        affected += setCuboidBlocks(new Vector(minX, minY, maxZ), new Vector(maxX, maxY, maxZ), source);
 
-        for (int z = minZ; z <= maxZ; ++z) {
-            for (int x = minX; x <= maxX; ++x) {
-                Vector minV = new Vector(x, minY, z);
-                if (setBlock(minV, pattern.next(minV))) {
-                    ++affected;
-                }
-                Vector maxV = new Vector(x, maxY, z);
-                if (setBlock(maxV, pattern.next(maxV))) {
-                    ++affected;
-                }
-            }
-        }
+        affected += setCuboidBlocks(new Vector(minX, minY, minZ), new Vector(minX, maxY, maxZ), source);
+        affected += setCuboidBlocks(new Vector(maxX, minY, minZ), new Vector(maxX, maxY, maxZ), source);
+
+        affected += setCuboidBlocks(new Vector(minX, minY, minZ), new Vector(maxX, minY, maxZ), source);
+        affected += setCuboidBlocks(new Vector(minX, maxY, minZ), new Vector(maxX, maxY, maxZ), source);
 
         return affected;
     }
@@ -1779,41 +2214,55 @@ public int naturalizeCuboidBlocks(Region region)
      * @throws MaxChangedBlocksException
      */
     public int stackCuboidRegion(Region region, Vector dir, int count,
-            boolean copyAir) throws MaxChangedBlocksException {
+            final boolean copyAir) throws MaxChangedBlocksException {
         int affected = 0;
 
-        Vector min = region.getMinimumPoint();
-        Vector max = region.getMaximumPoint();
-
-        int minX = min.getBlockX();
-        int minY = min.getBlockY();
-        int minZ = min.getBlockZ();
-        int maxX = max.getBlockX();
-        int maxY = max.getBlockY();
-        int maxZ = max.getBlockZ();
-
-        int xs = region.getWidth();
-        int ys = region.getHeight();
-        int zs = region.getLength();
-
-        for (int x = minX; x <= maxX; ++x) {
-            for (int z = minZ; z <= maxZ; ++z) {
-                for (int y = minY; y <= maxY; ++y) {
-                    BaseBlock block = getBlock(new Vector(x, y, z));
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
 
-                    if (!block.isAir() || copyAir) {
-                        for (int i = 1; i <= count; ++i) {
-                            Vector pos = new Vector(x + xs * dir.getBlockX()
-                                    * i, y + ys * dir.getBlockY() * i, z + zs
-                                    * dir.getBlockZ() * i);
+        final int minX = min.getBlockX();
+        final int minY = min.getBlockY();
+        final int minZ = min.getBlockZ();
 
-                            if (setBlock(pos, block)) {
-                                ++affected;
-                            }
-                        }
+        final int xs = region.getWidth();
+        final int ys = region.getHeight();
+        final int zs = region.getLength();
+
+        // Read the source once, then write each copy a chunk column at a time
+        final int[] types = new int[xs * ys * zs];
+        final int[] data = new int[xs * ys * zs];
+        final Map<Integer, BaseBlock> tileEntities = new HashMap<Integer, BaseBlock>();
+
+        getCuboidBlocks(min, max, new BulkBlockVisitor() {
+            public void visit(int x, int y, int z, int type, int blockData, BaseBlock tileEntity) {
+                final int index = ((y - minY) * zs + (z - minZ)) * xs + (x - minX);
+                types[index] = type;
+                data[index] = blockData;
+                if (tileEntity != null) {
+                    tileEntities.put(index, tileEntity);
+                }
+            }
+        });
+
+        for (int i = 1; i <= count; ++i) {
+            final Vector shift = new Vector(xs * dir.getBlockX() * i,
+                    ys * dir.getBlockY() * i, zs * dir.getBlockZ() * i);
+            final int shiftX = shift.getBlockX();
+            final int shiftY = shift.getBlockY();
+            final int shiftZ = shift.getBlockZ();
+
+            affected += setCuboidBlocks(min.add(shift), max.add(shift), new BulkBlockSource() {
+                public BaseBlock getBlock(int x, int y, int z, int existingType, int existingData) {
+                    final int index = ((y - shiftY - minY) * zs + (z - shiftZ - minZ)) * xs + (x - shiftX - minX);
+                    final int type = types[index];
+                    if (type == BlockID.AIR && !copyAir) {
+                        return null;
                     }
+
+                    final BaseBlock tileEntity = tileEntities.get(index);
+                    return tileEntity != null ? tileEntity : new BaseBlock(type, data[index]);
                 }
-            }
+            });
         }
 
         return affected;
@@ -1893,62 +2342,41 @@ public int moveCuboidRegion(Region region, Vector dir, int distance,
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int drainArea(Vector pos, double radius)
+    public int drainArea(final Vector pos, final double radius)
             throws MaxChangedBlocksException {
-        int affected = 0;
-
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
-
-        for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
-            for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
-                for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
-                    queue.push(new BlockVector(x, y, z));
-                }
-            }
-        }
-
-        while (!queue.empty()) {
-            BlockVector cur = queue.pop();
-
-            int type = getBlockType(cur);
-
-            // Check block type
-            if (type != BlockID.WATER && type != BlockID.STATIONARY_WATER
-                    && type != BlockID.LAVA && type != BlockID.STATIONARY_LAVA) {
-                continue;
-            }
-
-            // Don't want to revisit
-            if (visited.contains(cur)) {
-                continue;
-            }
+        final BaseBlock air = new BaseBlock(BlockID.AIR);
+        final int[] affected = { 0 };
 
-            visited.add(cur);
+        final FloodFill fill = new FloodFill(new FloodFillVisitor() {
+            public boolean matches(int x, int y, int z) {
+                final Vector cur = new Vector(x, y, z);
+                final int type = getBlockType(cur);
 
-            // Check radius
-            if (pos.distance(cur) > radius) {
-                continue;
+                // Check block type and radius
+                return (type == BlockID.WATER || type == BlockID.STATIONARY_WATER
+                        || type == BlockID.LAVA || type == BlockID.STATIONARY_LAVA)
+                        && pos.distance(cur) <= radius;
             }
 
-            for (int x = cur.getBlockX() - 1; x <= cur.getBlockX() + 1; ++x) {
-                for (int z = cur.getBlockZ() - 1; z <= cur.getBlockZ() + 1; ++z) {
-                    for (int y = cur.getBlockY() - 1; y <= cur.getBlockY() + 1; ++y) {
-                        BlockVector newPos = new BlockVector(x, y, z);
-
-                        if (!cur.equals(newPos)) {
-                            queue.push(newPos);
-                        }
-                    }
+            public boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                if (setBlock(new Vector(x, y, z), air)) {
+                    ++affected[0];
                 }
+                return true;
             }
+        }, FloodFill.ALL_NEIGHBOURS);
 
-            if (setBlock(cur, new BaseBlock(BlockID.AIR))) {
-                ++affected;
+        for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
+            for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
+                for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
+                    fill.add(x, y, z);
+                }
             }
         }
 
-        return affected;
+        fill.run();
+
+        return affected[0];
     }
 
     /**
@@ -1961,61 +2389,46 @@ public int drainArea(Vector pos, double radius)
      * @return number of blocks affected
      * @throws MaxChangedBlocksException
      */
-    public int fixLiquid(Vector pos, double radius, int moving, int stationary)
+    public int fixLiquid(final Vector pos, final double radius, final int moving, final int stationary)
             throws MaxChangedBlocksException {
-        int affected = 0;
+        final BaseBlock stationaryBlock = new BaseBlock(stationary);
+        final int[] affected = { 0 };
+
+        final FloodFill fill = new FloodFill(new FloodFillVisitor() {
+            public boolean matches(int x, int y, int z) {
+                final int type = getBlockType(new Vector(x, y, z));
+
+                // Check block type
+                return type == moving || type == stationary || type == BlockID.AIR;
+            }
+
+            public boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                final Vector cur = new Vector(x, y, z);
+                if (setBlock(cur, stationaryBlock)) {
+                    ++affected[0];
+                }
 
-        HashSet<BlockVector> visited = new HashSet<BlockVector>();
-        Stack<BlockVector> queue = new Stack<BlockVector>();
+                // Check radius
+                return pos.distance(cur) <= radius;
+            }
+        }, FloodFill.HORIZONTAL_FACES);
 
         for (int x = pos.getBlockX() - 1; x <= pos.getBlockX() + 1; ++x) {
             for (int z = pos.getBlockZ() - 1; z <= pos.getBlockZ() + 1; ++z) {
                 for (int y = pos.getBlockY() - 1; y <= pos.getBlockY() + 1; ++y) {
-                    int type = getBlock(new Vector(x, y, z)).getType();
+                    int type = getBlockType(new Vector(x, y, z));
 
                     // Check block type
                     if (type == moving || type == stationary) {
-                        queue.push(new BlockVector(x, y, z));
+                        fill.add(x, y, z);
                     }
                 }
             }
         }
 
-        BaseBlock stationaryBlock = new BaseBlock(stationary);
-
-        while (!queue.empty()) {
-            BlockVector cur = queue.pop();
-
-            int type = getBlockType(cur);
-
-            // Check block type
-            if (type != moving && type != stationary && type != BlockID.AIR) {
-                continue;
-            }
-
-            // Don't want to revisit
-            if (visited.contains(cur)) {
-                continue;
-            }
-
-            visited.add(cur);
-
-            if (setBlock(cur, stationaryBlock)) {
-                ++affected;
-            }
-
-            // Check radius
-            if (pos.distance(cur) > radius) {
-                continue;
-            }
-
-            queue.push(cur.add(1, 0, 0).toBlockVector());
-            queue.push(cur.add(-1, 0, 0).toBlockVector());
-            queue.push(cur.add(0, 0, 1).toBlockVector());
-            queue.push(cur.add(0, 0, -1).toBlockVector());
-        }
+        fill.run();
 
-        return affected;
+        return affected[0];
     }
 
     /**
@@ -2735,12 +3148,31 @@ public List<Countable<BaseBlock>> getBlockDistributionWithData(Region region) {
     }
 
     public int makeShape(final Region region, final Vector zero, final Vector unit, final Pattern pattern, final String expressionString, final boolean hollow) throws ExpressionException, MaxChangedBlocksException {
-        final Expression expression = Expression.compile(expressionString, "x", "y", "z", "type", "data");
-        expression.optimize();
+        final Expression expression = compileExpression(expressionString, "x", "y", "z", "type", "data");
 
         final RValue typeVariable = expression.getVariable("type", false);
         final RValue dataVariable = expression.getVariable("data", false);
 
+        final double zeroX = zero.getX();
+        final double zeroY = zero.getY();
+        final double zeroZ = zero.getZ();
+        final double unitX = unit.getX();
+        final double unitY = unit.getY();
+        final double unitZ = unit.getZ();
+
+        // Hollow shapes look up their neighbours one by one, and expressions
+        // that keep state have to see every point in order
+        final int threads = hollow || expression.hasDynamicFunctions() || expression.readsStoredVariables()
+                ? 0 : expressionThreads;
+        final BlockingQueue<Expression> expressions = new ArrayBlockingQueue<Expression>(Math.max(1, threads));
+        if (threads == 0) {
+            expressions.add(expression);
+        } else {
+            for (int i = 0; i < threads; ++i) {
+                expressions.add(compileExpression(expressionString, "x", "y", "z", "type", "data"));
+            }
+        }
+
         final ArbitraryShape shape = new ArbitraryShape(region) {
             @Override
             protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial) {
@@ -2757,49 +3189,167 @@ protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial)
                     return null;
                 }
             }
-        };
 
-        return shape.generate(this, pattern, hollow);
-    }
+            @Override
+            protected void getMaterials(int count, int[] x, int[] y, int[] z, BaseBlock[] defaultMaterials, BaseBlock[] materials) {
+                final Expression batchExpression;
+                try {
+                    batchExpression = expressions.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    Arrays.fill(materials, 0, count, null);
+                    return;
+                }
 
-    public int deformRegion(final Region region, final Vector zero, final Vector unit, final String expressionString) throws ExpressionException, MaxChangedBlocksException {
-        final Expression expression = Expression.compile(expressionString, "x", "y", "z");
-        expression.optimize();
+                try {
+                    getMaterials(batchExpression, count, x, y, z, defaultMaterials, materials);
+                } finally {
+                    expressions.add(batchExpression);
+                }
+            }
+
+            private void getMaterials(Expression expression, int count, int[] x, int[] y, int[] z, BaseBlock[] defaultMaterials, BaseBlock[] materials) {
+                final double[][] inputs = new double[5][count];
+                final double[][] outputs = { null, null, null, new double[count], new double[count] };
+                final double[] results = new double[count];
+
+                for (int i = 0; i < count; ++i) {
+                    inputs[0][i] = (x[i] - zeroX) / unitX;
+                    inputs[1][i] = (y[i] - zeroY) / unitY;
+                    inputs[2][i] = (z[i] - zeroZ) / unitZ;
+                    inputs[3][i] = defaultMaterials[i].getType();
+                    inputs[4][i] = defaultMaterials[i].getData();
+                }
 
-        final RValue x = expression.getVariable("x", false);
-        final RValue y = expression.getVariable("y", false);
-        final RValue z = expression.getVariable("z", false);
+                try {
+                    expression.evaluateBatch(count, inputs, new int[] { 1, 1, 1, 1, 1 }, results, outputs);
+
+                    for (int i = 0; i < count; ++i) {
+                        materials[i] = results[i] <= 0 ? null : new BaseBlock((int) outputs[3][i], (int) outputs[4][i]);
+                    }
+                } catch (Exception e) {
+                    // Go block by block, so only the failing ones are skipped
+                    final RValue typeVariable = expression.getVariable("type", false);
+                    final RValue dataVariable = expression.getVariable("data", false);
+                    for (int i = 0; i < count; ++i) {
+                        try {
+                            if (expression.evaluate(inputs[0][i], inputs[1][i], inputs[2][i], inputs[3][i], inputs[4][i]) <= 0) {
+                                materials[i] = null;
+                            } else {
+                                materials[i] = new BaseBlock((int) typeVariable.getValue(), (int) dataVariable.getValue());
+                            }
+                        } catch (Exception e2) {
+                            e2.printStackTrace();
+                            materials[i] = null;
+                        }
+                    }
+                }
+            }
+        };
 
-        Vector zero2 = zero.add(0.5, 0.5, 0.5);
+        final ExecutorService executor = threads == 0 ? null : createExpressionExecutor(threads);
+        try {
+            return shape.generate(this, pattern, hollow, executor);
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
 
-        final DoubleArrayList<BlockVector, BaseBlock> queue = new DoubleArrayList<BlockVector, BaseBlock>(false);
+    public int deformRegion(final Region region, final Vector zero, final Vector unit, final String expressionString) throws ExpressionException, MaxChangedBlocksException {
+        final Expression expression = compileExpression(expressionString, "x", "y", "z");
+
+        final double zeroX = zero.getX();
+        final double zeroY = zero.getY();
+        final double zeroZ = zero.getZ();
+        final double unitX = unit.getX();
+        final double unitY = unit.getY();
+        final double unitZ = unit.getZ();
+
+        final int threads = expression.hasDynamicFunctions() || expression.readsStoredVariables()
+                ? 0 : expressionThreads;
+        final BlockingQueue<Expression> expressions = new ArrayBlockingQueue<Expression>(Math.max(1, threads));
+        for (int i = 0; i < threads; ++i) {
+            expressions.add(compileExpression(expressionString, "x", "y", "z"));
+        }
+        final ExecutorService executor = threads == 0 ? null : createExpressionExecutor(threads);
+
+        final BlockChangeList queue = new BlockChangeList(false);
+        final LinkedList<DeformBatch> pending = new LinkedList<DeformBatch>();
+
+        try {
+            final Iterator<BlockVector> it = region.iterator();
+            while (it.hasNext() || !pending.isEmpty()) {
+                if (it.hasNext()) {
+                    final DeformBatch batch = new DeformBatch();
+                    while (batch.count < DeformBatch.SIZE && it.hasNext()) {
+                        final BlockVector position = it.next();
+
+                        // offset, scale
+                        batch.positions[batch.count] = position;
+                        batch.scaled[0][batch.count] = (position.getX() - zeroX) / unitX;
+                        batch.scaled[1][batch.count] = (position.getY() - zeroY) / unitY;
+                        batch.scaled[2][batch.count] = (position.getZ() - zeroZ) / unitZ;
+                        ++batch.count;
+                    }
 
-        for (BlockVector position : region) {
-            // offset, scale
-            final Vector scaled = position.subtract(zero).divide(unit);
+                    if (executor == null) {
+                        // transform
+                        batch.transform(expression);
+                    } else {
+                        batch.future = executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() throws Exception {
+                                final Expression batchExpression = expressions.take();
+                                try {
+                                    batch.transform(batchExpression);
+                                } finally {
+                                    expressions.add(batchExpression);
+                                }
+                                return null;
+                            }
+                        });
+                    }
+                    pending.add(batch);
 
-            // transform
-            expression.evaluate(scaled.getX(), scaled.getY(), scaled.getZ());
+                    if (pending.size() < threads * 2 && it.hasNext()) {
+                        continue;
+                    }
+                }
 
-            final Vector sourceScaled = new Vector(x.getValue(), y.getValue(), z.getValue());
+                final DeformBatch batch = pending.removeFirst();
+                batch.await();
 
-            // unscale, unoffset, round-nearest
-            final BlockVector sourcePosition = sourceScaled.multiply(unit).add(zero2).toBlockPoint();
+                for (int i = 0; i < batch.count; ++i) {
+                    // unscale, unoffset, round-nearest
+                    final BlockVector sourcePosition = new BlockVector(
+                            Math.floor(batch.transformed[0][i] * unitX + (zeroX + 0.5)),
+                            Math.floor(batch.transformed[1][i] * unitY + (zeroY + 0.5)),
+                            Math.floor(batch.transformed[2][i] * unitZ + (zeroZ + 0.5)));
 
-            // read block from world
-            BaseBlock material = new BaseBlock(world.getBlockType(sourcePosition), world.getBlockData(sourcePosition));
+                    // read block from world
+                    BaseBlock material = new BaseBlock(world.getBlockType(sourcePosition), world.getBlockData(sourcePosition));
 
-            // queue operation
-            queue.put(position, material);
+                    // queue operation
+                    queue.put(batch.positions[i], material);
+                }
+            }
+        } finally {
+            for (DeformBatch batch : pending) {
+                if (batch.future != null) {
+                    batch.future.cancel(false);
+                }
+            }
+            if (executor != null) {
+                executor.shutdown();
+            }
         }
 
         int affected = 0;
-        for (Map.Entry<BlockVector, BaseBlock> entry : queue) {
-            BlockVector position = entry.getKey();
-            BaseBlock material = entry.getValue();
-
+        for (int i = 0; i < queue.size(); ++i) {
             // set at new position
-            if (setBlock(position, material)) {
+            if (setBlock(queue.getPosition(i), queue.getBlock(i))) {
                 ++affected;
             }
         }
@@ -2807,6 +3357,64 @@ public int deformRegion(final Region region, final Vector zero, final Vector uni
         return affected;
     }
 
+    /**
+     * A run of positions transformed by {@link #deformRegion}.
+     */
+    private static final class DeformBatch {
+        private static final int SIZE = 256;
+
+        private final BlockVector[] positions = new BlockVector[SIZE];
+        private final double[][] scaled = new double[3][SIZE];
+        private final double[][] transformed = new double[3][SIZE];
+        private int count;
+        private Future<Void> future;
+
+        private void transform(Expression expression) throws EvaluationException {
+            expression.evaluateBatch(count, scaled, new int[] { 1, 1, 1 }, null, transformed);
+        }
+
+        private void await() throws EvaluationException {
+            if (future == null) {
+                return;
+            }
+
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new EvaluationException(-1, "Interrupted while evaluating expression");
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof EvaluationException) {
+                    throw (EvaluationException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new EvaluationException(-1, "Exception caught while evaluating expression", cause);
+            }
+        }
+    }
+
+    private static Expression compileExpression(String expressionString, String... variableNames) throws ExpressionException {
+        final Expression expression = Expression.compile(expressionString, variableNames);
+        expression.optimize();
+        expression.generateBytecode();
+        return expression;
+    }
+
+    private static ExecutorService createExpressionExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WorldEdit expression evaluator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
     Vector[] recurseDirections = {
         PlayerDirection.NORTH.vector(),
         PlayerDirection.EAST.vector(),
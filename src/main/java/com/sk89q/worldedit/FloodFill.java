@@ -0,0 +1,214 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A flood fill that runs without recursion. Pending positions are packed
+ * into longs in a growing ring buffer, and visited positions are kept as
+ * one bit each in 16*16*16 sections, so a fill is only limited by what
+ * the visitor allows, not by the stack or the number of objects.
+ */
+public class FloodFill {
+    /**
+     * Offsets of the 6 face neighbours, as x, y, z triples.
+     */
+    public static final int[] FACES = {
+        1, 0, 0, -1, 0, 0, 0, 0, 1, 0, 0, -1, 0, 1, 0, 0, -1, 0,
+    };
+
+    /**
+     * Offsets of the 4 horizontal face neighbours, as x, y, z triples.
+     */
+    public static final int[] HORIZONTAL_FACES = {
+        1, 0, 0, -1, 0, 0, 0, 0, 1, 0, 0, -1,
+    };
+
+    /**
+     * Offsets of all 26 surrounding positions, as x, y, z triples.
+     */
+    public static final int[] ALL_NEIGHBOURS;
+
+    static {
+        ALL_NEIGHBOURS = new int[26 * 3];
+        int i = 0;
+        for (int x = -1; x <= 1; ++x) {
+            for (int y = -1; y <= 1; ++y) {
+                for (int z = -1; z <= 1; ++z) {
+                    if (x != 0 || y != 0 || z != 0) {
+                        ALL_NEIGHBOURS[i++] = x;
+                        ALL_NEIGHBOURS[i++] = y;
+                        ALL_NEIGHBOURS[i++] = z;
+                    }
+                }
+            }
+        }
+    }
+
+    private final FloodFillVisitor visitor;
+    private final int[] neighbours;
+
+    private long[] queue = new long[64];
+    private int head;
+    private int size;
+
+    private final Map<Long, long[]> visited = new HashMap<Long, long[]>();
+    private long lastSectionKey;
+    private long[] lastSection;
+
+    /**
+     * Construct the fill.
+     *
+     * @param visitor
+     * @param neighbours offsets to spread to, as x, y, z triples
+     */
+    public FloodFill(FloodFillVisitor visitor, int[] neighbours) {
+        if (neighbours.length % 3 != 0) {
+            throw new IllegalArgumentException("Neighbour offsets must be x, y, z triples");
+        }
+
+        this.visitor = visitor;
+        this.neighbours = neighbours.clone();
+    }
+
+    /**
+     * Add a position to the fill, if it has not been reached yet and the
+     * visitor accepts it.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return true if the position was queued
+     */
+    public boolean add(int x, int y, int z) {
+        if (x < BlockChangeList.MIN_XZ || x > BlockChangeList.MAX_XZ
+                || z < BlockChangeList.MIN_XZ || z > BlockChangeList.MAX_XZ
+                || y < BlockChangeList.MIN_Y || y > BlockChangeList.MAX_Y) {
+            return false;
+        }
+
+        if (!markVisited(x, y, z) || !visitor.matches(x, y, z)) {
+            return false;
+        }
+
+        if (size == queue.length) {
+            final long[] grown = new long[queue.length * 2];
+            final int tail = queue.length - head;
+            System.arraycopy(queue, head, grown, 0, tail);
+            System.arraycopy(queue, 0, grown, tail, head);
+            queue = grown;
+            head = 0;
+        }
+
+        queue[(head + size) & (queue.length - 1)] = pack(x, y, z);
+        ++size;
+        return true;
+    }
+
+    /**
+     * Visit queued positions until the fill stops spreading.
+     *
+     * @return number of positions visited
+     * @throws MaxChangedBlocksException
+     */
+    public int run() throws MaxChangedBlocksException {
+        int count = 0;
+
+        while (size > 0) {
+            final long position = queue[head];
+            head = (head + 1) & (queue.length - 1);
+            --size;
+
+            final int x = (int) (position >> 38);
+            final int y = (int) (position << 52 >> 52);
+            final int z = (int) (position << 26 >> 38);
+
+            ++count;
+            if (!visitor.visit(x, y, z)) {
+                continue;
+            }
+
+            for (int i = 0; i < neighbours.length; i += 3) {
+                add(x + neighbours[i], y + neighbours[i + 1], z + neighbours[i + 2]);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Check whether the fill has reached a position, whether or not it
+     * matched.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean isVisited(int x, int y, int z) {
+        final long[] section = getSection(x, y, z, false);
+        return section != null && (section[bitIndex(x, y, z) >>> 6] & (1L << bitIndex(x, y, z))) != 0;
+    }
+
+    private boolean markVisited(int x, int y, int z) {
+        final long[] section = getSection(x, y, z, true);
+        final int index = bitIndex(x, y, z);
+        final long bit = 1L << index;
+        if ((section[index >>> 6] & bit) != 0) {
+            return false;
+        }
+
+        section[index >>> 6] |= bit;
+        return true;
+    }
+
+    private long[] getSection(int x, int y, int z, boolean create) {
+        final long key = pack(x >> 4, y >> 4, z >> 4);
+        if (lastSection != null && lastSectionKey == key) {
+            return lastSection;
+        }
+
+        long[] section = visited.get(key);
+        if (section == null) {
+            if (!create) {
+                return null;
+            }
+
+            section = new long[64];
+            visited.put(key, section);
+        }
+
+        lastSectionKey = key;
+        lastSection = section;
+        return section;
+    }
+
+    private static int bitIndex(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    private static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38)
+                | ((long) (z & 0x3FFFFFF) << 12)
+                | (y & 0xFFF);
+    }
+}
@@ -0,0 +1,48 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+/**
+ * Decides which positions a {@link FloodFill} covers and what happens to
+ * them.
+ */
+public interface FloodFillVisitor {
+    /**
+     * Check whether a position belongs to the fill. This is asked once per
+     * position, when the fill first reaches it.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return true to visit the position
+     */
+    public boolean matches(int x, int y, int z);
+
+    /**
+     * Visit a position that belongs to the fill.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return true to spread the fill to the neighbours of the position
+     * @throws MaxChangedBlocksException
+     */
+    public boolean visit(int x, int y, int z) throws MaxChangedBlocksException;
+}
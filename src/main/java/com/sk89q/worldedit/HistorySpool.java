@@ -0,0 +1,179 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * Keeps the undo history of all sessions within the configured memory
+ * budgets by writing the least recently used edit sessions out to disk.
+ */
+public class HistorySpool {
+    private static final String FILE_PREFIX = "history-";
+    private static final String FILE_SUFFIX = ".dat";
+
+    private final LocalConfiguration config;
+    private final File dir;
+    private final LinkedHashMap<EditSession, Boolean> resident =
+            new LinkedHashMap<EditSession, Boolean>(16, 0.75f, true);
+    private long nextFileId = 0;
+
+    /**
+     * Construct the spool. Files left behind in the directory by a previous
+     * run are deleted.
+     *
+     * @param config
+     * @param dir
+     */
+    public HistorySpool(LocalConfiguration config, File dir) {
+        this.config = config;
+        this.dir = dir;
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the per-session history budget in bytes, or -1 if unlimited.
+     *
+     * @return
+     */
+    public long getSessionLimit() {
+        return toBytes(config.historySessionMemoryLimit);
+    }
+
+    /**
+     * Get the global history budget in bytes, or -1 if unlimited.
+     *
+     * @return
+     */
+    public long getGlobalLimit() {
+        return toBytes(config.historyGlobalMemoryLimit);
+    }
+
+    /**
+     * Mark an edit session as most recently used, reading its history back
+     * into the budget, and spill other sessions if the global budget is
+     * exceeded.
+     *
+     * @param editSession
+     */
+    public synchronized void touch(EditSession editSession) {
+        resident.put(editSession, Boolean.TRUE);
+
+        long limit = getGlobalLimit();
+        if (limit < 0) {
+            return;
+        }
+
+        long usage = 0;
+        for (EditSession session : resident.keySet()) {
+            usage += session.getHistoryMemoryUsage();
+        }
+
+        Iterator<EditSession> it = resident.keySet().iterator();
+        while (usage > limit && it.hasNext()) {
+            EditSession session = it.next();
+            if (session == editSession) {
+                continue;
+            }
+
+            long freed = session.getHistoryMemoryUsage();
+            if (spill(session)) {
+                usage -= freed;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Spill the oldest sessions of a history until it fits within the
+     * per-session budget. The newest entry is never spilled.
+     *
+     * @param history
+     */
+    public synchronized void enforceSessionLimit(List<EditSession> history) {
+        long limit = getSessionLimit();
+        if (limit < 0) {
+            return;
+        }
+
+        long usage = 0;
+        for (EditSession session : history) {
+            usage += session.getHistoryMemoryUsage();
+        }
+
+        for (int i = 0; usage > limit && i < history.size() - 1; ++i) {
+            EditSession session = history.get(i);
+            if (!session.isHistoryResident()) {
+                continue;
+            }
+
+            long freed = session.getHistoryMemoryUsage();
+            if (spill(session)) {
+                usage -= freed;
+                resident.remove(session);
+            }
+        }
+    }
+
+    /**
+     * Forget about an edit session and delete anything it has on disk.
+     *
+     * @param editSession
+     */
+    public synchronized void release(EditSession editSession) {
+        resident.remove(editSession);
+        editSession.discardHistory();
+    }
+
+    private boolean spill(EditSession editSession) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            WorldEdit.logger.warning("Could not create history swap directory " + dir);
+            return false;
+        }
+
+        File file = new File(dir, FILE_PREFIX + (nextFileId++) + FILE_SUFFIX);
+        try {
+            editSession.spillHistory(file);
+            return true;
+        } catch (IOException e) {
+            WorldEdit.logger.log(Level.WARNING, "Failed to write edit session history to " + file, e);
+            return false;
+        }
+    }
+
+    private static long toBytes(int megabytes) {
+        return megabytes < 0 ? -1 : megabytes * 1024L * 1024L;
+    }
+}
@@ -0,0 +1,156 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit;
+
+/**
+ * Applies the queued changes of an {@link EditSession} a slice at a time,
+ * spending at most a fixed amount of time per server tick.
+ */
+public class IncrementalFlush implements Runnable {
+    /**
+     * Minimum time between two progress messages, in milliseconds.
+     */
+    private static final long PROGRESS_INTERVAL = 5000;
+
+    private final ServerInterface server;
+    private final LocalPlayer player;
+    private final EditSession editSession;
+    private final long budget;
+    private final int total;
+    private int taskId = -1;
+    private boolean done = false;
+    private long lastProgress;
+
+    /**
+     * Construct the flush.
+     *
+     * @param server
+     * @param player player to report progress to
+     * @param editSession
+     * @param budget time to spend per tick, in milliseconds
+     */
+    public IncrementalFlush(ServerInterface server, LocalPlayer player, EditSession editSession, int budget) {
+        this.server = server;
+        this.player = player;
+        this.editSession = editSession;
+        this.budget = Math.max(1, budget) * 1000000L;
+        this.total = editSession.getQueuedBlockCount();
+    }
+
+    /**
+     * Apply the first slice right away and schedule the rest. If the
+     * server cannot schedule tasks, everything is applied now.
+     *
+     * @return whether the flush completed during this call
+     */
+    public boolean start() {
+        if (editSession.flushQueue(budget)) {
+            done = true;
+            return true;
+        }
+
+        taskId = server.schedule(1, 1, this);
+        if (taskId == -1) {
+            finish();
+            return true;
+        }
+
+        lastProgress = System.currentTimeMillis();
+        player.print("Applying " + total + " block changes over the next ticks (//cancel to stop).");
+        return false;
+    }
+
+    public void run() {
+        if (done) {
+            return;
+        }
+
+        if (editSession.flushQueue(budget)) {
+            stop();
+            player.print("Finished applying " + total + " block changes.");
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (now - lastProgress >= PROGRESS_INTERVAL) {
+            lastProgress = now;
+            player.print("Applying block changes: " + getProgress() + "% done.");
+        }
+    }
+
+    /**
+     * Apply everything that is left right away.
+     */
+    public void finish() {
+        if (done) {
+            return;
+        }
+
+        editSession.flushQueue();
+        stop();
+    }
+
+    /**
+     * Stop without applying the remaining changes. The edit session's
+     * history still covers all of them.
+     */
+    public void cancel() {
+        if (done) {
+            return;
+        }
+
+        editSession.cancelQueue();
+        stop();
+    }
+
+    /**
+     * Returns whether the flush has completed or was cancelled.
+     *
+     * @return
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Get the percentage of changes applied so far.
+     *
+     * @return
+     */
+    public int getProgress() {
+        if (done || total == 0) {
+            return 100;
+        }
+
+        return (int) (editSession.getFlushedBlockCount() * 100L / total);
+    }
+
+    public EditSession getEditSession() {
+        return editSession;
+    }
+
+    private void stop() {
+        done = true;
+        if (taskId != -1) {
+            server.cancelTask(taskId);
+            taskId = -1;
+        }
+    }
+}
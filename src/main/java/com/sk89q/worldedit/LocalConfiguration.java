@@ -86,6 +86,9 @@ public abstract class LocalConfiguration {
     public int maxPolygonalPoints = 20;
     public String shellSaveType = "";
     public SnapshotRepository snapshotRepo = null;
+    public boolean snapshotMemoryMapped = true;
+    public int snapshotDecodeThreads = -1;
+    public int expressionThreads = -1;
     public int maxRadius = -1;
     public int maxSuperPickaxeSize = 5;
     public int maxBrushRadius = 6;
@@ -104,12 +107,21 @@ public abstract class LocalConfiguration {
     public int scriptTimeout = 3000;
     public Set<Integer> allowedDataCycleBlocks = new HashSet<Integer>();
     public String saveDir = "schematics";
+    public int saveCompressionLevel = -1;
+    public int saveCompressionThreads = 1;
+    public int saveIOThreads = 1;
+    public int saveMaxJobs = 8;
+    public int saveCacheSize = 32;
     public String scriptsDir = "craftscripts";
     public boolean showFirstUseVersion = true;
     public int butcherDefaultRadius = -1;
     public int butcherMaxRadius = -1;
     public boolean allowExtraDataValues = false;
     public boolean allowSymlinks = false;
+    public int historySessionMemoryLimit = -1;
+    public int historyGlobalMemoryLimit = -1;
+    public String historySwapDir = "history";
+    public int incrementalFlushBudget = 0;
 
     /**
      * Loads the configuration.
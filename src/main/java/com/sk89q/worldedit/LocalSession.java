@@ -41,6 +41,7 @@
 import com.sk89q.worldedit.regions.CuboidRegionSelector;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.regions.RegionSelector;
+import com.sk89q.worldedit.schematic.SchematicJob;
 
 /**
  * An instance of this represents the WorldEdit session of a user. A session
@@ -75,6 +76,8 @@ public class LocalSession {
     private boolean fastMode = false;
     private Mask mask;
     private TimeZone timezone = TimeZone.getDefault();
+    private IncrementalFlush pendingFlush;
+    private SchematicJob schematicJob;
 
     /**
      * Construct the object.
@@ -107,6 +110,12 @@ public void setTimezone(TimeZone timezone) {
      * Clear history.
      */
     public void clearHistory() {
+        HistorySpool spool = getHistorySpool();
+        if (spool != null) {
+            for (EditSession editSession : history) {
+                spool.release(editSession);
+            }
+        }
         history.clear();
         historyPointer = 0;
     }
@@ -121,15 +130,111 @@ public void remember(EditSession editSession) {
         // Don't store anything if no changes were made
         if (editSession.size() == 0) return;
 
+        HistorySpool spool = getHistorySpool();
+
         // Destroy any sessions after this undo point
         while (historyPointer < history.size()) {
-            history.remove(historyPointer);
+            release(spool, history.remove(historyPointer));
         }
+        editSession.trimHistory();
         history.add(editSession);
         while (history.size() > MAX_HISTORY_SIZE) {
-            history.remove(0);
+            release(spool, history.remove(0));
         }
         historyPointer = history.size();
+
+        if (spool != null) {
+            spool.enforceSessionLimit(history);
+            spool.touch(editSession);
+        }
+    }
+
+    /**
+     * Get the edit that is still being applied over several ticks.
+     *
+     * @return the flush, or null if there is none
+     */
+    public IncrementalFlush getPendingFlush() {
+        if (pendingFlush != null && pendingFlush.isDone()) {
+            pendingFlush = null;
+        }
+        return pendingFlush;
+    }
+
+    /**
+     * Set the edit that is being applied over several ticks. Any previous
+     * one is finished first.
+     *
+     * @param flush
+     */
+    public void setPendingFlush(IncrementalFlush flush) {
+        finishPendingFlush();
+        pendingFlush = flush;
+    }
+
+    /**
+     * Apply the rest of an edit that is still in progress right away.
+     */
+    public void finishPendingFlush() {
+        if (pendingFlush != null) {
+            pendingFlush.finish();
+            pendingFlush = null;
+        }
+    }
+
+    /**
+     * Stop applying an edit that is still in progress.
+     *
+     * @return whether there was an edit in progress
+     */
+    public boolean cancelPendingFlush() {
+        IncrementalFlush flush = getPendingFlush();
+        if (flush == null) {
+            return false;
+        }
+
+        flush.cancel();
+        pendingFlush = null;
+        return true;
+    }
+
+    /**
+     * Get the schematic that is being loaded or saved in the background.
+     *
+     * @return the job, or null if there is none
+     */
+    public SchematicJob getSchematicJob() {
+        if (schematicJob != null && schematicJob.isDone()) {
+            schematicJob = null;
+        }
+        return schematicJob;
+    }
+
+    /**
+     * Set the schematic that is being loaded or saved in the background.
+     *
+     * @param job
+     */
+    public void setSchematicJob(SchematicJob job) {
+        schematicJob = job;
+    }
+
+    private static HistorySpool getHistorySpool() {
+        WorldEdit worldEdit = WorldEdit.getInstance();
+        return worldEdit == null ? null : worldEdit.getHistorySpool();
+    }
+
+    private static void release(HistorySpool spool, EditSession editSession) {
+        if (spool != null) {
+            spool.release(editSession);
+        }
+    }
+
+    private static void touch(EditSession editSession) {
+        HistorySpool spool = getHistorySpool();
+        if (spool != null) {
+            spool.touch(editSession);
+        }
     }
 
     /**
@@ -140,6 +245,10 @@ public void remember(EditSession editSession) {
      * @return whether anything was undone
      */
     public EditSession undo(BlockBag newBlockBag, LocalPlayer player) {
+        // History covers everything that was queued, so undoing restores
+        // whatever part of the edit was already applied
+        cancelPendingFlush();
+
         --historyPointer;
         if (historyPointer >= 0) {
             EditSession editSession = history.get(historyPointer);
@@ -148,6 +257,7 @@ public EditSession undo(BlockBag newBlockBag, LocalPlayer player) {
             newEditSession.enableQueue();
             newEditSession.setFastMode(fastMode);
             editSession.undo(newEditSession);
+            touch(editSession);
             return editSession;
         } else {
             historyPointer = 0;
@@ -163,6 +273,8 @@ public EditSession undo(BlockBag newBlockBag, LocalPlayer player) {
      * @return whether anything was redone
      */
     public EditSession redo(BlockBag newBlockBag, LocalPlayer player) {
+        cancelPendingFlush();
+
         if (historyPointer < history.size()) {
             EditSession editSession = history.get(historyPointer);
             EditSession newEditSession = WorldEdit.getInstance().getEditSessionFactory()
@@ -170,6 +282,7 @@ public EditSession redo(BlockBag newBlockBag, LocalPlayer player) {
             newEditSession.enableQueue();
             newEditSession.setFastMode(fastMode);
             editSession.redo(newEditSession);
+            touch(editSession);
             ++historyPointer;
             return editSession;
         }
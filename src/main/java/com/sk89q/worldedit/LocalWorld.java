@@ -99,6 +99,18 @@ public boolean setBlockTypeFast(Vector pt, int type) {
      */
     public abstract int getBlockType(Vector pt);
 
+    /**
+     * Get block type.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockType(int x, int y, int z) {
+        return getBlockType(new Vector(x, y, z));
+    }
+
     /**
      * Set block data.
      *
@@ -168,6 +180,18 @@ public boolean setTypeIdAndDataFast(Vector pt, int type, int data) {
      */
     public abstract int getBlockData(Vector pt);
 
+    /**
+     * Get block data.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public int getBlockData(int x, int y, int z) {
+        return getBlockData(new Vector(x, y, z));
+    }
+
     /**
      * Get block light level.
      *
@@ -427,6 +451,99 @@ public boolean usesBlockData(int type) {
     public void checkLoadedChunk(Vector pt) {
     }
 
+    /**
+     * Get the index of a block in the arrays passed to
+     * {@link #getBlocks(int, int, int, int, int[], int[])} and
+     * {@link #setBlocks(int, int, int, int, int[], int[], boolean)}.
+     *
+     * @param x world X, only the lower 4 bits are used
+     * @param y world Y
+     * @param z world Z, only the lower 4 bits are used
+     * @param minY the lowest Y of the section
+     * @return
+     */
+    public static int getColumnIndex(int x, int y, int z, int minY) {
+        return ((y - minY) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    /**
+     * Read the types and data values of a 16x16 section of a chunk column,
+     * from minY to maxY inclusive, in one pass. The arrays are indexed with
+     * {@link #getColumnIndex(int, int, int, int)} and must have room for
+     * 256 * (maxY - minY + 1) blocks.
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @param minY
+     * @param maxY
+     * @param types
+     * @param data
+     */
+    public void getBlocks(int chunkX, int chunkZ, int minY, int maxY, int[] types, int[] data) {
+        final int baseX = chunkX << 4;
+        final int baseZ = chunkZ << 4;
+        checkLoadedChunk(new Vector(baseX, 0, baseZ));
+
+        for (int y = minY; y <= maxY; ++y) {
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    final Vector pt = new Vector(baseX + x, y, baseZ + z);
+                    final int index = getColumnIndex(x, y, z, minY);
+                    types[index] = getBlockType(pt);
+                    data[index] = getBlockData(pt);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the types and data values of a 16x16 section of a chunk column,
+     * laid out as in {@link #getBlocks(int, int, int, int, int[], int[])}.
+     * Entries with a negative type are left untouched. Only the type and
+     * data are set; tile entity data has to be copied separately.
+     *
+     * @param chunkX
+     * @param chunkZ
+     * @param minY
+     * @param maxY
+     * @param types
+     * @param data
+     * @param notifyAdjacent
+     * @return number of blocks that were changed
+     */
+    public int setBlocks(int chunkX, int chunkZ, int minY, int maxY, int[] types, int[] data, boolean notifyAdjacent) {
+        final int baseX = chunkX << 4;
+        final int baseZ = chunkZ << 4;
+        checkLoadedChunk(new Vector(baseX, 0, baseZ));
+
+        int changed = 0;
+        for (int y = minY; y <= maxY; ++y) {
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    final int index = getColumnIndex(x, y, z, minY);
+                    final int type = types[index];
+                    if (type < 0) {
+                        continue;
+                    }
+
+                    final Vector pt = new Vector(baseX + x, y, baseZ + z);
+                    final boolean result;
+                    if (notifyAdjacent) {
+                        result = setTypeIdAndData(pt, type, data[index]);
+                    } else {
+                        result = setTypeIdAndDataFast(pt, type, data[index]);
+                    }
+
+                    if (result) {
+                        ++changed;
+                    }
+                }
+            }
+        }
+
+        return changed;
+    }
+
     /**
      * Compare if the other world is equal.
      *
@@ -71,6 +71,14 @@ public int schedule(long delay, long period, Runnable task) {
         return -1;
     }
 
+    /**
+     * Cancels a task scheduled with {@link #schedule(long, long, Runnable)}.
+     *
+     * @param taskId Task id number returned when scheduling
+     */
+    public void cancelTask(int taskId) {
+    }
+
     public List<LocalWorld> getWorlds() {
         return Collections.emptyList();
     }
@@ -69,6 +69,7 @@
 import com.sk89q.worldedit.commands.InsufficientArgumentsException;
 import com.sk89q.worldedit.commands.NavigationCommands;
 import com.sk89q.worldedit.commands.RegionCommands;
+import com.sk89q.worldedit.commands.RunsDuringEdit;
 import com.sk89q.worldedit.commands.ScriptingCommands;
 import com.sk89q.worldedit.commands.SelectionCommands;
 import com.sk89q.worldedit.commands.SnapshotUtilCommands;
@@ -91,6 +92,8 @@
 import com.sk89q.worldedit.patterns.RandomFillPattern;
 import com.sk89q.worldedit.patterns.SingleBlockPattern;
 import com.sk89q.worldedit.regions.RegionSelector;
+import com.sk89q.worldedit.schematic.SchematicCache;
+import com.sk89q.worldedit.schematic.SchematicJobQueue;
 import com.sk89q.worldedit.scripting.CraftScriptContext;
 import com.sk89q.worldedit.scripting.CraftScriptEngine;
 import com.sk89q.worldedit.scripting.RhinoCraftScriptEngine;
@@ -154,6 +157,21 @@ public class WorldEdit {
      */
     private final HashMap<String, LocalSession> sessions = new HashMap<String, LocalSession>();
 
+    /**
+     * Keeps undo history within the configured memory budgets.
+     */
+    private final HistorySpool historySpool;
+
+    /**
+     * Loads and saves schematics in the background.
+     */
+    private final SchematicJobQueue schematicJobQueue;
+
+    /**
+     * Keeps recently loaded schematics.
+     */
+    private final SchematicCache schematicCache;
+
     /**
      * Initialize statically.
      */
@@ -171,6 +189,9 @@ public WorldEdit(ServerInterface server, final LocalConfiguration config) {
         instance = this;
         this.server = server;
         this.config = config;
+        historySpool = new HistorySpool(config, new File(config.getWorkingDirectory(), config.historySwapDir));
+        schematicJobQueue = new SchematicJobQueue(server, config.saveIOThreads, config.saveMaxJobs);
+        schematicCache = new SchematicCache(config.saveCacheSize < 0 ? -1 : config.saveCacheSize * 1024L * 1024L);
 
         if (!config.logFile.equals("")) {
             try {
@@ -254,6 +275,12 @@ public void invokeMethod(Method parent, String[] args,
                     }
                     commandLogger.info(msg);
                 }
+                if (!method.isAnnotationPresent(RunsDuringEdit.class)) {
+                    // Commands that read or edit the world must see the
+                    // result of an edit that is still being applied
+                    getSession(player).finishPendingFlush();
+                }
+
                 super.invokeMethod(parent, args, player, method, instance, methodArgs, level);
             }
         };
@@ -1090,7 +1117,10 @@ public FlipDirection getFlipDirection(LocalPlayer player, String dirStr)
      */
     public void removeSession(LocalPlayer player) {
         synchronized (sessions) {
-            sessions.remove(player.getName());
+            LocalSession session = sessions.remove(player.getName());
+            if (session != null) {
+                session.clearHistory();
+            }
         }
     }
 
@@ -1099,6 +1129,9 @@ public void removeSession(LocalPlayer player) {
      */
     public void clearSessions() {
         synchronized (sessions) {
+            for (LocalSession session : sessions.values()) {
+                session.clearHistory();
+            }
             sessions.clear();
         }
     }
@@ -1202,6 +1235,7 @@ public void flushExpiredSessions(SessionCheck checker) {
                 Map.Entry<String, LocalSession> entry = it.next();
                 if (entry.getValue().hasExpired()
                         && !checker.isOnlinePlayer(entry.getKey())) {
+                    entry.getValue().clearHistory();
                     it.remove();
                 }
             }
@@ -1238,6 +1272,7 @@ public boolean handleArmSwing(LocalPlayer player) {
         Tool tool = session.getTool(player.getItemInHand());
         if (tool != null && tool instanceof DoubleActionTraceTool) {
             if (tool.canUse(player)) {
+                session.finishPendingFlush();
                 ((DoubleActionTraceTool) tool).actSecondary(server, config, player, session);
                 return true;
             }
@@ -1274,6 +1309,7 @@ public boolean handleRightClick(LocalPlayer player) {
         Tool tool = session.getTool(player.getItemInHand());
         if (tool != null && tool instanceof TraceTool) {
             if (tool.canUse(player)) {
+                session.finishPendingFlush();
                 ((TraceTool) tool).actPrimary(server, config, player, session);
                 return true;
             }
@@ -1312,6 +1348,7 @@ public boolean handleBlockRightClick(LocalPlayer player, WorldVector clicked) {
         Tool tool = session.getTool(player.getItemInHand());
         if (tool != null && tool instanceof BlockTool) {
             if (tool.canUse(player)) {
+                session.finishPendingFlush();
                 ((BlockTool) tool).actPrimary(server, config, player, session, clicked);
                 return true;
             }
@@ -1350,6 +1387,7 @@ public boolean handleBlockLeftClick(LocalPlayer player, WorldVector clicked) {
         if (player.isHoldingPickAxe() && session.hasSuperPickAxe()) {
             final BlockTool superPickaxe = session.getSuperPickaxe();
             if (superPickaxe != null && superPickaxe.canUse(player)) {
+                session.finishPendingFlush();
                 return superPickaxe.actPrimary(server, config, player, session, clicked);
             }
         }
@@ -1357,6 +1395,7 @@ public boolean handleBlockLeftClick(LocalPlayer player, WorldVector clicked) {
         Tool tool = session.getTool(player.getItemInHand());
         if (tool != null && tool instanceof DoubleActionBlockTool) {
             if (tool.canUse(player)) {
+                session.finishPendingFlush();
                 ((DoubleActionBlockTool) tool).actSecondary(server, config, player, session, clicked);
                 return true;
             }
@@ -1385,6 +1424,9 @@ public boolean handleCommand(LocalPlayer player, String[] split) {
             LocalSession session = getSession(player);
             EditSession editSession = session.createEditSession(player);
             editSession.enableQueue();
+            if (config.incrementalFlushBudget > 0 && editSession.getBlockBag() == null) {
+                editSession.setIncremental(true);
+            }
 
             session.tellVersion(player);
 
@@ -1406,7 +1448,14 @@ public boolean handleCommand(LocalPlayer player, String[] split) {
                 return false;
             } finally {
                 session.remember(editSession);
-                editSession.flushQueue();
+                if (editSession.isIncremental()) {
+                    IncrementalFlush flush = new IncrementalFlush(server, player, editSession, config.incrementalFlushBudget);
+                    if (!flush.start()) {
+                        session.setPendingFlush(flush);
+                    }
+                } else {
+                    editSession.flushQueue();
+                }
 
                 if (config.profile) {
                     long time = System.currentTimeMillis() - start;
@@ -1595,6 +1644,33 @@ public LocalConfiguration getConfiguration() {
         return config;
     }
 
+    /**
+     * Get the spool that keeps undo history within its memory budgets.
+     *
+     * @return
+     */
+    public HistorySpool getHistorySpool() {
+        return historySpool;
+    }
+
+    /**
+     * Get the queue that loads and saves schematics in the background.
+     *
+     * @return
+     */
+    public SchematicJobQueue getSchematicJobQueue() {
+        return schematicJobQueue;
+    }
+
+    /**
+     * Get the cache of recently loaded schematics.
+     *
+     * @return
+     */
+    public SchematicCache getSchematicCache() {
+        return schematicCache;
+    }
+
     /**
      * Get the server interface.
      *
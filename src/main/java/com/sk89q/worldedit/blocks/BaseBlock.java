@@ -28,7 +28,7 @@
  * @see Block new class to replace this one
  * @author sk89q
  */
-public class BaseBlock extends Block {
+public class BaseBlock extends Block implements Cloneable {
     
     /**
      * Construct the block with its type, with default data value 0.
@@ -131,6 +131,20 @@ public BaseBlock flip(FlipDirection direction) {
         return this;
     }
 
+    /**
+     * Create a copy of this block, so that rotating or flipping one of them
+     * doesn't change the other. Subclasses with mutable fields copy them.
+     *
+     * @return the copy
+     */
+    public BaseBlock copy() {
+        try {
+            return (BaseBlock) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     /**
      * Checks whether the type ID and data value are equal.
      */
@@ -420,6 +420,43 @@ public static boolean shouldPlaceFinal(int id)
 	{
 		return shouldPlaceFinal.contains(id);
 	}
+
+	/**
+	 * HashSet for isTileEntityBlock.
+	 */
+	private static final Set<Integer> isTileEntityBlock = new HashSet<Integer>();
+
+	static
+	{
+		isTileEntityBlock.add(BlockID.DISPENSER);
+		isTileEntityBlock.add(BlockID.NOTE_BLOCK);
+		isTileEntityBlock.add(BlockID.PISTON_MOVING_PIECE);
+		isTileEntityBlock.add(BlockID.MOB_SPAWNER);
+		isTileEntityBlock.add(BlockID.CHEST);
+		isTileEntityBlock.add(BlockID.FURNACE);
+		isTileEntityBlock.add(BlockID.BURNING_FURNACE);
+		isTileEntityBlock.add(BlockID.SIGN_POST);
+		isTileEntityBlock.add(BlockID.WALL_SIGN);
+		isTileEntityBlock.add(BlockID.JUKEBOX);
+		isTileEntityBlock.add(BlockID.ENCHANTMENT_TABLE);
+		isTileEntityBlock.add(BlockID.BREWING_STAND);
+		isTileEntityBlock.add(BlockID.END_PORTAL);
+		isTileEntityBlock.add(BlockID.COMMAND_BLOCK);
+		isTileEntityBlock.add(BlockID.BEACON);
+		isTileEntityBlock.add(BlockID.HEAD);
+	}
+
+	/**
+	 * Checks to see whether a block carries tile entity data, such as the
+	 * contents of a chest or the text of a sign.
+	 *
+	 * @param id
+	 * @return
+	 */
+	public static boolean isTileEntityBlock(int id)
+	{
+		return isTileEntityBlock.contains(id);
+	}
 	
 	/**
 	 * HashMap for getBlockBagItem.
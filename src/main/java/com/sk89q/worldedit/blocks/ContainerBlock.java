@@ -68,6 +68,13 @@ public BaseItemStack[] getItems() {
     public void setItems(BaseItemStack[] items) {
         this.items = items;
     }
+
+    @Override
+    public ContainerBlock copy() {
+        ContainerBlock copy = (ContainerBlock) super.copy();
+        copy.items = items == null ? null : items.clone();
+        return copy;
+    }
     
     @Override
     public boolean hasNbtData() {
@@ -82,6 +82,13 @@ public void setText(String[] text) {
         }
         this.text = text;
     }
+
+    @Override
+    public SignBlock copy() {
+        SignBlock copy = (SignBlock) super.copy();
+        copy.text = text.clone();
+        return copy;
+    }
     
     @Override
     public boolean hasNbtData() {
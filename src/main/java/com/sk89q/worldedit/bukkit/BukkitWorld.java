@@ -36,6 +36,8 @@
 import java.util.logging.Logger;
 
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.ChunkSnapshot;
 import org.bukkit.Effect;
 import org.bukkit.Location;
 import org.bukkit.Material;
@@ -100,6 +102,11 @@
 public class BukkitWorld extends LocalWorld {
 
     private static final Logger logger = WorldEdit.logger;
+    /**
+     * Height of the smallest section that {@link #getBlocks(int, int, int, int, int[], int[])}
+     * reads through a chunk snapshot.
+     */
+    private static final int SNAPSHOT_MIN_HEIGHT = 16;
     private World world;
 
     /**
@@ -188,6 +195,11 @@ public int getBlockType(Vector pt) {
         return world.getBlockTypeIdAt(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
     }
 
+    @Override
+    public int getBlockType(int x, int y, int z) {
+        return world.getBlockTypeIdAt(x, y, z);
+    }
+
     /**
      * Set block data.
      *
@@ -221,6 +233,70 @@ public int getBlockData(Vector pt) {
         return world.getBlockAt(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ()).getData();
     }
 
+    @Override
+    public int getBlockData(int x, int y, int z) {
+        return world.getBlockAt(x, y, z).getData();
+    }
+
+    @Override
+    public void getBlocks(int chunkX, int chunkZ, int minY, int maxY, int[] types, int[] data) {
+        final Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+
+        // A snapshot copies the whole column, which only pays off for a
+        // section at least as tall as a chunk section
+        if (maxY - minY + 1 < SNAPSHOT_MIN_HEIGHT) {
+            for (int y = minY; y <= maxY; ++y) {
+                for (int z = 0; z < 16; ++z) {
+                    for (int x = 0; x < 16; ++x) {
+                        final int index = getColumnIndex(x, y, z, minY);
+                        final Block block = chunk.getBlock(x, y, z);
+                        types[index] = block.getTypeId();
+                        data[index] = block.getData();
+                    }
+                }
+            }
+            return;
+        }
+
+        final ChunkSnapshot snapshot = chunk.getChunkSnapshot(false, false, false);
+
+        for (int y = minY; y <= maxY; ++y) {
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    final int index = getColumnIndex(x, y, z, minY);
+                    types[index] = snapshot.getBlockTypeId(x, y, z);
+                    data[index] = snapshot.getBlockData(x, y, z);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int setBlocks(int chunkX, int chunkZ, int minY, int maxY, int[] types, int[] data, boolean notifyAdjacent) {
+        // Bukkit has no bulk setter, so every position still goes through
+        // a Block; this only saves looking up the chunk for each one
+        final Chunk chunk = world.getChunkAt(chunkX, chunkZ);
+
+        int changed = 0;
+        for (int y = minY; y <= maxY; ++y) {
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    final int index = getColumnIndex(x, y, z, minY);
+                    final int type = types[index];
+                    if (type < 0) {
+                        continue;
+                    }
+
+                    if (chunk.getBlock(x, y, z).setTypeIdAndData(type, (byte) data[index], notifyAdjacent)) {
+                        ++changed;
+                    }
+                }
+            }
+        }
+
+        return changed;
+    }
+
     /**
      * Get block light level.
      *
@@ -135,6 +135,7 @@ public void onDisable() {
                 lPlayer.dispatchCUIHandshake();
             }
         }
+        controller.getSchematicJobQueue().shutdown(30000);
         controller.clearSessions();
         for (Handler h : controller.commandLogger.getHandlers()) {
             h.close();
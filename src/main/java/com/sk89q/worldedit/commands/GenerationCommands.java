@@ -385,6 +385,8 @@ public void generate(CommandContext args, LocalSession session, LocalPlayer play
             if (unit.getZ() == 0) unit = unit.setZ(1.0);
         }
 
+        editSession.setExpressionThreads(we.getConfiguration().expressionThreads);
+
         try {
             final int affected = editSession.makeShape(region, zero, unit, pattern, expression, hollow);
             player.findFreePosition();
@@ -44,6 +44,7 @@ public HistoryCommands(WorldEdit we) {
         max = 2
     )
     @CommandPermissions("worldedit.history.undo")
+    @RunsDuringEdit
     public void undo(CommandContext args, LocalSession session, LocalPlayer player,
             EditSession editSession) throws WorldEditException {
         
@@ -79,6 +80,7 @@ public void undo(CommandContext args, LocalSession session, LocalPlayer player,
         max = 2
     )
     @CommandPermissions("worldedit.history.redo")
+    @RunsDuringEdit
     public void redo(CommandContext args, LocalSession session, LocalPlayer player,
             EditSession editSession) throws WorldEditException {
         
@@ -120,4 +122,27 @@ public void clearHistory(CommandContext args, LocalSession session, LocalPlayer
         session.clearHistory();
         player.print("History cleared.");
     }
+
+    @Command(
+        aliases = { "/cancel", "cancel" },
+        usage = "",
+        desc = "Stop applying an edit that is still in progress",
+        min = 0,
+        max = 0
+    )
+    @CommandPermissions("worldedit.history.cancel")
+    @RunsDuringEdit
+    public void cancel(CommandContext args, LocalSession session, LocalPlayer player,
+            EditSession editSession) throws WorldEditException {
+
+        IncrementalFlush flush = session.getPendingFlush();
+        if (flush == null) {
+            player.printError("No edit is in progress.");
+            return;
+        }
+
+        int progress = flush.getProgress();
+        session.cancelPendingFlush();
+        player.print("Edit cancelled at " + progress + "%. Use //undo to revert the applied part.");
+    }
 }
@@ -410,6 +410,8 @@ public void deform(CommandContext args, LocalSession session, LocalPlayer player
             if (unit.getZ() == 0) unit = unit.setZ(1.0);
         }
 
+        editSession.setExpressionThreads(we.getConfiguration().expressionThreads);
+
         try {
             final int affected = editSession.deformRegion(region, zero, unit, expression);
             player.findFreePosition();
@@ -28,6 +28,8 @@
 import com.sk89q.minecraft.util.commands.CommandException;
 import com.sk89q.minecraft.util.commands.CommandPermissions;
 import com.sk89q.minecraft.util.commands.Console;
+import com.sk89q.minecraft.util.commands.Logging;
+import com.sk89q.worldedit.CuboidClipboard;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.FilenameResolutionException;
 import com.sk89q.worldedit.LocalConfiguration;
@@ -36,7 +38,13 @@
 import com.sk89q.worldedit.WorldEdit;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.data.DataException;
+import com.sk89q.worldedit.schematic.CompactSchematicReader;
+import com.sk89q.worldedit.schematic.SchematicCache;
 import com.sk89q.worldedit.schematic.SchematicFormat;
+import com.sk89q.worldedit.schematic.SchematicJob;
+import com.sk89q.worldedit.schematic.StreamingPaste;
+
+import static com.sk89q.minecraft.util.commands.Logging.LogMode.PLACEMENT;
 
 /**
  * Commands related to schematics
@@ -64,7 +72,9 @@ public SchematicCommands(WorldEdit we) {
     )
     @CommandPermissions({"worldedit.clipboard.load", "worldedit.schematic.load"}) // TODO: Remove 'clipboard' perm
     public void load(CommandContext args, LocalSession session, LocalPlayer player,
-                     EditSession editSession) throws WorldEditException {
+                     EditSession editSession) throws WorldEditException, CommandException {
+
+        checkNoSchematicJob(session);
 
         LocalConfiguration config = we.getConfiguration();
         String fileName;
@@ -106,16 +116,15 @@ public void load(CommandContext args, LocalSession session, LocalPlayer player,
 
             if (!filePath.substring(0, dirPath.length()).equals(dirPath)) {
                 player.printError("Schematic could not read or it does not exist.");
-            } else {
-                session.setClipboard(format.load(f));
-                WorldEdit.logger.info(player.getName() + " loaded " + filePath);
-                player.print(fileName + " loaded. Paste it with //paste");
+                return;
             }
-        } catch (DataException e) {
-            player.printError("Load error: " + e.getMessage());
         } catch (IOException e) {
             player.printError("Schematic could not read or it does not exist: " + e.getMessage());
+            return;
         }
+
+        submitSchematicJob(session, player, SchematicJob.load(player, session, format, f, fileName,
+                we.getSchematicCache()));
     }
 
     @Command(
@@ -123,7 +132,8 @@ public void load(CommandContext args, LocalSession session, LocalPlayer player,
             usage = "[format] <filename>",
             desc = "Save a schematic into your clipboard",
             help = "Save a schematic into your clipboard\n" +
-                    "Format is a format from \"//schematic formats\"\n",
+                    "Format is a format from \"//schematic formats\"\n" +
+                    "If the format is not provided, the MCEdit format is used\n",
             min = 1,
             max = 2
     )
@@ -131,15 +141,12 @@ public void load(CommandContext args, LocalSession session, LocalPlayer player,
     public void save(CommandContext args, LocalSession session, LocalPlayer player,
                      EditSession editSession) throws WorldEditException, CommandException {
 
+        checkNoSchematicJob(session);
+
         LocalConfiguration config = we.getConfiguration();
         SchematicFormat format;
         if (args.argsLength() == 1) {
-            if (SchematicFormat.getFormats().size() == 1) {
-                format = SchematicFormat.getFormats().iterator().next();
-            } else {
-                player.printError("More than one schematic format is available. Please provide the desired format");
-                return;
-            }
+            format = SchematicFormat.MCEDIT;
         } else {
             format = SchematicFormat.getFormat(args.getString(0));
             if (format == null) {
@@ -160,22 +167,212 @@ public void save(CommandContext args, LocalSession session, LocalPlayer player,
             }
         }
 
+        // Create parent directories
+        File parent = f.getParentFile();
+        if (parent != null && !parent.exists()) {
+            if (!parent.mkdirs()) {
+                throw new CommandException("Could not create folder for schematics!");
+            }
+        }
+
+        // Saved from a copy, so that the clipboard can be changed while the
+        // file is written
+        CuboidClipboard clipboard = session.getClipboard().snapshot();
+        submitSchematicJob(session, player, SchematicJob.save(player, session, format, f, filename, clipboard,
+                config.saveCompressionLevel, config.saveCompressionThreads, we.getSchematicCache()));
+    }
+
+    @Command(
+            aliases = { "paste", "p" },
+            usage = "<filename>",
+            flags = "ao",
+            desc = "Paste a schematic without loading it into your clipboard",
+            help = "Paste a schematic straight from its file, leaving your clipboard alone.\n" +
+                    "Compact schematics are read a few sections at a time, so any size can be pasted.\n" +
+                    "Flags:\n" +
+                    "  -a skips air blocks\n" +
+                    "  -o pastes at the original position",
+            min = 1,
+            max = 1
+    )
+    @CommandPermissions({"worldedit.schematic.load"})
+    @Logging(PLACEMENT)
+    public void paste(CommandContext args, LocalSession session, LocalPlayer player,
+                      EditSession editSession) throws WorldEditException {
+
+        player.checkPermission("worldedit.clipboard.paste");
+
+        LocalConfiguration config = we.getConfiguration();
+        String fileName = args.getString(0);
+        File dir = we.getWorkingDirectoryFile(config.saveDir);
+        File f = we.getSafeOpenFile(player, dir, fileName, "schematic", "schematic");
+
+        if (!f.exists()) {
+            player.printError("Schematic " + fileName + " does not exist!");
+            return;
+        }
+
+        SchematicFormat format = SchematicFormat.getFormat(f);
+        if (format == null) {
+            player.printError("Unknown schematic format for " + fileName);
+            return;
+        }
+
+        boolean atOrigin = args.hasFlag('o');
+        boolean pasteNoAir = args.hasFlag('a');
+
         try {
-            // Create parent directories
-            File parent = f.getParentFile();
-            if (parent != null && !parent.exists()) {
-                if (!parent.mkdirs()) {
-                    throw new CommandException("Could not create folder for schematics!");
-                }
+            String filePath = f.getCanonicalPath();
+            String dirPath = dir.getCanonicalPath();
+
+            if (!filePath.substring(0, dirPath.length()).equals(dirPath)) {
+                player.printError("Schematic could not read or it does not exist.");
+                return;
             }
 
-            format.save(session.getClipboard(), f);
-            WorldEdit.logger.info(player.getName() + " saved " + f.getCanonicalPath());
-            player.print(filename + " saved.");
-        } catch (DataException se) {
-            player.printError("Save error: " + se.getMessage());
+            if (format == SchematicFormat.COMPACT) {
+                CompactSchematicReader reader = new CompactSchematicReader(f);
+                try {
+                    StreamingPaste paste = new StreamingPaste(reader);
+                    if (atOrigin) {
+                        paste.place(editSession, paste.getOrigin(), pasteNoAir);
+                    } else {
+                        paste.paste(editSession, session.getPlacementPosition(player), pasteNoAir);
+                    }
+                } finally {
+                    reader.close();
+                }
+            } else {
+                // Other formats can't be read in parts
+                CuboidClipboard clipboard = we.getSchematicCache().load(format, f);
+                if (atOrigin) {
+                    clipboard.place(editSession, clipboard.getOrigin(), pasteNoAir);
+                } else {
+                    clipboard.paste(editSession, session.getPlacementPosition(player), pasteNoAir);
+                }
+            }
+        } catch (DataException e) {
+            player.printError("Load error: " + e.getMessage());
+            return;
         } catch (IOException e) {
-            player.printError("Schematic could not written: " + e.getMessage());
+            player.printError("Schematic could not read or it does not exist: " + e.getMessage());
+            return;
+        }
+
+        player.findFreePosition();
+        if (atOrigin) {
+            player.print(fileName + " pasted to its copy origin. Undo with //undo");
+        } else {
+            player.print(fileName + " pasted relative to you. Undo with //undo");
+        }
+    }
+
+    @Command(
+            aliases = { "status" },
+            desc = "Show the schematic that is being loaded or saved",
+            max = 0
+    )
+    @CommandPermissions({"worldedit.schematic.load", "worldedit.schematic.save"})
+    public void status(CommandContext args, LocalSession session, LocalPlayer player,
+                       EditSession editSession) throws WorldEditException {
+
+        SchematicJob job = session.getSchematicJob();
+        if (job == null) {
+            player.print("No schematic is being loaded or saved.");
+            return;
+        }
+
+        String time = String.format("%.1f", job.getElapsedTime() / 1000.0);
+        if (job.getState() == SchematicJob.State.QUEUED) {
+            player.print(job.getDescription() + ": waiting for " + time + "s.");
+        } else {
+            player.print(job.getDescription() + ": running for " + time + "s.");
+        }
+    }
+
+    @Command(
+            aliases = { "cancel" },
+            desc = "Stop loading or saving a schematic",
+            max = 0
+    )
+    @CommandPermissions({"worldedit.schematic.load", "worldedit.schematic.save"})
+    public void cancel(CommandContext args, LocalSession session, LocalPlayer player,
+                       EditSession editSession) throws WorldEditException {
+
+        SchematicJob job = session.getSchematicJob();
+        if (job == null || !job.cancel()) {
+            player.printError("No schematic is being loaded or saved.");
+            return;
+        }
+
+        session.setSchematicJob(null);
+        player.print(job.getDescription() + " cancelled.");
+    }
+
+    @Command(
+            aliases = { "cache" },
+            desc = "Show how well loaded schematics are cached",
+            help = "Show how often loads were served from the cache of recently\n" +
+                    "loaded schematics, and how much memory it uses.\n" +
+                    "Flags:\n" +
+                    "  -c empties the cache",
+            flags = "c",
+            max = 0
+    )
+    @Console
+    @CommandPermissions("worldedit.schematic.cache")
+    public void cache(CommandContext args, LocalSession session, LocalPlayer player,
+                      EditSession editSession) throws WorldEditException {
+
+        SchematicCache cache = we.getSchematicCache();
+        if (args.hasFlag('c')) {
+            cache.clear();
+            player.print("Schematic cache cleared.");
+            return;
+        }
+
+        long hits = cache.getHits();
+        long loads = hits + cache.getMisses();
+        long limit = cache.getLimit();
+        player.print("Schematic cache: " + hits + " of " + loads + " loads served from memory"
+                + (loads > 0 ? String.format(" (%.0f%%)", hits * 100.0 / loads) : "") + ".");
+        player.print(cache.size() + " schematics cached, using about "
+                + String.format("%.1f", cache.getMemoryUsage() / 1048576.0) + " MB"
+                + (limit < 0 ? "" : String.format(" of %.1f MB", limit / 1048576.0)) + ".");
+    }
+
+    /**
+     * Make sure that the player isn't already loading or saving a schematic.
+     *
+     * @param session
+     * @throws CommandException
+     */
+    private void checkNoSchematicJob(LocalSession session) throws CommandException {
+        if (session.getSchematicJob() != null) {
+            throw new CommandException("A schematic is still being loaded or saved. "
+                    + "See //schematic status, or stop it with //schematic cancel.");
+        }
+    }
+
+    /**
+     * Start loading or saving a schematic in the background.
+     *
+     * @param session
+     * @param player
+     * @param job
+     * @throws CommandException
+     */
+    private void submitSchematicJob(LocalSession session, LocalPlayer player, SchematicJob job)
+            throws CommandException {
+
+        session.setSchematicJob(job);
+        if (!we.getSchematicJobQueue().submit(job)) {
+            session.setSchematicJob(null);
+            throw new CommandException("Too many schematics are being loaded or saved. Please try again later.");
+        }
+
+        if (!job.isDone()) {
+            player.print(job.getDescription() + "...");
         }
     }
 
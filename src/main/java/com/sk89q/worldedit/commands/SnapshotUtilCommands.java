@@ -141,6 +141,7 @@ public void restore(CommandContext args, LocalSession session, LocalPlayer playe
         try {
             // Restore snapshot
             SnapshotRestore restore = new SnapshotRestore(chunkStore, region);
+            restore.setDecodeThreads(config.snapshotDecodeThreads);
             //player.print(restore.getChunksAffected() + " chunk(s) will be loaded.");
 
             restore.restore(editSession);
@@ -159,6 +160,13 @@ public void restore(CommandContext args, LocalSession session, LocalPlayer playe
                         restore.getMissingChunks().size(),
                         restore.getErrorChunks().size()));
             }
+
+            int cacheHits = chunkStore.getCacheHits();
+            int cacheMisses = chunkStore.getCacheMisses();
+            if (cacheHits + cacheMisses > 0) {
+                player.printDebug(String.format("Region file cache: %d hits, %d misses.",
+                        cacheHits, cacheMisses));
+            }
         } finally {
             try {
                 chunkStore.close();
@@ -19,7 +19,12 @@
 
 package com.sk89q.worldedit.data;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.sk89q.jnbt.*;
@@ -72,7 +77,19 @@ public abstract CompoundTag getChunkTag(Vector2D pos, LocalWorld world)
     public Chunk getChunk(Vector2D pos, LocalWorld world)
             throws DataException, IOException {
 
-        CompoundTag tag = getChunkTag(pos, world);
+        CompoundTag tag;
+        InputStream stream = getChunkInputStream(pos, world);
+        if (stream != null) {
+            NBTReader reader = new NBTReader(new BufferedInputStream(stream));
+            try {
+                tag = readLevelTag(reader);
+            } finally {
+                reader.close();
+            }
+        } else {
+            tag = getChunkTag(pos, world);
+        }
+
         Map<String, Tag> tags = tag.getValue();
         if(tags.containsKey("Sections")) {
             return new AnvilChunk(world, tag);
@@ -80,6 +97,128 @@ public Chunk getChunk(Vector2D pos, LocalWorld world)
         return new OldChunk(world, tag);
     }
 
+    /**
+     * Get the uncompressed NBT data of a chunk. Stores that can only
+     * provide whole tags return null, and then
+     * {@link #getChunkTag(Vector2D, LocalWorld)} is used instead.
+     *
+     * @param pos
+     * @param world
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    protected InputStream getChunkInputStream(Vector2D pos, LocalWorld world)
+            throws DataException, IOException {
+        return null;
+    }
+
+    /**
+     * Read the parts of a chunk's 'Level' tag that are needed to get its
+     * blocks, skipping everything else.
+     *
+     * @param reader
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    private static CompoundTag readLevelTag(NBTReader reader)
+            throws DataException, IOException {
+        if (reader.next() != NBTConstants.TYPE_COMPOUND) {
+            throw new ChunkStoreException("CompoundTag expected for chunk; got "
+                    + NBTUtils.getTypeClass(reader.getType()).getName());
+        }
+
+        reader.enter();
+        while (reader.next() != NBTConstants.TYPE_END) {
+            if (reader.nameEquals("Level")) {
+                if (reader.getType() != NBTConstants.TYPE_COMPOUND) {
+                    throw new ChunkStoreException("CompoundTag expected for 'Level'; got "
+                            + NBTUtils.getTypeClass(reader.getType()).getName());
+                }
+
+                Map<String, Tag> values = new HashMap<String, Tag>();
+                reader.enter();
+                while (reader.next() != NBTConstants.TYPE_END) {
+                    if (reader.nameEquals("Sections") && reader.getType() == NBTConstants.TYPE_LIST) {
+                        values.put("Sections", readSections(reader));
+                    } else if (reader.nameEquals("xPos") || reader.nameEquals("zPos")
+                            || reader.nameEquals("Blocks") || reader.nameEquals("Data")
+                            || reader.nameEquals("TileEntities")) {
+                        Tag tag = reader.readTag();
+                        values.put(tag.getName(), tag);
+                    }
+                }
+
+                return new CompoundTag("Level", values);
+            }
+        }
+
+        throw new ChunkStoreException("Missing root 'Level' tag");
+    }
+
+    /**
+     * Read the block arrays of the sections of an Anvil chunk.
+     *
+     * @param reader
+     * @return
+     * @throws IOException
+     */
+    private static ListTag readSections(NBTReader reader) throws IOException {
+        List<Tag> sections = new ArrayList<Tag>();
+
+        reader.enter();
+        int type = reader.getListType();
+        while (reader.next() != NBTConstants.TYPE_END) {
+            if (reader.getType() != NBTConstants.TYPE_COMPOUND) {
+                continue;
+            }
+
+            Map<String, Tag> values = new HashMap<String, Tag>();
+            reader.enter();
+            while (reader.next() != NBTConstants.TYPE_END) {
+                if (reader.nameEquals("Y") || reader.nameEquals("Blocks")
+                        || reader.nameEquals("Data") || reader.nameEquals("Add")) {
+                    Tag tag = reader.readTag();
+                    values.put(tag.getName(), tag);
+                }
+            }
+
+            sections.add(new CompoundTag("", values));
+        }
+
+        return new ListTag("Sections", NBTUtils.getTypeClass(type), sections);
+    }
+
+    /**
+     * Get the number of times a cached file could be used to read a chunk.
+     *
+     * @return
+     */
+    public int getCacheHits() {
+        return 0;
+    }
+
+    /**
+     * Get the number of times a file had to be opened to read a chunk.
+     *
+     * @return
+     */
+    public int getCacheMisses() {
+        return 0;
+    }
+
+    /**
+     * Returns whether chunks can be read from several threads at once.
+     * Only the opening of files needs to be serialized by the store;
+     * decompressing and parsing chunks may then happen concurrently.
+     *
+     * @return
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
     /**
      * Close resources.
      *
@@ -31,6 +31,10 @@ public class FileMcRegionChunkStore extends McRegionChunkStore {
      * Folder to read from.
      */
     private File path;
+    /**
+     * Whether region files are memory-mapped instead of streamed.
+     */
+    private boolean memoryMapped = false;
 
     /**
      * Create an instance. The passed path is the folder to read the
@@ -42,9 +46,24 @@ public FileMcRegionChunkStore(File path) {
         this.path = path;
     }
 
-    @Override
-    protected InputStream getInputStream(String name, String world) throws IOException,
-            DataException {
+    /**
+     * Set whether region files are memory-mapped, which lets chunks be read
+     * in any order without copying them.
+     *
+     * @param memoryMapped
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Get the region file with the given name.
+     *
+     * @param name
+     * @return
+     * @throws DataException
+     */
+    private File getRegionFile(String name) throws DataException {
         Pattern ext = Pattern.compile(".*\\.mc[ra]$"); // allow either file extension, both work the same
         File file = null;
         for (File f : new File(path, "region" + File.separator).listFiles()) {
@@ -56,9 +75,32 @@ protected InputStream getInputStream(String name, String world) throws IOExcepti
             }
         }
 
+        if (file == null) {
+            throw new MissingChunkException();
+        }
+
+        return file;
+    }
+
+    @Override
+    protected InputStream getInputStream(String name, String world) throws IOException,
+            DataException {
+        try {
+            return new FileInputStream(getRegionFile(name));
+        } catch (FileNotFoundException e) {
+            throw new MissingChunkException();
+        }
+    }
+
+    @Override
+    protected McRegionReader openReader(String filename, String worldname)
+            throws DataException, IOException {
+        if (!memoryMapped) {
+            return super.openReader(filename, worldname);
+        }
+
         try {
-            if (file == null) throw new FileNotFoundException();
-            return new FileInputStream(file);
+            return new MappedMcRegionReader(getRegionFile(filename));
         } catch (FileNotFoundException e) {
             throw new MissingChunkException();
         }
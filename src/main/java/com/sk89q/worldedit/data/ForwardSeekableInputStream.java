@@ -34,7 +34,9 @@ public ForwardSeekableInputStream(InputStream parent) {
     @Override
     public int read() throws IOException {
         int ret = parent.read();
-        ++position;
+        if (ret != -1) {
+            ++position;
+        }
         return ret;
     }
 
@@ -60,16 +62,16 @@ public boolean markSupported() {
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        int read = super.read(b, off, len);
-        position += read;
+        int read = parent.read(b, off, len);
+        if (read > 0) {
+            position += read;
+        }
         return read;
     }
 
     @Override
     public int read(byte[] b) throws IOException {
-        int read = parent.read(b);
-        position += read;
-        return read;
+        return read(b, 0, b.length);
     }
 
     @Override
@@ -84,6 +86,15 @@ public long skip(long n) throws IOException {
         return skipped;
     }
 
+    /**
+     * Get the number of bytes read or skipped so far.
+     *
+     * @return
+     */
+    public long getPosition() {
+        return position;
+    }
+
     public void seek(long n) throws IOException {
         long diff = n - position;
 
@@ -95,8 +106,16 @@ public void seek(long n) throws IOException {
             return;
         }
 
-        if (skip(diff) < diff) {
-            throw new IOException("Failed to seek " + diff + " bytes");
+        // Some streams skip less than asked for at a time
+        while (diff > 0) {
+            long skipped = skip(diff);
+            if (skipped <= 0) {
+                if (read() == -1) {
+                    throw new IOException("Failed to seek " + diff + " bytes");
+                }
+                skipped = 1;
+            }
+            diff -= skipped;
         }
     }
 }
@@ -76,7 +76,7 @@ public static String getFilename(Vector2D pos) {
      * @throws IOException
      */
     @Override
-    public CompoundTag getChunkTag(Vector2D pos, LocalWorld world)
+    protected InputStream getChunkInputStream(Vector2D pos, LocalWorld world)
             throws DataException, IOException {
         int x = pos.getBlockX();
         int z = pos.getBlockZ();
@@ -86,9 +86,17 @@ public CompoundTag getChunkTag(Vector2D pos, LocalWorld world)
         String filename = "c." + Integer.toString(x, 36)
                 + "." + Integer.toString(z, 36) + ".dat";
 
-        InputStream stream = getInputStream(folder1, folder2, filename);
-        NBTInputStream nbt = new NBTInputStream(
-                new GZIPInputStream(stream));
+        InputStream stream;
+        synchronized (this) {
+            stream = getInputStream(folder1, folder2, filename);
+        }
+        return new GZIPInputStream(stream);
+    }
+
+    @Override
+    public CompoundTag getChunkTag(Vector2D pos, LocalWorld world)
+            throws DataException, IOException {
+        NBTInputStream nbt = new NBTInputStream(getChunkInputStream(pos, world));
         Tag tag;
 
         try {
@@ -124,6 +132,11 @@ public CompoundTag getChunkTag(Vector2D pos, LocalWorld world)
         }
     }
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     /**
      * Modulus, divisor-style.
      *
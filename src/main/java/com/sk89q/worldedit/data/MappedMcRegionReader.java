@@ -0,0 +1,280 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.data;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import com.sk89q.worldedit.Vector2D;
+
+/**
+ * Reader for a MCRegion file on disk. The file is memory-mapped, so chunks
+ * can be read in any order, and chunk data is inflated straight from the
+ * mapped sectors with pooled {@link Inflater}s.
+ *
+ * <p>Several chunks may be inflated at once from different threads. Closing
+ * the stream returned by {@link #getChunkInputStream(Vector2D)} returns its
+ * inflater to the pool.</p>
+ */
+public class MappedMcRegionReader extends McRegionReader {
+
+    private static final int INPUT_BUFFER_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final List<ChunkInflater> inflaters = new ArrayList<ChunkInflater>();
+    private boolean closed = false;
+
+    /**
+     * Construct the reader.
+     *
+     * @param file
+     * @throws DataException
+     * @throws IOException
+     */
+    public MappedMcRegionReader(File file) throws DataException, IOException {
+        FileInputStream in = new FileInputStream(file);
+        channel = in.getChannel();
+
+        try {
+            if (channel.size() < SECTOR_BYTES) {
+                throw new DataException("MCRegion file " + file.getName() + " is missing its header");
+            }
+
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (DataException e) {
+            channel.close();
+            throw e;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        offsets = new int[SECTOR_INTS];
+        buffer.asIntBuffer().get(offsets);
+    }
+
+    @Override
+    public synchronized InputStream getChunkInputStream(Vector2D pos)
+            throws IOException, DataException {
+
+        int x = pos.getBlockX() & 31;
+        int z = pos.getBlockZ() & 31;
+
+        int offset = getOffset(x, z);
+
+        // The chunk hasn't been generated
+        if (offset == 0) {
+            return null;
+        }
+
+        int sectorNumber = offset >> 8;
+        int numSectors = offset & 0xFF;
+
+        long position = (long) sectorNumber * SECTOR_BYTES;
+        if (position + CHUNK_HEADER_SIZE > buffer.capacity()) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        int length = buffer.getInt((int) position);
+
+        if (length > SECTOR_BYTES * numSectors || length < 1) {
+            throw new DataException("MCRegion chunk at "
+                    + x + "," + z + " has an invalid length of " + length);
+        }
+
+        if (position + 4 + length > buffer.capacity()) {
+            throw new DataException("MCRegion file does not contain "
+                    + x + "," + z + " in full");
+        }
+
+        byte version = buffer.get((int) position + 4);
+
+        ByteBuffer data = buffer.duplicate();
+        data.limit((int) position + 4 + length);
+        data.position((int) position + CHUNK_HEADER_SIZE);
+
+        if (version == VERSION_GZIP) {
+            return new GZIPInputStream(new ByteBufferInputStream(data));
+        } else if (version == VERSION_DEFLATE) {
+            ChunkInflater inflater = inflaters.isEmpty()
+                    ? new ChunkInflater()
+                    : inflaters.remove(inflaters.size() - 1);
+            return new ChunkInputStream(data, inflater);
+        } else {
+            throw new DataException("MCRegion chunk at "
+                    + x + "," + z + " has an unsupported version of " + version);
+        }
+    }
+
+    /**
+     * Close the file. The mapping itself is released once it is garbage
+     * collected.
+     *
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        for (ChunkInflater inflater : inflaters) {
+            inflater.inflater.end();
+        }
+        inflaters.clear();
+        channel.close();
+    }
+
+    /**
+     * Return an inflater to the pool.
+     *
+     * @param inflater
+     */
+    private synchronized void release(ChunkInflater inflater) {
+        if (closed) {
+            inflater.inflater.end();
+        } else {
+            inflater.inflater.reset();
+            inflaters.add(inflater);
+        }
+    }
+
+    /**
+     * An inflater with its input buffer.
+     */
+    private static class ChunkInflater {
+        private final Inflater inflater = new Inflater();
+        private final byte[] input = new byte[INPUT_BUFFER_SIZE];
+    }
+
+    /**
+     * Inflates a deflated chunk from the mapped file using an inflater
+     * borrowed from the reader.
+     */
+    private class ChunkInputStream extends InputStream {
+        private final ByteBuffer data;
+        private ChunkInflater inflater;
+        private final byte[] single = new byte[1];
+
+        public ChunkInputStream(ByteBuffer data, ChunkInflater inflater) {
+            this.data = data;
+            this.inflater = inflater;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (inflater == null) {
+                throw new IOException("Stream closed");
+            }
+
+            if (len == 0) {
+                return 0;
+            }
+
+            Inflater inflater = this.inflater.inflater;
+            byte[] input = this.inflater.input;
+
+            try {
+                while (true) {
+                    int n = inflater.inflate(b, off, len);
+                    if (n > 0) {
+                        return n;
+                    }
+
+                    if (inflater.finished() || inflater.needsDictionary()) {
+                        return -1;
+                    }
+
+                    if (inflater.needsInput()) {
+                        if (!data.hasRemaining()) {
+                            throw new EOFException("Unexpected end of chunk data");
+                        }
+
+                        int count = Math.min(input.length, data.remaining());
+                        data.get(input, 0, count);
+                        inflater.setInput(input, 0, count);
+                    }
+                }
+            } catch (DataFormatException e) {
+                String message = e.getMessage();
+                throw new IOException(message != null ? message : "Invalid chunk data");
+            }
+        }
+
+        @Override
+        public void close() {
+            if (inflater != null) {
+                release(inflater);
+                inflater = null;
+            }
+        }
+    }
+
+    /**
+     * Reads the bytes of a buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer data;
+
+        public ByteBufferInputStream(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return data.hasRemaining() ? data.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+
+            len = Math.min(len, data.remaining());
+            data.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return data.remaining();
+        }
+    }
+}
@@ -21,16 +21,27 @@
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.Vector2D;
 
 public abstract class McRegionChunkStore extends ChunkStore {
-    protected String curFilename = null;
-    protected McRegionReader cachedReader = null;
+    /**
+     * Default number of region files kept open.
+     */
+    public static final int DEFAULT_READER_CACHE_SIZE = 8;
+
+    private int readerCacheSize = DEFAULT_READER_CACHE_SIZE;
+    private final LinkedHashMap<BlockVector2D, McRegionReader> readers =
+            new LinkedHashMap<BlockVector2D, McRegionReader>(16, 0.75f, true);
+    private int cacheHits = 0;
+    private int cacheMisses = 0;
 
     /**
      * Get the filename of a region file.
@@ -47,31 +58,93 @@ public static String getFilename(Vector2D pos) {
         return filename;
     }
 
+    /**
+     * Set the maximum number of region files kept open at a time.
+     *
+     * @param size
+     */
+    public void setReaderCacheSize(int size) {
+        readerCacheSize = Math.max(1, size);
+    }
+
     protected McRegionReader getReader(Vector2D pos, String worldname) throws DataException, IOException {
-        String filename = getFilename(pos);
-        if (curFilename != null) {
-            if (curFilename.equals(filename)) {
-                return cachedReader;
-            } else {
-                try {
-                    cachedReader.close();
-                } catch (IOException e) {
-                }
+        BlockVector2D region = new BlockVector2D(pos.getBlockX() >> 5, pos.getBlockZ() >> 5);
+
+        McRegionReader reader = readers.get(region);
+        if (reader != null) {
+            ++cacheHits;
+            return reader;
+        }
+
+        ++cacheMisses;
+
+        reader = openReader(getFilename(pos), worldname);
+
+        while (readers.size() >= readerCacheSize) {
+            Iterator<McRegionReader> it = readers.values().iterator();
+            McRegionReader eldest = it.next();
+            it.remove();
+            try {
+                eldest.close();
+            } catch (IOException e) {
             }
         }
-        InputStream stream = getInputStream(filename, worldname);
-        cachedReader = new McRegionReader(stream);
-        //curFilename = filename;
-        return cachedReader;
+
+        readers.put(region, reader);
+        return reader;
+    }
+
+    /**
+     * Open a reader for a region file. The default reader streams the file
+     * from {@link #getInputStream(String, String)}.
+     *
+     * @param filename
+     * @param worldname
+     * @return
+     * @throws DataException
+     * @throws IOException
+     */
+    protected McRegionReader openReader(final String filename, final String worldname)
+            throws DataException, IOException {
+        return new McRegionReader(getInputStream(filename, worldname)) {
+            @Override
+            protected InputStream reopen() throws IOException, DataException {
+                return getInputStream(filename, worldname);
+            }
+        };
+    }
+
+    @Override
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    @Override
+    public int getCacheMisses() {
+        return cacheMisses;
+    }
+
+    @Override
+    protected InputStream getChunkInputStream(Vector2D pos, LocalWorld world)
+            throws DataException, IOException {
+        InputStream stream;
+        synchronized (this) {
+            McRegionReader reader = getReader(pos, world.getName());
+            stream = reader.getChunkInputStream(pos);
+        }
+
+        if (stream == null) {
+            throw new MissingChunkException();
+        }
+
+        return stream;
     }
 
     @Override
     public CompoundTag getChunkTag(Vector2D pos, LocalWorld world) throws DataException,
             IOException {
         
-        McRegionReader reader = getReader(pos, world.getName());
-
-        InputStream stream = reader.getChunkInputStream(pos);
+        InputStream stream = getChunkInputStream(pos, world);
         NBTInputStream nbt = new NBTInputStream(stream);
         Tag tag;
 
@@ -118,15 +191,30 @@ public CompoundTag getChunkTag(Vector2D pos, LocalWorld world) throws DataExcept
     protected abstract InputStream getInputStream(String name, String worldname)
             throws IOException, DataException;
 
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
     /**
      * Close resources.
      *
      * @throws IOException
      */
     @Override
-    public void close() throws IOException {
-        if (cachedReader != null) {
-            cachedReader.close();
+    public synchronized void close() throws IOException {
+        IOException error = null;
+        for (McRegionReader reader : readers.values()) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+        readers.clear();
+
+        if (error != null) {
+            throw error;
         }
     }
 }
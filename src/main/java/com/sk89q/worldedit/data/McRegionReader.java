@@ -56,6 +56,7 @@ counts. The chunk offset for a chunk (x, z) begins at byte 4*(x+z*32) in the
 
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.zip.GZIPInputStream;
@@ -96,6 +97,13 @@ public McRegionReader(InputStream stream) throws DataException, IOException {
         readHeader();
     }
 
+    /**
+     * Construct a reader that does not use a stream. Subclasses must fill
+     * in the offsets and read chunks themselves.
+     */
+    protected McRegionReader() {
+    }
+
     /**
      * Read the header.
      * 
@@ -139,7 +147,12 @@ public synchronized InputStream getChunkInputStream(Vector2D pos)
         int sectorNumber = offset >> 8;
         int numSectors = offset & 0xFF;
 
-        stream.seek(sectorNumber * SECTOR_BYTES);
+        long position = (long) sectorNumber * SECTOR_BYTES;
+        if (position < stream.getPosition()) {
+            rewind();
+        }
+
+        stream.seek(position);
         int length = dataStream.readInt();
 
         if (length > SECTOR_BYTES * numSectors) {
@@ -151,14 +164,18 @@ public synchronized InputStream getChunkInputStream(Vector2D pos)
 
         if (version == VERSION_GZIP) {
             byte[] data = new byte[length - 1];
-            if (dataStream.read(data) < length - 1) {
+            try {
+                dataStream.readFully(data);
+            } catch (EOFException e) {
                 throw new DataException("MCRegion file does not contain "
                         + x + "," + z + " in full");
             }
             return new GZIPInputStream(new ByteArrayInputStream(data));
         } else if (version == VERSION_DEFLATE) {
             byte[] data = new byte[length - 1];
-            if (dataStream.read(data) < length - 1) {
+            try {
+                dataStream.readFully(data);
+            } catch (EOFException e) {
                 throw new DataException("MCRegion file does not contain "
                         + x + "," + z + " in full");
             }
@@ -169,6 +186,38 @@ public synchronized InputStream getChunkInputStream(Vector2D pos)
         }
     }
 
+    /**
+     * Go back to the start of the region file so that a chunk stored
+     * before the current position can be read. The header is not read
+     * again.
+     *
+     * @throws IOException
+     * @throws DataException
+     */
+    private void rewind() throws IOException, DataException {
+        InputStream newStream = reopen();
+        if (newStream == null) {
+            throw new IOException("Can't seek backwards");
+        }
+
+        stream.close();
+        stream = new ForwardSeekableInputStream(newStream);
+        dataStream = new DataInputStream(stream);
+    }
+
+    /**
+     * Open a new stream over the same region file, positioned at its
+     * start. Readers that can't do this return null, and then chunks can
+     * only be read in the order they are stored in.
+     *
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    protected InputStream reopen() throws IOException, DataException {
+        return null;
+    }
+
     /**
      * Get the offset for a chunk. May return 0 if it doesn't exist.
      * 
@@ -176,7 +225,7 @@ public synchronized InputStream getChunkInputStream(Vector2D pos)
      * @param z
      * @return
      */
-    private int getOffset(int x, int z) {
+    protected int getOffset(int x, int z) {
         return offsets[x + z * 32];
     }
 
@@ -150,7 +150,11 @@ private ZipEntry getEntry(String file) {
      */
     @Override
     public void close() throws IOException {
-        zip.close();
+        try {
+            super.close();
+        } finally {
+            zip.close();
+        }
     }
 
     @Override
@@ -19,7 +19,9 @@
 
 package com.sk89q.worldedit.expression;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -27,8 +29,11 @@
 import com.sk89q.worldedit.expression.lexer.Lexer;
 import com.sk89q.worldedit.expression.lexer.tokens.Token;
 import com.sk89q.worldedit.expression.parser.Parser;
+import com.sk89q.worldedit.expression.runtime.CompiledExpression;
 import com.sk89q.worldedit.expression.runtime.Constant;
 import com.sk89q.worldedit.expression.runtime.EvaluationException;
+import com.sk89q.worldedit.expression.runtime.ExpressionCompiler;
+import com.sk89q.worldedit.expression.runtime.Function;
 import com.sk89q.worldedit.expression.runtime.RValue;
 import com.sk89q.worldedit.expression.runtime.ReturnException;
 import com.sk89q.worldedit.expression.runtime.Variable;
@@ -49,6 +54,8 @@
  * To compile an equation, run <code>Expression.compile("expression here", "var1", "var2"...)</code>
  * If you wish to run the equation multiple times, you can then optimize it, by calling myExpression.optimize();
  * You can then run the equation as many times as you want by calling myExpression.evaluate(var1, var2...)
+ * Equations that are run very often can also be turned into bytecode by calling myExpression.generateBytecode() after optimizing them.
+ * To run it for many points at once, use myExpression.evaluateBatch(...), which takes the variable values from arrays.
  * You do not need to pass values for all variables specified while compiling.
  * To query variables after evaluation, you can use myExpression.getVariable("variable name").
  * To get a value out of these, use myVariable.getValue()
@@ -61,8 +68,9 @@ public class Expression {
     private static final ThreadLocal<Stack<Expression>> instance = new ThreadLocal<Stack<Expression>>();
 
     private final Map<String, RValue> variables = new HashMap<String, RValue>();
-    private final String[] variableNames;
+    private final Variable[] parameters;
     private RValue root;
+    private CompiledExpression compiled;
     private final Map<Integer, double[]> megabuf = new HashMap<Integer, double[]>();
 
     public static Expression compile(String expression, String... variableNames) throws ExpressionException {
@@ -74,18 +82,19 @@ private Expression(String expression, String... variableNames) throws Expression
     }
 
     private Expression(List<Token> tokens, String... variableNames) throws ExpressionException {
-        this.variableNames = variableNames;
+        parameters = new Variable[variableNames.length];
 
         variables.put("e", new Constant(-1, Math.E));
         variables.put("pi", new Constant(-1, Math.PI));
         variables.put("true", new Constant(-1, 1));
         variables.put("false", new Constant(-1, 0));
 
-        for (String variableName : variableNames) {
+        for (int i = 0; i < variableNames.length; ++i) {
+            final String variableName = variableNames[i];
             if (variables.containsKey(variableName)) {
                 throw new ExpressionException(-1, "Tried to overwrite identifier '" + variableName + "'");
             }
-            variables.put(variableName, new Variable(0));
+            variables.put(variableName, parameters[i] = new Variable(0));
         }
 
         root = Parser.parse(tokens, this);
@@ -93,18 +102,17 @@ private Expression(List<Token> tokens, String... variableNames) throws Expressio
 
     public double evaluate(double... values) throws EvaluationException {
         for (int i = 0; i < values.length; ++i) {
-            final String variableName = variableNames[i];
-            final RValue invokable = variables.get(variableName);
-            if (!(invokable instanceof Variable)) {
-                throw new EvaluationException(invokable.getPosition(), "Tried to assign constant " + variableName + ".");
-            }
+            parameters[i].value = values[i];
+        }
 
-            ((Variable) invokable).value = values[i];
+        final CompiledExpression compiled = this.compiled;
+        if (compiled != null && !compiled.hasInterpretedNodes()) {
+            return compiled.evaluate();
         }
 
         pushInstance();
         try {
-            return root.getValue();
+            return compiled == null ? root.getValue() : compiled.evaluate();
         } catch (ReturnException e) {
             return e.getValue();
         } finally {
@@ -112,8 +120,101 @@ public double evaluate(double... values) throws EvaluationException {
         }
     }
 
+    /**
+     * Evaluates the expression <code>count</code> times in a row. Before the
+     * i-th evaluation, the j-th variable given to {@link #compile} is set to
+     * <code>inputs[j][i * strides[j]]</code>, so a stride of 0 keeps it at
+     * the same value for the whole batch. Variables without an input array
+     * keep their current values.
+     *
+     * @param count number of evaluations
+     * @param inputs values for the variables, by variable, or null entries
+     * @param strides step between consecutive values in each input array
+     * @param results receives the result of the i-th evaluation at index i, or null
+     * @param outputs receives the value of the j-th variable after the i-th
+     *        evaluation at <code>outputs[j][i]</code>; it or any of its entries may be null
+     * @throws EvaluationException
+     */
+    public void evaluateBatch(int count, double[][] inputs, int[] strides, double[] results, double[][] outputs) throws EvaluationException {
+        final CompiledExpression compiled = this.compiled;
+        final boolean interpreted = compiled == null || compiled.hasInterpretedNodes();
+
+        if (interpreted) {
+            pushInstance();
+        }
+        try {
+            for (int i = 0; i < count; ++i) {
+                for (int j = 0; j < inputs.length; ++j) {
+                    if (inputs[j] != null) {
+                        parameters[j].value = inputs[j][i * strides[j]];
+                    }
+                }
+
+                double result;
+                try {
+                    result = compiled == null ? root.getValue() : compiled.evaluate();
+                } catch (ReturnException e) {
+                    result = e.getValue();
+                }
+
+                if (results != null) {
+                    results[i] = result;
+                }
+
+                if (outputs != null) {
+                    for (int j = 0; j < outputs.length; ++j) {
+                        if (outputs[j] != null) {
+                            outputs[j][i] = parameters[j].value;
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (interpreted) {
+                popInstance();
+            }
+        }
+    }
+
     public void optimize() throws EvaluationException {
         root = root.optimize();
+        compiled = null;
+    }
+
+    /**
+     * Generates a JVM class for the expression, which {@link #evaluate} uses
+     * from then on instead of walking the tree. Trees that cannot be compiled
+     * keep running in the interpreter.
+     *
+     * @return whether the expression is now compiled
+     */
+    public boolean generateBytecode() {
+        compiled = ExpressionCompiler.compile(root);
+        return compiled != null;
+    }
+
+    /**
+     * Checks whether the expression calls functions marked with
+     * {@link com.sk89q.worldedit.expression.runtime.Function.Dynamic}, like
+     * random() or megabuf(). Their results depend on earlier evaluations, so
+     * such an expression cannot be split up between several copies of it.
+     *
+     * @return true if the expression uses dynamic functions
+     */
+    public boolean hasDynamicFunctions() {
+        return Function.callsDynamic(root);
+    }
+
+    /**
+     * Checks whether the expression may read a variable, other than those
+     * given to {@link #compile}, before assigning it. Such a variable keeps
+     * its value between evaluations, so the result depends on the points
+     * evaluated before, like <code>n += 1; n % 2 == 0</code>.
+     *
+     * @return true if the expression keeps state between evaluations
+     */
+    public boolean readsStoredVariables() {
+        return Function.readsUnassigned(root, new HashSet<RValue>(Arrays.asList(parameters)));
     }
 
     @Override
@@ -0,0 +1,446 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal class file writer, just big enough for {@link ExpressionCompiler}.
+ * It emits version 49 class files, which are verified by type inference and
+ * therefore need no stack map frames.
+ */
+final class BytecodeWriter {
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int LLOAD = 0x16;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int AALOAD = 0x32;
+    static final int ISTORE = 0x36;
+    static final int LSTORE = 0x37;
+    static final int DSTORE = 0x39;
+    static final int ASTORE = 0x3a;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int DUP2 = 0x5c;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DREM = 0x73;
+    static final int DNEG = 0x77;
+    static final int LSHL = 0x79;
+    static final int LSHR = 0x7b;
+    static final int LXOR = 0x83;
+    static final int IINC = 0x84;
+    static final int L2I = 0x88;
+    static final int L2D = 0x8a;
+    static final int D2L = 0x8f;
+    static final int LCMP = 0x94;
+    static final int DCMPL = 0x97;
+    static final int DCMPG = 0x98;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int IF_ICMPLE = 0xa4;
+    static final int GOTO = 0xa7;
+    static final int DRETURN = 0xaf;
+    static final int RETURN = 0xb1;
+    static final int GETFIELD = 0xb4;
+    static final int PUTFIELD = 0xb5;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int INVOKEINTERFACE = 0xb9;
+    static final int ATHROW = 0xbf;
+
+    private static final int SIPUSH = 0x11;
+    private static final int BIPUSH = 0x10;
+    private static final int ICONST_0 = 0x03;
+    private static final int WIDE = 0xc4;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    /**
+     * A jump target. Jumps to a label that has not been placed yet are
+     * patched once it is.
+     */
+    static final class Label {
+        private int position = -1;
+        private final List<int[]> fixups = new ArrayList<int[]>();
+    }
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndexes = new HashMap<String, Integer>();
+    private int poolSize = 1;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    private final String className;
+    private final String superName;
+
+    private byte[] code = new byte[256];
+    private int length;
+    private int maxLocals;
+
+    /**
+     * The operand stack depth in words at the current position.
+     */
+    int stack;
+    private int maxStack;
+
+    BytecodeWriter(String className, String superName) {
+        this.className = className;
+        this.superName = superName;
+    }
+
+    /**
+     * Starts a new method. Slot 0 holds <code>this</code>.
+     *
+     * @param locals number of local variable slots used by the arguments
+     */
+    void beginMethod(int locals) {
+        length = 0;
+        stack = 0;
+        maxStack = 0;
+        maxLocals = locals;
+    }
+
+    /**
+     * Finishes the current method, resolving all jumps.
+     *
+     * @param name
+     * @param descriptor
+     */
+    void endMethod(String name, String descriptor) throws IOException {
+        methods.writeShort(ACC_PUBLIC);
+        methods.writeShort(utf8(name));
+        methods.writeShort(utf8(descriptor));
+        methods.writeShort(1);
+        methods.writeShort(utf8("Code"));
+        methods.writeInt(12 + length);
+        methods.writeShort(maxStack);
+        methods.writeShort(maxLocals);
+        methods.writeInt(length);
+        methods.write(code, 0, length);
+        methods.writeShort(0); // exception table
+        methods.writeShort(0); // attributes
+        ++methodCount;
+    }
+
+    /**
+     * Reserves local variable slots.
+     *
+     * @param size 1 for references and ints, 2 for longs and doubles
+     * @return the first slot
+     */
+    int newLocal(int size) {
+        final int slot = maxLocals;
+        maxLocals += size;
+        return slot;
+    }
+
+    byte[] toByteArray() throws IOException {
+        final int thisClass = classRef(className);
+        final int superClass = classRef(superName);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        out.writeShort(poolSize);
+        poolBytes.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(0); // interfaces
+        out.writeShort(0); // fields
+        out.writeShort(methodCount);
+        methodBytes.writeTo(out);
+        out.writeShort(0); // attributes
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Emits a one byte instruction.
+     *
+     * @param opcode
+     * @param delta change of the stack depth in words
+     */
+    void op(int opcode, int delta) {
+        put(opcode);
+        adjust(delta);
+    }
+
+    void var(int opcode, int slot, int delta) {
+        if (slot > 0xFF) {
+            put(WIDE);
+            put(opcode);
+            putShort(slot);
+        } else {
+            put(opcode);
+            put(slot);
+        }
+        adjust(delta);
+    }
+
+    void iinc(int slot, int increment) {
+        if (slot > 0xFF) {
+            put(WIDE);
+            put(IINC);
+            putShort(slot);
+            putShort(increment);
+        } else {
+            put(IINC);
+            put(slot);
+            put(increment);
+        }
+    }
+
+    void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            put(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            put(BIPUSH);
+            put(value);
+        } else {
+            put(SIPUSH);
+            putShort(value);
+        }
+        adjust(1);
+    }
+
+    void pushDouble(double value) throws IOException {
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            op(DCONST_0, 2);
+        } else if (value == 1.0) {
+            op(DCONST_1, 2);
+        } else {
+            put(LDC2_W);
+            putShort(doubleConstant(value));
+            adjust(2);
+        }
+    }
+
+    void pushLong(long value) throws IOException {
+        put(LDC2_W);
+        putShort(longConstant(value));
+        adjust(2);
+    }
+
+    void field(int opcode, String owner, String name, String descriptor, int delta) throws IOException {
+        put(opcode);
+        putShort(memberRef(CONSTANT_FIELDREF, owner, name, descriptor));
+        adjust(delta);
+    }
+
+    void invoke(int opcode, String owner, String name, String descriptor, int delta) throws IOException {
+        if (opcode == INVOKEINTERFACE) {
+            put(opcode);
+            putShort(memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor));
+            put(argumentWords(descriptor) + 1);
+            put(0);
+        } else {
+            put(opcode);
+            putShort(memberRef(CONSTANT_METHODREF, owner, name, descriptor));
+        }
+        adjust(delta);
+    }
+
+    void jump(int opcode, Label label, int delta) {
+        final int start = length;
+        put(opcode);
+        if (label.position >= 0) {
+            putShort(checkOffset(label.position - start));
+        } else {
+            label.fixups.add(new int[] { start, length });
+            putShort(0);
+        }
+        adjust(delta);
+    }
+
+    void place(Label label) {
+        label.position = length;
+        for (int[] fixup : label.fixups) {
+            final int offset = checkOffset(length - fixup[0]);
+            code[fixup[1]] = (byte) (offset >> 8);
+            code[fixup[1] + 1] = (byte) offset;
+        }
+        label.fixups.clear();
+    }
+
+    private static int checkOffset(int offset) {
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            throw new IllegalStateException("Generated method is too large");
+        }
+        return offset;
+    }
+
+    private static int argumentWords(String descriptor) {
+        int words = 0;
+        for (int i = 1; descriptor.charAt(i) != ')'; ++i) {
+            switch (descriptor.charAt(i)) {
+            case 'D':
+            case 'J':
+                words += 2;
+                break;
+
+            case 'L':
+                i = descriptor.indexOf(';', i);
+                ++words;
+                break;
+
+            case '[':
+                while (descriptor.charAt(i + 1) == '[') {
+                    ++i;
+                }
+                if (descriptor.charAt(i + 1) == 'L') {
+                    i = descriptor.indexOf(';', i);
+                } else {
+                    ++i;
+                }
+                ++words;
+                break;
+
+            default:
+                ++words;
+            }
+        }
+        return words;
+    }
+
+    private void adjust(int delta) {
+        stack += delta;
+        if (stack > maxStack) {
+            maxStack = stack;
+        }
+    }
+
+    private void put(int b) {
+        if (length == code.length) {
+            final byte[] newCode = new byte[code.length * 2];
+            System.arraycopy(code, 0, newCode, 0, length);
+            code = newCode;
+        }
+        code[length++] = (byte) b;
+    }
+
+    private void putShort(int s) {
+        put(s >> 8);
+        put(s);
+    }
+
+    private int utf8(String value) throws IOException {
+        final String key = "U" + value;
+        Integer index = poolIndexes.get(key);
+        if (index == null) {
+            pool.writeByte(CONSTANT_UTF8);
+            pool.writeUTF(value);
+            poolIndexes.put(key, index = poolSize++);
+        }
+        return index;
+    }
+
+    private int classRef(String name) throws IOException {
+        final String key = "C" + name;
+        Integer index = poolIndexes.get(key);
+        if (index == null) {
+            final int nameIndex = utf8(name);
+            pool.writeByte(CONSTANT_CLASS);
+            pool.writeShort(nameIndex);
+            poolIndexes.put(key, index = poolSize++);
+        }
+        return index;
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) throws IOException {
+        final String key = tag + owner + "." + name + descriptor;
+        Integer index = poolIndexes.get(key);
+        if (index == null) {
+            final int ownerIndex = classRef(owner);
+            final int nameIndex = utf8(name);
+            final int descriptorIndex = utf8(descriptor);
+            final String nameAndTypeKey = "N" + name + descriptor;
+            Integer nameAndType = poolIndexes.get(nameAndTypeKey);
+            if (nameAndType == null) {
+                pool.writeByte(CONSTANT_NAME_AND_TYPE);
+                pool.writeShort(nameIndex);
+                pool.writeShort(descriptorIndex);
+                poolIndexes.put(nameAndTypeKey, nameAndType = poolSize++);
+            }
+            pool.writeByte(tag);
+            pool.writeShort(ownerIndex);
+            pool.writeShort(nameAndType);
+            poolIndexes.put(key, index = poolSize++);
+        }
+        return index;
+    }
+
+    private int doubleConstant(double value) throws IOException {
+        final long bits = Double.doubleToRawLongBits(value);
+        final String key = "D" + bits;
+        Integer index = poolIndexes.get(key);
+        if (index == null) {
+            pool.writeByte(CONSTANT_DOUBLE);
+            pool.writeLong(bits);
+            poolIndexes.put(key, index = poolSize);
+            poolSize += 2;
+        }
+        return index;
+    }
+
+    private int longConstant(long value) throws IOException {
+        final String key = "J" + value;
+        Integer index = poolIndexes.get(key);
+        if (index == null) {
+            pool.writeByte(CONSTANT_LONG);
+            pool.writeLong(value);
+            poolIndexes.put(key, index = poolSize);
+            poolSize += 2;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,73 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+/**
+ * Base class of the expression classes generated by {@link ExpressionCompiler}.
+ */
+public abstract class CompiledExpression {
+    /**
+     * The variables used by the expression. The generated code keeps their
+     * values in locals and writes them back whenever it leaves compiled code.
+     */
+    protected final Variable[] variables;
+
+    /**
+     * Nodes the generated code hands back to the interpreter.
+     */
+    protected final RValue[] nodes;
+
+    protected CompiledExpression(Variable[] variables, RValue[] nodes) {
+        this.variables = variables;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Evaluates the expression with the current values of its variables.
+     *
+     * @return the result
+     * @throws EvaluationException
+     */
+    public abstract double evaluate() throws EvaluationException;
+
+    /**
+     * Checks whether any part of the expression is still run by the
+     * interpreter, in which case it may rely on
+     * {@link com.sk89q.worldedit.expression.Expression#getInstance()} or
+     * throw a {@link ReturnException}.
+     *
+     * @return true if some nodes are interpreted
+     */
+    public boolean hasInterpretedNodes() {
+        return nodes.length > 0;
+    }
+
+    public static double near(double lhs, double rhs) {
+        return Operators.near(lhs, rhs);
+    }
+
+    public static double fac(double x) {
+        return Operators.fac(x);
+    }
+
+    public static EvaluationException loopLimitExceeded(int position) {
+        return new EvaluationException(position, "Loop exceeded 256 iterations.");
+    }
+}
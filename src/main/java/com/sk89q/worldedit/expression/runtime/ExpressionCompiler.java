@@ -0,0 +1,811 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010, 2011 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.expression.runtime;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.sk89q.worldedit.expression.runtime.BytecodeWriter.*;
+
+/**
+ * Turns an expression tree into a JVM class.
+ *
+ * Variables are kept in local variables of the generated method. Operators
+ * and the math functions are emitted as plain bytecode or direct calls to
+ * {@link Math}; any other function is handed back to the interpreter, with
+ * the variables written back before and reloaded after the call.
+ */
+public final class ExpressionCompiler {
+    private static final String PACKAGE = "com/sk89q/worldedit/expression/runtime/";
+    private static final String COMPILED = PACKAGE + "CompiledExpression";
+    private static final String VARIABLE = PACKAGE + "Variable";
+    private static final String RVALUE = PACKAGE + "RValue";
+    private static final String MATH = "java/lang/Math";
+    private static final String GENERATED = "com.sk89q.worldedit.expression.generated.Expression";
+
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    private enum Kind {
+        ARITHMETIC, CALL, REDUCE, COMPARE, AND, OR, NOT, INVERT, SHIFT,
+        ASSIGN, COMPOUND, INCREMENT, POST_INCREMENT
+    }
+
+    /**
+     * Describes how to emit a function from {@link Operators} or
+     * {@link Functions} without going through reflection.
+     */
+    private static final class Intrinsic {
+        private final Kind kind;
+        private final int opcode;
+        private final int jump;
+        private final String owner;
+        private final String name;
+        private final String descriptor;
+
+        private Intrinsic(Kind kind, int opcode, int jump, String owner, String name, String descriptor) {
+            this.kind = kind;
+            this.opcode = opcode;
+            this.jump = jump;
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        private void invoke(BytecodeWriter w) throws IOException {
+            if (opcode != 0) {
+                w.op(opcode, -2);
+            } else {
+                final int parameters = descriptor.indexOf(')') - 1;
+                w.invoke(INVOKESTATIC, owner, name, descriptor, 2 - 2 * parameters);
+                if (descriptor.endsWith("J")) {
+                    w.op(L2D, 0);
+                }
+            }
+        }
+    }
+
+    private static final Map<Method, Intrinsic> intrinsics = new HashMap<Method, Intrinsic>();
+    static {
+        final Class<?>[] r = { RValue.class };
+        final Class<?>[] rr = { RValue.class, RValue.class };
+        final Class<?>[] rrr = { RValue.class, RValue.class, RValue.class };
+        final Class<?>[] l = { LValue.class };
+        final Class<?>[] lr = { LValue.class, RValue.class };
+
+        operator("add", rr, Kind.ARITHMETIC, DADD, 0);
+        operator("sub", rr, Kind.ARITHMETIC, DSUB, 0);
+        operator("mul", rr, Kind.ARITHMETIC, DMUL, 0);
+        operator("div", rr, Kind.ARITHMETIC, DDIV, 0);
+        operator("mod", rr, Kind.ARITHMETIC, DREM, 0);
+        operator("neg", r, Kind.ARITHMETIC, DNEG, 0);
+        register(Operators.class, "pow", rr, call(Kind.CALL, MATH, "pow", "(DD)D"));
+
+        operator("not", r, Kind.NOT, 0, 0);
+        operator("inv", r, Kind.INVERT, 0, 0);
+
+        operator("lth", rr, Kind.COMPARE, DCMPG, IFGE);
+        operator("gth", rr, Kind.COMPARE, DCMPL, IFLE);
+        operator("leq", rr, Kind.COMPARE, DCMPG, IFGT);
+        operator("geq", rr, Kind.COMPARE, DCMPL, IFLT);
+        operator("equ", rr, Kind.COMPARE, DCMPL, IFNE);
+        operator("neq", rr, Kind.COMPARE, DCMPL, IFEQ);
+        register(Operators.class, "near", rr, call(Kind.CALL, COMPILED, "near", "(DD)D"));
+
+        operator("or", rr, Kind.OR, 0, 0);
+        operator("and", rr, Kind.AND, 0, 0);
+
+        operator("shl", rr, Kind.SHIFT, LSHL, 0);
+        operator("shr", rr, Kind.SHIFT, LSHR, 0);
+
+        operator("ass", lr, Kind.ASSIGN, 0, 0);
+        operator("aadd", lr, Kind.COMPOUND, DADD, 0);
+        operator("asub", lr, Kind.COMPOUND, DSUB, 0);
+        operator("amul", lr, Kind.COMPOUND, DMUL, 0);
+        operator("adiv", lr, Kind.COMPOUND, DDIV, 0);
+        operator("amod", lr, Kind.COMPOUND, DREM, 0);
+        register(Operators.class, "aexp", lr, call(Kind.COMPOUND, MATH, "pow", "(DD)D"));
+
+        operator("inc", l, Kind.INCREMENT, DADD, 0);
+        operator("dec", l, Kind.INCREMENT, DSUB, 0);
+        operator("postinc", l, Kind.POST_INCREMENT, DADD, 0);
+        operator("postdec", l, Kind.POST_INCREMENT, DSUB, 0);
+
+        register(Operators.class, "fac", r, call(Kind.CALL, COMPILED, "fac", "(D)D"));
+
+        for (String name : new String[] { "sin", "cos", "tan", "asin", "acos", "atan", "sinh", "cosh", "tanh",
+                "sqrt", "cbrt", "abs", "ceil", "floor", "rint", "exp", "log", "log10" }) {
+            register(Functions.class, name, r, call(Kind.CALL, MATH, name, "(D)D"));
+        }
+        register(Functions.class, "ln", r, call(Kind.CALL, MATH, "log", "(D)D"));
+        register(Functions.class, "round", r, call(Kind.CALL, MATH, "round", "(D)J"));
+        register(Functions.class, "atan2", rr, call(Kind.CALL, MATH, "atan2", "(DD)D"));
+        register(Functions.class, "min", rr, call(Kind.REDUCE, MATH, "min", "(DD)D"));
+        register(Functions.class, "min", rrr, call(Kind.REDUCE, MATH, "min", "(DD)D"));
+        register(Functions.class, "max", rr, call(Kind.REDUCE, MATH, "max", "(DD)D"));
+        register(Functions.class, "max", rrr, call(Kind.REDUCE, MATH, "max", "(DD)D"));
+    }
+
+    private static void operator(String name, Class<?>[] parameters, Kind kind, int opcode, int jump) {
+        register(Operators.class, name, parameters, new Intrinsic(kind, opcode, jump, null, null, null));
+    }
+
+    private static Intrinsic call(Kind kind, String owner, String name, String descriptor) {
+        return new Intrinsic(kind, 0, 0, owner, name, descriptor);
+    }
+
+    private static void register(Class<?> owner, String name, Class<?>[] parameters, Intrinsic intrinsic) {
+        try {
+            intrinsics.put(owner.getMethod(name, parameters), intrinsic);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Where break and continue statements jump to.
+     */
+    private static final class Target {
+        private final Label breakLabel;
+        private final int breakDepth;
+        private final Label continueLabel;
+        private final int continueDepth;
+
+        private Target(Label breakLabel, int breakDepth, Label continueLabel, int continueDepth) {
+            this.breakLabel = breakLabel;
+            this.breakDepth = breakDepth;
+            this.continueLabel = continueLabel;
+            this.continueDepth = continueDepth;
+        }
+    }
+
+    /**
+     * Thrown while generating code for trees the compiler does not handle.
+     */
+    private static final class UnsupportedNodeException extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    private static final class Loader extends ClassLoader {
+        private Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private final BytecodeWriter w;
+    private final Map<Variable, Integer> variables = new LinkedHashMap<Variable, Integer>();
+    private final List<Integer> variableRefs = new ArrayList<Integer>();
+    private final List<RValue> nodes = new ArrayList<RValue>();
+
+    private ExpressionCompiler(String className) {
+        w = new BytecodeWriter(className.replace('.', '/'), COMPILED);
+    }
+
+    /**
+     * Compiles an expression tree.
+     *
+     * @param root the (preferably optimized) root node
+     * @return the compiled expression, or null if the tree cannot be compiled
+     */
+    public static CompiledExpression compile(RValue root) {
+        final String className = GENERATED + classCounter.incrementAndGet();
+        final ExpressionCompiler compiler = new ExpressionCompiler(className);
+
+        try {
+            final byte[] bytes = compiler.generate(root);
+            final Class<?> cls = new Loader(CompiledExpression.class.getClassLoader()).define(className, bytes);
+
+            final Variable[] variables = compiler.variables.keySet().toArray(new Variable[compiler.variables.size()]);
+            final RValue[] nodes = compiler.nodes.toArray(new RValue[compiler.nodes.size()]);
+            return (CompiledExpression) cls.getConstructor(Variable[].class, RValue[].class).newInstance(variables, nodes);
+        } catch (UnsupportedNodeException e) {
+            return null;
+        } catch (Exception e) {
+            // The method got too large, or the class could not be defined
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    private byte[] generate(RValue root) throws IOException, UnsupportedNodeException {
+        collectVariables(root);
+
+        final String constructor = "([L" + VARIABLE + ";[L" + RVALUE + ";)V";
+        w.beginMethod(3);
+        w.var(ALOAD, 0, 1);
+        w.var(ALOAD, 1, 1);
+        w.var(ALOAD, 2, 1);
+        w.invoke(INVOKESPECIAL, COMPILED, "<init>", constructor, -3);
+        w.op(RETURN, 0);
+        w.endMethod("<init>", constructor);
+
+        w.beginMethod(1);
+        int index = 0;
+        for (Entry<Variable, Integer> entry : variables.entrySet()) {
+            final int ref = w.newLocal(1);
+            final int slot = w.newLocal(2);
+            entry.setValue(slot);
+            variableRefs.add(ref);
+
+            w.var(ALOAD, 0, 1);
+            w.field(GETFIELD, COMPILED, "variables", "[L" + VARIABLE + ";", 0);
+            w.pushInt(index++);
+            w.op(AALOAD, -1);
+            w.op(DUP, 1);
+            w.var(ASTORE, ref, -1);
+            w.field(GETFIELD, VARIABLE, "value", "D", 1);
+            w.var(DSTORE, slot, -2);
+        }
+
+        emit(root, null);
+        spill();
+        w.op(DRETURN, -2);
+        w.endMethod("evaluate", "()D");
+
+        return w.toByteArray();
+    }
+
+    /**
+     * Finds the variables used by the parts of the tree that get compiled.
+     */
+    private void collectVariables(RValue node) throws UnsupportedNodeException {
+        if (node instanceof Variable) {
+            variables.put((Variable) node, -1);
+        } else if (node instanceof Constant || node instanceof Break) {
+            // nothing to do
+        } else if (node instanceof Sequence) {
+            for (RValue child : ((Sequence) node).sequence) {
+                collectVariables(child);
+            }
+        } else if (node instanceof Conditional) {
+            final Conditional conditional = (Conditional) node;
+            collectVariables(conditional.condition);
+            collectVariables(conditional.truePart);
+            if (conditional.falsePart != null) {
+                collectVariables(conditional.falsePart);
+            }
+        } else if (node instanceof While) {
+            collectVariables(((While) node).condition);
+            collectVariables(((While) node).body);
+        } else if (node instanceof For) {
+            final For loop = (For) node;
+            collectVariables(loop.init);
+            collectVariables(loop.condition);
+            collectVariables(loop.increment);
+            collectVariables(loop.body);
+        } else if (node instanceof SimpleFor) {
+            final SimpleFor loop = (SimpleFor) node;
+            if (!(loop.counter instanceof Variable)) {
+                throw new UnsupportedNodeException();
+            }
+            collectVariables(loop.counter);
+            collectVariables(loop.first);
+            collectVariables(loop.last);
+            collectVariables(loop.body);
+        } else if (node instanceof Switch) {
+            final Switch switchNode = (Switch) node;
+            collectVariables(switchNode.parameter);
+            for (RValue child : switchNode.caseStatements) {
+                collectVariables(child);
+            }
+            if (switchNode.defaultCase != null) {
+                collectVariables(switchNode.defaultCase);
+            }
+        } else if (node instanceof Return) {
+            collectVariables(((Return) node).value);
+        } else if (node instanceof Function) {
+            final Function function = (Function) node;
+            if (getIntrinsic(function) != null) {
+                for (RValue arg : function.args) {
+                    collectVariables(arg);
+                }
+            } else if (containsBreak(function)) {
+                // The interpreter would throw the break out of compiled code
+                throw new UnsupportedNodeException();
+            }
+        } else {
+            throw new UnsupportedNodeException();
+        }
+    }
+
+    private static boolean containsBreak(RValue node) {
+        if (node instanceof Break) {
+            return true;
+        } else if (node instanceof Variable || node instanceof Constant) {
+            return false;
+        } else if (node instanceof Function) {
+            for (RValue arg : ((Function) node).args) {
+                if (containsBreak(arg)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (node instanceof Sequence) {
+            for (RValue child : ((Sequence) node).sequence) {
+                if (containsBreak(child)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (node instanceof Conditional) {
+            final Conditional conditional = (Conditional) node;
+            return containsBreak(conditional.condition) || containsBreak(conditional.truePart)
+                    || (conditional.falsePart != null && containsBreak(conditional.falsePart));
+        } else if (node instanceof Return) {
+            return containsBreak(((Return) node).value);
+        }
+
+        // Loops and switches catch most breaks themselves, but not all of them
+        return true;
+    }
+
+    private static Intrinsic getIntrinsic(Function function) {
+        final Intrinsic intrinsic = intrinsics.get(function.method);
+        if (intrinsic == null) {
+            return null;
+        }
+
+        switch (intrinsic.kind) {
+        case ASSIGN:
+        case COMPOUND:
+        case INCREMENT:
+        case POST_INCREMENT:
+            // Assignments to anything but plain variables stay interpreted
+            if (!(function.args[0] instanceof Variable)) {
+                return null;
+            }
+            break;
+
+        default:
+            break;
+        }
+
+        return intrinsic;
+    }
+
+    private void emit(RValue node, Target target) throws IOException {
+        if (node instanceof Constant) {
+            w.pushDouble(((Constant) node).getValue());
+        } else if (node instanceof Variable) {
+            w.var(DLOAD, variables.get(node), 2);
+        } else if (node instanceof Sequence) {
+            final RValue[] sequence = ((Sequence) node).sequence;
+            if (sequence.length == 0) {
+                w.pushDouble(0.0);
+            }
+            for (int i = 0; i < sequence.length; ++i) {
+                emit(sequence[i], target);
+                if (i < sequence.length - 1) {
+                    w.op(POP2, -2);
+                }
+            }
+        } else if (node instanceof Conditional) {
+            emitConditional((Conditional) node, target);
+        } else if (node instanceof While) {
+            emitWhile((While) node, target);
+        } else if (node instanceof For) {
+            emitFor((For) node, target);
+        } else if (node instanceof SimpleFor) {
+            emitSimpleFor((SimpleFor) node, target);
+        } else if (node instanceof Switch) {
+            emitSwitch((Switch) node, target);
+        } else if (node instanceof Return) {
+            emit(((Return) node).value, target);
+            spill();
+            // Pretend the value stays on the stack, like any other node
+            w.op(DRETURN, 0);
+        } else if (node instanceof Break) {
+            emitBreak((Break) node, target);
+        } else {
+            final Intrinsic intrinsic = getIntrinsic((Function) node);
+            if (intrinsic == null) {
+                emitInterpreted(node);
+            } else {
+                emitIntrinsic(intrinsic, ((Function) node).args, target);
+            }
+        }
+    }
+
+    private void emitIntrinsic(Intrinsic intrinsic, RValue[] args, Target target) throws IOException {
+        final Label falseLabel = new Label();
+        final Label trueLabel = new Label();
+        final Label end = new Label();
+
+        switch (intrinsic.kind) {
+        case ARITHMETIC:
+            for (RValue arg : args) {
+                emit(arg, target);
+            }
+            w.op(intrinsic.opcode, 2 - 2 * args.length);
+            break;
+
+        case CALL:
+            for (RValue arg : args) {
+                emit(arg, target);
+            }
+            intrinsic.invoke(w);
+            break;
+
+        case REDUCE:
+            for (RValue arg : args) {
+                emit(arg, target);
+            }
+            for (int i = 1; i < args.length; ++i) {
+                intrinsic.invoke(w);
+            }
+            break;
+
+        case COMPARE:
+            emit(args[0], target);
+            emit(args[1], target);
+            w.op(intrinsic.opcode, -3);
+            w.jump(intrinsic.jump, falseLabel, -1);
+            pushBoolean(true, false, falseLabel, end);
+            break;
+
+        case NOT:
+            emitTest(args[0], target, IFGT, falseLabel);
+            pushBoolean(true, false, falseLabel, end);
+            break;
+
+        case AND:
+            emitTest(args[0], target, IFLE, falseLabel);
+            emitTest(args[1], target, IFLE, falseLabel);
+            pushBoolean(true, false, falseLabel, end);
+            break;
+
+        case OR:
+            emitTest(args[0], target, IFGT, trueLabel);
+            emitTest(args[1], target, IFGT, trueLabel);
+            pushBoolean(false, true, trueLabel, end);
+            break;
+
+        case INVERT:
+            emit(args[0], target);
+            w.op(D2L, 0);
+            w.pushLong(-1L);
+            w.op(LXOR, -2);
+            w.op(L2D, 0);
+            break;
+
+        case SHIFT:
+            emit(args[0], target);
+            w.op(D2L, 0);
+            emit(args[1], target);
+            w.op(D2L, 0);
+            w.op(L2I, -1);
+            w.op(intrinsic.opcode, -1);
+            w.op(L2D, 0);
+            break;
+
+        case ASSIGN:
+            emit(args[1], target);
+            w.op(DUP2, 2);
+            w.var(DSTORE, variables.get(args[0]), -2);
+            break;
+
+        case COMPOUND:
+            w.var(DLOAD, variables.get(args[0]), 2);
+            emit(args[1], target);
+            intrinsic.invoke(w);
+            w.op(DUP2, 2);
+            w.var(DSTORE, variables.get(args[0]), -2);
+            break;
+
+        case INCREMENT:
+            w.var(DLOAD, variables.get(args[0]), 2);
+            w.op(DCONST_1, 2);
+            w.op(intrinsic.opcode, -2);
+            w.op(DUP2, 2);
+            w.var(DSTORE, variables.get(args[0]), -2);
+            break;
+
+        case POST_INCREMENT:
+            w.var(DLOAD, variables.get(args[0]), 2);
+            w.op(DUP2, 2);
+            w.op(DCONST_1, 2);
+            w.op(intrinsic.opcode, -2);
+            w.var(DSTORE, variables.get(args[0]), -2);
+            break;
+        }
+    }
+
+    /**
+     * Pushes one of two constants, the second one if the code jumped to
+     * <code>label</code>.
+     */
+    private void pushBoolean(boolean value, boolean jumpedValue, Label label, Label end) throws IOException {
+        w.pushDouble(value ? 1.0 : 0.0);
+        w.jump(GOTO, end, 0);
+        w.place(label);
+        w.stack -= 2;
+        w.pushDouble(jumpedValue ? 1.0 : 0.0);
+        w.place(end);
+    }
+
+    /**
+     * Evaluates a condition and jumps if comparing it to 0 matches the
+     * given jump instruction.
+     */
+    private void emitTest(RValue condition, Target target, int jump, Label label) throws IOException {
+        emit(condition, target);
+        w.op(DCONST_0, 2);
+        w.op(DCMPL, -3);
+        w.jump(jump, label, -1);
+    }
+
+    private void emitConditional(Conditional node, Target target) throws IOException {
+        final Label elseLabel = new Label();
+        final Label end = new Label();
+
+        emitTest(node.condition, target, IFLE, elseLabel);
+        emit(node.truePart, target);
+        w.jump(GOTO, end, 0);
+        w.place(elseLabel);
+        w.stack -= 2;
+        if (node.falsePart == null) {
+            w.pushDouble(0.0);
+        } else {
+            emit(node.falsePart, target);
+        }
+        w.place(end);
+    }
+
+    private void emitWhile(While node, Target target) throws IOException {
+        final int depth = w.stack;
+        final int iterations = newCounter();
+        final int ret = newResult();
+        final Label top = new Label();
+        final Label check = new Label();
+        final Label end = new Label();
+
+        if (node.footChecked) {
+            w.place(top);
+            emitLoopCheck(iterations, node.getPosition());
+            emit(node.body, new Target(end, depth, check, depth));
+            w.var(DSTORE, ret, -2);
+            w.place(check);
+            emitTest(node.condition, target, IFGT, top);
+        } else {
+            w.place(check);
+            emitTest(node.condition, target, IFLE, end);
+            emitLoopCheck(iterations, node.getPosition());
+            emit(node.body, new Target(end, depth, check, depth));
+            w.var(DSTORE, ret, -2);
+            w.jump(GOTO, check, 0);
+        }
+
+        w.place(end);
+        w.var(DLOAD, ret, 2);
+    }
+
+    private void emitFor(For node, Target target) throws IOException {
+        final int depth = w.stack;
+        final Label check = new Label();
+        final Label increment = new Label();
+        final Label end = new Label();
+
+        emit(node.init, target);
+        w.op(POP2, -2);
+        final int iterations = newCounter();
+        final int ret = newResult();
+
+        w.place(check);
+        emitTest(node.condition, target, IFLE, end);
+        emitLoopCheck(iterations, node.getPosition());
+        emit(node.body, new Target(end, depth, increment, depth));
+        w.var(DSTORE, ret, -2);
+        w.place(increment);
+        emit(node.increment, target);
+        w.op(POP2, -2);
+        w.jump(GOTO, check, 0);
+
+        w.place(end);
+        w.var(DLOAD, ret, 2);
+    }
+
+    private void emitSimpleFor(SimpleFor node, Target target) throws IOException {
+        final int depth = w.stack;
+        final Label check = new Label();
+        final Label increment = new Label();
+        final Label end = new Label();
+
+        final int counter = w.newLocal(2);
+        final int last = w.newLocal(2);
+        emit(node.first, target);
+        w.var(DSTORE, counter, -2);
+        emit(node.last, target);
+        w.var(DSTORE, last, -2);
+        final int iterations = newCounter();
+        final int ret = newResult();
+
+        w.place(check);
+        w.var(DLOAD, counter, 2);
+        w.var(DLOAD, last, 2);
+        w.op(DCMPG, -3);
+        w.jump(IFGT, end, -1);
+        emitLoopCheck(iterations, node.getPosition());
+        w.var(DLOAD, counter, 2);
+        w.var(DSTORE, variables.get(node.counter), -2);
+        emit(node.body, new Target(end, depth, increment, depth));
+        w.var(DSTORE, ret, -2);
+        w.place(increment);
+        w.var(DLOAD, counter, 2);
+        w.op(DCONST_1, 2);
+        w.op(DADD, -2);
+        w.var(DSTORE, counter, -2);
+        w.jump(GOTO, check, 0);
+
+        w.place(end);
+        w.var(DLOAD, ret, 2);
+    }
+
+    private void emitSwitch(Switch node, Target target) throws IOException {
+        final int depth = w.stack;
+        final Label[] cases = new Label[node.caseStatements.length];
+        for (int i = 0; i < cases.length; ++i) {
+            cases[i] = new Label();
+        }
+        final Label defaultLabel = new Label();
+        final Label breakLabel = new Label();
+        final Label end = new Label();
+
+        // Case values are looked up in a map of Doubles, so match their bits
+        emit(node.parameter, target);
+        w.invoke(INVOKESTATIC, "java/lang/Double", "doubleToLongBits", "(D)J", 0);
+        final int bits = w.newLocal(2);
+        w.var(LSTORE, bits, -2);
+        final int ret = newResult();
+
+        for (Entry<Double, Integer> entry : node.valueMap.entrySet()) {
+            if (entry.getValue() >= cases.length) {
+                continue;
+            }
+            w.var(LLOAD, bits, 2);
+            w.pushLong(Double.doubleToLongBits(entry.getKey()));
+            w.op(LCMP, -3);
+            w.jump(IFEQ, cases[entry.getValue()], -1);
+        }
+        w.jump(GOTO, defaultLabel, 0);
+
+        final Target switchTarget = new Target(breakLabel, depth,
+                target == null ? null : target.continueLabel, target == null ? 0 : target.continueDepth);
+        for (int i = 0; i < cases.length; ++i) {
+            w.place(cases[i]);
+            emit(node.caseStatements[i], switchTarget);
+            w.var(DSTORE, ret, -2);
+        }
+
+        w.place(defaultLabel);
+        if (node.defaultCase == null) {
+            w.var(DLOAD, ret, 2);
+        } else {
+            emit(node.defaultCase, switchTarget);
+        }
+        w.jump(GOTO, end, 0);
+
+        w.place(breakLabel);
+        w.stack = depth;
+        w.pushDouble(0.0);
+        w.place(end);
+    }
+
+    private void emitBreak(Break node, Target target) throws IOException {
+        final Label label;
+        final int depth;
+        if (target == null) {
+            label = null;
+            depth = 0;
+        } else if (node.doContinue) {
+            label = target.continueLabel;
+            depth = target.continueDepth;
+        } else {
+            label = target.breakLabel;
+            depth = target.breakDepth;
+        }
+
+        if (label == null) {
+            // Let the interpreter throw the exception
+            emitInterpreted(node);
+            return;
+        }
+
+        // Everything left on the stack at this point is a double or a long
+        final int stack = w.stack;
+        while (w.stack > depth) {
+            w.op(POP2, -2);
+        }
+        w.jump(GOTO, label, 0);
+        w.stack = stack + 2;
+    }
+
+    private void emitInterpreted(RValue node) throws IOException {
+        spill();
+        w.var(ALOAD, 0, 1);
+        w.field(GETFIELD, COMPILED, "nodes", "[L" + RVALUE + ";", 0);
+        w.pushInt(nodes.size());
+        w.op(AALOAD, -1);
+        w.invoke(INVOKEINTERFACE, RVALUE, "getValue", "()D", 1);
+        nodes.add(node);
+        reload();
+    }
+
+    private void emitLoopCheck(int iterations, int position) throws IOException {
+        final Label ok = new Label();
+        w.var(ILOAD, iterations, 1);
+        w.pushInt(256);
+        w.jump(IF_ICMPLE, ok, -2);
+        spill();
+        w.pushInt(position);
+        w.invoke(INVOKESTATIC, COMPILED, "loopLimitExceeded", "(I)L" + PACKAGE + "EvaluationException;", 0);
+        w.op(ATHROW, -1);
+        w.place(ok);
+        w.iinc(iterations, 1);
+    }
+
+    private int newCounter() {
+        final int slot = w.newLocal(1);
+        w.pushInt(0);
+        w.var(ISTORE, slot, -1);
+        return slot;
+    }
+
+    private int newResult() throws IOException {
+        final int slot = w.newLocal(2);
+        w.pushDouble(0.0);
+        w.var(DSTORE, slot, -2);
+        return slot;
+    }
+
+    /**
+     * Writes the locals back to their variables.
+     */
+    private void spill() throws IOException {
+        int index = 0;
+        for (int slot : variables.values()) {
+            w.var(ALOAD, variableRefs.get(index++), 1);
+            w.var(DLOAD, slot, 2);
+            w.field(PUTFIELD, VARIABLE, "value", "D", -3);
+        }
+    }
+
+    /**
+     * Reads the variables into the locals again.
+     */
+    private void reload() throws IOException {
+        int index = 0;
+        for (int slot : variables.values()) {
+            w.var(ALOAD, variableRefs.get(index++), 1);
+            w.field(GETFIELD, VARIABLE, "value", "D", 1);
+            w.var(DSTORE, slot, -2);
+        }
+    }
+}
@@ -23,6 +23,8 @@
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * Wrapper for a Java method and its arguments (other Nodes)
@@ -64,6 +66,160 @@ protected static final double invokeMethod(Method method, Object[] args) throws
         }
     }
 
+    /**
+     * Checks whether an expression tree calls any function marked with
+     * {@link Dynamic}.
+     *
+     * @param node the root of the tree
+     * @return true if a dynamic function may be called
+     */
+    public static boolean callsDynamic(RValue node) {
+        if (node instanceof Variable || node instanceof Constant || node instanceof Break) {
+            return false;
+        } else if (node instanceof Function) {
+            final Function function = (Function) node;
+            if (function.method.isAnnotationPresent(Dynamic.class)) {
+                return true;
+            }
+            if (function instanceof LValueFunction && ((LValueFunction) function).setter.isAnnotationPresent(Dynamic.class)) {
+                return true;
+            }
+            return callsDynamic(function.args);
+        } else if (node instanceof Sequence) {
+            return callsDynamic(((Sequence) node).sequence);
+        } else if (node instanceof Conditional) {
+            final Conditional conditional = (Conditional) node;
+            return callsDynamic(conditional.condition, conditional.truePart, conditional.falsePart);
+        } else if (node instanceof While) {
+            return callsDynamic(((While) node).condition, ((While) node).body);
+        } else if (node instanceof For) {
+            final For loop = (For) node;
+            return callsDynamic(loop.init, loop.condition, loop.increment, loop.body);
+        } else if (node instanceof SimpleFor) {
+            final SimpleFor loop = (SimpleFor) node;
+            return callsDynamic(loop.counter, loop.first, loop.last, loop.body);
+        } else if (node instanceof Switch) {
+            final Switch switchNode = (Switch) node;
+            return callsDynamic(switchNode.parameter, switchNode.defaultCase) || callsDynamic(switchNode.caseStatements);
+        } else if (node instanceof Return) {
+            return callsDynamic(((Return) node).value);
+        }
+
+        // Unknown nodes might do anything
+        return true;
+    }
+
+    private static boolean callsDynamic(RValue... nodes) {
+        for (RValue node : nodes) {
+            if (node != null && callsDynamic(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether an expression tree may read a variable before it has
+     * assigned it, in the order the tree is evaluated. Such a variable still
+     * holds its value from the previous evaluation. Assignments inside
+     * branches and loops only count within them.
+     *
+     * @param node the root of the tree
+     * @param assigned the variables assigned so far, which is updated
+     * @return true if a variable may be read before it is assigned
+     */
+    public static boolean readsUnassigned(RValue node, Set<RValue> assigned) {
+        if (node == null || node instanceof Constant || node instanceof Break) {
+            return false;
+        } else if (node instanceof Variable) {
+            return !assigned.contains(node);
+        } else if (node instanceof Function) {
+            final Function function = (Function) node;
+            if (function.method.getDeclaringClass() == Operators.class && function.method.getName().equals("ass")
+                    && function.args[0] instanceof Variable) {
+                // The right side is evaluated before the variable is set
+                if (readsUnassigned(function.args[1], assigned)) {
+                    return true;
+                }
+                assigned.add(function.args[0]);
+                return false;
+            }
+            for (RValue arg : function.args) {
+                if (readsUnassigned(arg, assigned)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (node instanceof Sequence) {
+            for (RValue statement : ((Sequence) node).sequence) {
+                if (readsUnassigned(statement, assigned)) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (node instanceof Conditional) {
+            final Conditional conditional = (Conditional) node;
+            if (readsUnassigned(conditional.condition, assigned)) {
+                return true;
+            }
+            final Set<RValue> truePart = new HashSet<RValue>(assigned);
+            final Set<RValue> falsePart = new HashSet<RValue>(assigned);
+            if (readsUnassigned(conditional.truePart, truePart) || readsUnassigned(conditional.falsePart, falsePart)) {
+                return true;
+            }
+            truePart.retainAll(falsePart);
+            assigned.addAll(truePart);
+            return false;
+        } else if (node instanceof While) {
+            final While loop = (While) node;
+            if (loop.footChecked) {
+                return readsUnassigned(loop.body, new HashSet<RValue>(assigned))
+                        || readsUnassigned(loop.condition, new HashSet<RValue>(assigned));
+            }
+            final Set<RValue> body = new HashSet<RValue>(assigned);
+            return readsUnassigned(loop.condition, body) || readsUnassigned(loop.body, body);
+        } else if (node instanceof For) {
+            final For loop = (For) node;
+            if (readsUnassigned(loop.init, assigned)) {
+                return true;
+            }
+            final Set<RValue> body = new HashSet<RValue>(assigned);
+            if (readsUnassigned(loop.condition, body)) {
+                return true;
+            }
+            // A continue can skip the rest of the body, so the increment
+            // only counts on what was assigned before it
+            final Set<RValue> increment = new HashSet<RValue>(body);
+            return readsUnassigned(loop.body, body) || readsUnassigned(loop.increment, increment);
+        } else if (node instanceof SimpleFor) {
+            final SimpleFor loop = (SimpleFor) node;
+            if (readsUnassigned(loop.first, assigned) || readsUnassigned(loop.last, assigned)) {
+                return true;
+            }
+            final Set<RValue> body = new HashSet<RValue>(assigned);
+            body.add(loop.counter);
+            return readsUnassigned(loop.body, body);
+        } else if (node instanceof Switch) {
+            final Switch switchNode = (Switch) node;
+            if (readsUnassigned(switchNode.parameter, assigned)) {
+                return true;
+            }
+            // Cases fall through, so each one starts from what was known
+            // before the switch
+            for (RValue caseStatement : switchNode.caseStatements) {
+                if (readsUnassigned(caseStatement, new HashSet<RValue>(assigned))) {
+                    return true;
+                }
+            }
+            return readsUnassigned(switchNode.defaultCase, new HashSet<RValue>(assigned));
+        } else if (node instanceof Return) {
+            return readsUnassigned(((Return) node).value, assigned);
+        }
+
+        // Unknown nodes might do anything
+        return true;
+    }
+
     @Override
     public String toString() {
         final StringBuilder ret = new StringBuilder(method.getName()).append('(');
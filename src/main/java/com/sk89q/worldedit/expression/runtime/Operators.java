@@ -110,8 +110,12 @@ public static final double neq(RValue lhs, RValue rhs) throws EvaluationExceptio
     }
 
     public static final double near(RValue lhs, RValue rhs) throws EvaluationException {
-        return almostEqual2sComplement(lhs.getValue(), rhs.getValue(), 450359963L) ? 1.0 : 0.0;
-        //return Math.abs(lhs.invoke() - rhs.invoke()) < 1e-7 ? 1.0 : 0.0;
+        return near(lhs.getValue(), rhs.getValue());
+    }
+
+    static double near(double lhs, double rhs) {
+        return almostEqual2sComplement(lhs, rhs, 450359963L) ? 1.0 : 0.0;
+        //return Math.abs(lhs - rhs) < 1e-7 ? 1.0 : 0.0;
     }
 
 
@@ -193,7 +197,11 @@ public static final double postdec(LValue x) throws EvaluationException {
     }
 
     public static final double fac(RValue x) throws EvaluationException {
-        int n = (int) x.getValue();
+        return fac(x.getValue());
+    }
+
+    static double fac(double x) {
+        int n = (int) x;
 
         if (n < 0) {
             return 0;
@@ -14,6 +14,10 @@ public class BlockMask implements Mask {
 
     protected Set<BaseBlock> blocks;
 
+    // Changed whenever blocks are added, so that compiled copies can tell
+    // they are out of date
+    int version;
+
     public BlockMask() {
         blocks = new HashSet<BaseBlock>();
     }
@@ -29,10 +33,12 @@ public BlockMask(BaseBlock block) {
 
     public void add(BaseBlock block) {
         blocks.add(block);
+        ++version;
     }
 
     public void addAll(Collection<BaseBlock> blocks) {
-        blocks.addAll(blocks);
+        this.blocks.addAll(blocks);
+        ++version;
     }
 
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
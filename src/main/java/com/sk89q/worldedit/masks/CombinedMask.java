@@ -30,6 +30,10 @@ public class CombinedMask implements Mask {
 
     private List<Mask> masks = new ArrayList<Mask>();
 
+    // Changed whenever a mask is added or removed, so that compiled copies
+    // can tell they are out of date
+    int version;
+
     public CombinedMask() {
     }
 
@@ -43,9 +47,11 @@ public CombinedMask(List<Mask> masks) {
 
     public void add(Mask mask) {
         masks.add(mask);
+        ++version;
     }
 
     public boolean remove(Mask mask) {
+        ++version;
         return masks.remove(mask);
     }
 
@@ -53,6 +59,15 @@ public boolean has(Mask mask) {
         return masks.contains(mask);
     }
 
+    /**
+     * Get the masks in the order they are checked.
+     *
+     * @return
+     */
+    List<Mask> getMasks() {
+        return masks;
+    }
+
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
         for (Mask mask : masks) {
             mask.prepare(session, player, target);
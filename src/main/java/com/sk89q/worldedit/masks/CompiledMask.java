@@ -0,0 +1,348 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.sk89q.worldedit.masks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalPlayer;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+
+/**
+ * A mask that has been flattened into a small branch program over integer
+ * coordinates. Block masks become bitsets indexed by
+ * <code>type &lt;&lt; 4 | data</code>, and combined, inverted and
+ * under/overlay masks become jumps between the checks, so matching does not
+ * create vectors or blocks. Masks that cannot be compiled are still called
+ * through {@link Mask#matches(EditSession, Vector)}.
+ *
+ * <p>The blocks of block masks are copied when the mask is compiled. Masks
+ * that are changed through their own methods afterwards make
+ * {@link #isCurrent()} return false, and the mask has to be compiled again.
+ * Changes made directly to a set of blocks given to a mask are not
+ * noticed.</p>
+ */
+public class CompiledMask implements Mask {
+
+    private static final int ACCEPT = -1;
+    private static final int REJECT = -2;
+
+    private static final int OP_BLOCKS = 0;
+    private static final int OP_EXISTING = 1;
+    private static final int OP_MASK = 2;
+
+    private final Mask source;
+    private final int start;
+    private final int[] ops;
+    private final int[] yOffsets;
+    private final int[] onTrue;
+    private final int[] onFalse;
+    private final long[][] tables;
+    private final Mask[] masks;
+    private final Mask[] watched;
+    private final int[] versions;
+
+    private CompiledMask(Mask source, int start, List<Instruction> program, List<Mask> watched) {
+        this.source = source;
+        this.start = start;
+        this.watched = watched.toArray(new Mask[watched.size()]);
+        versions = new int[this.watched.length];
+        for (int i = 0; i < versions.length; ++i) {
+            versions[i] = getVersion(this.watched[i]);
+        }
+
+        final int size = program.size();
+        ops = new int[size];
+        yOffsets = new int[size];
+        onTrue = new int[size];
+        onFalse = new int[size];
+        tables = new long[size][];
+        masks = new Mask[size];
+
+        for (int i = 0; i < size; ++i) {
+            final Instruction instruction = program.get(i);
+            ops[i] = instruction.op;
+            yOffsets[i] = instruction.yOffset;
+            onTrue[i] = instruction.onTrue;
+            onFalse[i] = instruction.onFalse;
+            tables[i] = instruction.table;
+            masks[i] = instruction.mask;
+        }
+    }
+
+    /**
+     * Compile a mask. A compiled mask is returned as it is, unless its
+     * source has changed since.
+     *
+     * @param mask
+     * @return
+     */
+    public static CompiledMask compile(Mask mask) {
+        if (mask instanceof CompiledMask) {
+            final CompiledMask compiled = (CompiledMask) mask;
+            if (compiled.isCurrent()) {
+                return compiled;
+            }
+            mask = compiled.source;
+        }
+
+        final List<Instruction> program = new ArrayList<Instruction>();
+        final List<Mask> watched = new ArrayList<Mask>();
+        final int start = compile(program, watched, mask, 0, ACCEPT, REJECT);
+        return new CompiledMask(mask, start, program, watched);
+    }
+
+    /**
+     * Returns whether none of the masks that were taken apart have been
+     * changed since the mask was compiled.
+     *
+     * @return
+     */
+    public boolean isCurrent() {
+        for (int i = 0; i < watched.length; ++i) {
+            if (getVersion(watched[i]) != versions[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getVersion(Mask mask) {
+        if (mask instanceof CombinedMask) {
+            return ((CombinedMask) mask).version;
+        } else if (mask instanceof UnderOverlayMask) {
+            return ((UnderOverlayMask) mask).version;
+        } else {
+            return ((BlockMask) mask).version;
+        }
+    }
+
+    /**
+     * Add the checks for a mask to the program.
+     *
+     * @param program
+     * @param watched list to add the masks that may change to
+     * @param mask
+     * @param yOffset offset of the checked position
+     * @param onTrue where to continue if the mask matches
+     * @param onFalse where to continue if it does not
+     * @return where to start checking the mask
+     */
+    @SuppressWarnings("deprecation")
+    private static int compile(List<Instruction> program, List<Mask> watched, Mask mask,
+            int yOffset, int onTrue, int onFalse) {
+        // Subclasses may override matches(), so only the exact classes are
+        // taken apart
+        final Class<?> type = mask.getClass();
+
+        if (type == CombinedMask.class) {
+            watched.add(mask);
+            final List<Mask> children = ((CombinedMask) mask).getMasks();
+            int next = onTrue;
+            for (int i = children.size() - 1; i >= 0; --i) {
+                next = compile(program, watched, children.get(i), yOffset, next, onFalse);
+            }
+            return next;
+        }
+
+        if (type == InvertedMask.class) {
+            return compile(program, watched, ((InvertedMask) mask).getMask(), yOffset, onFalse, onTrue);
+        }
+
+        if (type == UnderOverlayMask.class) {
+            final UnderOverlayMask overlayMask = (UnderOverlayMask) mask;
+            watched.add(mask);
+            return compile(program, watched, overlayMask.getMask(), yOffset + overlayMask.getYOffset(), onTrue, onFalse);
+        }
+
+        if (type == BlockMask.class || type == BlockTypeMask.class) {
+            watched.add(mask);
+            return add(program, new Instruction(OP_BLOCKS, yOffset, onTrue, onFalse,
+                    createTable(((BlockMask) mask).blocks), null));
+        }
+
+        if (type == InvertedBlockTypeMask.class) {
+            watched.add(mask);
+            return add(program, new Instruction(OP_BLOCKS, yOffset, onFalse, onTrue,
+                    createTable(((BlockMask) mask).blocks), null));
+        }
+
+        if (type == ExistingBlockMask.class) {
+            return add(program, new Instruction(OP_EXISTING, yOffset, onTrue, onFalse, null, null));
+        }
+
+        return add(program, new Instruction(OP_MASK, yOffset, onTrue, onFalse, null, mask));
+    }
+
+    private static int add(List<Instruction> program, Instruction instruction) {
+        program.add(instruction);
+        return program.size() - 1;
+    }
+
+    /**
+     * Create a bitset with a bit for each type and data value in the set.
+     * A data value of -1 sets the bits of all data values of the type.
+     *
+     * @param blocks
+     * @return
+     */
+    private static long[] createTable(Set<BaseBlock> blocks) {
+        int maxType = -1;
+        for (BaseBlock block : blocks) {
+            maxType = Math.max(maxType, block.getType());
+        }
+
+        final long[] table = new long[(maxType + 4) >> 2];
+        for (BaseBlock block : blocks) {
+            final int type = block.getType();
+            final int data = block.getData();
+            final int index = type << 4;
+            if (data == -1) {
+                table[index >> 6] |= 0xFFFFL << (index & 63);
+            } else if (data >= 0 && data < 16) {
+                table[index >> 6] |= 1L << ((index | data) & 63);
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * Get the mask that was compiled.
+     *
+     * @return
+     */
+    public Mask getSource() {
+        return source;
+    }
+
+    public void prepare(LocalSession session, LocalPlayer player, Vector target) {
+        source.prepare(session, player, target);
+    }
+
+    public boolean matches(EditSession editSession, Vector pos) {
+        return matches(editSession, pos, pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
+    }
+
+    /**
+     * Check whether the block at a position matches the mask.
+     *
+     * @param editSession
+     * @param x
+     * @param y
+     * @param z
+     * @return
+     */
+    public boolean matches(EditSession editSession, int x, int y, int z) {
+        return matches(editSession, null, x, y, z);
+    }
+
+    private boolean matches(EditSession editSession, Vector pos, int x, int y, int z) {
+        // Consecutive checks usually look at the same block, so the last type
+        // and data read are kept
+        int typeOffset = Integer.MIN_VALUE;
+        int dataOffset = Integer.MIN_VALUE;
+        int type = 0;
+        int data = 0;
+
+        int pc = start;
+        while (pc >= 0) {
+            final int yOffset = yOffsets[pc];
+            final boolean result;
+
+            switch (ops[pc]) {
+            case OP_BLOCKS:
+                if (typeOffset != yOffset) {
+                    type = editSession.getBlockType(x, y + yOffset, z);
+                    typeOffset = yOffset;
+                }
+
+                final long[] table = tables[pc];
+                if (type < 0 || type >> 2 >= table.length) {
+                    result = false;
+                    break;
+                }
+
+                // The 16 data bits of the type decide most checks without
+                // reading the data value
+                final int bits = (int) (table[type >> 2] >>> ((type & 3) << 4)) & 0xFFFF;
+                if (bits == 0 || bits == 0xFFFF) {
+                    result = bits != 0;
+                    break;
+                }
+
+                if (dataOffset != yOffset) {
+                    data = editSession.getBlockData(x, y + yOffset, z);
+                    dataOffset = yOffset;
+                }
+                result = data >= 0 && data < 16 && (bits & (1 << data)) != 0;
+                break;
+
+            case OP_EXISTING:
+                if (typeOffset != yOffset) {
+                    type = editSession.getBlockType(x, y + yOffset, z);
+                    typeOffset = yOffset;
+                }
+                result = type != BlockID.AIR;
+                break;
+
+            default:
+                final Vector checked;
+                if (pos == null) {
+                    checked = new Vector(x, y + yOffset, z);
+                } else if (yOffset == 0) {
+                    checked = pos;
+                } else {
+                    checked = pos.add(0, yOffset, 0);
+                }
+                result = masks[pc].matches(editSession, checked);
+                break;
+            }
+
+            pc = result ? onTrue[pc] : onFalse[pc];
+        }
+
+        return pc == ACCEPT;
+    }
+
+    private static class Instruction {
+        private final int op;
+        private final int yOffset;
+        private final int onTrue;
+        private final int onFalse;
+        private final long[] table;
+        private final Mask mask;
+
+        private Instruction(int op, int yOffset, int onTrue, int onFalse, long[] table, Mask mask) {
+            this.op = op;
+            this.yOffset = yOffset;
+            this.onTrue = onTrue;
+            this.onFalse = onFalse;
+            this.table = table;
+            this.mask = mask;
+        }
+    }
+}
@@ -13,6 +13,15 @@ public InvertedMask(Mask mask) {
         this.mask = mask;
     }
 
+    /**
+     * Get the mask that is inverted.
+     *
+     * @return
+     */
+    Mask getMask() {
+        return mask;
+    }
+
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
         mask.prepare(session, player, target);
     }
@@ -35,6 +35,10 @@ public class UnderOverlayMask implements Mask {
     private int yMod;
     private Mask mask;
 
+    // Changed when the checked mask is replaced, so that compiled copies can
+    // tell they are out of date
+    int version;
+
     @Deprecated
     public UnderOverlayMask(Set<Integer> ids, boolean overlay) {
         this(new BlockTypeMask(ids), overlay); 
@@ -54,9 +58,28 @@ public void addAll(Set<Integer> ids) {
             }
         } else if (mask instanceof ExistingBlockMask) {
             mask = new BlockTypeMask(ids);
+            ++version;
         }
     }
 
+    /**
+     * Get the mask that is checked at the offset position.
+     *
+     * @return
+     */
+    Mask getMask() {
+        return mask;
+    }
+
+    /**
+     * Get the vertical offset of the checked position.
+     *
+     * @return
+     */
+    int getYOffset() {
+        return yMod;
+    }
+
     public void prepare(LocalSession session, LocalPlayer player, Vector target) {
         mask.prepare(session, player, target);
     }
@@ -0,0 +1,45 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package com.sk89q.worldedit.patterns;
+
+/**
+ * A pattern that can fill a whole row of positions at once with plain
+ * blocks, which lets edits copy the blocks into chunks in bulk.
+ */
+public interface BulkPattern extends Pattern {
+    /**
+     * Get the types and data values for a row of positions, from x to
+     * x + length - 1 at the given y and z. The blocks must be the ones
+     * {@link #next(int, int, int)} could return for the positions.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param length
+     * @param types array to write types to
+     * @param data array to write data values to
+     * @param offset index to write the first position to
+     * @return false if the row has blocks that need more than a type and
+     *         data value, such as signs with text; the arrays may have
+     *         been partly written
+     */
+    public boolean nextSpan(int x, int y, int z, int length, int[] types, int[] data, int offset);
+}
@@ -27,7 +27,7 @@
  *
  * @author sk89q
  */
-public class ClipboardPattern implements Pattern {
+public class ClipboardPattern implements BulkPattern {
     /**
      * Clipboard.
      */
@@ -72,4 +72,25 @@ public BaseBlock next(int x, int y, int z) {
 
         return clipboard.getPoint(new Vector(xp, yp, zp));
     }
+
+    public boolean nextSpan(int x, int y, int z, int length, int[] types, int[] data, int offset) {
+        final int width = size.getBlockX();
+        final int yp = Math.abs(y) % size.getBlockY();
+        final int zp = Math.abs(z) % size.getBlockZ();
+
+        int i = 0;
+        while (i < length) {
+            final int xp = Math.abs(x + i) % width;
+
+            // Copy as much of the clipboard row as lines up with the span;
+            // negative x runs through the clipboard backwards
+            final int count = x + i >= 0 ? Math.min(length - i, width - xp) : 1;
+            if (!clipboard.getRow(xp, yp, zp, count, types, data, offset + i)) {
+                return false;
+            }
+            i += count;
+        }
+
+        return true;
+    }
 }
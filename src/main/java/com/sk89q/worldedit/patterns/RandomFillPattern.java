@@ -19,26 +19,69 @@
 
 package com.sk89q.worldedit.patterns;
 
-import java.util.Random;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
 
 /**
  * Pattern proportionally fills.
  *
+ * <p>Blocks are drawn from an alias table, so picking one takes the same
+ * time however many blocks there are. Unseeded patterns use a separate
+ * generator for every thread. Seeded patterns derive the block from the
+ * seed and the position alone, so they place the same blocks every time,
+ * in whatever order and on whatever threads the positions are visited.</p>
+ *
  * @author sk89q
  */
-public class RandomFillPattern implements Pattern {
+public class RandomFillPattern implements BulkPattern {
+    /**
+     * Increment of the SplitMix64 generator.
+     */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    /**
+     * Source of the starting states of the per-thread generators.
+     */
+    private static final AtomicLong seeder = new AtomicLong(System.nanoTime());
+    /**
+     * Random number generator of each thread.
+     */
+    private static final ThreadLocal<long[]> generator = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[] { mix(seeder.addAndGet(GOLDEN_GAMMA)) };
+        }
+    };
+    /**
+     * Blocks, one per column of the alias table.
+     */
+    private final BaseBlock[] blocks;
     /**
-     * Random number generator.
+     * Types and data values of the blocks.
      */
-    private static final Random random = new Random();
+    private final int[] types;
+    private final int[] data;
     /**
-     * Blocks and their proportions.
+     * Whether all blocks are plain blocks without extra data.
      */
-    private List<BlockChance> blocks;
+    private final boolean plain;
+    /**
+     * Chance of picking the column's own block rather than its alias.
+     */
+    private final double[] probabilities;
+    /**
+     * Column of the block that is picked otherwise.
+     */
+    private final int[] aliases;
+    /**
+     * Whether blocks are derived from the seed and the position.
+     */
+    private final boolean seeded;
+    /**
+     * Seed, if seeded.
+     */
+    private final long seed;
 
     /**
      * Construct the object.
@@ -46,23 +89,98 @@ public class RandomFillPattern implements Pattern {
      * @param blocks
      */
     public RandomFillPattern(List<BlockChance> blocks) {
+        this(blocks, false, 0);
+    }
+
+    /**
+     * Construct the object with a seed. The same seed gives the same block
+     * for the same position.
+     *
+     * @param blocks
+     * @param seed
+     */
+    public RandomFillPattern(List<BlockChance> blocks, long seed) {
+        this(blocks, true, seed);
+    }
+
+    private RandomFillPattern(List<BlockChance> blocks, boolean seeded, long seed) {
+        final int size = blocks.size();
+        if (size == 0) {
+            throw new IllegalArgumentException("No blocks to fill with");
+        }
+
+        this.seeded = seeded;
+        this.seed = seed;
+        this.blocks = new BaseBlock[size];
+        types = new int[size];
+        data = new int[size];
+        probabilities = new double[size];
+        aliases = new int[size];
+
         double max = 0;
 
         for (BlockChance block : blocks) {
-            max += block.getChance();
+            max += Math.max(0, block.getChance());
         }
 
-        List<BlockChance> finalBlocks = new ArrayList<BlockChance>();
+        // Scale the chances so that they average to 1
+        final double[] scaled = new double[size];
+        for (int i = 0; i < size; ++i) {
+            final BlockChance block = blocks.get(i);
+            this.blocks[i] = block.getBlock();
+            types[i] = block.getBlock().getType();
+            data[i] = block.getBlock().getData();
+            scaled[i] = max > 0 ? Math.max(0, block.getChance()) * size / max : 1;
+        }
 
-        double i = 0;
+        // Vose's alias method: every column below 1 is topped up by a
+        // column above 1, which becomes its alias
+        final int[] small = new int[size];
+        final int[] large = new int[size];
+        int smallCount = 0;
+        int largeCount = 0;
 
-        for (BlockChance block : blocks) {
-            double v = block.getChance() / max;
-            i += v;
-            finalBlocks.add(new BlockChance(block.getBlock(), i));
+        for (int i = 0; i < size; ++i) {
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+
+        while (smallCount > 0 && largeCount > 0) {
+            final int less = small[--smallCount];
+            final int more = large[--largeCount];
+
+            probabilities[less] = scaled[less];
+            aliases[less] = more;
+
+            scaled[more] = (scaled[more] + scaled[less]) - 1;
+            if (scaled[more] < 1) {
+                small[smallCount++] = more;
+            } else {
+                large[largeCount++] = more;
+            }
+        }
+
+        // Whatever is left is 1 up to rounding errors
+        while (largeCount > 0) {
+            final int i = large[--largeCount];
+            probabilities[i] = 1;
+            aliases[i] = i;
         }
 
-        this.blocks = finalBlocks;
+        while (smallCount > 0) {
+            final int i = small[--smallCount];
+            probabilities[i] = 1;
+            aliases[i] = i;
+        }
+
+        boolean plain = true;
+        for (BaseBlock block : this.blocks) {
+            plain &= block.getClass() == BaseBlock.class && !block.hasNbtData();
+        }
+        this.plain = plain;
     }
 
     /**
@@ -72,18 +190,88 @@ public RandomFillPattern(List<BlockChance> blocks) {
      * @return
      */
     public BaseBlock next(Vector pos) {
-        double r = random.nextDouble();
+        if (seeded && pos != null) {
+            return next(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
+        }
 
-        for (BlockChance block : blocks) {
-            if (r <= block.getChance()) {
-                return block.getBlock();
+        return pick(nextRandom());
+    }
+
+    public BaseBlock next(int x, int y, int z) {
+        if (seeded) {
+            return pick(mix(mix(mix(seed + x) + y) + z));
+        }
+
+        return pick(nextRandom());
+    }
+
+    public boolean nextSpan(int x, int y, int z, int length, int[] types, int[] data, int offset) {
+        if (!plain) {
+            return false;
+        }
+
+        if (seeded) {
+            for (int i = 0; i < length; ++i) {
+                // Same as next(x + i, y, z)
+                final int column = pickColumn(mix(mix(mix(seed + x + i) + y) + z));
+                types[offset + i] = this.types[column];
+                data[offset + i] = this.data[column];
+            }
+        } else {
+            final long[] state = generator.get();
+            for (int i = 0; i < length; ++i) {
+                final int column = pickColumn(mix(state[0] += GOLDEN_GAMMA));
+                types[offset + i] = this.types[column];
+                data[offset + i] = this.data[column];
             }
         }
 
-        throw new RuntimeException("ProportionalFillPattern");
+        return true;
     }
 
-    public BaseBlock next(int x, int y, int z) {
-        return next(null);
+    /**
+     * Pick a block from the alias table.
+     *
+     * @param bits 64 random bits
+     * @return
+     */
+    private BaseBlock pick(long bits) {
+        return blocks[pickColumn(bits)];
+    }
+
+    /**
+     * Pick the index of a block from the alias table.
+     *
+     * @param bits 64 random bits
+     * @return
+     */
+    private int pickColumn(long bits) {
+        // The whole part picks the column and the fraction the side of it
+        final double r = (bits >>> 11) * 0x1.0p-53 * blocks.length;
+        final int column = (int) r;
+        final double side = r - column;
+        return side < probabilities[column] ? column : aliases[column];
+    }
+
+    /**
+     * Get 64 random bits from the current thread's generator.
+     *
+     * @return
+     */
+    private static long nextRandom() {
+        final long[] state = generator.get();
+        return mix(state[0] += GOLDEN_GAMMA);
+    }
+
+    /**
+     * Scramble the bits of a value, as the output step of SplitMix64.
+     *
+     * @param z
+     * @return
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
     }
 }
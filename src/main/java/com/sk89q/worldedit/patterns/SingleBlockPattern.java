@@ -19,6 +19,8 @@
 
 package com.sk89q.worldedit.patterns;
 
+import java.util.Arrays;
+
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
 
@@ -27,7 +29,7 @@
  *
  * @author sk89q
  */
-public class SingleBlockPattern implements Pattern {
+public class SingleBlockPattern implements BulkPattern {
     /**
      * Block type.
      */
@@ -56,6 +58,16 @@ public BaseBlock next(int x, int y, int z) {
         return block;
     }
 
+    public boolean nextSpan(int x, int y, int z, int length, int[] types, int[] data, int offset) {
+        if (block.getClass() != BaseBlock.class || block.hasNbtData()) {
+            return false;
+        }
+
+        Arrays.fill(types, offset, offset + length, block.getType());
+        Arrays.fill(data, offset, offset + length, block.getData());
+        return true;
+    }
+
     /**
      * Get the block.
      *
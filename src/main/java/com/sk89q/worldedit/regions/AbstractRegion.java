@@ -49,6 +49,19 @@ public Iterator<BlockVector> iterator() {
         return new RegionIterator(this);
     }
 
+    public void visit(RegionVisitor visitor) {
+        final Iterator<BlockVector> it = iterator();
+        if (it instanceof SpanIterator) {
+            ((SpanIterator) it).visitRemaining(visitor);
+            return;
+        }
+
+        while (it.hasNext()) {
+            final BlockVector pt = it.next();
+            visitor.visit(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+        }
+    }
+
     public LocalWorld getWorld() {
         return world;
     }
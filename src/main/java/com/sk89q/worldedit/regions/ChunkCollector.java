@@ -0,0 +1,162 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.data.ChunkStore;
+
+/**
+ * Collects the chunks covered by runs of blocks along the X axis. Each
+ * chunk is marked in a bit set per row of chunks, so a run only costs
+ * one operation no matter how many blocks or rows hit the same chunk.
+ */
+class ChunkCollector {
+    private final int minChunkX;
+    private final int minChunkY;
+    private final int minChunkZ;
+    private final int lengthZ;
+    private final BitSet[] rows;
+
+    /**
+     * Construct the collector for runs inside a bounding box.
+     *
+     * @param min
+     * @param max
+     */
+    ChunkCollector(Vector min, Vector max) {
+        minChunkX = min.getBlockX() >> ChunkStore.CHUNK_SHIFTS;
+        minChunkY = min.getBlockY() >> ChunkStore.CHUNK_SHIFTS;
+        minChunkZ = min.getBlockZ() >> ChunkStore.CHUNK_SHIFTS;
+        final int lengthY = Math.max(0, (max.getBlockY() >> ChunkStore.CHUNK_SHIFTS) - minChunkY + 1);
+        lengthZ = Math.max(0, (max.getBlockZ() >> ChunkStore.CHUNK_SHIFTS) - minChunkZ + 1);
+        rows = new BitSet[lengthY * lengthZ];
+    }
+
+    /**
+     * Add a run of blocks.
+     *
+     * @param minX first X of the run
+     * @param maxX last X of the run
+     * @param y
+     * @param z
+     */
+    void add(int minX, int maxX, int y, int z) {
+        if (minX > maxX) {
+            return;
+        }
+
+        final int index = ((y >> ChunkStore.CHUNK_SHIFTS) - minChunkY) * lengthZ
+                + (z >> ChunkStore.CHUNK_SHIFTS) - minChunkZ;
+        BitSet row = rows[index];
+        if (row == null) {
+            row = rows[index] = new BitSet();
+        }
+
+        row.set((minX >> ChunkStore.CHUNK_SHIFTS) - minChunkX, (maxX >> ChunkStore.CHUNK_SHIFTS) - minChunkX + 1);
+    }
+
+    /**
+     * Add the runs of a flat region's row to every chunk height between
+     * two Y values.
+     *
+     * @param minX first X of the run
+     * @param maxX last X of the run
+     * @param minY
+     * @param maxY
+     * @param z
+     */
+    void add(int minX, int maxX, int minY, int maxY, int z) {
+        for (int y = minY; y <= maxY; y = ((y >> ChunkStore.CHUNK_SHIFTS) + 1) << ChunkStore.CHUNK_SHIFTS) {
+            add(minX, maxX, y, z);
+        }
+    }
+
+    /**
+     * Get the chunks that were covered.
+     *
+     * @return
+     */
+    Set<Vector2D> getChunks() {
+        final BitSet[] columns = new BitSet[lengthZ];
+        int count = 0;
+        for (int i = 0; i < rows.length; ++i) {
+            if (rows[i] == null) {
+                continue;
+            }
+
+            final int z = i % lengthZ;
+            if (columns[z] == null) {
+                columns[z] = new BitSet();
+            }
+            count -= columns[z].cardinality();
+            columns[z].or(rows[i]);
+            count += columns[z].cardinality();
+        }
+
+        final Set<Vector2D> chunks = new HashSet<Vector2D>(count * 4 / 3 + 1);
+        for (int z = 0; z < lengthZ; ++z) {
+            if (columns[z] == null) {
+                continue;
+            }
+
+            for (int x = columns[z].nextSetBit(0); x >= 0; x = columns[z].nextSetBit(x + 1)) {
+                chunks.add(new BlockVector2D(minChunkX + x, minChunkZ + z));
+            }
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Get the 16*16*16 chunk cubes that were covered.
+     *
+     * @return
+     */
+    Set<Vector> getChunkCubes() {
+        int count = 0;
+        for (BitSet row : rows) {
+            if (row != null) {
+                count += row.cardinality();
+            }
+        }
+
+        final Set<Vector> chunks = new HashSet<Vector>(count * 4 / 3 + 1);
+        for (int i = 0; i < rows.length; ++i) {
+            if (rows[i] == null) {
+                continue;
+            }
+
+            final int y = minChunkY + i / lengthZ;
+            final int z = minChunkZ + i % lengthZ;
+            for (int x = rows[i].nextSetBit(0); x >= 0; x = rows[i].nextSetBit(x + 1)) {
+                chunks.add(new BlockVector(minChunkX + x, y, z));
+            }
+        }
+
+        return chunks;
+    }
+}
@@ -311,10 +311,9 @@ public Set<Vector2D> getChunks() {
         Vector min = getMinimumPoint();
         Vector max = getMaximumPoint();
 
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                chunks.add(new BlockVector2D(x >> ChunkStore.CHUNK_SHIFTS,
-                        z >> ChunkStore.CHUNK_SHIFTS));
+        for (int x = min.getBlockX() >> ChunkStore.CHUNK_SHIFTS; x <= max.getBlockX() >> ChunkStore.CHUNK_SHIFTS; ++x) {
+            for (int z = min.getBlockZ() >> ChunkStore.CHUNK_SHIFTS; z <= max.getBlockZ() >> ChunkStore.CHUNK_SHIFTS; ++z) {
+                chunks.add(new BlockVector2D(x, z));
             }
         }
 
@@ -327,11 +326,10 @@ public Set<Vector> getChunkCubes() {
         Vector min = getMinimumPoint();
         Vector max = getMaximumPoint();
 
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    chunks.add(new BlockVector(x >> ChunkStore.CHUNK_SHIFTS,
-                            y >> ChunkStore.CHUNK_SHIFTS, z >> ChunkStore.CHUNK_SHIFTS));
+        for (int x = min.getBlockX() >> ChunkStore.CHUNK_SHIFTS; x <= max.getBlockX() >> ChunkStore.CHUNK_SHIFTS; ++x) {
+            for (int y = min.getBlockY() >> ChunkStore.CHUNK_SHIFTS; y <= max.getBlockY() >> ChunkStore.CHUNK_SHIFTS; ++y) {
+                for (int z = min.getBlockZ() >> ChunkStore.CHUNK_SHIFTS; z <= max.getBlockZ() >> ChunkStore.CHUNK_SHIFTS; ++z) {
+                    chunks.add(new BlockVector(x, y, z));
                 }
             }
         }
@@ -396,6 +394,24 @@ public void remove() {
         };
     }
 
+    @Override
+    public void visit(RegionVisitor visitor) {
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+        final int minX = min.getBlockX();
+        final int maxX = max.getBlockX();
+        final int maxY = max.getBlockY();
+        final int maxZ = max.getBlockZ();
+
+        for (int z = min.getBlockZ(); z <= maxZ; ++z) {
+            for (int y = min.getBlockY(); y <= maxY; ++y) {
+                for (int x = minX; x <= maxX; ++x) {
+                    visitor.visit(x, y, z);
+                }
+            }
+        }
+    }
+
     @Override
     public Iterable<Vector2D> asFlatRegion() {
         return new Iterable<Vector2D>() {
@@ -19,16 +19,13 @@
 
 package com.sk89q.worldedit.regions;
 
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
 import com.sk89q.worldedit.BlockVector;
-import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
-import com.sk89q.worldedit.data.ChunkStore;
 
 /**
  * Represents a cylindrical region.
@@ -318,42 +315,32 @@ public boolean contains(Vector pt) {
      * @return
      */
     public Set<Vector2D> getChunks() {
-        Set<Vector2D> chunks = new HashSet<Vector2D>();
-
-        Vector min = getMinimumPoint();
-        Vector max = getMaximumPoint();
-
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                if (contains(new BlockVector(x, minY, z))) {
-                    chunks.add(new BlockVector2D(x >> ChunkStore.CHUNK_SHIFTS,
-                            z >> ChunkStore.CHUNK_SHIFTS));
-                }
-            }
-        }
-
-        return chunks;
+        return getChunkCollector(false).getChunks();
     }
 
     @Override
     public Set<Vector> getChunkCubes() {
-        Set<Vector> chunks = new HashSet<Vector>();
-
-        Vector min = getMinimumPoint();
-        Vector max = getMaximumPoint();
-
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    if (contains(new BlockVector(x, y, z))) {
-                        chunks.add(new BlockVector(x >> ChunkStore.CHUNK_SHIFTS,
-                                y >> ChunkStore.CHUNK_SHIFTS, z >> ChunkStore.CHUNK_SHIFTS));
-                    }
-                }
+        return getChunkCollector(true).getChunkCubes();
+    }
+
+    private ChunkCollector getChunkCollector(boolean allHeights) {
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+        final ChunkCollector collector = new ChunkCollector(min, max);
+        if (minY > maxY) {
+            return collector;
+        }
+
+        final int minX = min.getBlockX();
+        final int maxX = max.getBlockX();
+        for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
+            final int[] row = getRow(z, minX, maxX);
+            if (row.length > 0) {
+                collector.add(row[0], row[1], minY, allHeights ? maxY : minY, z);
             }
         }
 
-        return chunks;
+        return collector;
     }
 
     /**
@@ -379,9 +366,55 @@ public boolean setY(int y) {
         return false;
     }
 
+    /**
+     * Get the iterator. Each row along the X axis is solved for the part
+     * inside the cylinder, so only positions in the region are visited.
+     *
+     * @return iterator of points inside the region
+     */
     @Override
     public Iterator<BlockVector> iterator() {
-        return new FlatRegion3DIterator(this);
+        final int minX = getMinimumPoint().getBlockX();
+        final int maxX = getMaximumPoint().getBlockX();
+
+        return new FlatSpanIterator(this) {
+            @Override
+            protected int[] getRow(int z) {
+                return CylinderRegion.this.getRow(z, minX, maxX);
+            }
+        };
+    }
+
+    /**
+     * Get the part of a row along the X axis that is inside the cylinder.
+     *
+     * @param z
+     * @param minX lowest X to return
+     * @param maxX highest X to return
+     * @return first and last X, or an empty array
+     */
+    private int[] getRow(int z, int minX, int maxX) {
+        final double centerX = center.getX();
+        final double radiusX = radius.getX();
+        final double dz = (z - center.getZ()) / radius.getZ();
+        final double dzSq = dz * dz;
+        final double halfWidth = radiusX * Math.sqrt(Math.max(0, 1 - dzSq));
+
+        // Start from the analytic solution and settle the ends with
+        // the same test contains() uses
+        int lo = Math.max(minX, (int) Math.ceil(centerX - halfWidth));
+        int hi = Math.min(maxX, (int) Math.floor(centerX + halfWidth));
+        while (lo > minX && contains(lo - 1, dzSq)) --lo;
+        while (hi < maxX && contains(hi + 1, dzSq)) ++hi;
+        while (lo <= hi && !contains(lo, dzSq)) ++lo;
+        while (hi >= lo && !contains(hi, dzSq)) --hi;
+
+        return lo <= hi ? new int[] { lo, hi } : new int[0];
+    }
+
+    private boolean contains(int x, double dzSq) {
+        final double dx = (x - center.getX()) / radius.getX();
+        return dx * dx + dzSq <= 1;
     }
 
     @Override
@@ -20,13 +20,11 @@
 package com.sk89q.worldedit.regions;
 
 import com.sk89q.worldedit.BlockVector;
-import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
-import com.sk89q.worldedit.data.ChunkStore;
+import java.util.Iterator;
 import java.util.Set;
-import java.util.HashSet;
 
 /**
  *
@@ -213,44 +211,31 @@ public void setRadius(Vector radius) {
      * @return
      */
     public Set<Vector2D> getChunks() {
-        Set<Vector2D> chunks = new HashSet<Vector2D>();
-
-        Vector min = getMinimumPoint();
-        Vector max = getMaximumPoint();
-
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    if (contains(new BlockVector(x, y, z))) {
-                        chunks.add(new BlockVector2D(x >> ChunkStore.CHUNK_SHIFTS,
-                                z >> ChunkStore.CHUNK_SHIFTS));
-                    }
-                }
-            }
-        }
-
-        return chunks;
+        return getChunkCollector().getChunks();
     }
 
     @Override
     public Set<Vector> getChunkCubes() {
-        Set<Vector> chunks = new HashSet<Vector>();
+        return getChunkCollector().getChunkCubes();
+    }
 
-        Vector min = getMinimumPoint();
-        Vector max = getMaximumPoint();
+    private ChunkCollector getChunkCollector() {
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+        final ChunkCollector collector = new ChunkCollector(min, max);
 
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
+        final int minX = min.getBlockX();
+        final int maxX = max.getBlockX();
+        for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
             for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    if (contains(new BlockVector(x, y, z))) {
-                        chunks.add(new BlockVector(x >> ChunkStore.CHUNK_SHIFTS,
-                                y >> ChunkStore.CHUNK_SHIFTS, z >> ChunkStore.CHUNK_SHIFTS));
-                    }
+                final int[] row = getRow(y, z, minX, maxX);
+                if (row.length > 0) {
+                    collector.add(row[0], row[1], y, z);
                 }
             }
         }
 
-        return chunks;
+        return collector;
     }
 
     /**
@@ -262,6 +247,83 @@ public boolean contains(Vector pt) {
         return pt.subtract(center).divide(radius).lengthSq() <= 1;
     }
 
+    /**
+     * Get the iterator. Each row along the X axis is solved for the part
+     * inside the ellipsoid, so only positions in the region are visited.
+     *
+     * @return iterator of points inside the region
+     */
+    @Override
+    public Iterator<BlockVector> iterator() {
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+        final int minX = min.getBlockX();
+        final int minY = min.getBlockY();
+        final int maxX = max.getBlockX();
+        final int maxY = max.getBlockY();
+        final int maxZ = max.getBlockZ();
+
+        return new SpanIterator(false) {
+            private int nextY = minY;
+            private int nextZ = min.getBlockZ();
+
+            @Override
+            protected boolean nextSpan() {
+                if (nextZ > maxZ) {
+                    return false;
+                }
+
+                final int y = nextY;
+                final int z = nextZ;
+                if (++nextY > maxY) {
+                    nextY = minY;
+                    ++nextZ;
+                }
+
+                final int[] row = getRow(y, z, minX, maxX);
+                if (row.length > 0) {
+                    setSpan(row[0], y, z, row[1] - row[0] + 1);
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Get the part of a row along the X axis that is inside the ellipsoid.
+     *
+     * @param y
+     * @param z
+     * @param minX lowest X to return
+     * @param maxX highest X to return
+     * @return first and last X, or an empty array
+     */
+    private int[] getRow(int y, int z, int minX, int maxX) {
+        final double centerX = center.getX();
+        final double radiusX = radius.getX();
+        final double dy = (y - center.getY()) / radius.getY();
+        final double dz = (z - center.getZ()) / radius.getZ();
+        final double dySq = dy * dy;
+        final double dzSq = dz * dz;
+        final double halfWidth = radiusX * Math.sqrt(Math.max(0, 1 - dySq - dzSq));
+
+        // Start from the analytic solution and settle the ends with
+        // the same test contains() uses
+        int lo = Math.max(minX, (int) Math.ceil(centerX - halfWidth));
+        int hi = Math.min(maxX, (int) Math.floor(centerX + halfWidth));
+        while (lo > minX && contains(lo - 1, dySq, dzSq)) --lo;
+        while (hi < maxX && contains(hi + 1, dySq, dzSq)) ++hi;
+        while (lo <= hi && !contains(lo, dySq, dzSq)) ++lo;
+        while (hi >= lo && !contains(hi, dySq, dzSq)) --hi;
+
+        return lo <= hi ? new int[] { lo, hi } : new int[0];
+    }
+
+    private boolean contains(int x, double dySq, double dzSq) {
+        final double dx = (x - center.getX()) / radius.getX();
+        return dx * dx + dySq + dzSq <= 1;
+    }
+
     /**
      * Returns string representation in the format
      * "(centerX, centerY, centerZ) - (radiusX, radiusY, radiusZ)".
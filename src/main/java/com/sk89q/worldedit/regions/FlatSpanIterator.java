@@ -0,0 +1,88 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+/**
+ * Iterates over a flat region in the same order as
+ * {@link FlatRegion3DIterator}: row by row along the Z axis, then along X,
+ * with a full column of Y for each position. Subclasses only have to
+ * work out which parts of a row are inside the region.
+ */
+abstract class FlatSpanIterator extends SpanIterator {
+    private static final int[] EMPTY_ROW = {};
+
+    private final int minY;
+    private final int height;
+    private final int maxZ;
+    private int nextZ;
+    private int z;
+    private int[] row = EMPTY_ROW;
+    private int rowIndex;
+    private int nextX;
+
+    FlatSpanIterator(FlatRegion region) {
+        super(true);
+        this.minY = region.getMinimumY();
+        this.height = region.getMaximumY() - minY + 1;
+        this.nextZ = region.getMinimumPoint().getBlockZ();
+        this.maxZ = region.getMaximumPoint().getBlockZ();
+    }
+
+    /**
+     * Get the parts of a row that are inside the region.
+     *
+     * @param z
+     * @return pairs of first and last X, sorted and not overlapping
+     */
+    protected abstract int[] getRow(int z);
+
+    @Override
+    protected boolean nextSpan() {
+        if (height <= 0) {
+            return false;
+        }
+
+        while (true) {
+            if (rowIndex < row.length) {
+                if (nextX <= row[rowIndex + 1]) {
+                    setSpan(nextX++, minY, z, height);
+                    return true;
+                }
+
+                rowIndex += 2;
+                if (rowIndex < row.length) {
+                    nextX = row[rowIndex];
+                }
+                continue;
+            }
+
+            if (nextZ > maxZ) {
+                return false;
+            }
+
+            z = nextZ++;
+            row = getRow(z);
+            rowIndex = 0;
+            if (row.length > 0) {
+                nextX = row[0];
+            }
+        }
+    }
+}
@@ -21,7 +21,6 @@
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -30,7 +29,6 @@
 import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
-import com.sk89q.worldedit.data.ChunkStore;
 
 /**
  * Represents a 2D polygonal region.
@@ -415,42 +413,27 @@ public static boolean contains(List<BlockVector2D> points, int minY,
      * @return
      */
     public Set<Vector2D> getChunks() {
-        Set<Vector2D> chunks = new HashSet<Vector2D>();
-
-        Vector min = getMinimumPoint();
-        Vector max = getMaximumPoint();
-
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                if (contains(new BlockVector(x, minY, z))) { // Not the best
-                    chunks.add(new BlockVector2D(x >> ChunkStore.CHUNK_SHIFTS,
-                            z >> ChunkStore.CHUNK_SHIFTS));
-                }
-            }
-        }
-
-        return chunks;
+        return getChunkCollector(false).getChunks();
     }
 
     @Override
     public Set<Vector> getChunkCubes() {
-        Set<Vector> chunks = new HashSet<Vector>();
-
-        Vector min = getMinimumPoint();
-        Vector max = getMaximumPoint();
-
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    if (contains(new BlockVector(x, y, z))) { // Not the best
-                        chunks.add(new BlockVector(x >> ChunkStore.CHUNK_SHIFTS,
-                                y >> ChunkStore.CHUNK_SHIFTS, z >> ChunkStore.CHUNK_SHIFTS));
-                    }
-                }
+        return getChunkCollector(true).getChunkCubes();
+    }
+
+    private ChunkCollector getChunkCollector(boolean allHeights) {
+        final Vector min = getMinimumPoint();
+        final Vector max = getMaximumPoint();
+        final ChunkCollector collector = new ChunkCollector(min, max);
+
+        for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
+            final int[] row = getRow(points, z);
+            for (int i = 0; i < row.length; i += 2) {
+                collector.add(row[i], row[i + 1], minY, allHeights ? maxY : minY, z);
             }
         }
 
-        return chunks;
+        return collector;
     }
 
     /**
@@ -492,7 +475,139 @@ public boolean expandY(int y) {
      */
     @Override
     public Iterator<BlockVector> iterator() {
-        return new FlatRegion3DIterator(this);
+        final List<BlockVector2D> points = new ArrayList<BlockVector2D>(this.points);
+
+        return new FlatSpanIterator(this) {
+            @Override
+            protected int[] getRow(int z) {
+                return Polygonal2DRegion.getRow(points, z);
+            }
+        };
+    }
+
+    /**
+     * Get the parts of a row along the X axis that are inside a polygon,
+     * by scanline instead of testing every position. The result matches
+     * {@link #contains(List, int, int, Vector)}: the inside of the polygon
+     * plus every position on its edges.
+     *
+     * @param points
+     * @param z
+     * @return pairs of first and last X, sorted and not overlapping
+     */
+    private static int[] getRow(List<BlockVector2D> points, int z) {
+        final int npoints = points.size();
+        if (npoints < 3) {
+            return new int[0];
+        }
+
+        // Where the edges cross the row, as whole + fraction / denominator
+        final long[] crossWhole = new long[npoints];
+        final long[] crossFraction = new long[npoints];
+        final long[] crossDenominator = new long[npoints];
+        int crossings = 0;
+
+        // Runs on the row: crossing pairs, vertices and flat edges
+        final int[] spans = new int[npoints * 6];
+        int spanCount = 0;
+
+        int xOld = points.get(npoints - 1).getBlockX();
+        int zOld = points.get(npoints - 1).getBlockZ();
+
+        for (int i = 0; i < npoints; ++i) {
+            final int xNew = points.get(i).getBlockX();
+            final int zNew = points.get(i).getBlockZ();
+
+            if (zNew == z) {
+                spans[spanCount++] = xNew;
+                spans[spanCount++] = xNew;
+
+                if (zOld == z) {
+                    spans[spanCount++] = Math.min(xOld, xNew);
+                    spans[spanCount++] = Math.max(xOld, xNew);
+                }
+            }
+
+            if ((zOld < z) != (zNew < z)) {
+                long denominator = (long) zNew - zOld;
+                long numerator = ((long) z - zOld) * ((long) xNew - xOld);
+                if (denominator < 0) {
+                    denominator = -denominator;
+                    numerator = -numerator;
+                }
+
+                long whole = numerator / denominator;
+                long fraction = numerator % denominator;
+                if (fraction < 0) {
+                    --whole;
+                    fraction += denominator;
+                }
+                whole += xOld;
+
+                // Insertion sort, there are only a few crossings per row
+                int j = crossings++;
+                while (j > 0 && (crossWhole[j - 1] > whole || (crossWhole[j - 1] == whole
+                        && crossFraction[j - 1] * denominator > fraction * crossDenominator[j - 1]))) {
+                    crossWhole[j] = crossWhole[j - 1];
+                    crossFraction[j] = crossFraction[j - 1];
+                    crossDenominator[j] = crossDenominator[j - 1];
+                    --j;
+                }
+                crossWhole[j] = whole;
+                crossFraction[j] = fraction;
+                crossDenominator[j] = denominator;
+            }
+
+            xOld = xNew;
+            zOld = zNew;
+        }
+
+        for (int i = 0; i + 1 < crossings; i += 2) {
+            final long lo = crossFraction[i] == 0 ? crossWhole[i] : crossWhole[i] + 1;
+            final long hi = crossWhole[i + 1];
+            if (lo <= hi) {
+                spans[spanCount++] = (int) lo;
+                spans[spanCount++] = (int) hi;
+            }
+        }
+
+        return mergeSpans(spans, spanCount);
+    }
+
+    /**
+     * Sort runs by their first X and join the ones that overlap or touch.
+     *
+     * @param spans pairs of first and last X
+     * @param count number of values used in spans
+     * @return the merged pairs
+     */
+    private static int[] mergeSpans(int[] spans, int count) {
+        for (int i = 2; i < count; i += 2) {
+            final int lo = spans[i];
+            final int hi = spans[i + 1];
+            int j = i;
+            while (j > 0 && spans[j - 2] > lo) {
+                spans[j] = spans[j - 2];
+                spans[j + 1] = spans[j - 1];
+                j -= 2;
+            }
+            spans[j] = lo;
+            spans[j + 1] = hi;
+        }
+
+        int merged = 0;
+        for (int i = 0; i < count; i += 2) {
+            if (merged > 0 && (long) spans[i] <= (long) spans[merged - 1] + 1) {
+                spans[merged - 1] = Math.max(spans[merged - 1], spans[i + 1]);
+            } else {
+                spans[merged++] = spans[i];
+                spans[merged++] = spans[i + 1];
+            }
+        }
+
+        final int[] result = new int[merged];
+        System.arraycopy(spans, 0, result, 0, merged);
+        return result;
     }
 
     @Override
@@ -113,6 +113,14 @@ public interface Region extends Iterable<BlockVector>, Cloneable {
      */
     public boolean contains(Vector pt);
 
+    /**
+     * Pass every position in the region to a visitor, in the same order
+     * as {@link #iterator()}, without creating a vector for each one.
+     *
+     * @param visitor
+     */
+    public void visit(RegionVisitor visitor);
+
     /**
      * Get a list of chunks.
      *
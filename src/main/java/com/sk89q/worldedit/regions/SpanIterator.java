@@ -0,0 +1,125 @@
+// $Id$
+/*
+ * WorldEdit
+ * Copyright (C) 2010 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+package com.sk89q.worldedit.regions;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.sk89q.worldedit.BlockVector;
+
+/**
+ * Iterates over a region one span of blocks at a time. Subclasses work out
+ * which runs of blocks along the X or the Y axis are inside the region, so
+ * no position has to be tested on its own.
+ */
+public abstract class SpanIterator implements Iterator<BlockVector> {
+    private final boolean vertical;
+    private int x;
+    private int y;
+    private int z;
+    private int remaining;
+    private boolean done;
+
+    /**
+     * Construct the iterator.
+     *
+     * @param vertical true if spans run along the Y axis, false for the X axis
+     */
+    protected SpanIterator(boolean vertical) {
+        this.vertical = vertical;
+    }
+
+    /**
+     * Find the next span and pass it to {@link #setSpan(int, int, int, int)}.
+     * Empty spans are skipped.
+     *
+     * @return false if there are no spans left
+     */
+    protected abstract boolean nextSpan();
+
+    /**
+     * Set the span to iterate over next.
+     *
+     * @param x X of the first position
+     * @param y Y of the first position
+     * @param z Z of the first position
+     * @param length number of positions
+     */
+    protected void setSpan(int x, int y, int z, int length) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.remaining = length;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (remaining <= 0) {
+            if (done || !nextSpan()) {
+                done = true;
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public BlockVector next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        final BlockVector current = new BlockVector(x, y, z);
+        --remaining;
+        if (vertical) {
+            ++y;
+        } else {
+            ++x;
+        }
+
+        return current;
+    }
+
+    /**
+     * Pass all positions that are left to a visitor, in iteration order.
+     *
+     * @param visitor
+     */
+    public void visitRemaining(RegionVisitor visitor) {
+        while (hasNext()) {
+            if (vertical) {
+                for (int end = y + remaining; y < end; ++y) {
+                    visitor.visit(x, y, z);
+                }
+            } else {
+                for (int end = x + remaining; x < end; ++x) {
+                    visitor.visit(x, y, z);
+                }
+            }
+            remaining = 0;
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+}
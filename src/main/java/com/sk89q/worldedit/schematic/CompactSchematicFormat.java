@@ -0,0 +1,430 @@
+/*
+ * WorldEdit
+ * Copyright (C) 2012 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.schematic;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.ShortTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.data.DataException;
+
+/**
+ * A schematic format that stores blocks as indexes into a palette, in
+ * sections of 16x16x16 blocks. Sections that are all air take no space,
+ * identical sections are stored once, and every section is compressed on
+ * its own, so that {@link CompactSchematicReader} can read any part of a
+ * schematic without decoding the rest.
+ *
+ * <p>A file starts with a magic number and a version, followed by the
+ * compressed sections. At the end, a compressed footer holds the size,
+ * origin and offset, the palette, the length of every stored section and,
+ * for each section position, which stored section it uses. The last 16
+ * bytes give the position and length of the footer.</p>
+ *
+ * <p>A stored section lists the palette entries that it uses, followed by
+ * the index of every block into that list, packed into as few bits as
+ * needed. Blocks with extra data follow as a list of NBT tags.</p>
+ */
+public class CompactSchematicFormat extends SchematicFormat {
+    static final int MAGIC = 0x57455343; // "WESC"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 5;
+    static final int TRAILER_SIZE = 16;
+    static final int SECTION_SIZE = 16;
+    static final int SECTION_VOLUME = SECTION_SIZE * SECTION_SIZE * SECTION_SIZE;
+
+    protected CompactSchematicFormat() {
+        super("Compact", "compact", "wesc");
+    }
+
+    @Override
+    public CuboidClipboard load(File file) throws IOException, DataException {
+        CompactSchematicReader reader = new CompactSchematicReader(file);
+        try {
+            return reader.read();
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Override
+    public void save(CuboidClipboard clipboard, File file) throws IOException, DataException {
+        save(clipboard, file, -1, 1);
+    }
+
+    @Override
+    public void save(CuboidClipboard clipboard, File file, int compressionLevel, int compressionThreads)
+            throws IOException, DataException {
+        // Sections are compressed one after another, so the number of
+        // threads is not used
+        final int width = clipboard.getWidth();
+        final int height = clipboard.getHeight();
+        final int length = clipboard.getLength();
+        final int sectionsX = getSectionCount(width);
+        final int sectionsY = getSectionCount(height);
+        final int sectionsZ = getSectionCount(length);
+
+        Map<Integer, Integer> paletteIndexes = new HashMap<Integer, Integer>();
+        List<Integer> palette = new ArrayList<Integer>();
+        // Stored sections by their uncompressed contents
+        Map<SectionKey, Integer> storedIndexes = new HashMap<SectionKey, Integer>();
+        List<int[]> storedLengths = new ArrayList<int[]>();
+        int[] sections = new int[sectionsX * sectionsY * sectionsZ];
+
+        int[] blocks = new int[SECTION_VOLUME];
+        int[] rowTypes = new int[SECTION_SIZE];
+        int[] rowData = new int[SECTION_SIZE];
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(SECTION_VOLUME * 2);
+        byte[] compressed = new byte[SECTION_VOLUME * 4];
+        Deflater deflater = new Deflater(toDeflaterLevel(compressionLevel));
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            long position = HEADER_SIZE;
+
+            int air = getPaletteIndex(paletteIndexes, palette, 0, 0);
+            int section = 0;
+            for (int sy = 0; sy < sectionsY; ++sy) {
+                for (int sz = 0; sz < sectionsZ; ++sz) {
+                    for (int sx = 0; sx < sectionsX; ++sx, ++section) {
+                        // Parts of edge sections outside the clipboard are air
+                        Arrays.fill(blocks, air);
+                        List<Tag> tileEntities = new ArrayList<Tag>();
+                        boolean empty = true;
+
+                        int rowLength = Math.min(SECTION_SIZE, width - sx * SECTION_SIZE);
+                        int yEnd = Math.min(SECTION_SIZE, height - sy * SECTION_SIZE);
+                        int zEnd = Math.min(SECTION_SIZE, length - sz * SECTION_SIZE);
+                        for (int y = 0; y < yEnd; ++y) {
+                            for (int z = 0; z < zEnd; ++z) {
+                                int x0 = sx * SECTION_SIZE;
+                                int y0 = sy * SECTION_SIZE + y;
+                                int z0 = sz * SECTION_SIZE + z;
+                                int offset = (y * SECTION_SIZE + z) * SECTION_SIZE;
+                                if (clipboard.getRow(x0, y0, z0, rowLength, rowTypes, rowData, 0)) {
+                                    for (int x = 0; x < rowLength; ++x) {
+                                        int index = getPaletteIndex(paletteIndexes, palette, rowTypes[x], rowData[x]);
+                                        blocks[offset + x] = index;
+                                        empty &= index == air;
+                                    }
+                                    continue;
+                                }
+
+                                for (int x = 0; x < rowLength; ++x) {
+                                    BaseBlock block = clipboard.getPoint(new BlockVector(x0 + x, y0, z0));
+                                    int index = getPaletteIndex(paletteIndexes, palette, block.getType(), block.getData());
+                                    blocks[offset + x] = index;
+                                    empty &= index == air;
+
+                                    CompoundTag tileEntity = createTileEntityTag(block, offset + x);
+                                    if (tileEntity != null) {
+                                        tileEntities.add(tileEntity);
+                                        empty = false;
+                                    }
+                                }
+                            }
+                        }
+
+                        if (empty) {
+                            continue;
+                        }
+
+                        raw.reset();
+                        writeSection(raw, blocks, tileEntities);
+                        SectionKey key = new SectionKey(raw.toByteArray());
+                        Integer stored = storedIndexes.get(key);
+                        if (stored == null) {
+                            deflater.reset();
+                            deflater.setInput(key.bytes);
+                            deflater.finish();
+                            int compressedLength = 0;
+                            while (!deflater.finished()) {
+                                if (compressedLength == compressed.length) {
+                                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                                }
+                                compressedLength += deflater.deflate(compressed, compressedLength,
+                                        compressed.length - compressedLength);
+                            }
+                            out.write(compressed, 0, compressedLength);
+                            position += compressedLength;
+
+                            stored = storedLengths.size();
+                            storedIndexes.put(key, stored);
+                            storedLengths.add(new int[] { compressedLength, key.bytes.length });
+                        }
+                        sections[section] = stored + 1;
+                    }
+                }
+            }
+
+            // Footer
+            raw.reset();
+            DataOutputStream footer = new DataOutputStream(raw);
+            footer.writeInt(width);
+            footer.writeInt(height);
+            footer.writeInt(length);
+            footer.writeInt(clipboard.getOrigin().getBlockX());
+            footer.writeInt(clipboard.getOrigin().getBlockY());
+            footer.writeInt(clipboard.getOrigin().getBlockZ());
+            footer.writeInt(clipboard.getOffset().getBlockX());
+            footer.writeInt(clipboard.getOffset().getBlockY());
+            footer.writeInt(clipboard.getOffset().getBlockZ());
+            writeVarInt(footer, palette.size());
+            for (int key : palette) {
+                writeVarInt(footer, key >>> 8);
+                writeVarInt(footer, key & 0xFF);
+            }
+            writeVarInt(footer, storedLengths.size());
+            for (int[] lengths : storedLengths) {
+                writeVarInt(footer, lengths[0]);
+                writeVarInt(footer, lengths[1]);
+            }
+            for (int stored : sections) {
+                writeVarInt(footer, stored);
+            }
+            footer.flush();
+
+            deflater.reset();
+            deflater.setInput(raw.toByteArray());
+            deflater.finish();
+            int footerLength = 0;
+            while (!deflater.finished()) {
+                int n = deflater.deflate(compressed);
+                out.write(compressed, 0, n);
+                footerLength += n;
+            }
+
+            out.writeLong(position);
+            out.writeInt(footerLength);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Get the index of a block in the palette, adding it if needed.
+     *
+     * @param indexes palette indexes by block
+     * @param palette
+     * @param type
+     * @param data
+     * @return
+     * @throws DataException if the block can't be stored
+     */
+    private static int getPaletteIndex(Map<Integer, Integer> indexes, List<Integer> palette, int type, int data)
+            throws DataException {
+        if (type < 0 || type > 0xFFFF || data < 0 || data > 0xFF) {
+            throw new DataException("Block " + type + ":" + data + " can't be stored in a compact schematic");
+        }
+
+        Integer key = (type << 8) | data;
+        Integer index = indexes.get(key);
+        if (index == null) {
+            index = palette.size();
+            indexes.put(key, index);
+            palette.add(key);
+        }
+        return index;
+    }
+
+    /**
+     * Create the tag that stores the extra data of a block in a section.
+     *
+     * @param block
+     * @param index index of the block in its section
+     * @return the tag, or null if the block has no extra data
+     */
+    private static CompoundTag createTileEntityTag(BaseBlock block, int index) {
+        CompoundTag nbtData = block.getNbtData();
+        if (nbtData == null) {
+            return null;
+        }
+
+        Map<String, Tag> values = new HashMap<String, Tag>(nbtData.getValue());
+        values.put("id", new StringTag("id", block.getNbtId()));
+
+        Map<String, Tag> tag = new HashMap<String, Tag>();
+        tag.put("Index", new ShortTag("Index", (short) index));
+        tag.put("Block", new CompoundTag("Block", values));
+        return new CompoundTag("", tag);
+    }
+
+    /**
+     * Write the uncompressed contents of a section.
+     *
+     * @param raw
+     * @param blocks palette index of every block
+     * @param tileEntities
+     * @throws IOException
+     */
+    private static void writeSection(ByteArrayOutputStream raw, int[] blocks, List<Tag> tileEntities)
+            throws IOException {
+        DataOutputStream out = new DataOutputStream(raw);
+
+        // Palette entries used by the section, in order of appearance
+        Map<Integer, Integer> local = new HashMap<Integer, Integer>();
+        int[] localBlocks = new int[blocks.length];
+        List<Integer> used = new ArrayList<Integer>();
+        for (int i = 0; i < blocks.length; ++i) {
+            Integer index = local.get(blocks[i]);
+            if (index == null) {
+                index = used.size();
+                local.put(blocks[i], index);
+                used.add(blocks[i]);
+            }
+            localBlocks[i] = index;
+        }
+
+        writeVarInt(out, used.size());
+        for (int index : used) {
+            writeVarInt(out, index);
+        }
+
+        int bits = getBitsPerBlock(used.size());
+        if (bits > 0) {
+            byte[] packed = new byte[(blocks.length * bits + 7) >> 3];
+            long buffer = 0;
+            int buffered = 0;
+            int pos = 0;
+            for (int value : localBlocks) {
+                buffer |= (long) value << buffered;
+                buffered += bits;
+                while (buffered >= 8) {
+                    packed[pos++] = (byte) buffer;
+                    buffer >>>= 8;
+                    buffered -= 8;
+                }
+            }
+            if (buffered > 0) {
+                packed[pos] = (byte) buffer;
+            }
+            out.write(packed);
+        }
+
+        out.writeBoolean(!tileEntities.isEmpty());
+        out.flush();
+        if (!tileEntities.isEmpty()) {
+            NBTOutputStream nbt = new NBTOutputStream(raw, false);
+            nbt.writeTag(new ListTag("TileEntities", CompoundTag.class, tileEntities));
+            nbt.close();
+        }
+    }
+
+    /**
+     * Get the number of bits used to store a block in a section that uses
+     * a number of palette entries.
+     *
+     * @param count
+     * @return
+     */
+    static int getBitsPerBlock(int count) {
+        return count <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(count - 1);
+    }
+
+    static int getSectionCount(int size) {
+        return (size + SECTION_SIZE - 1) / SECTION_SIZE;
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException, DataException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new DataException("Invalid number in compact schematic");
+    }
+
+    @Override
+    public boolean isOfFormat(File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            return in.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    /**
+     * The uncompressed contents of a section, compared by value.
+     */
+    private static class SectionKey {
+        private final byte[] bytes;
+        private final int hash;
+
+        public SectionKey(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = Arrays.hashCode(bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof SectionKey && Arrays.equals(bytes, ((SectionKey) other).bytes);
+        }
+    }
+}
@@ -0,0 +1,515 @@
+/*
+ * WorldEdit
+ * Copyright (C) 2012 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.schematic;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.ShortTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.data.DataException;
+
+import static com.sk89q.worldedit.schematic.CompactSchematicFormat.*;
+
+/**
+ * Reads a schematic saved by {@link CompactSchematicFormat} one section at a
+ * time. Only the footer is read when the reader is opened, so any part of a
+ * large schematic can be read without decoding the rest.
+ */
+public class CompactSchematicReader implements Closeable {
+    /**
+     * Deflate can't compress data to less than about a 1032nd of its size,
+     * which limits how large a damaged file can claim its data is.
+     */
+    private static final int MAX_INFLATE_RATIO = 1032;
+
+    private final RandomAccessFile file;
+    private final int width;
+    private final int height;
+    private final int length;
+    private final Vector origin;
+    private final Vector offset;
+    private final int sectionsX;
+    private final int sectionsY;
+    private final int sectionsZ;
+    private final int[] paletteTypes;
+    private final int[] paletteData;
+    private final long[] storedPositions;
+    private final int[] storedLengths;
+    private final int[] storedRawLengths;
+    private final int[] sections;
+    private final Inflater inflater = new Inflater();
+
+    // The last stored section that was decoded, since neighbours are often
+    // the same
+    private int lastStored = -1;
+    private final int[] lastBlocks = new int[SECTION_VOLUME];
+    private List<Tag> lastTileEntities;
+
+    /**
+     * Open a compact schematic.
+     *
+     * @param file
+     * @throws IOException
+     * @throws DataException if the file is not a valid compact schematic
+     */
+    public CompactSchematicReader(File file) throws IOException, DataException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            long fileLength = this.file.length();
+            if (fileLength < HEADER_SIZE + TRAILER_SIZE || this.file.readInt() != MAGIC) {
+                throw new DataException("Not a compact schematic");
+            }
+            int version = this.file.readUnsignedByte();
+            if (version != VERSION) {
+                throw new DataException("Unsupported compact schematic version " + version);
+            }
+
+            this.file.seek(fileLength - TRAILER_SIZE);
+            long footerPosition = this.file.readLong();
+            int footerLength = this.file.readInt();
+            if (this.file.readInt() != MAGIC || footerPosition < HEADER_SIZE || footerLength < 0
+                    || footerPosition + footerLength != fileLength - TRAILER_SIZE) {
+                throw new DataException("Compact schematic is truncated or damaged");
+            }
+
+            DataInputStream footer = new DataInputStream(new ByteArrayInputStream(
+                    inflate(footerPosition, footerLength, -1)));
+            width = footer.readInt();
+            height = footer.readInt();
+            length = footer.readInt();
+            if (width <= 0 || height <= 0 || length <= 0 || (long) width * height * length > Integer.MAX_VALUE) {
+                throw new DataException("Invalid compact schematic size");
+            }
+            origin = new Vector(footer.readInt(), footer.readInt(), footer.readInt());
+            offset = new Vector(footer.readInt(), footer.readInt(), footer.readInt());
+
+            // Every number below takes at least one byte of the footer, so
+            // counts that need more than what is left are damaged
+            int paletteSize = readVarInt(footer);
+            if (paletteSize < 1 || paletteSize > footer.available() / 2) {
+                throw new DataException("Invalid compact schematic palette");
+            }
+            paletteTypes = new int[paletteSize];
+            paletteData = new int[paletteSize];
+            for (int i = 0; i < paletteSize; ++i) {
+                paletteTypes[i] = readVarInt(footer);
+                paletteData[i] = readVarInt(footer);
+            }
+
+            sectionsX = getSectionCount(width);
+            sectionsY = getSectionCount(height);
+            sectionsZ = getSectionCount(length);
+            int sectionCount = sectionsX * sectionsY * sectionsZ;
+
+            int storedCount = readVarInt(footer);
+            if (storedCount < 0 || storedCount > sectionCount
+                    || storedCount * 2L + sectionCount > footer.available()) {
+                throw new DataException("Invalid compact schematic section count");
+            }
+            storedPositions = new long[storedCount];
+            storedLengths = new int[storedCount];
+            storedRawLengths = new int[storedCount];
+            long position = HEADER_SIZE;
+            for (int i = 0; i < storedCount; ++i) {
+                storedPositions[i] = position;
+                storedLengths[i] = readVarInt(footer);
+                storedRawLengths[i] = readVarInt(footer);
+                if (storedLengths[i] < 1 || storedLengths[i] > footerPosition - position) {
+                    throw new DataException("Compact schematic sections don't match the footer");
+                }
+                // The palette size, one palette entry and the tile entity flag
+                if (storedRawLengths[i] < 3 || storedRawLengths[i] > (long) storedLengths[i] * MAX_INFLATE_RATIO) {
+                    throw new DataException("Invalid compact schematic section length");
+                }
+                position += storedLengths[i];
+            }
+            if (position != footerPosition) {
+                throw new DataException("Compact schematic sections don't match the footer");
+            }
+
+            sections = new int[sectionCount];
+            for (int i = 0; i < sections.length; ++i) {
+                sections[i] = readVarInt(footer);
+                if (sections[i] < 0 || sections[i] > storedCount) {
+                    throw new DataException("Compact schematic refers to a missing section");
+                }
+            }
+        } catch (EOFException e) {
+            close();
+            throw new DataException("Compact schematic is truncated or damaged");
+        } catch (IOException e) {
+            close();
+            throw e;
+        } catch (DataException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public Vector getOrigin() {
+        return origin;
+    }
+
+    public Vector getOffset() {
+        return offset;
+    }
+
+    /**
+     * Get the number of sections along the x axis.
+     *
+     * @return
+     */
+    public int getSectionsX() {
+        return sectionsX;
+    }
+
+    public int getSectionsY() {
+        return sectionsY;
+    }
+
+    public int getSectionsZ() {
+        return sectionsZ;
+    }
+
+    /**
+     * Returns whether a section is all air.
+     *
+     * @param sx
+     * @param sy
+     * @param sz
+     * @return
+     */
+    public boolean isEmptySection(int sx, int sy, int sz) {
+        return sections[getSectionIndex(sx, sy, sz)] == 0;
+    }
+
+    /**
+     * Read the blocks of a section. Blocks are stored at
+     * <code>(y * 16 + z) * 16 + x</code>, relative to the corner of the
+     * section. Parts of a section past the edge of the schematic are air.
+     *
+     * @param sx
+     * @param sy
+     * @param sz
+     * @param types array of at least 4096 types to fill
+     * @param data array of at least 4096 data values to fill
+     * @return blocks with extra data, by index in the section
+     * @throws IOException
+     * @throws DataException
+     */
+    public Map<Integer, BaseBlock> readSection(int sx, int sy, int sz, int[] types, int[] data)
+            throws IOException, DataException {
+        int stored = sections[getSectionIndex(sx, sy, sz)] - 1;
+        if (stored < 0) {
+            for (int i = 0; i < SECTION_VOLUME; ++i) {
+                types[i] = 0;
+                data[i] = 0;
+            }
+            return Collections.emptyMap();
+        }
+
+        if (stored != lastStored) {
+            lastStored = -1;
+            try {
+                decodeSection(stored);
+            } catch (EOFException e) {
+                throw new DataException("Compact schematic section is truncated");
+            }
+            lastStored = stored;
+        }
+
+        for (int i = 0; i < SECTION_VOLUME; ++i) {
+            types[i] = paletteTypes[lastBlocks[i]];
+            data[i] = paletteData[lastBlocks[i]];
+        }
+
+        if (lastTileEntities == null) {
+            return Collections.emptyMap();
+        }
+
+        // Blocks are changed in place by rotating and flipping, so every
+        // read gets new ones
+        Map<Integer, BaseBlock> tileEntities = new HashMap<Integer, BaseBlock>();
+        for (Tag tag : lastTileEntities) {
+            Map<String, Tag> values = ((CompoundTag) tag).getValue();
+            Tag index = values.get("Index");
+            Tag block = values.get("Block");
+            if (!(index instanceof ShortTag) || !(block instanceof CompoundTag)) {
+                continue;
+            }
+
+            int i = ((ShortTag) index).getValue();
+            if (i < 0 || i >= SECTION_VOLUME) {
+                continue;
+            }
+
+            BaseBlock tileEntity = SchematicFormat.COMPACT.getBlockForId(types[i], (short) data[i]);
+            tileEntity.setNbtData(new CompoundTag("", new HashMap<String, Tag>(((CompoundTag) block).getValue())));
+            tileEntities.put(i, tileEntity);
+        }
+        return tileEntities;
+    }
+
+    /**
+     * Read the whole schematic.
+     *
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    public CuboidClipboard read() throws IOException, DataException {
+        CuboidClipboard clipboard = read(0, 0, 0, width, height, length);
+        clipboard.setOrigin(origin);
+        clipboard.setOffset(offset);
+        return clipboard;
+    }
+
+    /**
+     * Read a box of the schematic into a clipboard of its size. Only the
+     * sections that overlap the box are decoded. The clipboard's origin is
+     * the schematic's origin moved by the corner of the box.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param boxWidth
+     * @param boxHeight
+     * @param boxLength
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    public CuboidClipboard read(int x, int y, int z, int boxWidth, int boxHeight, int boxLength)
+            throws IOException, DataException {
+        if (x < 0 || y < 0 || z < 0 || boxWidth <= 0 || boxHeight <= 0 || boxLength <= 0
+                || x + boxWidth > width || y + boxHeight > height || z + boxLength > length) {
+            throw new IllegalArgumentException("Box is empty or not inside the schematic");
+        }
+
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(boxWidth, boxHeight, boxLength),
+                origin.add(x, y, z), offset);
+        int[] types = new int[SECTION_VOLUME];
+        int[] data = new int[SECTION_VOLUME];
+
+        for (int sy = y / SECTION_SIZE; sy <= (y + boxHeight - 1) / SECTION_SIZE; ++sy) {
+            for (int sz = z / SECTION_SIZE; sz <= (z + boxLength - 1) / SECTION_SIZE; ++sz) {
+                for (int sx = x / SECTION_SIZE; sx <= (x + boxWidth - 1) / SECTION_SIZE; ++sx) {
+                    if (isEmptySection(sx, sy, sz)) {
+                        continue;
+                    }
+
+                    Map<Integer, BaseBlock> tileEntities = readSection(sx, sy, sz, types, data);
+
+                    // Part of the section inside the box, in schematic coordinates
+                    int minX = Math.max(x, sx * SECTION_SIZE);
+                    int minY = Math.max(y, sy * SECTION_SIZE);
+                    int minZ = Math.max(z, sz * SECTION_SIZE);
+                    int maxX = Math.min(x + boxWidth, (sx + 1) * SECTION_SIZE);
+                    int maxY = Math.min(y + boxHeight, (sy + 1) * SECTION_SIZE);
+                    int maxZ = Math.min(z + boxLength, (sz + 1) * SECTION_SIZE);
+
+                    for (int by = minY; by < maxY; ++by) {
+                        for (int bz = minZ; bz < maxZ; ++bz) {
+                            int row = ((by - sy * SECTION_SIZE) * SECTION_SIZE + bz - sz * SECTION_SIZE)
+                                    * SECTION_SIZE - sx * SECTION_SIZE;
+                            clipboard.setRow(minX - x, by - y, bz - z, maxX - minX, types, data, row + minX);
+                        }
+                    }
+
+                    for (Map.Entry<Integer, BaseBlock> entry : tileEntities.entrySet()) {
+                        int i = entry.getKey();
+                        int bx = sx * SECTION_SIZE + (i & 0xF);
+                        int bz = sz * SECTION_SIZE + ((i >> 4) & 0xF);
+                        int by = sy * SECTION_SIZE + (i >> 8);
+                        if (bx >= minX && bx < maxX && by >= minY && by < maxY && bz >= minZ && bz < maxZ) {
+                            clipboard.setBlock(new BlockVector(bx - x, by - y, bz - z), entry.getValue());
+                        }
+                    }
+                }
+            }
+        }
+
+        return clipboard;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+
+    private int getSectionIndex(int sx, int sy, int sz) {
+        if (sx < 0 || sx >= sectionsX || sy < 0 || sy >= sectionsY || sz < 0 || sz >= sectionsZ) {
+            throw new IndexOutOfBoundsException("(" + sx + ", " + sy + ", " + sz + ") is not a section");
+        }
+        return (sy * sectionsZ + sz) * sectionsX + sx;
+    }
+
+    /**
+     * Decode a stored section into {@link #lastBlocks} and
+     * {@link #lastTileEntities}.
+     *
+     * @param stored
+     * @throws IOException
+     * @throws DataException
+     */
+    private void decodeSection(int stored) throws IOException, DataException {
+        byte[] raw = inflate(storedPositions[stored], storedLengths[stored], storedRawLengths[stored]);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+
+        int count = readVarInt(in);
+        if (count < 1 || count > SECTION_VOLUME) {
+            throw new DataException("Invalid section palette in compact schematic");
+        }
+        int[] used = new int[count];
+        for (int i = 0; i < count; ++i) {
+            used[i] = readVarInt(in);
+            if (used[i] < 0 || used[i] >= paletteTypes.length) {
+                throw new DataException("Invalid section palette in compact schematic");
+            }
+        }
+
+        int bits = getBitsPerBlock(count);
+        if (bits == 0) {
+            for (int i = 0; i < SECTION_VOLUME; ++i) {
+                lastBlocks[i] = used[0];
+            }
+        } else {
+            byte[] packed = new byte[(SECTION_VOLUME * bits + 7) >> 3];
+            in.readFully(packed);
+            int mask = (1 << bits) - 1;
+            long buffer = 0;
+            int buffered = 0;
+            int pos = 0;
+            for (int i = 0; i < SECTION_VOLUME; ++i) {
+                while (buffered < bits) {
+                    buffer |= (long) (packed[pos++] & 0xFF) << buffered;
+                    buffered += 8;
+                }
+                int value = (int) buffer & mask;
+                buffer >>>= bits;
+                buffered -= bits;
+                if (value >= count) {
+                    throw new DataException("Invalid block in compact schematic");
+                }
+                lastBlocks[i] = used[value];
+            }
+        }
+
+        lastTileEntities = null;
+        if (in.readBoolean()) {
+            Tag tag = new NBTInputStream(in).readTag();
+            if (tag instanceof ListTag) {
+                lastTileEntities = new ArrayList<Tag>();
+                for (Tag child : ((ListTag) tag).getValue()) {
+                    if (child instanceof CompoundTag) {
+                        lastTileEntities.add(child);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read and inflate part of the file.
+     *
+     * @param position
+     * @param compressedLength
+     * @param rawLength length of the inflated data, or -1 if unknown, in
+     *     which case it may be at most {@link #MAX_INFLATE_RATIO} times the
+     *     compressed length
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    private byte[] inflate(long position, int compressedLength, int rawLength)
+            throws IOException, DataException {
+        byte[] compressed = new byte[compressedLength];
+        file.seek(position);
+        file.readFully(compressed);
+
+        inflater.reset();
+        inflater.setInput(compressed);
+        long limit = Math.min((long) compressedLength * MAX_INFLATE_RATIO, Integer.MAX_VALUE - 8);
+        byte[] raw = new byte[rawLength >= 0 ? rawLength : (int) Math.min(limit, Math.max(64, compressedLength * 4L))];
+        int size = 0;
+        try {
+            while (!inflater.finished()) {
+                if (size == raw.length) {
+                    if (rawLength >= 0) {
+                        // Only the end of the stream may be left
+                        if (inflater.inflate(new byte[1]) > 0 || !inflater.finished()) {
+                            throw new DataException("Compact schematic section is larger than expected");
+                        }
+                        break;
+                    }
+                    if (raw.length >= limit) {
+                        throw new DataException("Compact schematic is damaged");
+                    }
+                    raw = Arrays.copyOf(raw, (int) Math.min(limit, raw.length * 2L));
+                }
+                int n = inflater.inflate(raw, size, raw.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataException("Compact schematic is truncated or damaged");
+                }
+                size += n;
+            }
+        } catch (DataFormatException e) {
+            throw new DataException("Compact schematic is damaged: " + e.getMessage());
+        }
+
+        if (rawLength >= 0 && size != rawLength) {
+            throw new DataException("Compact schematic section is smaller than expected");
+        }
+        return size == raw.length ? raw : Arrays.copyOf(raw, size);
+    }
+}
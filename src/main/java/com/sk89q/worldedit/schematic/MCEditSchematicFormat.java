@@ -18,6 +18,7 @@
 
 package com.sk89q.worldedit.schematic;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -35,7 +36,7 @@
 import com.sk89q.jnbt.IntTag;
 import com.sk89q.jnbt.ListTag;
 import com.sk89q.jnbt.NBTConstants;
-import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTReader;
 import com.sk89q.jnbt.NBTOutputStream;
 import com.sk89q.jnbt.ShortTag;
 import com.sk89q.jnbt.StringTag;
@@ -44,7 +45,6 @@
 import com.sk89q.worldedit.CuboidClipboard;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.blocks.BaseBlock;
-import com.sk89q.worldedit.blocks.TileEntityBlock;
 import com.sk89q.worldedit.data.DataException;
 
 /**
@@ -52,6 +52,7 @@
  */
 public class MCEditSchematicFormat extends SchematicFormat {
     private static final int MAX_SIZE = Short.MAX_VALUE - Short.MIN_VALUE;
+    private static final int BUFFER_SIZE = 65536;
 
     protected MCEditSchematicFormat() {
         super("MCEdit", "mcedit", "mce");
@@ -60,29 +61,81 @@ protected MCEditSchematicFormat() {
     @Override
     public CuboidClipboard load(File file) throws IOException, DataException {
         FileInputStream stream = new FileInputStream(file);
-        NBTInputStream nbtStream = new NBTInputStream(
-                new GZIPInputStream(stream));
+        NBTReader reader = new NBTReader(new BufferedInputStream(
+                new GZIPInputStream(stream)));
 
         Vector origin = new Vector();
         Vector offset = new Vector();
 
-        // Schematic tag
-        CompoundTag schematicTag = (CompoundTag) nbtStream.readTag();
-        nbtStream.close();
-        if (!schematicTag.getName().equals("Schematic")) {
-            throw new DataException("Tag \"Schematic\" does not exist or is not first");
+        // Schematic tag, without the arrays, the entities and anything else
+        // that isn't used
+        Map<String, Tag> schematic = new HashMap<String, Tag>();
+        // Arrays that came before the size of the schematic and had to be
+        // kept until the clipboard could be created
+        Map<String, byte[]> arrays = new HashMap<String, byte[]>();
+        List<Tag> tileEntities = new ArrayList<Tag>();
+        CuboidClipboard clipboard = null;
+        boolean hasBlocks = false;
+        boolean hasData = false;
+
+        try {
+            if (reader.next() != NBTConstants.TYPE_COMPOUND || !reader.nameEquals("Schematic")) {
+                throw new DataException("Tag \"Schematic\" does not exist or is not first");
+            }
+
+            reader.enter();
+            while (reader.next() != NBTConstants.TYPE_END) {
+                switch (reader.getType()) {
+                case NBTConstants.TYPE_LIST:
+                    if (reader.nameEquals("TileEntities")) {
+                        ListTag list = (ListTag) reader.readTag();
+                        tileEntities = list.getValue();
+                    }
+                    continue;
+                case NBTConstants.TYPE_COMPOUND:
+                case NBTConstants.TYPE_INT_ARRAY:
+                    continue;
+                case NBTConstants.TYPE_BYTE_ARRAY:
+                    String name = reader.getName();
+                    if (!name.equals("Blocks") && !name.equals("Data") && !name.equals("AddBlocks")) {
+                        continue;
+                    }
+
+                    hasBlocks |= name.equals("Blocks");
+                    hasData |= name.equals("Data");
+
+                    if (clipboard == null && schematic.containsKey("Width")
+                            && schematic.containsKey("Height") && schematic.containsKey("Length")) {
+                        clipboard = createClipboard(schematic);
+                    }
+
+                    if (clipboard != null) {
+                        // Read straight into the clipboard
+                        readArray(reader, name, clipboard);
+                    } else {
+                        arrays.put(name, reader.readByteArray());
+                    }
+                    continue;
+                }
+
+                Tag tag = reader.readTag();
+                schematic.put(tag.getName(), tag);
+            }
+        } finally {
+            reader.close();
         }
 
         // Check
-        Map<String, Tag> schematic = schematicTag.getValue();
-        if (!schematic.containsKey("Blocks")) {
+        if (!hasBlocks) {
             throw new DataException("Schematic file is missing a \"Blocks\" tag");
         }
+        if (!hasData) {
+            throw new DataException("Schematic file is missing a \"Data\" tag");
+        }
 
-        // Get information
-        short width = getChildTag(schematic, "Width", ShortTag.class).getValue();
-        short length = getChildTag(schematic, "Length", ShortTag.class).getValue();
-        short height = getChildTag(schematic, "Height", ShortTag.class).getValue();
+        if (clipboard == null) {
+            clipboard = createClipboard(schematic);
+        }
 
         try {
             int originX = getChildTag(schematic, "WEOriginX", IntTag.class).getValue();
@@ -108,94 +161,127 @@ public CuboidClipboard load(File file) throws IOException, DataException {
             throw new DataException("Schematic file is not an Alpha schematic");
         }
 
-        // Get blocks
-        byte[] blockId = getChildTag(schematic, "Blocks", ByteArrayTag.class).getValue();
-        byte[] blockData = getChildTag(schematic, "Data", ByteArrayTag.class).getValue();
-        byte[] addId = new byte[0];
-        short[] blocks = new short[blockId.length]; // Have to later combine IDs
+        clipboard.setOrigin(origin);
+        clipboard.setOffset(offset);
 
         // We support 4096 block IDs using the same method as vanilla Minecraft, where
         // the highest 4 bits are stored in a separate byte array.
-        if (schematic.containsKey("AddBlocks")) {
-            addId = getChildTag(schematic, "AddBlocks", ByteArrayTag.class).getValue();
-        }
-
-        // Combine the AddBlocks data with the first 8-bit block ID
-        for (int index = 0; index < blockId.length; index++) {
-            if ((index >> 1) >= addId.length) { // No corresponding AddBlocks index
-                blocks[index] = (short) (blockId[index] & 0xFF);
-            } else {
-                if ((index & 1) == 0) {
-                    blocks[index] = (short) (((addId[index >> 1] & 0x0F) << 8) + (blockId[index] & 0xFF));
-                } else {
-                    blocks[index] = (short) (((addId[index >> 1] & 0xF0) << 4) + (blockId[index] & 0xFF));
-                }
-            }
+        for (Map.Entry<String, byte[]> entry : arrays.entrySet()) {
+            String name = entry.getKey();
+            byte[] bytes = entry.getValue();
+            checkArrayLength(name, bytes.length, clipboard);
+            setArray(clipboard, name, bytes, 0, Math.min(bytes.length, getArrayLimit(name, clipboard)));
         }
 
-        // Need to pull out tile entities
-        List<Tag> tileEntities = getChildTag(schematic, "TileEntities", ListTag.class)
-                .getValue();
-        Map<BlockVector, Map<String, Tag>> tileEntitiesMap =
-                new HashMap<BlockVector, Map<String, Tag>>();
+        // Only the blocks with tile entities need a block of their own
+        int width = clipboard.getWidth();
+        int height = clipboard.getHeight();
+        int length = clipboard.getLength();
 
         for (Tag tag : tileEntities) {
             if (!(tag instanceof CompoundTag)) continue;
-            CompoundTag t = (CompoundTag) tag;
+            Map<String, Tag> values = ((CompoundTag) tag).getValue();
 
-            int x = 0;
-            int y = 0;
-            int z = 0;
+            int x = getCoordinate(values, "x");
+            int y = getCoordinate(values, "y");
+            int z = getCoordinate(values, "z");
+            if (x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= length) {
+                continue;
+            }
 
-            Map<String, Tag> values = new HashMap<String, Tag>();
+            BlockVector pt = new BlockVector(x, y, z);
+            BaseBlock stored = clipboard.getPoint(pt);
+            BaseBlock block = getBlockForId(stored.getType(), (short) stored.getData());
+            block.setNbtData(new CompoundTag("", new HashMap<String, Tag>(values)));
+            clipboard.setBlock(pt, block);
+        }
 
-            for (Map.Entry<String, Tag> entry : t.getValue().entrySet()) {
-                if (entry.getKey().equals("x")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        x = ((IntTag) entry.getValue()).getValue();
-                    }
-                } else if (entry.getKey().equals("y")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        y = ((IntTag) entry.getValue()).getValue();
-                    }
-                } else if (entry.getKey().equals("z")) {
-                    if (entry.getValue() instanceof IntTag) {
-                        z = ((IntTag) entry.getValue()).getValue();
-                    }
-                }
+        return clipboard;
+    }
 
-                values.put(entry.getKey(), entry.getValue());
-            }
+    /**
+     * Create an empty clipboard with the size of a schematic.
+     *
+     * @param schematic
+     * @return
+     * @throws DataException
+     */
+    private static CuboidClipboard createClipboard(Map<String, Tag> schematic) throws DataException {
+        short width = getChildTag(schematic, "Width", ShortTag.class).getValue();
+        short length = getChildTag(schematic, "Length", ShortTag.class).getValue();
+        short height = getChildTag(schematic, "Height", ShortTag.class).getValue();
+
+        return new CuboidClipboard(new Vector(width, height, length));
+    }
 
-            BlockVector vec = new BlockVector(x, y, z);
-            tileEntitiesMap.put(vec, values);
+    /**
+     * Read a Blocks, Data or AddBlocks array into a clipboard in parts.
+     *
+     * @param reader
+     * @param name
+     * @param clipboard
+     * @throws IOException
+     * @throws DataException
+     */
+    private static void readArray(NBTReader reader, String name, CuboidClipboard clipboard)
+            throws IOException, DataException {
+        int length = reader.openByteArray();
+        checkArrayLength(name, length, clipboard);
+
+        // Whatever is past the end of the clipboard is skipped
+        int end = Math.min(length, getArrayLimit(name, clipboard));
+        byte[] buffer = new byte[Math.min(BUFFER_SIZE, Math.max(1, end))];
+        for (int index = 0; index < end; index += buffer.length) {
+            int count = Math.min(buffer.length, end - index);
+            reader.readBytes(buffer, 0, count);
+            setArray(clipboard, name, buffer, index, count);
         }
+    }
 
-        Vector size = new Vector(width, height, length);
-        CuboidClipboard clipboard = new CuboidClipboard(size);
-        clipboard.setOrigin(origin);
-        clipboard.setOffset(offset);
+    /**
+     * Copy part of a Blocks, Data or AddBlocks array into a clipboard.
+     *
+     * @param clipboard
+     * @param name
+     * @param bytes the part of the array, starting at 0
+     * @param index index of the part in the whole array
+     * @param count
+     */
+    private static void setArray(CuboidClipboard clipboard, String name, byte[] bytes, int index, int count) {
+        if (name.equals("Blocks")) {
+            clipboard.setTypeBytes(index, bytes, 0, count);
+        } else if (name.equals("Data")) {
+            clipboard.setDataBytes(index, bytes, 0, count);
+        } else {
+            clipboard.setAddTypeBytes(index, bytes, 0, count);
+        }
+    }
 
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    BlockVector pt = new BlockVector(x, y, z);
-                    BaseBlock block = getBlockForId(blocks[index], blockData[index]);
+    private static int getArrayLimit(String name, CuboidClipboard clipboard) {
+        int volume = clipboard.getVolume();
+        return name.equals("AddBlocks") ? (volume + 1) >> 1 : volume;
+    }
 
-                    if (block instanceof TileEntityBlock && tileEntitiesMap.containsKey(pt)) {
-                        ((TileEntityBlock) block).setNbtData(new CompoundTag("", tileEntitiesMap.get(pt)));
-                    }
-                    clipboard.setBlock(pt, block);
-                }
-            }
+    private static void checkArrayLength(String name, int length, CuboidClipboard clipboard)
+            throws DataException {
+        if (!name.equals("AddBlocks") && length < clipboard.getVolume()) {
+            throw new DataException("\"" + name + "\" tag is shorter than the schematic");
         }
+    }
 
-        return clipboard;
+    private static int getCoordinate(Map<String, Tag> values, String key) {
+        Tag tag = values.get(key);
+        return tag instanceof IntTag ? ((IntTag) tag).getValue() : 0;
     }
 
     @Override
     public void save(CuboidClipboard clipboard, File file) throws IOException, DataException {
+        save(clipboard, file, -1, 1);
+    }
+
+    @Override
+    public void save(CuboidClipboard clipboard, File file, int compressionLevel, int compressionThreads)
+            throws IOException, DataException {
         int width = clipboard.getWidth();
         int height = clipboard.getHeight();
         int length = clipboard.getLength();
@@ -210,82 +296,80 @@ public void save(CuboidClipboard clipboard, File file) throws IOException, DataE
             throw new DataException("Length of region too large for a .schematic");
         }
 
-        HashMap<String, Tag> schematic = new HashMap<String, Tag>();
-        schematic.put("Width", new ShortTag("Width", (short) width));
-        schematic.put("Length", new ShortTag("Length", (short) length));
-        schematic.put("Height", new ShortTag("Height", (short) height));
-        schematic.put("Materials", new StringTag("Materials", "Alpha"));
-        schematic.put("WEOriginX", new IntTag("WEOriginX", clipboard.getOrigin().getBlockX()));
-        schematic.put("WEOriginY", new IntTag("WEOriginY", clipboard.getOrigin().getBlockY()));
-        schematic.put("WEOriginZ", new IntTag("WEOriginZ", clipboard.getOrigin().getBlockZ()));
-        schematic.put("WEOffsetX", new IntTag("WEOffsetX", clipboard.getOffset().getBlockX()));
-        schematic.put("WEOffsetY", new IntTag("WEOffsetY", clipboard.getOffset().getBlockY()));
-        schematic.put("WEOffsetZ", new IntTag("WEOffsetZ", clipboard.getOffset().getBlockZ()));
-
-        // Copy
-        byte[] blocks = new byte[width * height * length];
-        byte[] addBlocks = null;
-        byte[] blockData = new byte[width * height * length];
+        // Tile entities are the only blocks that need to be looked at one by one
         ArrayList<Tag> tileEntities = new ArrayList<Tag>();
+        for (BlockVector pt : clipboard.getTileEntityPositions()) {
+            BaseBlock block = clipboard.getPoint(pt);
+
+            // Get the list of key/values from the block
+            CompoundTag rawTag = block.getNbtData();
+            if (rawTag != null) {
+                Map<String, Tag> values = new HashMap<String, Tag>();
+                for (Entry<String, Tag> entry : rawTag.getValue().entrySet()) {
+                    values.put(entry.getKey(), entry.getValue());
+                }
 
-        for (int x = 0; x < width; ++x) {
-            for (int y = 0; y < height; ++y) {
-                for (int z = 0; z < length; ++z) {
-                    int index = y * width * length + z * width + x;
-                    BaseBlock block = clipboard.getPoint(new BlockVector(x, y, z));
-
-                    // Save 4096 IDs in an AddBlocks section
-                    if (block.getType() > 255) {
-                        if (addBlocks == null) { // Lazily create section
-                            addBlocks = new byte[(blocks.length >> 1) + 1];
-                        }
-
-                        addBlocks[index >> 1] = (byte) (((index & 1) == 0) ?
-                                addBlocks[index >> 1] & 0xF0 | (block.getType() >> 8) & 0xF
-                                : addBlocks[index >> 1] & 0xF | ((block.getType() >> 8) & 0xF) << 4);
-                    }
+                values.put("id", new StringTag("id", block.getNbtId()));
+                values.put("x", new IntTag("x", pt.getBlockX()));
+                values.put("y", new IntTag("y", pt.getBlockY()));
+                values.put("z", new IntTag("z", pt.getBlockZ()));
 
-                    blocks[index] = (byte) block.getType();
-                    blockData[index] = (byte) block.getData();
-
-                    // Store TileEntity data
-                    if (block instanceof TileEntityBlock) {
-                        TileEntityBlock tileEntityBlock = block;
-
-                        // Get the list of key/values from the block
-                        CompoundTag rawTag = tileEntityBlock.getNbtData();
-                        if (rawTag != null) {
-                            Map<String, Tag> values = new HashMap<String, Tag>();
-                            for (Entry<String, Tag> entry : rawTag.getValue().entrySet()) {
-                                values.put(entry.getKey(), entry.getValue());
-                            }
-                            
-                            values.put("id", new StringTag("id", tileEntityBlock.getNbtId()));
-                            values.put("x", new IntTag("x", x));
-                            values.put("y", new IntTag("y", y));
-                            values.put("z", new IntTag("z", z));
-                            
-                            CompoundTag tileEntityTag = new CompoundTag("TileEntity", values);
-                            tileEntities.add(tileEntityTag);
-                        }
-                    }
-                }
+                CompoundTag tileEntityTag = new CompoundTag("TileEntity", values);
+                tileEntities.add(tileEntityTag);
             }
         }
 
-        schematic.put("Blocks", new ByteArrayTag("Blocks", blocks));
-        schematic.put("Data", new ByteArrayTag("Data", blockData));
-        schematic.put("Entities", new ListTag("Entities", CompoundTag.class, new ArrayList<Tag>()));
-        schematic.put("TileEntities", new ListTag("TileEntities", CompoundTag.class, tileEntities));
-        if (addBlocks != null) {
-            schematic.put("AddBlocks", new ByteArrayTag("AddBlocks", addBlocks));
-        }
+        // The size comes first, so that loading can read the arrays straight
+        // into a clipboard
+        NBTOutputStream stream = new NBTOutputStream(new FileOutputStream(file),
+                toDeflaterLevel(compressionLevel), toThreadCount(compressionThreads));
+        try {
+            stream.writeCompoundStart("Schematic");
+            stream.writeTag(new ShortTag("Width", (short) width));
+            stream.writeTag(new ShortTag("Length", (short) length));
+            stream.writeTag(new ShortTag("Height", (short) height));
+            stream.writeTag(new StringTag("Materials", "Alpha"));
+            stream.writeTag(new IntTag("WEOriginX", clipboard.getOrigin().getBlockX()));
+            stream.writeTag(new IntTag("WEOriginY", clipboard.getOrigin().getBlockY()));
+            stream.writeTag(new IntTag("WEOriginZ", clipboard.getOrigin().getBlockZ()));
+            stream.writeTag(new IntTag("WEOffsetX", clipboard.getOffset().getBlockX()));
+            stream.writeTag(new IntTag("WEOffsetY", clipboard.getOffset().getBlockY()));
+            stream.writeTag(new IntTag("WEOffsetZ", clipboard.getOffset().getBlockZ()));
+
+            int volume = clipboard.getVolume();
+            byte[] buffer = new byte[Math.min(BUFFER_SIZE, Math.max(1, volume))];
+
+            stream.writeByteArrayStart("Blocks", volume);
+            for (int index = 0; index < volume; index += buffer.length) {
+                int count = Math.min(buffer.length, volume - index);
+                clipboard.getTypeBytes(index, buffer, 0, count);
+                stream.writeBytes(buffer, 0, count);
+            }
+
+            // Save 4096 IDs in an AddBlocks section
+            if (clipboard.hasAddTypes()) {
+                int addLength = (volume >> 1) + 1;
+                stream.writeByteArrayStart("AddBlocks", addLength);
+                for (int index = 0; index < addLength; index += buffer.length) {
+                    int count = Math.min(buffer.length, addLength - index);
+                    clipboard.getAddTypeBytes(index, buffer, 0, count);
+                    stream.writeBytes(buffer, 0, count);
+                }
+            }
+
+            stream.writeByteArrayStart("Data", volume);
+            for (int index = 0; index < volume; index += buffer.length) {
+                int count = Math.min(buffer.length, volume - index);
+                clipboard.getDataBytes(index, buffer, 0, count);
+                stream.writeBytes(buffer, 0, count);
+            }
 
-        // Build and output
-        CompoundTag schematicTag = new CompoundTag("Schematic", schematic);
-        NBTOutputStream stream = new NBTOutputStream(new FileOutputStream(file));
-        stream.writeTag(schematicTag);
-        stream.close();
+            stream.writeTag(new ListTag("Entities", CompoundTag.class, new ArrayList<Tag>()));
+            stream.writeTag(new ListTag("TileEntities", CompoundTag.class, tileEntities));
+            stream.writeCompoundEnd();
+        } finally {
+            stream.close();
+        }
     }
 
     @Override
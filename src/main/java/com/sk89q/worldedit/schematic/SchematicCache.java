@@ -0,0 +1,216 @@
+/*
+ * WorldEdit
+ * Copyright (C) 2012 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.schematic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.data.DataException;
+
+/**
+ * Keeps the clipboards of recently loaded schematics, so that loading the
+ * same file again doesn't read and decode it again. Files are recognised by
+ * their canonical path, size and modification time. Every load gets a
+ * {@link CuboidClipboard#copy()}, which shares the cached blocks until it
+ * is changed.
+ *
+ * <p>Schematics are loaded on the I/O threads, so all methods can be called
+ * from any thread.</p>
+ */
+public class SchematicCache {
+    private final long limit;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long usage;
+    private long hits;
+    private long misses;
+
+    /**
+     * Construct the cache.
+     *
+     * @param limit maximum estimated size of the cached clipboards in bytes,
+     *            0 to cache nothing, or -1 for no limit
+     */
+    public SchematicCache(long limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Load a schematic, from the cache if the file hasn't changed since it
+     * was last loaded.
+     *
+     * @param format
+     * @param file
+     * @return a clipboard of the caller's own
+     * @throws IOException
+     * @throws DataException
+     */
+    public CuboidClipboard load(SchematicFormat format, File file) throws IOException, DataException {
+        if (limit == 0) {
+            return format.load(file);
+        }
+
+        String path = file.getCanonicalPath();
+        long length = file.length();
+        long modified = file.lastModified();
+
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry != null && entry.matches(format, length, modified)) {
+                ++hits;
+                return entry.clipboard.copy();
+            }
+            ++misses;
+            if (entry != null) {
+                remove(path);
+            }
+        }
+
+        CuboidClipboard clipboard = format.load(file);
+
+        // Don't keep what may be a mix of two versions of the file
+        if (file.length() != length || file.lastModified() != modified) {
+            return clipboard;
+        }
+
+        long size = clipboard.getMemoryUsage();
+        synchronized (this) {
+            if (limit > 0 && size > limit) {
+                return clipboard;
+            }
+
+            remove(path);
+            entries.put(path, new Entry(format, length, modified, clipboard, size));
+            usage += size;
+
+            Iterator<Entry> it = entries.values().iterator();
+            while (limit > 0 && usage > limit && it.hasNext()) {
+                Entry eldest = it.next();
+                it.remove();
+                usage -= eldest.size;
+            }
+
+            // The cached clipboard itself is never handed out
+            return clipboard.copy();
+        }
+    }
+
+    /**
+     * Forget a file, such as one that is being replaced.
+     *
+     * @param file
+     */
+    public void invalidate(File file) {
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            path = file.getAbsolutePath();
+        }
+
+        synchronized (this) {
+            remove(path);
+        }
+    }
+
+    /**
+     * Forget every file and reset the statistics.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        usage = 0;
+        hits = 0;
+        misses = 0;
+    }
+
+    private void remove(String path) {
+        Entry entry = entries.remove(path);
+        if (entry != null) {
+            usage -= entry.size;
+        }
+    }
+
+    /**
+     * Get the number of loads that were served from the cache.
+     *
+     * @return
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of loads that had to read the file.
+     *
+     * @return
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of cached schematics.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the estimated size of the cached clipboards, in bytes.
+     *
+     * @return
+     * @see CuboidClipboard#getMemoryUsage()
+     */
+    public synchronized long getMemoryUsage() {
+        return usage;
+    }
+
+    /**
+     * Get the maximum estimated size of the cached clipboards.
+     *
+     * @return bytes, 0 if nothing is cached, or -1 for no limit
+     */
+    public long getLimit() {
+        return limit;
+    }
+
+    private static class Entry {
+        private final SchematicFormat format;
+        private final long length;
+        private final long modified;
+        private final CuboidClipboard clipboard;
+        private final long size;
+
+        public Entry(SchematicFormat format, long length, long modified, CuboidClipboard clipboard, long size) {
+            this.format = format;
+            this.length = length;
+            this.modified = modified;
+            this.clipboard = clipboard;
+            this.size = size;
+        }
+
+        public boolean matches(SchematicFormat format, long length, long modified) {
+            return this.format == format && this.length == length && this.modified == modified;
+        }
+    }
+}
@@ -27,8 +27,11 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.Deflater;
 
+import com.sk89q.util.ParallelGZIPOutputStream;
 import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.WorldEdit;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.data.DataException;
 
@@ -39,8 +42,11 @@
 public abstract class SchematicFormat {
     private static final Map<String, SchematicFormat> SCHEMATIC_FORMATS = new HashMap<String, SchematicFormat>();
 
+    private static boolean warnedThreads;
+
     // Built-in schematic formats
     public static final SchematicFormat MCEDIT = new MCEditSchematicFormat();
+    public static final SchematicFormat COMPACT = new CompactSchematicFormat();
 
     public static Set<SchematicFormat> getFormats() {
         return Collections.unmodifiableSet(new HashSet<SchematicFormat>(SCHEMATIC_FORMATS.values()));
@@ -91,6 +97,42 @@ public String[] getLookupNames() {
         return lookupNames;
     }
 
+    /**
+     * Turn a configured compression level into one for a {@link Deflater}.
+     *
+     * @param compressionLevel level from 0 to 9, or a negative number for the default
+     * @return
+     */
+    protected static int toDeflaterLevel(int compressionLevel) {
+        return compressionLevel < 0 ? Deflater.DEFAULT_COMPRESSION
+                : Math.min(compressionLevel, Deflater.BEST_COMPRESSION);
+    }
+
+    /**
+     * Turn a configured number of compression threads into a real one. This
+     * is always 1 if the files written by several threads couldn't be read
+     * back completely, as on Java 6.
+     *
+     * @param compressionThreads number of threads, or a negative number for
+     *            one per processor
+     * @return at least 1
+     */
+    protected static int toThreadCount(int compressionThreads) {
+        int threads = compressionThreads < 0
+                ? Runtime.getRuntime().availableProcessors() : Math.max(1, compressionThreads);
+        if (threads > 1 && !ParallelGZIPOutputStream.isSupported()) {
+            synchronized (SchematicFormat.class) {
+                if (!warnedThreads) {
+                    warnedThreads = true;
+                    WorldEdit.logger.warning("Schematics are compressed on one thread, since this version of Java "
+                            + "can't read schematics compressed on several threads (saving.compression-threads)");
+                }
+            }
+            return 1;
+        }
+        return threads;
+    }
+
     public BaseBlock getBlockForId(int id, short data) {
         BaseBlock block;
         switch (id) {
@@ -146,5 +188,25 @@ public BaseBlock getBlockForId(int id, short data) {
      */
     public abstract void save(CuboidClipboard clipboard, File file) throws IOException, DataException;
 
+    /**
+     * Saves a clipboard like {@link #save(CuboidClipboard, File)}, with the
+     * given compression settings. Formats that don't support them ignore
+     * them. With more than one thread, the file may be written as several
+     * gzip members, which only readers on Java 7 or later load completely,
+     * so only one thread is used on older versions.
+     *
+     * @param clipboard The clipboard to get data from
+     * @param file The file to save to
+     * @param compressionLevel level from 0 to 9, or a negative number for the default
+     * @param compressionThreads number of threads that compress data, or a
+     *            negative number for one per processor
+     * @throws IOException If an error occurs while writing data
+     * @throws DataException If the clipboard has data which cannot be stored
+     */
+    public void save(CuboidClipboard clipboard, File file, int compressionLevel, int compressionThreads)
+            throws IOException, DataException {
+        save(clipboard, file);
+    }
+
     public abstract boolean isOfFormat(File file);
 }
@@ -0,0 +1,338 @@
+/*
+ * WorldEdit
+ * Copyright (C) 2012 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.schematic;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.LocalPlayer;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.data.DataException;
+
+/**
+ * Loads or saves a schematic for a player. The file is read or written by
+ * {@link #execute()}, which may run on another thread, and the result is
+ * handed to the player by {@link #finish()} on the main thread.
+ */
+public abstract class SchematicJob {
+    public enum State {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED
+    }
+
+    protected final LocalPlayer player;
+    protected final LocalSession session;
+    protected final SchematicFormat format;
+    protected final File file;
+    protected final String name;
+    protected final SchematicCache cache;
+    private final long created = System.currentTimeMillis();
+    private volatile long started;
+    private volatile State state = State.QUEUED;
+    private Thread worker;
+    private Exception error;
+
+    protected SchematicJob(LocalPlayer player, LocalSession session, SchematicFormat format, File file, String name,
+            SchematicCache cache) {
+        this.player = player;
+        this.session = session;
+        this.format = format;
+        this.file = file;
+        this.name = name;
+        this.cache = cache;
+    }
+
+    /**
+     * Create a job that loads a schematic into the session's clipboard.
+     *
+     * @param player
+     * @param session
+     * @param format
+     * @param file
+     * @param name name of the schematic shown to the player
+     * @param cache cache of loaded schematics, or null
+     * @return
+     */
+    public static SchematicJob load(LocalPlayer player, LocalSession session, SchematicFormat format,
+            File file, String name, SchematicCache cache) {
+        return new LoadJob(player, session, format, file, name, cache);
+    }
+
+    /**
+     * Create a job that saves a clipboard. The clipboard must not be changed
+     * while the job runs, so pass a {@link CuboidClipboard#snapshot()}.
+     *
+     * @param player
+     * @param session
+     * @param format
+     * @param file
+     * @param name name of the schematic shown to the player
+     * @param clipboard
+     * @param compressionLevel see {@link SchematicFormat#save(CuboidClipboard, File, int, int)}
+     * @param compressionThreads see {@link SchematicFormat#save(CuboidClipboard, File, int, int)}
+     * @param cache cache of loaded schematics that the file is removed
+     *            from once it is replaced, or null
+     * @return
+     */
+    public static SchematicJob save(LocalPlayer player, LocalSession session, SchematicFormat format,
+            File file, String name, CuboidClipboard clipboard, int compressionLevel, int compressionThreads,
+            SchematicCache cache) {
+        return new SaveJob(player, session, format, file, name, clipboard, compressionLevel, compressionThreads,
+                cache);
+    }
+
+    /**
+     * Read or write the file. This does nothing if the job was cancelled.
+     */
+    public void execute() {
+        synchronized (this) {
+            if (state != State.QUEUED) {
+                return;
+            }
+            state = State.RUNNING;
+            started = System.currentTimeMillis();
+            worker = Thread.currentThread();
+        }
+
+        try {
+            run();
+        } catch (Exception e) {
+            error = e;
+        } finally {
+            synchronized (this) {
+                worker = null;
+                // Don't let a late cancel interrupt the worker's next job
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * Report the result to the player and apply it. Call this on the main
+     * thread once {@link #execute()} has returned.
+     */
+    public void finish() {
+        synchronized (this) {
+            if (state == State.CANCELLED) {
+                cleanUp();
+                return;
+            }
+            state = error == null ? State.DONE : State.FAILED;
+        }
+
+        if (error == null) {
+            try {
+                complete();
+                return;
+            } catch (IOException e) {
+                error = e;
+                state = State.FAILED;
+            }
+        }
+
+        cleanUp();
+        if (error instanceof DataException) {
+            player.printError(getErrorPrefix() + " error: " + error.getMessage());
+        } else if (error instanceof IOException) {
+            player.printError("Schematic " + name + " could not be " + getVerb() + ": " + error.getMessage());
+        } else {
+            player.printError("Schematic " + name + " could not be " + getVerb() + ", see the server log.");
+            WorldEdit.logger.log(Level.SEVERE, "Failed to handle schematic " + file, error);
+        }
+    }
+
+    /**
+     * Stop the job. A job that is still reading or writing is interrupted,
+     * and its result is thrown away.
+     *
+     * @return whether the job had not finished yet
+     */
+    public synchronized boolean cancel() {
+        if (state == State.DONE || state == State.FAILED || state == State.CANCELLED) {
+            return false;
+        }
+
+        state = State.CANCELLED;
+        if (worker != null) {
+            worker.interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the job has been finished or cancelled.
+     *
+     * @return
+     */
+    public boolean isDone() {
+        State state = this.state;
+        return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Get the time the job has been queued or running for.
+     *
+     * @return time in milliseconds
+     */
+    public long getElapsedTime() {
+        long started = this.started;
+        return System.currentTimeMillis() - (state == State.QUEUED || started == 0 ? created : started);
+    }
+
+    /**
+     * Get a short description of the job, such as "Saving castle".
+     *
+     * @return
+     */
+    public abstract String getDescription();
+
+    /**
+     * Returns whether the job writes a file.
+     *
+     * @return
+     */
+    public abstract boolean isSave();
+
+    protected abstract void run() throws IOException, DataException;
+
+    protected abstract void complete() throws IOException;
+
+    protected void cleanUp() {
+    }
+
+    protected abstract String getErrorPrefix();
+
+    protected abstract String getVerb();
+
+    private static class LoadJob extends SchematicJob {
+        private CuboidClipboard clipboard;
+
+        public LoadJob(LocalPlayer player, LocalSession session, SchematicFormat format, File file, String name,
+                SchematicCache cache) {
+            super(player, session, format, file, name, cache);
+        }
+
+        @Override
+        public String getDescription() {
+            return "Loading " + name;
+        }
+
+        @Override
+        public boolean isSave() {
+            return false;
+        }
+
+        @Override
+        protected void run() throws IOException, DataException {
+            clipboard = cache == null ? format.load(file) : cache.load(format, file);
+        }
+
+        @Override
+        protected void complete() {
+            session.setClipboard(clipboard);
+            WorldEdit.logger.info(player.getName() + " loaded " + file.getPath());
+            player.print(name + " loaded. Paste it with //paste");
+        }
+
+        @Override
+        protected String getErrorPrefix() {
+            return "Load";
+        }
+
+        @Override
+        protected String getVerb() {
+            return "read";
+        }
+    }
+
+    private static class SaveJob extends SchematicJob {
+        private final CuboidClipboard clipboard;
+        private final int compressionLevel;
+        private final int compressionThreads;
+        private File tempFile;
+
+        public SaveJob(LocalPlayer player, LocalSession session, SchematicFormat format, File file, String name,
+                CuboidClipboard clipboard, int compressionLevel, int compressionThreads, SchematicCache cache) {
+            super(player, session, format, file, name, cache);
+            this.clipboard = clipboard;
+            this.compressionLevel = compressionLevel;
+            this.compressionThreads = compressionThreads;
+        }
+
+        @Override
+        public String getDescription() {
+            return "Saving " + name;
+        }
+
+        @Override
+        public boolean isSave() {
+            return true;
+        }
+
+        @Override
+        protected void run() throws IOException, DataException {
+            // Written next to the file first, so that an existing file is
+            // only replaced by a complete one. Every save gets a file of its
+            // own, as several saves of the same file may be running.
+            tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+            format.save(clipboard, tempFile, compressionLevel, compressionThreads);
+        }
+
+        @Override
+        protected void complete() throws IOException {
+            if (!tempFile.renameTo(file)) {
+                if (!file.delete() || !tempFile.renameTo(file)) {
+                    throw new IOException("Could not replace " + file.getName());
+                }
+            }
+            if (cache != null) {
+                cache.invalidate(file);
+            }
+            WorldEdit.logger.info(player.getName() + " saved " + file.getPath());
+            player.print(name + " saved.");
+        }
+
+        @Override
+        protected void cleanUp() {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+
+        @Override
+        protected String getErrorPrefix() {
+            return "Save";
+        }
+
+        @Override
+        protected String getVerb() {
+            return "written";
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * WorldEdit
+ * Copyright (C) 2012 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.schematic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.sk89q.worldedit.ServerInterface;
+
+/**
+ * Runs {@link SchematicJob}s on a small pool of I/O threads, so that disk
+ * access and compression don't hold up the server. Finished jobs are handed
+ * back to the main thread by a task that runs every tick while there are
+ * jobs.
+ *
+ * <p>All methods must be called from the main thread.</p>
+ */
+public class SchematicJobQueue implements Runnable {
+    private final ServerInterface server;
+    private final ExecutorService executor;
+    private final int maxJobs;
+    private final List<SchematicJob> jobs = new ArrayList<SchematicJob>();
+    private final Queue<SchematicJob> finished = new ConcurrentLinkedQueue<SchematicJob>();
+    private int taskId = -1;
+
+    /**
+     * Construct the queue.
+     *
+     * @param server
+     * @param threads number of I/O threads, or 0 to run jobs right away on
+     *            the calling thread
+     * @param maxJobs maximum number of jobs queued or running at once
+     */
+    public SchematicJobQueue(ServerInterface server, int threads, int maxJobs) {
+        this.server = server;
+        this.maxJobs = Math.max(1, maxJobs);
+        if (threads > 0) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "WorldEdit schematic I/O");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Start a job. If jobs can't be run in the background, it is run to
+     * completion before this returns.
+     *
+     * @param job
+     * @return false if too many jobs are already queued or running
+     */
+    public boolean submit(final SchematicJob job) {
+        if (executor == null || executor.isShutdown() || !schedule()) {
+            job.execute();
+            job.finish();
+            return true;
+        }
+
+        if (jobs.size() >= maxJobs) {
+            return false;
+        }
+
+        jobs.add(job);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    job.execute();
+                } finally {
+                    finished.add(job);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Make sure the task that finishes jobs is running.
+     *
+     * @return whether the task is running
+     */
+    private boolean schedule() {
+        if (taskId == -1) {
+            taskId = server.schedule(1, 1, this);
+        }
+        return taskId != -1;
+    }
+
+    /**
+     * Finish the jobs that are done. This is called every tick while there
+     * are jobs.
+     */
+    @Override
+    public void run() {
+        SchematicJob job;
+        while ((job = finished.poll()) != null) {
+            jobs.remove(job);
+            job.finish();
+        }
+
+        if (jobs.isEmpty() && taskId != -1) {
+            server.cancelTask(taskId);
+            taskId = -1;
+        }
+    }
+
+    /**
+     * Get the number of jobs that are queued or running.
+     *
+     * @return
+     */
+    public int getJobCount() {
+        return jobs.size();
+    }
+
+    /**
+     * Stop accepting jobs. Loads that haven't finished are cancelled, while
+     * saves are given some time to be written.
+     *
+     * @param timeout time to wait for saves, in milliseconds
+     */
+    public void shutdown(long timeout) {
+        if (executor == null) {
+            return;
+        }
+
+        for (SchematicJob job : new ArrayList<SchematicJob>(jobs)) {
+            if (!job.isSave()) {
+                job.cancel();
+            }
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        run();
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * WorldEdit
+ * Copyright (C) 2012 sk89q <http://www.sk89q.com> and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.schematic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.sk89q.worldedit.BulkBlockSource;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.data.DataException;
+
+import static com.sk89q.worldedit.schematic.CompactSchematicFormat.SECTION_SIZE;
+import static com.sk89q.worldedit.schematic.CompactSchematicFormat.SECTION_VOLUME;
+
+/**
+ * Pastes a compact schematic straight from its file, without loading it
+ * into a clipboard first. Blocks are placed one chunk column at a time,
+ * and only the sections that overlap the current chunk are kept in memory,
+ * so the memory used depends on the height of the schematic and not on
+ * its size.
+ */
+public class StreamingPaste {
+    /**
+     * Number of decoded section columns that are kept. A chunk overlaps at
+     * most four, and the two on the side of the next chunk are used again.
+     */
+    private static final int CACHED_COLUMNS = 6;
+
+    private final CompactSchematicReader reader;
+    private final SectionColumn[] columns = new SectionColumn[CACHED_COLUMNS];
+    private int nextColumn = 0;
+    private int chunk = 0;
+
+    /**
+     * Construct the paste.
+     *
+     * @param reader
+     */
+    public StreamingPaste(CompactSchematicReader reader) {
+        this.reader = reader;
+    }
+
+    public Vector getSize() {
+        return new Vector(reader.getWidth(), reader.getHeight(), reader.getLength());
+    }
+
+    public Vector getOrigin() {
+        return reader.getOrigin();
+    }
+
+    public Vector getOffset() {
+        return reader.getOffset();
+    }
+
+    /**
+     * Paste the schematic relative to a position, moved by its offset, like
+     * {@link com.sk89q.worldedit.CuboidClipboard#paste(EditSession, Vector, boolean)}.
+     *
+     * @param editSession
+     * @param newOrigin
+     * @param noAir true to not paste air
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     * @throws IOException
+     * @throws DataException
+     */
+    public int paste(EditSession editSession, Vector newOrigin, boolean noAir)
+            throws MaxChangedBlocksException, IOException, DataException {
+        return place(editSession, newOrigin.add(getOffset()), noAir);
+    }
+
+    /**
+     * Place the schematic with its minimum corner at a position. Blocks that
+     * are placed last stay queued for the whole paste, so the caller should
+     * flush the queue once when it is done, as with
+     * {@link com.sk89q.worldedit.CuboidClipboard#place(EditSession, Vector, boolean)}.
+     *
+     * @param editSession
+     * @param pos
+     * @param noAir true to not paste air
+     * @return number of blocks affected
+     * @throws MaxChangedBlocksException
+     * @throws IOException
+     * @throws DataException
+     */
+    public int place(EditSession editSession, Vector pos, boolean noAir)
+            throws MaxChangedBlocksException, IOException, DataException {
+        final int minX = pos.getBlockX();
+        final int minY = pos.getBlockY();
+        final int minZ = pos.getBlockZ();
+        final int maxX = minX + reader.getWidth() - 1;
+        final int maxY = minY + reader.getHeight() - 1;
+        final int maxZ = minZ + reader.getLength() - 1;
+
+        SectionSource source = new SectionSource(minX, minY, minZ, noAir);
+        int affected = 0;
+
+        // One chunk column at a time, so that each chunk is only written
+        // once. setCuboidBlocks() doesn't flush, so blocks that need support
+        // across a chunk border are still placed after all of their neighbours
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; ++chunkX) {
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; ++chunkZ) {
+                int x0 = Math.max(minX, chunkX << 4);
+                int x1 = Math.min(maxX, (chunkX << 4) + 15);
+                int z0 = Math.max(minZ, chunkZ << 4);
+                int z1 = Math.min(maxZ, (chunkZ << 4) + 15);
+
+                // Decode the sections up front, since the block source
+                // can't throw I/O errors
+                ++chunk;
+                for (int sx = (x0 - minX) / SECTION_SIZE; sx <= (x1 - minX) / SECTION_SIZE; ++sx) {
+                    for (int sz = (z0 - minZ) / SECTION_SIZE; sz <= (z1 - minZ) / SECTION_SIZE; ++sz) {
+                        getColumn(sx, sz);
+                    }
+                }
+
+                affected += editSession.setCuboidBlocks(new Vector(x0, minY, z0), new Vector(x1, maxY, z1), source);
+            }
+        }
+
+        return affected;
+    }
+
+    /**
+     * Get a column of decoded sections, decoding it if it isn't cached.
+     *
+     * @param sx
+     * @param sz
+     * @return
+     * @throws IOException
+     * @throws DataException
+     */
+    private SectionColumn getColumn(int sx, int sz) throws IOException, DataException {
+        for (SectionColumn column : columns) {
+            if (column != null && column.sx == sx && column.sz == sz) {
+                column.chunk = chunk;
+                return column;
+            }
+        }
+
+        // Columns needed by the current chunk are never replaced
+        while (columns[nextColumn] != null && columns[nextColumn].chunk == chunk) {
+            nextColumn = (nextColumn + 1) % CACHED_COLUMNS;
+        }
+        SectionColumn column = columns[nextColumn];
+        if (column == null) {
+            column = new SectionColumn(reader.getSectionsY());
+            columns[nextColumn] = column;
+        }
+        nextColumn = (nextColumn + 1) % CACHED_COLUMNS;
+
+        column.chunk = chunk;
+        column.sx = sx;
+        column.sz = sz;
+        for (int sy = 0; sy < reader.getSectionsY(); ++sy) {
+            if (reader.isEmptySection(sx, sy, sz)) {
+                column.empty[sy] = true;
+                column.tileEntities.set(sy, null);
+            } else {
+                column.empty[sy] = false;
+                column.tileEntities.set(sy, reader.readSection(sx, sy, sz, column.types[sy], column.data[sy]));
+            }
+        }
+        return column;
+    }
+
+    /**
+     * Decoded sections at one position on the x and z axes.
+     */
+    private static class SectionColumn {
+        private int sx = -1;
+        private int sz = -1;
+        private int chunk;
+        private final boolean[] empty;
+        private final int[][] types;
+        private final int[][] data;
+        private final List<Map<Integer, BaseBlock>> tileEntities;
+
+        public SectionColumn(int sections) {
+            empty = new boolean[sections];
+            types = new int[sections][SECTION_VOLUME];
+            data = new int[sections][SECTION_VOLUME];
+            tileEntities = new ArrayList<Map<Integer, BaseBlock>>(sections);
+            for (int i = 0; i < sections; ++i) {
+                tileEntities.add(null);
+            }
+        }
+    }
+
+    /**
+     * Reads blocks from the cached sections.
+     */
+    private class SectionSource implements BulkBlockSource {
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final boolean noAir;
+        private final BaseBlock air = new BaseBlock(0);
+        // The edit session only reads the blocks it is given, so plain
+        // blocks of the same type and data can share one instance
+        private final BaseBlock[] cache = new BaseBlock[4096 * 16];
+        private SectionColumn last;
+
+        public SectionSource(int minX, int minY, int minZ, boolean noAir) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.noAir = noAir;
+        }
+
+        public BaseBlock getBlock(int x, int y, int z, int existingType, int existingData) {
+            x -= minX;
+            y -= minY;
+            z -= minZ;
+            int sx = x / SECTION_SIZE;
+            int sy = y / SECTION_SIZE;
+            int sz = z / SECTION_SIZE;
+
+            SectionColumn column = last;
+            if (column == null || column.sx != sx || column.sz != sz) {
+                column = null;
+                for (SectionColumn cached : columns) {
+                    if (cached != null && cached.sx == sx && cached.sz == sz) {
+                        column = cached;
+                        break;
+                    }
+                }
+                if (column == null) {
+                    throw new IllegalStateException("Section (" + sx + ", " + sz + ") was not decoded");
+                }
+                last = column;
+            }
+
+            if (column.empty[sy]) {
+                return noAir ? null : air;
+            }
+
+            int index = ((y & 0xF) * SECTION_SIZE + (z & 0xF)) * SECTION_SIZE + (x & 0xF);
+            int type = column.types[sy][index];
+            if (noAir && type == 0) {
+                return null;
+            }
+
+            int blockData = column.data[sy][index];
+            Map<Integer, BaseBlock> tileEntities = column.tileEntities.get(sy);
+            if (!tileEntities.isEmpty()) {
+                BaseBlock block = tileEntities.get(index);
+                if (block != null) {
+                    return block;
+                }
+            }
+
+            if (type >= 4096 || blockData >= 16) {
+                return new BaseBlock(type, blockData);
+            }
+
+            int key = (type << 4) | blockData;
+            BaseBlock block = cache[key];
+            if (block == null) {
+                block = new BaseBlock(type, blockData);
+                cache[key] = block;
+            }
+            return block;
+        }
+    }
+}
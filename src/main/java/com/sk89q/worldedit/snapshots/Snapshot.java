@@ -44,6 +44,10 @@ public class Snapshot implements Comparable<Snapshot> {
      * Stores the date associated with the snapshot.
      */
     protected Calendar date;
+    /**
+     * Whether region files are memory-mapped, for folder snapshots.
+     */
+    protected boolean memoryMapped;
 
     /**
      * Construct a snapshot restoration operation.
@@ -54,6 +58,7 @@ public class Snapshot implements Comparable<Snapshot> {
     public Snapshot(SnapshotRepository repo, String snapshot) {
         file = new File(repo.getDirectory(), snapshot);
         name = snapshot;
+        memoryMapped = repo.isMemoryMapped();
     }
 
     /**
@@ -113,7 +118,8 @@ public ChunkStore _getChunkStore() throws IOException, DataException {
                 throw new DataException("TrueZIP is required for .tar support");
             }
         } else {
-            ChunkStore chunkStore = new FileMcRegionChunkStore(file);
+            FileMcRegionChunkStore chunkStore = new FileMcRegionChunkStore(file);
+            chunkStore.setMemoryMapped(memoryMapped);
 
             if (!chunkStore.isValid()) {
                 return new FileLegacyChunkStore(file);
@@ -41,6 +41,10 @@ public class SnapshotRepository {
      * List of date parsers.
      */
     protected List<SnapshotDateParser> dateParsers = new ArrayList<SnapshotDateParser>();
+    /**
+     * Whether region files in folder snapshots are memory-mapped.
+     */
+    protected boolean memoryMapped = true;
 
     /**
      * Create a new instance of a repository.
@@ -238,4 +242,23 @@ public Snapshot getSnapshot(String name) throws InvalidSnapshotException {
     public File getDirectory() {
         return dir;
     }
+
+    /**
+     * Get whether region files in folder snapshots are memory-mapped.
+     *
+     * @return
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Set whether region files in folder snapshots are memory-mapped.
+     * Otherwise they are streamed like files in archives.
+     *
+     * @param memoryMapped
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
 }
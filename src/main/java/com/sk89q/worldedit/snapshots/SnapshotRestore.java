@@ -21,12 +21,23 @@
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.sk89q.worldedit.BlockVector2D;
 import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.LocalWorld;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.Vector;
 import com.sk89q.worldedit.Vector2D;
@@ -35,7 +46,6 @@
 import com.sk89q.worldedit.data.ChunkStore;
 import com.sk89q.worldedit.data.DataException;
 import com.sk89q.worldedit.data.MissingChunkException;
-import com.sk89q.worldedit.data.MissingWorldException;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
 
@@ -47,8 +57,8 @@ public class SnapshotRestore {
     /**
      * Store a list of chunks that are needed and the points in them.
      */
-    private Map<BlockVector2D, ArrayList<Vector>> neededChunks =
-            new LinkedHashMap<BlockVector2D, ArrayList<Vector>>();
+    private Map<BlockVector2D, ChunkPoints> neededChunks =
+            new LinkedHashMap<BlockVector2D, ChunkPoints>();
     /**
      * Chunk store.
      */
@@ -65,6 +75,10 @@ public class SnapshotRestore {
      * Last error message.
      */
     private String lastErrorMessage;
+    /**
+     * Number of threads that load chunks ahead of the restore.
+     */
+    private int decodeThreads = getDefaultDecodeThreads();
 
     /**
      * Construct the snapshot restore operation.
@@ -83,53 +97,78 @@ public SnapshotRestore(ChunkStore chunkStore, Region region) {
     }
 
     /**
-     * Find needed chunks in the cuboid of the region.
+     * Find needed chunks in the cuboid of the region. Each chunk only
+     * stores the part of the cuboid inside it.
      *
      * @param region
      */
     private void findNeededCuboidChunks(Region region) {
         Vector min = region.getMinimumPoint();
         Vector max = region.getMaximumPoint();
+        int minX = min.getBlockX();
+        int minZ = min.getBlockZ();
+        int maxX = max.getBlockX();
+        int maxZ = max.getBlockZ();
 
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    Vector pos = new Vector(x, y, z);
-                    BlockVector2D chunkPos = ChunkStore.toChunk(pos);
-
-                    // Unidentified chunk
-                    if (!neededChunks.containsKey(chunkPos)) {
-                        neededChunks.put(chunkPos, new ArrayList<Vector>());
-                    }
+        for (int chunkX = minX >> ChunkStore.CHUNK_SHIFTS; chunkX <= maxX >> ChunkStore.CHUNK_SHIFTS; ++chunkX) {
+            for (int chunkZ = minZ >> ChunkStore.CHUNK_SHIFTS; chunkZ <= maxZ >> ChunkStore.CHUNK_SHIFTS; ++chunkZ) {
+                int baseX = chunkX << ChunkStore.CHUNK_SHIFTS;
+                int baseZ = chunkZ << ChunkStore.CHUNK_SHIFTS;
 
-                    neededChunks.get(chunkPos).add(pos);
-                }
+                neededChunks.put(new BlockVector2D(chunkX, chunkZ), new CuboidPoints(
+                        Math.max(minX, baseX), min.getBlockY(), Math.max(minZ, baseZ),
+                        Math.min(maxX, baseX + 15), max.getBlockY(), Math.min(maxZ, baseZ + 15)));
             }
         }
     }
 
     /**
-     * Find needed chunks in the region.
+     * Find needed chunks in the region. The points in each chunk are kept
+     * as a bit set over the chunk's columns.
      *
      * @param region
      */
     private void findNeededChunks(Region region) {
+        int minY = region.getMinimumPoint().getBlockY();
+        int maxY = region.getMaximumPoint().getBlockY();
+
         // First, we need to group points by chunk so that we only need
         // to keep one chunk in memory at any given moment
         for (Vector pos : region) {
             BlockVector2D chunkPos = ChunkStore.toChunk(pos);
+            ChunkPoints points = neededChunks.get(chunkPos);
 
             // Unidentified chunk
-            if (!neededChunks.containsKey(chunkPos)) {
-                neededChunks.put(chunkPos, new ArrayList<Vector>());
+            if (points == null) {
+                points = new ColumnPoints(chunkPos, minY, maxY);
+                neededChunks.put(chunkPos, points);
             }
 
-            neededChunks.get(chunkPos).add(pos);
+            ((ColumnPoints) points).add(pos);
         }
     }
 
+    /**
+     * Get the default number of threads used to load chunks, which leaves
+     * one processor for applying them.
+     *
+     * @return
+     */
+    public static int getDefaultDecodeThreads() {
+        return Math.min(4, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    /**
+     * Set the number of threads that load and decode chunks while blocks
+     * are being restored. With 0, chunks are loaded one at a time by the
+     * restoring thread, and a negative number picks a default.
+     *
+     * @param decodeThreads
+     */
+    public void setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads < 0 ? getDefaultDecodeThreads() : decodeThreads;
+    }
+
     /**
      * Get the number of chunks that are needed.
      *
@@ -151,36 +190,149 @@ public void restore(EditSession editSession)
         missingChunks = new ArrayList<Vector2D>();
         errorChunks = new ArrayList<Vector2D>();
 
+        if (decodeThreads > 0 && neededChunks.size() > 1 && chunkStore.isThreadSafe()) {
+            restorePipelined(editSession);
+            return;
+        }
+
         // Now let's start restoring!
-        for (Map.Entry<BlockVector2D, ArrayList<Vector>> entry : neededChunks.entrySet()) {
+        for (Map.Entry<BlockVector2D, ChunkPoints> entry : neededChunks.entrySet()) {
             BlockVector2D chunkPos = entry.getKey();
             Chunk chunk;
 
             try {
                 chunk = chunkStore.getChunk(chunkPos, editSession.getWorld());
                 // Good, the chunk could be at least loaded
+            } catch (DataException e) {
+                addFailedChunk(chunkPos, e);
+                continue;
+            } catch (IOException e) {
+                addFailedChunk(chunkPos, e);
+                continue;
+            }
 
-                // Now just copy blocks!
-                for (Vector pos : entry.getValue()) {
-                    try {
-                        BaseBlock block = chunk.getBlock(pos);
-                        editSession.rawSetBlock(pos, block);
-                    } catch (DataException e) {
-                        // this is a workaround: just ignore for now
+            restoreChunk(editSession, chunk, entry.getValue());
+        }
+    }
+
+    /**
+     * Restores to world while a pool of threads loads and decodes the
+     * following chunks. At most two chunks per thread are loaded ahead, so
+     * memory use does not grow with the size of the restore.
+     *
+     * @param editSession
+     * @throws MaxChangedBlocksException
+     */
+    private void restorePipelined(EditSession editSession)
+            throws MaxChangedBlocksException {
+
+        final LocalWorld world = editSession.getWorld();
+        int maxInFlight = decodeThreads * 2;
+        ExecutorService executor = Executors.newFixedThreadPool(decodeThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "WorldEdit snapshot loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        Iterator<Map.Entry<BlockVector2D, ChunkPoints>> it = neededChunks.entrySet().iterator();
+        LinkedList<PendingChunk> pending = new LinkedList<PendingChunk>();
+
+        try {
+            while (true) {
+                while (pending.size() < maxInFlight && it.hasNext()) {
+                    Map.Entry<BlockVector2D, ChunkPoints> entry = it.next();
+                    final BlockVector2D chunkPos = entry.getKey();
+                    Future<Chunk> future = executor.submit(new Callable<Chunk>() {
+                        @Override
+                        public Chunk call() throws DataException, IOException {
+                            return chunkStore.getChunk(chunkPos, world);
+                        }
+                    });
+                    pending.add(new PendingChunk(chunkPos, entry.getValue(), future));
+                }
+
+                if (pending.isEmpty()) {
+                    break;
+                }
+
+                PendingChunk next = pending.removeFirst();
+                Chunk chunk;
+
+                try {
+                    chunk = next.chunk.get();
+                } catch (InterruptedException e) {
+                    // Count the chunks that were not restored as errors, so
+                    // the restore isn't reported as complete
+                    Thread.currentThread().interrupt();
+                    errorChunks.add(next.position);
+                    for (PendingChunk left : pending) {
+                        errorChunks.add(left.position);
+                    }
+                    while (it.hasNext()) {
+                        errorChunks.add(it.next().getKey());
+                    }
+                    lastErrorMessage = "Interrupted while loading chunks";
+                    return;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof DataException || cause instanceof IOException) {
+                        addFailedChunk(next.position, (Exception) cause);
+                        continue;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    } else {
+                        throw new RuntimeException(cause);
                     }
                 }
-            } catch (MissingChunkException me) {
-                missingChunks.add(chunkPos);
-            } catch (MissingWorldException me) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = me.getMessage();
-            } catch (DataException de) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = de.getMessage();
-            } catch (IOException ioe) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = ioe.getMessage();
+
+                restoreChunk(editSession, chunk, next.points);
             }
+        } finally {
+            for (PendingChunk left : pending) {
+                left.chunk.cancel(false);
+            }
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Copy the given points from a loaded chunk.
+     *
+     * @param editSession
+     * @param chunk
+     * @param points
+     * @throws MaxChangedBlocksException
+     */
+    private void restoreChunk(EditSession editSession, Chunk chunk, Iterable<Vector> points)
+            throws MaxChangedBlocksException {
+        // Now just copy blocks!
+        for (Vector pos : points) {
+            try {
+                BaseBlock block = chunk.getBlock(pos);
+                editSession.rawSetBlock(pos, block);
+            } catch (DataException e) {
+                // this is a workaround: just ignore for now
+            }
+        }
+    }
+
+    /**
+     * Record a chunk that could not be loaded.
+     *
+     * @param chunkPos
+     * @param e
+     */
+    private void addFailedChunk(BlockVector2D chunkPos, Exception e) {
+        if (e instanceof MissingChunkException) {
+            missingChunks.add(chunkPos);
+        } else {
+            errorChunks.add(chunkPos);
+            lastErrorMessage = e.getMessage();
         }
     }
 
@@ -220,4 +372,132 @@ public boolean hadTotalFailure() {
     public String getLastErrorMessage() {
         return lastErrorMessage;
     }
+
+    /**
+     * A chunk that is being loaded, with the points to restore from it.
+     */
+    private static class PendingChunk {
+        private final BlockVector2D position;
+        private final ChunkPoints points;
+        private final Future<Chunk> chunk;
+
+        public PendingChunk(BlockVector2D position, ChunkPoints points, Future<Chunk> chunk) {
+            this.position = position;
+            this.points = points;
+            this.chunk = chunk;
+        }
+    }
+
+    /**
+     * The points to restore in one chunk.
+     */
+    private static abstract class ChunkPoints implements Iterable<Vector> {
+    }
+
+    /**
+     * The points of a cuboid inside one chunk.
+     */
+    private static class CuboidPoints extends ChunkPoints {
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+
+        public CuboidPoints(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+        }
+
+        @Override
+        public Iterator<Vector> iterator() {
+            return new Iterator<Vector>() {
+                private int x = minX;
+                private int y = minY;
+                private int z = minZ;
+
+                @Override
+                public boolean hasNext() {
+                    return x <= maxX;
+                }
+
+                @Override
+                public Vector next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    Vector pos = new Vector(x, y, z);
+                    if (++z > maxZ) {
+                        z = minZ;
+                        if (++y > maxY) {
+                            y = minY;
+                            ++x;
+                        }
+                    }
+                    return pos;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * Arbitrary points inside one chunk, stored as one bit per block of the
+     * chunk between the lowest and highest Y of the region.
+     */
+    private static class ColumnPoints extends ChunkPoints {
+        private final int baseX;
+        private final int baseZ;
+        private final int minY;
+        private final BitSet points;
+
+        public ColumnPoints(BlockVector2D chunkPos, int minY, int maxY) {
+            this.baseX = chunkPos.getBlockX() << ChunkStore.CHUNK_SHIFTS;
+            this.baseZ = chunkPos.getBlockZ() << ChunkStore.CHUNK_SHIFTS;
+            this.minY = minY;
+            this.points = new BitSet((maxY - minY + 1) << 8);
+        }
+
+        public void add(Vector pos) {
+            points.set(LocalWorld.getColumnIndex(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ(), minY));
+        }
+
+        @Override
+        public Iterator<Vector> iterator() {
+            return new Iterator<Vector>() {
+                private int index = points.nextSetBit(0);
+
+                @Override
+                public boolean hasNext() {
+                    return index >= 0;
+                }
+
+                @Override
+                public Vector next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+
+                    Vector pos = new Vector(baseX + (index & 15), minY + (index >> 8), baseZ + ((index >> 4) & 15));
+                    index = points.nextSetBit(index + 1);
+                    return pos;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
 }
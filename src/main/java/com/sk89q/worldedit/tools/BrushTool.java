@@ -182,9 +182,9 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
             Mask existingMask = editSession.getMask();
             if (existingMask == null) {
                 editSession.setMask(mask);
-            } else if (existingMask instanceof CombinedMask) {
-                ((CombinedMask) existingMask).add(mask);
             } else {
+                // The existing mask is the session's global mask, which
+                // must not be changed
                 CombinedMask newMask = new CombinedMask(existingMask);
                 newMask.add(mask);
                 editSession.setMask(newMask);
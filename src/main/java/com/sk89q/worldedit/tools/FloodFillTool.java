@@ -19,8 +19,6 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.Set;
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BlockID;
 import com.sk89q.worldedit.patterns.Pattern;
@@ -61,7 +59,7 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
 
         try {
             recurse(server, editSession, world, clicked.toBlockVector(),
-                    clicked, range, initialType, new HashSet<BlockVector>());
+                    clicked, range, initialType);
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
         } finally {
@@ -75,44 +73,34 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
      * Helper method.
      * 
      * @param server
-     * @param superPickaxeManyDrop
+     * @param editSession
      * @param world
      * @param pos
      * @param origin
      * @param size
      * @param initialType
-     * @param visited
      */
-    private void recurse(ServerInterface server, EditSession editSession,
+    private void recurse(ServerInterface server, final EditSession editSession,
             LocalWorld world, BlockVector pos,
-            Vector origin, int size, int initialType,
-            Set<BlockVector> visited)
+            final Vector origin, final int size, final int initialType)
             throws MaxChangedBlocksException {
 
-        if (origin.distance(pos) > size || visited.contains(pos)) {
-            return;
-        }
-
-        visited.add(pos);
-
-        if (editSession.getBlock(pos).getType() == initialType) {
-            editSession.setBlock(pos, pattern.next(pos));
-        } else {
-            return;
-        }
-
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited);
+        final FloodFill fill = new FloodFill(new FloodFillVisitor() {
+            public boolean matches(int x, int y, int z) {
+                final Vector pos = new Vector(x, y, z);
+                return origin.distance(pos) <= size
+                        && editSession.getBlockType(pos) == initialType;
+            }
+
+            public boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                final Vector pos = new Vector(x, y, z);
+                editSession.setBlock(pos, pattern.next(pos));
+                return true;
+            }
+        }, FloodFill.FACES);
+
+        fill.add(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
+        fill.run();
     }
 
 }
@@ -19,9 +19,6 @@
 
 package com.sk89q.worldedit.tools;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import com.sk89q.worldedit.*;
 import com.sk89q.worldedit.blocks.BaseBlock;
 import com.sk89q.worldedit.blocks.BlockID;
@@ -62,8 +59,7 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
 
         try {
             recurse(server, editSession, world, clicked.toBlockVector(),
-                    clicked, range, initialType, new HashSet<BlockVector>(),
-                    config.superPickaxeManyDrop);
+                    clicked, range, initialType, config.superPickaxeManyDrop);
         } catch (MaxChangedBlocksException e) {
             player.printError("Max blocks change limit reached.");
         } finally {
@@ -77,51 +73,43 @@ public boolean actPrimary(ServerInterface server, LocalConfiguration config,
      * Helper method.
      * 
      * @param server
-     * @param superPickaxeManyDrop
+     * @param editSession
      * @param world
      * @param pos
      * @param origin
      * @param size
      * @param initialType
-     * @param visited
+     * @param drop
      */
-    private static void recurse(ServerInterface server, EditSession editSession,
-            LocalWorld world, BlockVector pos,
-            Vector origin, double size, int initialType,
-            Set<BlockVector> visited, boolean drop)
+    private static void recurse(final ServerInterface server, final EditSession editSession,
+            final LocalWorld world, BlockVector pos,
+            final Vector origin, final double size, final int initialType,
+            final boolean drop)
             throws MaxChangedBlocksException {
 
-        final double distanceSq = origin.distanceSq(pos);
-        if (distanceSq > size*size || visited.contains(pos)) {
-            return;
-        }
+        final FloodFill fill = new FloodFill(new FloodFillVisitor() {
+            public boolean matches(int x, int y, int z) {
+                final Vector pos = new Vector(x, y, z);
+                return origin.distanceSq(pos) <= size * size
+                        && editSession.getBlockType(pos) == initialType;
+            }
 
-        visited.add(pos);
+            public boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                final Vector pos = new Vector(x, y, z);
 
-        if (editSession.getBlock(pos).getType() != initialType) {
-            return;
-        }
+                if (drop) {
+                    world.simulateBlockMine(pos);
+                }
 
-        if (drop) {
-            world.simulateBlockMine(pos);
-        }
+                world.queueBlockBreakEffect(server, pos, initialType, origin.distanceSq(pos));
+
+                editSession.setBlock(pos, air);
+                return true;
+            }
+        }, FloodFill.FACES);
 
-        world.queueBlockBreakEffect(server, pos, initialType, distanceSq);
-
-        editSession.setBlock(pos, air);
-
-        recurse(server, editSession, world, pos.add(1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(-1, 0, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 0, 1).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 0, -1).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, 1, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
-        recurse(server, editSession, world, pos.add(0, -1, 0).toBlockVector(),
-                origin, size, initialType, visited, drop);
+        fill.add(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
+        fill.run();
     }
 
 }
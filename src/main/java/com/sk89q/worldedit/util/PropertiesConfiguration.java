@@ -101,17 +101,30 @@ public void load() {
         navigationWandMaxDistance = getInt("nav-wand-distance", navigationWandMaxDistance);
         scriptTimeout = getInt("scripting-timeout", scriptTimeout);
         saveDir = getString("schematic-save-dir", saveDir);
+        saveCompressionLevel = getInt("schematic-compression-level", saveCompressionLevel);
+        saveCompressionThreads = getInt("schematic-compression-threads", saveCompressionThreads);
+        saveIOThreads = getInt("schematic-io-threads", saveIOThreads);
+        saveMaxJobs = getInt("schematic-max-jobs", saveMaxJobs);
+        saveCacheSize = getInt("schematic-cache-size", saveCacheSize);
         scriptsDir = getString("craftscript-dir", scriptsDir);
         butcherDefaultRadius = getInt("butcher-default-radius", butcherDefaultRadius);
         butcherMaxRadius = getInt("butcher-max-radius", butcherMaxRadius);
+        incrementalFlushBudget = Math.max(0, getInt("incremental-flush-budget", incrementalFlushBudget));
         allowExtraDataValues = getBool("allow-extra-data-values", allowExtraDataValues);
         allowSymlinks = getBool("allow-symbolic-links", allowSymlinks);
 
         LocalSession.MAX_HISTORY_SIZE = Math.max(15, getInt("history-size", 15));
+        historySessionMemoryLimit = getInt("history-session-memory-limit", historySessionMemoryLimit);
+        historyGlobalMemoryLimit = getInt("history-global-memory-limit", historyGlobalMemoryLimit);
+        historySwapDir = getString("history-swap-dir", historySwapDir);
 
+        snapshotMemoryMapped = getBool("snapshots-memory-mapped", snapshotMemoryMapped);
+        snapshotDecodeThreads = getInt("snapshots-decode-threads", snapshotDecodeThreads);
+        expressionThreads = getInt("expression-threads", expressionThreads);
         String snapshotsDir = getString("snapshots-dir", "");
         if (snapshotsDir.length() > 0) {
             snapshotRepo = new SnapshotRepository(snapshotsDir);
+            snapshotRepo.setMemoryMapped(snapshotMemoryMapped);
         }
 
         OutputStream output = null;
@@ -72,6 +72,7 @@ public void load() {
 
         butcherDefaultRadius = Math.max(-1, config.getInt("limits.butcher-radius.default", butcherDefaultRadius));
         butcherMaxRadius = Math.max(-1, config.getInt("limits.butcher-radius.maximum", butcherMaxRadius));
+        incrementalFlushBudget = Math.max(0, config.getInt("limits.incremental-flush-budget", incrementalFlushBudget));
 
         disallowedBlocks = new HashSet<Integer>(config.getIntList("limits.disallowed-blocks", null));
         allowedDataCycleBlocks = new HashSet<Integer>(config.getIntList("limits.allowed-data-cycle-blocks", null));
@@ -103,14 +104,27 @@ public void load() {
         scriptsDir = config.getString("scripting.dir", scriptsDir);
 
         saveDir = config.getString("saving.dir", saveDir);
+        saveCompressionLevel = config.getInt("saving.compression-level", saveCompressionLevel);
+        saveCompressionThreads = config.getInt("saving.compression-threads", saveCompressionThreads);
+        saveIOThreads = config.getInt("saving.io-threads", saveIOThreads);
+        saveMaxJobs = config.getInt("saving.max-jobs", saveMaxJobs);
+        saveCacheSize = config.getInt("saving.cache-size", saveCacheSize);
 
         allowSymlinks = config.getBoolean("files.allow-symbolic-links", false);
         LocalSession.MAX_HISTORY_SIZE = Math.max(0, config.getInt("history.size", 15));
         LocalSession.EXPIRATION_GRACE = config.getInt("history.expiration", 10) * 60 * 1000;
+        historySessionMemoryLimit = config.getInt("history.session-memory-limit", historySessionMemoryLimit);
+        historyGlobalMemoryLimit = config.getInt("history.global-memory-limit", historyGlobalMemoryLimit);
+        historySwapDir = config.getString("history.swap-dir", historySwapDir);
+
+        snapshotMemoryMapped = config.getBoolean("snapshots.memory-mapped", snapshotMemoryMapped);
+        snapshotDecodeThreads = config.getInt("snapshots.decode-threads", snapshotDecodeThreads);
+        expressionThreads = config.getInt("expressions.threads", expressionThreads);
 
         String snapshotsDir = config.getString("snapshots.directory", "");
         if (snapshotsDir.length() > 0) {
             snapshotRepo = new SnapshotRepository(snapshotsDir);
+            snapshotRepo.setMemoryMapped(snapshotMemoryMapped);
         }
 
         String type = config.getString("shell-save-type", "").trim();
@@ -228,6 +228,61 @@ public int getBlockData(Vector pt) {
         return world.getChunkFromBlock(x, y, z, LoadOption.LOAD_GEN).getBlockData(x, y, z);
     }
 
+    @Override
+    public void getBlocks(int chunkX, int chunkZ, int minY, int maxY, int[] types, int[] data) {
+        final int baseX = chunkX << 4;
+        final int baseZ = chunkZ << 4;
+        Chunk chunk = null;
+
+        for (int y = minY; y <= maxY; ++y) {
+            // Spout chunks are 16 blocks high, so only look one up per cube
+            if (chunk == null || (y & 15) == 0) {
+                chunk = world.getChunkFromBlock(baseX, y, baseZ, LoadOption.LOAD_GEN);
+            }
+
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    final int index = getColumnIndex(x, y, z, minY);
+                    final Material mat = chunk.getBlockMaterial(baseX + x, y, baseZ + z);
+                    types[index] = mat instanceof VanillaMaterial ? ((VanillaMaterial) mat).getMinecraftId() : 0;
+                    data[index] = chunk.getBlockData(baseX + x, y, baseZ + z);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int setBlocks(int chunkX, int chunkZ, int minY, int maxY, int[] types, int[] data, boolean notifyAdjacent) {
+        final int baseX = chunkX << 4;
+        final int baseZ = chunkZ << 4;
+        Chunk chunk = null;
+        int changed = 0;
+
+        for (int y = minY; y <= maxY; ++y) {
+            if (chunk == null || (y & 15) == 0) {
+                chunk = world.getChunkFromBlock(baseX, y, baseZ, LoadOption.LOAD_GEN);
+            }
+
+            for (int z = 0; z < 16; ++z) {
+                for (int x = 0; x < 16; ++x) {
+                    final int index = getColumnIndex(x, y, z, minY);
+                    final int type = types[index];
+                    if (type < 0) {
+                        continue;
+                    }
+
+                    final Material mat = getSpoutMaterial(type, data[index]);
+                    if (mat instanceof BlockMaterial && chunk.setBlockMaterial(baseX + x, y, baseZ + z,
+                            (BlockMaterial) mat, (short) data[index], WorldEditPlugin.asCause())) {
+                        ++changed;
+                    }
+                }
+            }
+        }
+
+        return changed;
+    }
+
     /**
      * Get block light level.
      *
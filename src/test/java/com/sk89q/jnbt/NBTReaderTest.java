@@ -0,0 +1,101 @@
+package com.sk89q.jnbt;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.*;
+
+public class NBTReaderTest {
+    private byte[] data;
+
+    @Before
+    public void createData() throws IOException {
+        List<Tag> entities = new ArrayList<Tag>();
+        for (int i = 0; i < 10; ++i) {
+            Map<String, Tag> entity = new HashMap<String, Tag>();
+            entity.put("id", new StringTag("id", "Pig"));
+            entity.put("Pos", new ListTag("Pos", DoubleTag.class, Arrays.<Tag>asList(
+                    new DoubleTag("", i), new DoubleTag("", 64), new DoubleTag("", -i))));
+            entities.add(new CompoundTag("", entity));
+        }
+
+        Map<String, Tag> root = new HashMap<String, Tag>();
+        root.put("Entities", new ListTag("Entities", CompoundTag.class, entities));
+        root.put("Blocks", new ByteArrayTag("Blocks", new byte[] { 1, 2, 3 }));
+        root.put("Heights", new IntArrayTag("Heights", new int[] { 4, 5 }));
+        root.put("Width", new ShortTag("Width", (short) 7));
+        root.put("Empty", new ListTag("Empty", EndTag.class, new ArrayList<Tag>()));
+        root.put("Caf\u00e9", new LongTag("Caf\u00e9", 1L << 40));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NBTOutputStream nbt = new NBTOutputStream(out);
+        nbt.writeTag(new CompoundTag("Schematic", root));
+        nbt.close();
+        data = out.toByteArray();
+    }
+
+    private NBTReader createReader() throws IOException {
+        return new NBTReader(new GZIPInputStream(new ByteArrayInputStream(data)));
+    }
+
+    @Test
+    public void testReadTag() throws IOException {
+        NBTInputStream in = new NBTInputStream(new GZIPInputStream(new ByteArrayInputStream(data)));
+        Tag expected = in.readTag();
+        in.close();
+
+        NBTReader reader = createReader();
+        assertEquals(NBTConstants.TYPE_COMPOUND, reader.next());
+        assertEquals(expected.toString(), reader.readTag().toString());
+    }
+
+    @Test
+    public void testSelectiveRead() throws IOException {
+        NBTReader reader = createReader();
+        assertEquals(NBTConstants.TYPE_COMPOUND, reader.next());
+        assertTrue(reader.nameEquals("Schematic"));
+        reader.enter();
+
+        int children = 0;
+        while (reader.next() != NBTConstants.TYPE_END) {
+            ++children;
+            if (reader.nameEquals("Blocks")) {
+                assertArrayEquals(new byte[] { 1, 2, 3 }, reader.readByteArray());
+            } else if (reader.nameEquals("Heights")) {
+                int[] heights = reader.readIntArray();
+                assertEquals(2, heights.length);
+                assertEquals(5, heights[1]);
+            } else if (reader.nameEquals("Width")) {
+                assertEquals(7, reader.readShort());
+            } else if (reader.nameEquals("Caf\u00e9")) {
+                assertEquals("Caf\u00e9", reader.getName());
+                assertEquals(1L << 40, reader.readLong());
+            } else if (reader.nameEquals("Entities")) {
+                reader.enter();
+                assertEquals(NBTConstants.TYPE_COMPOUND, reader.getListType());
+                assertEquals(NBTConstants.TYPE_COMPOUND, reader.next());
+                assertEquals("", reader.getName());
+                reader.exit();
+            }
+        }
+
+        assertEquals(6, children);
+        assertEquals(0, reader.getDepth());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrongType() throws IOException {
+        NBTReader reader = createReader();
+        reader.next();
+        reader.readInt();
+    }
+}
@@ -0,0 +1,59 @@
+package com.sk89q.util;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.*;
+
+public class ParallelGZIPOutputStreamTest {
+    @Test
+    public void testRoundTrip() throws IOException {
+        byte[] data = new byte[100000];
+        Random random = new Random(1);
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (i % 7 == 0 ? random.nextInt() : i >> 8);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ParallelGZIPOutputStream out = new ParallelGZIPOutputStream(bytes, 6, 3, 4096);
+        out.write(data, 0, 5000);
+        out.write(data[5000]);
+        out.flush();
+        out.write(data, 5001, data.length - 5001);
+        out.close();
+
+        assertArrayEquals(data, inflate(bytes.toByteArray()));
+    }
+
+    @Test
+    public void testSupported() {
+        // Tests run on Java 7 or later
+        assertTrue(ParallelGZIPOutputStream.isSupported());
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new ParallelGZIPOutputStream(bytes, 6, 2).close();
+
+        assertEquals(0, inflate(bytes.toByteArray()).length);
+    }
+
+    private byte[] inflate(byte[] compressed) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
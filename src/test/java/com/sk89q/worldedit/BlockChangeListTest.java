@@ -0,0 +1,147 @@
+package com.sk89q.worldedit;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+
+public class BlockChangeListTest {
+    @Test
+    public void testPacking() {
+        BlockChangeList list = new BlockChangeList(false, 0);
+        list.put(0, 0, 0, BlockID.STONE, 0);
+        list.put(-1, 255, -1, BlockID.CLOTH, 15);
+        list.put(BlockChangeList.MAX_XZ, BlockChangeList.MAX_Y, BlockChangeList.MIN_XZ, 4095, 0);
+        list.put(BlockChangeList.MIN_XZ, BlockChangeList.MIN_Y, BlockChangeList.MAX_XZ, 0xFFFF, -1);
+
+        assertEquals(4, list.size());
+
+        assertPoint(list, 0, 0, 0, 0, BlockID.STONE, 0);
+        assertPoint(list, 1, -1, 255, -1, BlockID.CLOTH, 15);
+        assertPoint(list, 2, BlockChangeList.MAX_XZ, BlockChangeList.MAX_Y, BlockChangeList.MIN_XZ, 4095, 0);
+        assertPoint(list, 3, BlockChangeList.MIN_XZ, BlockChangeList.MIN_Y, BlockChangeList.MAX_XZ, 0xFFFF, -1);
+    }
+
+    @Test
+    public void testGrowAndTrim() {
+        BlockChangeList list = new BlockChangeList(false, 1);
+        for (int i = 0; i < 10000; ++i) {
+            list.put(i, i & 0xFF, -i, i & 0xFFF, i & 0xF);
+        }
+        list.trimToSize();
+
+        assertEquals(10000, list.size());
+        for (int i = 0; i < 10000; ++i) {
+            assertPoint(list, i, i, i & 0xFF, -i, i & 0xFFF, i & 0xF);
+        }
+    }
+
+    @Test
+    public void testTileEntities() {
+        BlockChangeList list = new BlockChangeList(false);
+        SignBlock sign = new SignBlock(BlockID.SIGN_POST, 4, new String[] { "a", "b", "c", "d" });
+        list.put(new Vector(1, 2, 3), new BaseBlock(BlockID.DIRT));
+        list.put(new Vector(4, 5, 6), sign);
+
+        assertEquals(BaseBlock.class, list.getBlock(0).getClass());
+        assertSame(sign, list.getBlock(1));
+    }
+
+    @Test
+    public void testIterationOrder() {
+        BlockChangeList forward = new BlockChangeList(false);
+        BlockChangeList reversed = new BlockChangeList(true);
+        for (int i = 0; i < 5; ++i) {
+            forward.put(i, 0, 0, i, 0);
+            reversed.put(i, 0, 0, i, 0);
+        }
+
+        int i = 0;
+        for (Map.Entry<BlockVector, BaseBlock> entry : forward) {
+            assertEquals(new BlockVector(i, 0, 0), entry.getKey());
+            assertEquals(i, entry.getValue().getType());
+            ++i;
+        }
+        assertEquals(5, i);
+
+        Iterator<Map.Entry<BlockVector, BaseBlock>> it = reversed.iterator();
+        for (i = 4; i >= 0; --i) {
+            assertEquals(i, it.next().getValue().getType());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void testWriteRead() throws IOException {
+        BlockChangeList list = new BlockChangeList(true);
+        for (int i = 0; i < 100; ++i) {
+            list.put(i * 3 - 50, i, 1000 - i, i, i & 0xF);
+        }
+        list.put(new Vector(7, 8, 9), new SignBlock(BlockID.SIGN_POST, 4, new String[] { "a", "b", "c", "d" }));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        list.write(out);
+        out.close();
+
+        BlockChangeList read = BlockChangeList.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(list.size(), read.size());
+        for (int i = 0; i < 100; ++i) {
+            assertPoint(read, i, i * 3 - 50, i, 1000 - i, i, i & 0xF);
+        }
+        SignBlock sign = (SignBlock) read.getBlock(100);
+        assertEquals("c", sign.getText()[2]);
+        assertEquals(BlockID.SIGN_POST, read.iterator().next().getValue().getType());
+    }
+
+    @Test
+    public void testReadDamaged() throws IOException {
+        BlockChangeList list = new BlockChangeList(false);
+        list.put(new Vector(7, 8, 9), new SignBlock(BlockID.SIGN_POST, 4, new String[] { "a", "b", "c", "d" }));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        list.write(out);
+        out.close();
+
+        // The size, the tile entity index and the tile entity length
+        assertDamaged(bytes.toByteArray(), 2, Integer.MAX_VALUE);
+        assertDamaged(bytes.toByteArray(), 22, 5);
+        assertDamaged(bytes.toByteArray(), 26, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOutOfRange() {
+        new BlockChangeList(false).put(0, BlockChangeList.MAX_Y + 1, 0, 1, 0);
+    }
+
+    private void assertDamaged(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >> 24);
+        data[offset + 1] = (byte) (value >> 16);
+        data[offset + 2] = (byte) (value >> 8);
+        data[offset + 3] = (byte) value;
+        try {
+            BlockChangeList.read(new DataInputStream(new ByteArrayInputStream(data)));
+            fail("Damaged list was read");
+        } catch (IOException e) {
+        }
+    }
+
+    private void assertPoint(BlockChangeList list, int index, int x, int y, int z, int type, int data) {
+        assertEquals(x, list.getX(index));
+        assertEquals(y, list.getY(index));
+        assertEquals(z, list.getZ(index));
+        assertEquals(type, list.getType(index));
+        assertEquals(data, list.getData(index));
+    }
+}
@@ -0,0 +1,103 @@
+package com.sk89q.worldedit;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.*;
+
+public class FloodFillTest {
+    @Test
+    public void testBall() throws MaxChangedBlocksException {
+        final Set<BlockVector> visited = new HashSet<BlockVector>();
+        final FloodFill fill = new FloodFill(new FloodFillVisitor() {
+            public boolean matches(int x, int y, int z) {
+                return x * x + y * y + z * z <= 100;
+            }
+
+            public boolean visit(int x, int y, int z) {
+                assertTrue(visited.add(new BlockVector(x, y, z)));
+                return true;
+            }
+        }, FloodFill.FACES);
+
+        assertTrue(fill.add(0, 0, 0));
+        assertFalse(fill.add(0, 0, 0));
+
+        int expected = 0;
+        for (int x = -10; x <= 10; ++x) {
+            for (int y = -10; y <= 10; ++y) {
+                for (int z = -10; z <= 10; ++z) {
+                    if (x * x + y * y + z * z <= 100) {
+                        ++expected;
+                    }
+                }
+            }
+        }
+
+        assertEquals(expected, fill.run());
+        assertEquals(expected, visited.size());
+        assertTrue(fill.isVisited(-10, 0, 0));
+        assertTrue(fill.isVisited(0, 0, 11));
+        assertFalse(fill.isVisited(0, 0, 12));
+    }
+
+    @Test
+    public void testNoSpread() throws MaxChangedBlocksException {
+        final FloodFill fill = new FloodFill(new FloodFillVisitor() {
+            public boolean matches(int x, int y, int z) {
+                return x >= 0 && z >= 0 && z < 10;
+            }
+
+            public boolean visit(int x, int y, int z) {
+                return x < 3;
+            }
+        }, FloodFill.HORIZONTAL_FACES);
+
+        fill.add(0, 5, 0);
+        // Columns 0 to 2 spread, column 3 is visited but stops there
+        assertEquals(40, fill.run());
+        assertTrue(fill.isVisited(3, 5, 0));
+        assertFalse(fill.isVisited(4, 5, 0));
+        assertFalse(fill.isVisited(0, 6, 0));
+    }
+
+    @Test
+    public void testLargeFill() throws MaxChangedBlocksException {
+        // Far more than recursion could handle
+        final FloodFill fill = new FloodFill(new FloodFillVisitor() {
+            public boolean matches(int x, int y, int z) {
+                return y == 0 && x >= -500 && x < 500 && z >= -500 && z < 500;
+            }
+
+            public boolean visit(int x, int y, int z) {
+                return true;
+            }
+        }, FloodFill.ALL_NEIGHBOURS);
+
+        fill.add(-500, 0, -500);
+        assertEquals(1000 * 1000, fill.run());
+    }
+
+    @Test(expected = MaxChangedBlocksException.class)
+    public void testLimit() throws MaxChangedBlocksException {
+        final FloodFill fill = new FloodFill(new FloodFillVisitor() {
+            private int count;
+
+            public boolean matches(int x, int y, int z) {
+                return true;
+            }
+
+            public boolean visit(int x, int y, int z) throws MaxChangedBlocksException {
+                if (++count > 1000) {
+                    throw new MaxChangedBlocksException(1000);
+                }
+                return true;
+            }
+        }, FloodFill.FACES);
+
+        fill.add(0, 0, 0);
+        fill.run();
+    }
+}
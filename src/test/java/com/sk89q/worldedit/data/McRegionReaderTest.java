@@ -0,0 +1,99 @@
+package com.sk89q.worldedit.data;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.Vector2D;
+
+public class McRegionReaderTest {
+    private byte[] region;
+
+    @Before
+    public void createRegion() throws IOException {
+        // Chunk (i, 0) holds the single byte i and is stored in sector
+        // 1 + (3 - i), so the file order is the reverse of the index order
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        for (int i = 0; i < 1024; ++i) {
+            data.writeInt(i < 4 ? ((1 + (3 - i)) << 8) | 1 : 0);
+        }
+        for (int sector = 1; sector <= 4; ++sector) {
+            ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            DeflaterOutputStream deflate = new DeflaterOutputStream(chunk);
+            deflate.write(4 - sector);
+            deflate.close();
+
+            data.writeInt(chunk.size() + 1);
+            data.writeByte(2);
+            data.write(chunk.toByteArray());
+            data.write(new byte[4096 - 5 - chunk.size()]);
+        }
+        data.close();
+        region = out.toByteArray();
+    }
+
+    @Test
+    public void testForwardOrder() throws Exception {
+        McRegionReader reader = new McRegionReader(new ByteArrayInputStream(region));
+        for (int i = 3; i >= 0; --i) {
+            assertEquals(i, reader.getChunkInputStream(new Vector2D(i, 0)).read());
+        }
+    }
+
+    @Test
+    public void testRewind() throws Exception {
+        final int[] opened = { 0 };
+        McRegionReader reader = new McRegionReader(new ByteArrayInputStream(region)) {
+            @Override
+            protected InputStream reopen() {
+                ++opened[0];
+                return new ByteArrayInputStream(region);
+            }
+        };
+        for (int i = 0; i < 4; ++i) {
+            assertEquals(i, reader.getChunkInputStream(new Vector2D(i, 0)).read());
+        }
+        assertEquals(3, opened[0]);
+        assertNull(reader.getChunkInputStream(new Vector2D(5, 0)));
+    }
+
+    @Test
+    public void testMapped() throws Exception {
+        File file = File.createTempFile("region", ".mca");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(region);
+        out.close();
+
+        McRegionReader reader = new MappedMcRegionReader(file);
+        try {
+            for (int i : new int[] { 0, 2, 1, 3, 0 }) {
+                InputStream in = reader.getChunkInputStream(new Vector2D(i, 0));
+                assertEquals(i, in.read());
+                assertEquals(-1, in.read());
+            }
+            assertTrue(reader.hasChunk(3, 0));
+            assertNull(reader.getChunkInputStream(new Vector2D(5, 0)));
+        } finally {
+            reader.close();
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testNoRewind() throws Exception {
+        McRegionReader reader = new McRegionReader(new ByteArrayInputStream(region));
+        reader.getChunkInputStream(new Vector2D(0, 0));
+        reader.getChunkInputStream(new Vector2D(1, 0));
+    }
+}
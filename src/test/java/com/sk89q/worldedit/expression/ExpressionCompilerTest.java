@@ -0,0 +1,105 @@
+package com.sk89q.worldedit.expression;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.expression.runtime.EvaluationException;
+import com.sk89q.worldedit.expression.runtime.RValue;
+
+public class ExpressionCompilerTest {
+    private static final String[] VARIABLES = { "x", "y", "z" };
+    private static final String[] TEMPORARIES = { "a", "b", "c", "i" };
+    private static final double[][] INPUTS = {
+        { 0, 0, 0 },
+        { 1, 2, 3 },
+        { -1.5, 0.25, 7 },
+        { 5, -5, 300 },
+        { Double.NaN, -0.0, Double.POSITIVE_INFINITY },
+    };
+
+    @Test
+    public void testOperators() throws ExpressionException {
+        assertEquivalent("x + y * z - x / y % z");
+        assertEquivalent("-x ^ y + sqrt(z) * atan2(y, x)");
+        assertEquivalent("(x < y) + (x > y) * 2 + (x <= z) * 4 + (x >= z) * 8 + (x == y) * 16 + (x != z) * 32 + (x ~= y) * 64");
+        assertEquivalent("!x + ~y + (z << 2) + (z >> 1) + round(y) + min(x, y, z) + max(x, z) + ln(z) + abs(y)");
+        assertEquivalent("(x > 0 && (y = 7)) + (z > 0 || (y = 9)) * 10 + y * 100");
+        assertEquivalent("x += 2; y -= x; z *= y; x /= 3; y %= 5; z ^= 2; a = x++; b = ++y; c = z--; a + b + c - (--x)");
+        assertEquivalent("x < 0 ? y : z");
+        assertEquivalent("z!");
+    }
+
+    @Test
+    public void testControlFlow() throws ExpressionException {
+        assertEquivalent("a = 0; while (a < x * 10) { ++a; if (a == 7) break; } a");
+        assertEquivalent("a = 0; b = 0; do { ++a; if (a % 2 == 0) continue; b += a; } while (a < z); b");
+        assertEquivalent("b = 0; for (a = 0; a < 20; ++a) { if (a == y) continue; if (a > z) break; b += a; } a * 1000 + b");
+        assertEquivalent("b = 0; for (i = x, z) { b = b * 2 + i; if (i > 4) break; } b");
+        assertEquivalent("a = 0; for (i = 0, 5) { switch (i) { case 1: a += 1; case 2: a += 10; break; case 3: continue; default: a += 100; } a += 1000; } a");
+        assertEquivalent("switch (x) { case 0: y = 4; case 1: z = 5; break; default: 2 } x * 100 + y * 10 + z");
+        assertEquivalent("a = 0; while (1) { ++a; if (a > y) return a * 2; } 3");
+        assertEquivalent("if (x > 0) { if (y > 0) { c = 1; } else { c = 2; } } else c = 3; c");
+    }
+
+    @Test
+    public void testInterpretedFunctions() throws ExpressionException {
+        assertEquivalent("megabuf(x) = y; megabuf(x + 1) = z; megabuf(x) + megabuf(x + 1)");
+        assertEquivalent("rotate(x, y, z); swap(x, z); x * 100 + y");
+        assertEquivalent("a = 0; for (i = 1, 3) { a += megabuf(i) = i * x; } a");
+    }
+
+    @Test
+    public void testLoopLimit() throws ExpressionException {
+        final Expression expression = compile("while (1) { x += 1; } 0");
+        assertTrue(expression.generateBytecode());
+        try {
+            expression.evaluate(0, 0, 0);
+            fail("Error expected");
+        } catch (EvaluationException e) {
+            assertEquals("Error position", 0, e.getPosition());
+        }
+        assertEquals(257, expression.getVariable("x", false).getValue(), 0);
+    }
+
+    private void assertEquivalent(String expressionString) throws ExpressionException {
+        final Expression interpreted = compile(expressionString);
+        final Expression compiled = compile(expressionString);
+        assertTrue(expressionString, compiled.generateBytecode());
+
+        for (double[] input : INPUTS) {
+            assertEquals(expressionString, evaluate(interpreted, input), evaluate(compiled, input));
+
+            for (String name : VARIABLES) {
+                assertVariable(expressionString, interpreted, compiled, name);
+            }
+            for (String name : TEMPORARIES) {
+                assertVariable(expressionString, interpreted, compiled, name);
+            }
+        }
+    }
+
+    private String evaluate(Expression expression, double[] input) {
+        try {
+            return String.valueOf(expression.evaluate(input));
+        } catch (EvaluationException e) {
+            return e.getMessage();
+        }
+    }
+
+    private void assertVariable(String expressionString, Expression interpreted, Expression compiled, String name) throws EvaluationException {
+        final RValue expected = interpreted.getVariable(name, false);
+        final RValue actual = compiled.getVariable(name, false);
+        if (expected == null) {
+            assertNull(actual);
+        } else {
+            assertEquals(expressionString + " (" + name + ")", expected.getValue(), actual.getValue(), 0);
+        }
+    }
+
+    private Expression compile(String expressionString) throws ExpressionException {
+        final Expression expression = Expression.compile(expressionString, VARIABLES);
+        expression.optimize();
+        return expression;
+    }
+}
@@ -110,6 +110,47 @@ public void testSwitch() throws ExpressionException {
         assertEquals(127, simpleEval("x=1;y=2;z=3;switch (3) { case 1: x=5; case 2: y=6; default: z=7 } x*100+y*10+z"), 0);
     }
 
+    @Test
+    public void testEvaluateBatch() throws ExpressionException {
+        for (int pass = 0; pass < 2; ++pass) {
+            final Expression expression = compile("z = x * 2; x + y", "x", "y", "z");
+            if (pass == 1) {
+                assertTrue(expression.generateBytecode());
+            }
+
+            final double[][] inputs = { { 1, -1, 2, -2, 3, -3 }, { 10 }, null };
+            final double[][] outputs = { null, null, new double[3] };
+            final double[] results = new double[3];
+            expression.evaluateBatch(3, inputs, new int[] { 2, 0, 0 }, results, outputs);
+
+            assertEquals(11, results[0], 0);
+            assertEquals(12, results[1], 0);
+            assertEquals(13, results[2], 0);
+            assertEquals(6, outputs[2][2], 0);
+            assertEquals(3, expression.getVariable("x", false).getValue(), 0);
+        }
+    }
+
+    @Test
+    public void testDynamicFunctions() throws ExpressionException {
+        assertFalse(compile("y = sin(x); while (y < 1) { y += 0.5 } y", "x", "y").hasDynamicFunctions());
+        assertTrue(compile("x + random()", "x").hasDynamicFunctions());
+        assertTrue(compile("megabuf(x) = 1", "x").hasDynamicFunctions());
+        assertTrue(compile("for (i = 0; i < 3; ++i) { x += gmegabuf(i) } x", "x").hasDynamicFunctions());
+    }
+
+    @Test
+    public void testStoredVariables() throws ExpressionException {
+        assertFalse(compile("n = x * 2; n + y", "x", "y").readsStoredVariables());
+        assertFalse(compile("for (i = 0; i < 3; ++i) { x += i } x", "x").readsStoredVariables());
+        assertFalse(compile("if (x > 0) { n = 1 } else { n = 2 } n", "x").readsStoredVariables());
+        assertFalse(compile("m = 0; while (x < 3) { m = m + x; x += 1 } m", "x").readsStoredVariables());
+        assertTrue(compile("n = n + 1; n % 2 == 0", "x").readsStoredVariables());
+        assertTrue(compile("if (x > 0) { n = 1 } n += 1; n", "x").readsStoredVariables());
+        assertTrue(compile("while (x < 3) { m = 1; x += 1 } m", "x").readsStoredVariables());
+        assertTrue(compile("if (x > 0) { k = 1 } for (i = 0; i < 3; i = i + k) { if (x) { continue } k = 1 } i", "x").readsStoredVariables());
+    }
+
     private double simpleEval(String expressionString) throws ExpressionException {
         final Expression expression = compile(expressionString);
         return expression.evaluate();
@@ -0,0 +1,180 @@
+package com.sk89q.worldedit.masks;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.regions.CuboidRegion;
+
+public class CompiledMaskTest {
+    private static final int SIZE = 8;
+
+    private final Random random = new Random(17);
+    private final int[] types = new int[SIZE * SIZE * SIZE];
+    private final int[] data = new int[SIZE * SIZE * SIZE];
+    private EditSession editSession;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < types.length; ++i) {
+            types[i] = random.nextInt(6);
+            data[i] = random.nextInt(3);
+        }
+
+        // Reads blocks from the arrays above instead of a world
+        editSession = new EditSession(null, -1) {
+            @Override
+            public int getBlockType(int x, int y, int z) {
+                return types[index(x, y, z)];
+            }
+
+            @Override
+            public int getBlockData(int x, int y, int z) {
+                return data[index(x, y, z)];
+            }
+
+            @Override
+            public int getBlockType(Vector pt) {
+                return getBlockType(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+            }
+
+            @Override
+            public int getBlockData(Vector pt) {
+                return getBlockData(pt.getBlockX(), pt.getBlockY(), pt.getBlockZ());
+            }
+
+            @Override
+            public BaseBlock getBlock(Vector pt) {
+                return new BaseBlock(getBlockType(pt), getBlockData(pt));
+            }
+        };
+    }
+
+    @Test
+    public void testBlockMask() {
+        final BlockMask mask = new BlockMask(new BaseBlock(2, 1));
+        mask.add(new BaseBlock(3, -1));
+        assertSameMatches(mask);
+        assertSameMatches(new BlockTypeMask(0));
+        assertSameMatches(new InvertedBlockTypeMask(4));
+        assertSameMatches(new BlockMask());
+    }
+
+    @Test
+    public void testCompositeMasks() {
+        for (int i = 0; i < 200; ++i) {
+            assertSameMatches(createMask(3));
+        }
+    }
+
+    @Test
+    public void testCompileTwice() {
+        final CompiledMask mask = CompiledMask.compile(new ExistingBlockMask());
+        assertSame(mask, CompiledMask.compile(mask));
+    }
+
+    @Test
+    public void testChangedMask() {
+        final BlockMask blockMask = new BlockMask(new BaseBlock(1));
+        final InvertedMask mask = new InvertedMask(blockMask);
+        final CompiledMask compiled = CompiledMask.compile(mask);
+        assertTrue(compiled.isCurrent());
+        blockMask.add(new BaseBlock(2, -1));
+        assertFalse(compiled.isCurrent());
+        assertSameMatches(mask, CompiledMask.compile(compiled));
+
+        final UnderOverlayMask overlayMask = new UnderOverlayMask(new ExistingBlockMask(), true);
+        final CompiledMask compiledOverlay = CompiledMask.compile(overlayMask);
+        final Set<Integer> ids = new HashSet<Integer>();
+        ids.add(3);
+        overlayMask.addAll(ids);
+        assertFalse(compiledOverlay.isCurrent());
+        assertNotSame(compiledOverlay, CompiledMask.compile(compiledOverlay));
+    }
+
+    @Test
+    public void testGlobalAndBrushMask() {
+        // A //gmask of several parts, with a brush mask added like BrushTool
+        final List<Mask> parts = new ArrayList<Mask>();
+        parts.add(new ExistingBlockMask());
+        parts.add(new InvertedBlockTypeMask(5));
+        final CombinedMask globalMask = new CombinedMask(parts);
+        CompiledMask compiled = CompiledMask.compile(globalMask);
+
+        final CombinedMask brushMask = new CombinedMask(globalMask);
+        brushMask.add(new BlockMask(new BaseBlock(2, 1)));
+        assertSameMatches(brushMask);
+        assertTrue(compiled.isCurrent());
+
+        // Changing an installed mask in place is noticed too
+        globalMask.add(new BlockMask(new BaseBlock(3, -1)));
+        assertFalse(compiled.isCurrent());
+        compiled = CompiledMask.compile(compiled);
+        assertSame(globalMask, compiled.getSource());
+        assertSameMatches(globalMask, compiled);
+    }
+
+    private void assertSameMatches(Mask mask) {
+        assertSameMatches(mask, CompiledMask.compile(mask));
+    }
+
+    private void assertSameMatches(Mask mask, CompiledMask compiled) {
+        // Leave room for under/overlay masks to look above and below
+        for (int x = 0; x < SIZE; ++x) {
+            for (int y = 3; y < SIZE - 3; ++y) {
+                for (int z = 0; z < SIZE; ++z) {
+                    final boolean expected = mask.matches(editSession, new Vector(x, y, z));
+                    assertEquals(expected, compiled.matches(editSession, new Vector(x, y, z)));
+                    assertEquals(expected, compiled.matches(editSession, x, y, z));
+                }
+            }
+        }
+    }
+
+    private Mask createMask(int depth) {
+        switch (depth == 0 ? random.nextInt(4) : random.nextInt(8)) {
+        case 0:
+            final Set<BaseBlock> blocks = new HashSet<BaseBlock>();
+            for (int i = random.nextInt(4); i > 0; --i) {
+                blocks.add(new BaseBlock(random.nextInt(7), random.nextInt(4) - 1));
+            }
+            return new BlockMask(blocks);
+
+        case 1:
+            return new InvertedBlockTypeMask(random.nextInt(6));
+
+        case 2:
+            return new ExistingBlockMask();
+
+        case 3:
+            return new RegionMask(new CuboidRegion(new Vector(1, 2, 1), new Vector(5, 6, 4)));
+
+        case 4:
+        case 5:
+            final List<Mask> masks = new ArrayList<Mask>();
+            for (int i = random.nextInt(4); i > 0; --i) {
+                masks.add(createMask(depth - 1));
+            }
+            return new CombinedMask(masks);
+
+        case 6:
+            return new InvertedMask(createMask(depth - 1));
+
+        default:
+            return new UnderOverlayMask(createMask(depth - 1), random.nextBoolean());
+        }
+    }
+
+    private static int index(int x, int y, int z) {
+        return (y * SIZE + z) * SIZE + x;
+    }
+}
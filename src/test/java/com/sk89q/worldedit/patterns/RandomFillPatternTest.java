@@ -0,0 +1,95 @@
+package com.sk89q.worldedit.patterns;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+
+public class RandomFillPatternTest {
+    @Test
+    public void testProportions() {
+        final double[] chances = { 50, 0, 12.5, 25, 12.5 };
+        final List<BlockChance> blocks = new ArrayList<BlockChance>();
+        for (int i = 0; i < chances.length; ++i) {
+            blocks.add(new BlockChance(new BaseBlock(i), chances[i]));
+        }
+
+        final RandomFillPattern pattern = new RandomFillPattern(blocks);
+        final int samples = 200000;
+        final int[] counts = new int[chances.length];
+        for (int i = 0; i < samples; ++i) {
+            ++counts[pattern.next(i, 0, 0).getType()];
+        }
+
+        for (int i = 0; i < chances.length; ++i) {
+            assertEquals(chances[i] / 100, counts[i] / (double) samples, 0.01);
+        }
+        assertEquals(0, counts[1]);
+    }
+
+    @Test
+    public void testZeroChances() {
+        final List<BlockChance> blocks = new ArrayList<BlockChance>();
+        blocks.add(new BlockChance(new BaseBlock(1), 0));
+        blocks.add(new BlockChance(new BaseBlock(2), 0));
+
+        final RandomFillPattern pattern = new RandomFillPattern(blocks);
+        for (int i = 0; i < 100; ++i) {
+            final int type = pattern.next(null).getType();
+            assertTrue(type == 1 || type == 2);
+        }
+    }
+
+    @Test
+    public void testSeed() {
+        final List<BlockChance> blocks = new ArrayList<BlockChance>();
+        for (int i = 0; i < 20; ++i) {
+            blocks.add(new BlockChance(new BaseBlock(i), i + 1));
+        }
+
+        final RandomFillPattern first = new RandomFillPattern(blocks, 42);
+        final RandomFillPattern second = new RandomFillPattern(blocks, 42);
+        final RandomFillPattern other = new RandomFillPattern(blocks, 43);
+
+        int differences = 0;
+        for (int x = 0; x < 10; ++x) {
+            for (int z = 9; z >= 0; --z) {
+                final BaseBlock block = first.next(x, 64, z);
+                assertEquals(block, second.next(new Vector(x, 64, z)));
+                assertEquals(block, first.next(x, 64, z));
+                if (!block.equals(other.next(x, 64, z))) {
+                    ++differences;
+                }
+            }
+        }
+        assertTrue(differences > 50);
+    }
+
+    @Test
+    public void testSpan() {
+        final List<BlockChance> blocks = new ArrayList<BlockChance>();
+        for (int i = 0; i < 5; ++i) {
+            blocks.add(new BlockChance(new BaseBlock(i + 1, i), 1));
+        }
+
+        final RandomFillPattern pattern = new RandomFillPattern(blocks, 7);
+        final int[] types = new int[20];
+        final int[] data = new int[20];
+        assertTrue(pattern.nextSpan(-8, 12, 3, 16, types, data, 4));
+        for (int i = 0; i < 16; ++i) {
+            final BaseBlock block = pattern.next(i - 8, 12, 3);
+            assertEquals(block.getType(), types[i + 4]);
+            assertEquals(block.getData(), data[i + 4]);
+        }
+
+        blocks.add(new BlockChance(new SignBlock(BlockID.SIGN_POST, 0, new String[] { "", "", "", "" }), 1));
+        assertFalse(new RandomFillPattern(blocks).nextSpan(0, 0, 0, 16, types, data, 0));
+    }
+}
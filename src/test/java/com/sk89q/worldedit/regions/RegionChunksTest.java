@@ -0,0 +1,78 @@
+package com.sk89q.worldedit.regions;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+
+public class RegionChunksTest {
+    @Test
+    public void testCuboid() {
+        assertSameChunks(new CuboidRegion(new Vector(-17, 3, 40), new Vector(33, 70, 5)));
+    }
+
+    @Test
+    public void testEllipsoid() {
+        final Random random = new Random(4);
+        for (int i = 0; i < 20; ++i) {
+            final Vector center = new Vector(random.nextInt(100) - 50, random.nextInt(100), random.nextInt(100) - 50);
+            final Vector radius = new Vector(random.nextDouble() * 40, random.nextDouble() * 40, random.nextDouble() * 40);
+            assertSameChunks(new EllipsoidRegion(null, center, radius));
+        }
+    }
+
+    @Test
+    public void testCylinder() {
+        final Random random = new Random(5);
+        for (int i = 0; i < 20; ++i) {
+            final Vector center = new Vector(random.nextInt(100) - 50, 0, random.nextInt(100) - 50);
+            final Vector2D radius = new Vector2D(random.nextDouble() * 40, random.nextDouble() * 40);
+            final int minY = random.nextInt(40);
+            assertSameChunks(new CylinderRegion(null, center, radius, minY, minY + random.nextInt(40)));
+        }
+    }
+
+    @Test
+    public void testPolygon() {
+        final Random random = new Random(6);
+        for (int i = 0; i < 50; ++i) {
+            final List<BlockVector2D> points = new ArrayList<BlockVector2D>();
+            final int count = random.nextInt(10) + 3;
+            for (int j = 0; j < count; ++j) {
+                points.add(new BlockVector2D(random.nextInt(161) - 80, random.nextInt(161) - 80));
+            }
+            final int minY = random.nextInt(40);
+            assertSameChunks(new Polygonal2DRegion(null, points, minY, minY + random.nextInt(40)));
+        }
+    }
+
+    private void assertSameChunks(Region region) {
+        final Set<Vector2D> chunks = new HashSet<Vector2D>();
+        final Set<Vector> chunkCubes = new HashSet<Vector>();
+        final Vector min = region.getMinimumPoint();
+        final Vector max = region.getMaximumPoint();
+        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
+            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
+                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
+                    if (region.contains(new BlockVector(x, y, z))) {
+                        chunks.add(new BlockVector2D(x >> 4, z >> 4));
+                        chunkCubes.add(new BlockVector(x >> 4, y >> 4, z >> 4));
+                    }
+                }
+            }
+        }
+
+        assertEquals(region.toString(), chunks, region.getChunks());
+        assertEquals(region.toString(), chunkCubes, region.getChunkCubes());
+    }
+}
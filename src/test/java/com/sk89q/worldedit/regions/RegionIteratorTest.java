@@ -0,0 +1,97 @@
+package com.sk89q.worldedit.regions;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.BlockVector2D;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+
+public class RegionIteratorTest {
+    @Test
+    public void testEllipsoid() {
+        final Random random = new Random(1);
+        for (int i = 0; i < 50; ++i) {
+            final Vector center = new Vector(random.nextInt(20) - 10, random.nextInt(20), random.nextInt(20) - 10)
+                    .add(random.nextInt(2) * 0.5, random.nextInt(2) * 0.5, random.nextInt(2) * 0.5);
+            final Vector radius = new Vector(random.nextDouble() * 8, random.nextDouble() * 8, random.nextDouble() * 8);
+            final EllipsoidRegion region = new EllipsoidRegion(null, center, radius);
+
+            assertSameIteration(region, new RegionIterator(region));
+        }
+    }
+
+    @Test
+    public void testCylinder() {
+        final Random random = new Random(2);
+        for (int i = 0; i < 50; ++i) {
+            final Vector center = new Vector(random.nextInt(20) - 10, 0, random.nextInt(20) - 10)
+                    .add(random.nextInt(2) * 0.5, 0, random.nextInt(2) * 0.5);
+            final Vector2D radius = new Vector2D(random.nextDouble() * 10, random.nextDouble() * 10);
+            final CylinderRegion region = new CylinderRegion(null, center, radius, random.nextInt(5), random.nextInt(5) + 3);
+
+            assertSameIteration(region, new FlatRegion3DIterator(region));
+        }
+    }
+
+    @Test
+    public void testPolygon() {
+        final Random random = new Random(3);
+        for (int i = 0; i < 200; ++i) {
+            final List<BlockVector2D> points = new ArrayList<BlockVector2D>();
+            final int count = random.nextInt(8) + 1;
+            for (int j = 0; j < count; ++j) {
+                points.add(new BlockVector2D(random.nextInt(21) - 10, random.nextInt(21) - 10));
+            }
+            if (random.nextBoolean()) {
+                // Repeated points and collinear edges
+                points.add(points.get(0));
+                points.add(new BlockVector2D(points.get(0).getBlockX(), 15));
+            }
+            final Polygonal2DRegion region = new Polygonal2DRegion(null, points, 1, 2);
+
+            assertSameIteration(region, new FlatRegion3DIterator(region));
+        }
+    }
+
+    @Test
+    public void testEmptyHeight() {
+        final List<BlockVector2D> points = new ArrayList<BlockVector2D>();
+        points.add(new BlockVector2D(0, 0));
+        points.add(new BlockVector2D(5, 0));
+        points.add(new BlockVector2D(0, 5));
+        final CylinderRegion region = new CylinderRegion(null, new Vector(), new Vector2D(3, 3), 4, 2);
+
+        assertFalse(region.iterator().hasNext());
+        assertEquals(63, collect(new Polygonal2DRegion(null, points, 4, 6).iterator()).size());
+    }
+
+    private void assertSameIteration(Region region, Iterator<BlockVector> expectedIterator) {
+        final List<BlockVector> expected = collect(expectedIterator);
+        assertEquals(region.toString(), expected, collect(region.iterator()));
+
+        final List<BlockVector> visited = new ArrayList<BlockVector>();
+        region.visit(new RegionVisitor() {
+            @Override
+            public void visit(int x, int y, int z) {
+                visited.add(new BlockVector(x, y, z));
+            }
+        });
+        assertEquals(region.toString(), expected, visited);
+    }
+
+    private List<BlockVector> collect(Iterator<BlockVector> it) {
+        final List<BlockVector> list = new ArrayList<BlockVector>();
+        while (it.hasNext()) {
+            list.add(it.next());
+        }
+        return list;
+    }
+}
@@ -0,0 +1,202 @@
+package com.sk89q.worldedit.schematic;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.*;
+
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.data.DataException;
+
+public class CompactSchematicFormatTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("worldedit", ".schematic");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        CuboidClipboard clipboard = createClipboard();
+        clipboard.setBlock(new Vector(39, 0, 0), new BaseBlock(40000, 200));
+
+        SchematicFormat.COMPACT.save(clipboard, file);
+        assertTrue(SchematicFormat.COMPACT.isOfFormat(file));
+        assertFalse(SchematicFormat.MCEDIT.isOfFormat(file));
+        CuboidClipboard loaded = SchematicFormat.COMPACT.load(file);
+
+        assertEquals(clipboard.getSize(), loaded.getSize());
+        assertEquals(clipboard.getOrigin(), loaded.getOrigin());
+        assertEquals(clipboard.getOffset(), loaded.getOffset());
+        assertSameBlocks(clipboard, loaded, 0, 0, 0);
+
+        BaseBlock sign = loaded.getPoint(new Vector(20, 17, 3));
+        assertEquals("c", ((StringTag) sign.getNbtData().getValue().get("Text3")).getValue());
+    }
+
+    @Test
+    public void testReadBox() throws Exception {
+        CuboidClipboard clipboard = createClipboard();
+        SchematicFormat.COMPACT.save(clipboard, file);
+
+        CompactSchematicReader reader = new CompactSchematicReader(file);
+        try {
+            assertEquals(3, reader.getSectionsX());
+            assertTrue(reader.isEmptySection(0, 1, 0));
+            CuboidClipboard box = reader.read(14, 15, 1, 9, 4, 3);
+            assertEquals(clipboard.getOrigin().add(14, 15, 1), box.getOrigin());
+            assertSameBlocks(clipboard, box, 14, 15, 1);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testConvert() throws Exception {
+        CuboidClipboard clipboard = createClipboard();
+        SchematicFormat.MCEDIT.save(clipboard, file);
+        SchematicFormat.COMPACT.save(SchematicFormat.MCEDIT.load(file), file);
+        SchematicFormat.MCEDIT.save(SchematicFormat.COMPACT.load(file), file);
+
+        assertSameBlocks(clipboard, SchematicFormat.MCEDIT.load(file), 0, 0, 0);
+    }
+
+    @Test
+    public void testDeduplicate() throws Exception {
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(64, 64, 64));
+        for (int x = 0; x < 64; ++x) {
+            for (int y = 0; y < 64; ++y) {
+                for (int z = 0; z < 64; ++z) {
+                    clipboard.setBlock(new Vector(x, y, z), new BaseBlock((x * 31 + y * 17 + z * 7) % 16 + 1));
+                }
+            }
+        }
+        SchematicFormat.COMPACT.save(clipboard, file);
+
+        // Every section is the same, so only one is stored
+        assertTrue(file.length() < 4096);
+        assertSameBlocks(clipboard, SchematicFormat.COMPACT.load(file), 0, 0, 0);
+    }
+
+    @Test
+    public void testDamagedFooter() throws Exception {
+        // Too many stored sections for a 16x16x16 schematic
+        writeFooter(Integer.MAX_VALUE, 1, 10);
+        assertNotCompact();
+
+        // A negative stored section count
+        writeFooter(-1, 1, 10);
+        assertNotCompact();
+
+        // A section longer than the file
+        writeFooter(1, 1000, 10);
+        assertNotCompact();
+
+        // A section that can't inflate to its claimed length
+        writeFooter(1, 1, 0x7FFFFFFF);
+        assertNotCompact();
+    }
+
+    /**
+     * Write a compact schematic of one section, with the given section
+     * count and lengths in its footer and a single byte of section data.
+     *
+     * @param storedCount
+     * @param storedLength
+     * @param rawLength
+     * @throws IOException
+     */
+    private void writeFooter(int storedCount, int storedLength, int rawLength) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        DataOutputStream footer = new DataOutputStream(raw);
+        for (int i = 0; i < 3; ++i) {
+            footer.writeInt(16);
+        }
+        for (int i = 0; i < 6; ++i) {
+            footer.writeInt(0);
+        }
+        CompactSchematicFormat.writeVarInt(footer, 1);
+        CompactSchematicFormat.writeVarInt(footer, 1);
+        CompactSchematicFormat.writeVarInt(footer, 0);
+        CompactSchematicFormat.writeVarInt(footer, storedCount);
+        CompactSchematicFormat.writeVarInt(footer, storedLength);
+        CompactSchematicFormat.writeVarInt(footer, rawLength);
+        CompactSchematicFormat.writeVarInt(footer, 1);
+        footer.close();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DeflaterOutputStream deflater = new DeflaterOutputStream(compressed);
+        deflater.write(raw.toByteArray());
+        deflater.close();
+
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.writeInt(CompactSchematicFormat.MAGIC);
+            out.writeByte(CompactSchematicFormat.VERSION);
+            out.writeByte(0);
+            out.write(compressed.toByteArray());
+            out.writeLong(CompactSchematicFormat.HEADER_SIZE + 1);
+            out.writeInt(compressed.size());
+            out.writeInt(CompactSchematicFormat.MAGIC);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void assertNotCompact() throws IOException {
+        try {
+            new CompactSchematicReader(file).close();
+            fail("Damaged schematic was read");
+        } catch (DataException e) {
+        }
+    }
+
+    /**
+     * Create a clipboard that is not a multiple of the section size, with
+     * an empty section and a block with extra data.
+     *
+     * @return
+     */
+    private CuboidClipboard createClipboard() {
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(40, 20, 5), new Vector(1, 2, 3), new Vector(-4, -5, -6));
+        for (int x = 0; x < 40; ++x) {
+            for (int y = 0; y < 20; ++y) {
+                for (int z = 0; z < 5; ++z) {
+                    if (y >= 16 && x < 16) {
+                        continue;
+                    }
+                    clipboard.setBlock(new Vector(x, y, z), new BaseBlock((x * 61 + y * 7 + z) % 4096, (x + z) & 255));
+                }
+            }
+        }
+        clipboard.setBlock(new Vector(20, 17, 3), new SignBlock(BlockID.SIGN_POST, 3, new String[] { "a", "b", "c", "d" }));
+        return clipboard;
+    }
+
+    private void assertSameBlocks(CuboidClipboard expected, CuboidClipboard actual, int x0, int y0, int z0) {
+        for (int x = 0; x < actual.getWidth(); ++x) {
+            for (int y = 0; y < actual.getHeight(); ++y) {
+                for (int z = 0; z < actual.getLength(); ++z) {
+                    assertEquals(expected.getPoint(new Vector(x0 + x, y0 + y, z0 + z)), actual.getPoint(new Vector(x, y, z)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.sk89q.worldedit.schematic;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+
+import org.junit.*;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.ShortTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+
+public class MCEditSchematicFormatTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("worldedit", ".schematic");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testSaveLoad() throws Exception {
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(7, 5, 3), new Vector(1, 2, 3), new Vector(-4, -5, -6));
+        for (int x = 0; x < 7; ++x) {
+            for (int y = 0; y < 5; ++y) {
+                for (int z = 0; z < 3; ++z) {
+                    clipboard.setBlock(new Vector(x, y, z), new BaseBlock((x * 61 + y * 7 + z) % 4096, (x + z) & 15));
+                }
+            }
+        }
+        clipboard.setBlock(new Vector(6, 4, 2), new SignBlock(BlockID.SIGN_POST, 3, new String[] { "a", "b", "c", "d" }));
+
+        SchematicFormat.MCEDIT.save(clipboard, file);
+        CuboidClipboard loaded = SchematicFormat.MCEDIT.load(file);
+
+        assertEquals(clipboard.getSize(), loaded.getSize());
+        assertEquals(clipboard.getOrigin(), loaded.getOrigin());
+        assertEquals(clipboard.getOffset(), loaded.getOffset());
+        for (int x = 0; x < 7; ++x) {
+            for (int y = 0; y < 5; ++y) {
+                for (int z = 0; z < 3; ++z) {
+                    assertEquals(clipboard.getPoint(new Vector(x, y, z)), loaded.getPoint(new Vector(x, y, z)));
+                }
+            }
+        }
+
+        BaseBlock sign = loaded.getPoint(new Vector(6, 4, 2));
+        assertEquals("c", ((StringTag) sign.getNbtData().getValue().get("Text3")).getValue());
+    }
+
+    @Test
+    public void testArraysBeforeSize() throws Exception {
+        // Older saves wrote the tags in no particular order
+        NBTOutputStream stream = new NBTOutputStream(new FileOutputStream(file));
+        stream.writeCompoundStart("Schematic");
+        stream.writeByteArrayStart("Data", 4);
+        stream.writeBytes(new byte[] { 1, 2, 3, 4 }, 0, 4);
+        stream.writeByteArrayStart("Blocks", 4);
+        stream.writeBytes(new byte[] { 5, 6, 7, 8 }, 0, 4);
+        stream.writeByteArrayStart("AddBlocks", 3);
+        stream.writeBytes(new byte[] { 0x21, 0, 0 }, 0, 3);
+        stream.writeTag(new ShortTag("Width", (short) 2));
+        stream.writeTag(new ShortTag("Height", (short) 1));
+        stream.writeTag(new ShortTag("Length", (short) 2));
+        stream.writeTag(new StringTag("Materials", "Alpha"));
+        stream.writeTag(new ListTag("TileEntities", CompoundTag.class, new ArrayList<Tag>()));
+        stream.writeCompoundEnd();
+        stream.close();
+
+        CuboidClipboard loaded = SchematicFormat.MCEDIT.load(file);
+        assertEquals(new BaseBlock(0x105, 1), loaded.getPoint(new Vector(0, 0, 0)));
+        assertEquals(new BaseBlock(0x206, 2), loaded.getPoint(new Vector(1, 0, 0)));
+        assertEquals(new BaseBlock(8, 4), loaded.getPoint(new Vector(1, 0, 1)));
+    }
+}
@@ -0,0 +1,117 @@
+package com.sk89q.worldedit.schematic;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashMap;
+
+import org.junit.*;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.CuboidClipboard.FlipDirection;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+
+public class SchematicCacheTest {
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("worldedit", ".schematic");
+
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(4, 2, 3));
+        clipboard.setBlock(new Vector(0, 0, 0), new BaseBlock(BlockID.STONE));
+        clipboard.setBlock(new Vector(1, 1, 2), new BaseBlock(BlockID.TORCH, 1));
+        BaseBlock chest = new BaseBlock(BlockID.CHEST, 2);
+        chest.setNbtData(new CompoundTag("", new HashMap<String, Tag>()));
+        clipboard.setBlock(new Vector(3, 0, 1), chest);
+        SchematicFormat.MCEDIT.save(clipboard, file);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        SchematicCache cache = new SchematicCache(-1);
+        CuboidClipboard first = cache.load(SchematicFormat.MCEDIT, file);
+        CuboidClipboard second = cache.load(SchematicFormat.MCEDIT, file);
+
+        assertNotSame(first, second);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+        assertEquals(first.getMemoryUsage(), cache.getMemoryUsage());
+        assertEquals(new BaseBlock(BlockID.STONE), second.getPoint(new Vector(0, 0, 0)));
+    }
+
+    @Test
+    public void testCopyOnWrite() throws Exception {
+        SchematicCache cache = new SchematicCache(-1);
+        CuboidClipboard first = cache.load(SchematicFormat.MCEDIT, file);
+        first.flip(FlipDirection.WEST_EAST);
+        first.setBlock(new Vector(0, 1, 0), new BaseBlock(BlockID.DIRT));
+
+        CuboidClipboard second = cache.load(SchematicFormat.MCEDIT, file);
+        assertEquals(new BaseBlock(BlockID.STONE), first.getPoint(new Vector(3, 0, 0)));
+        assertEquals(new BaseBlock(BlockID.STONE), second.getPoint(new Vector(0, 0, 0)));
+        assertEquals(new BaseBlock(BlockID.AIR), second.getPoint(new Vector(0, 1, 0)));
+        assertEquals(new BaseBlock(BlockID.TORCH, 1), second.getPoint(new Vector(1, 1, 2)));
+        assertEquals(new BaseBlock(BlockID.CHEST, 2), second.getPoint(new Vector(3, 0, 1)));
+        assertEquals(new BaseBlock(BlockID.CHEST, 3), first.getPoint(new Vector(0, 0, 1)));
+    }
+
+    @Test
+    public void testRotateSign() throws Exception {
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(2, 1, 2));
+        clipboard.setBlock(new Vector(0, 0, 0), new SignBlock(BlockID.SIGN_POST, 0, new String[] { "a", "b", "c", "d" }));
+        SchematicFormat.MCEDIT.save(clipboard, file);
+
+        SchematicCache cache = new SchematicCache(-1);
+        CuboidClipboard first = cache.load(SchematicFormat.MCEDIT, file);
+        first.rotate2D(90);
+        CuboidClipboard second = cache.load(SchematicFormat.MCEDIT, file);
+        second.flip(FlipDirection.NORTH_SOUTH);
+        CuboidClipboard third = cache.load(SchematicFormat.MCEDIT, file);
+
+        assertEquals(1, third.getTileEntityPositions().size());
+        assertEquals(0, third.getPoint(third.getTileEntityPositions().get(0)).getData());
+        assertEquals(4, first.getPoint(first.getTileEntityPositions().get(0)).getData());
+
+        // Blocks of subclasses are copied as well
+        CuboidClipboard copy = clipboard.copy();
+        copy.rotate2D(90);
+        SignBlock sign = (SignBlock) clipboard.getPoint(new Vector(0, 0, 0));
+        assertEquals(0, sign.getData());
+        assertNotSame(sign, copy.getPoint(copy.getTileEntityPositions().get(0)));
+    }
+
+    @Test
+    public void testModified() throws Exception {
+        SchematicCache cache = new SchematicCache(-1);
+        cache.load(SchematicFormat.MCEDIT, file);
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        cache.load(SchematicFormat.MCEDIT, file);
+
+        assertEquals(0, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        SchematicCache cache = new SchematicCache(1);
+        cache.load(SchematicFormat.MCEDIT, file);
+        cache.load(SchematicFormat.MCEDIT, file);
+
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getMemoryUsage());
+    }
+}
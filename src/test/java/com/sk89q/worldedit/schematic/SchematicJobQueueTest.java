@@ -0,0 +1,298 @@
+package com.sk89q.worldedit.schematic;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.BiomeTypes;
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.LocalPlayer;
+import com.sk89q.worldedit.LocalSession;
+import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.ServerInterface;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.WorldVector;
+import com.sk89q.worldedit.bags.BlockBag;
+import com.sk89q.worldedit.blocks.BaseBlock;
+
+public class SchematicJobQueueTest {
+    private File dir;
+    private File file;
+    private TestServer server;
+    private TestPlayer player;
+    private LocalSession session;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("worldedit", "");
+        dir.delete();
+        dir.mkdir();
+        file = new File(dir, "test.schematic");
+        server = new TestServer();
+        player = new TestPlayer(server);
+        session = new LocalSession(null);
+    }
+
+    @After
+    public void tearDown() {
+        for (File child : dir.listFiles()) {
+            child.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testSynchronous() throws Exception {
+        // Jobs are run right away when tasks can't be scheduled
+        server.canSchedule = false;
+        SchematicJobQueue queue = new SchematicJobQueue(server, 1, 1);
+        try {
+            SchematicJob first = save(createClipboard(1));
+            SchematicJob second = save(createClipboard(2));
+            assertTrue(queue.submit(first));
+            assertTrue(queue.submit(second));
+            assertEquals(SchematicJob.State.DONE, first.getState());
+            assertEquals(SchematicJob.State.DONE, second.getState());
+            assertEquals(0, queue.getJobCount());
+            assertSaved(2);
+        } finally {
+            queue.shutdown(1000);
+        }
+    }
+
+    @Test
+    public void testSameFile() throws Exception {
+        SchematicJobQueue queue = new SchematicJobQueue(server, 2, 2);
+        try {
+            SchematicJob first = save(createClipboard(1));
+            SchematicJob second = save(createClipboard(2));
+            assertTrue(queue.submit(first));
+            assertTrue(queue.submit(second));
+            waitFor(queue);
+
+            assertEquals(SchematicJob.State.DONE, first.getState());
+            assertEquals(SchematicJob.State.DONE, second.getState());
+            assertTrue(player.errors.isEmpty());
+            assertTrue(server.task == null);
+
+            // Either save may finish last
+            CuboidClipboard loaded = SchematicFormat.MCEDIT.load(file);
+            int type = loaded.getPoint(new Vector(1, 2, 3)).getType();
+            assertTrue(type == 1 || type == 2);
+            assertEquals(1, dir.listFiles().length);
+        } finally {
+            queue.shutdown(1000);
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        SchematicFormat.MCEDIT.save(createClipboard(1), file);
+        long length = file.length();
+        long modified = file.lastModified();
+
+        // Cancelled after the file is written but before it replaces the
+        // old one
+        SchematicJob job = save(createClipboard(2));
+        job.execute();
+        assertEquals(2, dir.listFiles().length);
+        assertTrue(job.cancel());
+        job.finish();
+
+        assertEquals(SchematicJob.State.CANCELLED, job.getState());
+        assertEquals(1, dir.listFiles().length);
+        assertEquals(length, file.length());
+        assertEquals(modified, file.lastModified());
+        assertSaved(1);
+
+        // Cancelled while queued
+        SchematicJobQueue queue = new SchematicJobQueue(server, 1, 2);
+        try {
+            job = save(createClipboard(2));
+            assertTrue(queue.submit(job));
+            job.cancel();
+            waitFor(queue);
+            assertEquals(SchematicJob.State.CANCELLED, job.getState());
+            assertEquals(1, dir.listFiles().length);
+            assertSaved(1);
+        } finally {
+            queue.shutdown(1000);
+        }
+    }
+
+    @Test
+    public void testMaxJobs() throws Exception {
+        SchematicJobQueue queue = new SchematicJobQueue(server, 1, 2);
+        try {
+            // Jobs are only removed from the queue by the task
+            assertTrue(queue.submit(save(createClipboard(1))));
+            assertTrue(queue.submit(save(createClipboard(2))));
+            assertFalse(queue.submit(save(createClipboard(3))));
+            assertEquals(2, queue.getJobCount());
+
+            waitFor(queue);
+            assertTrue(queue.submit(save(createClipboard(3))));
+            waitFor(queue);
+            assertSaved(3);
+        } finally {
+            queue.shutdown(1000);
+        }
+    }
+
+    private SchematicJob save(CuboidClipboard clipboard) {
+        return SchematicJob.save(player, session, SchematicFormat.MCEDIT, file, "test", clipboard, -1, 1, null);
+    }
+
+    private CuboidClipboard createClipboard(int type) {
+        CuboidClipboard clipboard = new CuboidClipboard(new Vector(16, 16, 16));
+        clipboard.setBlock(new Vector(1, 2, 3), new BaseBlock(type));
+        return clipboard;
+    }
+
+    private void assertSaved(int type) throws Exception {
+        assertEquals(type, SchematicFormat.MCEDIT.load(file).getPoint(new Vector(1, 2, 3)).getType());
+    }
+
+    /**
+     * Run the scheduled task, like the server would every tick, until the
+     * queue is empty.
+     *
+     * @param queue
+     * @throws InterruptedException
+     */
+    private void waitFor(SchematicJobQueue queue) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (queue.getJobCount() > 0) {
+            assertTrue("Jobs did not finish", System.currentTimeMillis() < end);
+            Thread.sleep(5);
+            if (server.task != null) {
+                server.task.run();
+            }
+        }
+    }
+
+    /**
+     * Runs one task when asked to, instead of every tick.
+     */
+    private static class TestServer extends ServerInterface {
+        private boolean canSchedule = true;
+        private Runnable task;
+
+        @Override
+        public int resolveItem(String name) {
+            return 0;
+        }
+
+        @Override
+        public boolean isValidMobType(String type) {
+            return false;
+        }
+
+        @Override
+        public void reload() {
+        }
+
+        @Override
+        public BiomeTypes getBiomes() {
+            return null;
+        }
+
+        @Override
+        public int schedule(long delay, long period, Runnable task) {
+            if (!canSchedule) {
+                return -1;
+            }
+            assertNull(this.task);
+            this.task = task;
+            return 1;
+        }
+
+        @Override
+        public void cancelTask(int taskId) {
+            assertEquals(1, taskId);
+            task = null;
+        }
+    }
+
+    private static class TestPlayer extends LocalPlayer {
+        private final List<String> errors = new ArrayList<String>();
+
+        public TestPlayer(ServerInterface server) {
+            super(server);
+        }
+
+        @Override
+        public int getItemInHand() {
+            return 0;
+        }
+
+        @Override
+        public String getName() {
+            return "test";
+        }
+
+        @Override
+        public WorldVector getPosition() {
+            return null;
+        }
+
+        @Override
+        public LocalWorld getWorld() {
+            return null;
+        }
+
+        @Override
+        public double getPitch() {
+            return 0;
+        }
+
+        @Override
+        public double getYaw() {
+            return 0;
+        }
+
+        @Override
+        public void giveItem(int type, int amt) {
+        }
+
+        @Override
+        public void printRaw(String msg) {
+        }
+
+        @Override
+        public void printDebug(String msg) {
+        }
+
+        @Override
+        public void print(String msg) {
+        }
+
+        @Override
+        public void printError(String msg) {
+            errors.add(msg);
+        }
+
+        @Override
+        public void setPosition(Vector pos, float pitch, float yaw) {
+        }
+
+        @Override
+        public String[] getGroups() {
+            return new String[0];
+        }
+
+        @Override
+        public BlockBag getInventoryBlockBag() {
+            return null;
+        }
+
+        @Override
+        public boolean hasPermission(String perm) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.sk89q.worldedit.schematic;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.*;
+
+import com.sk89q.worldedit.BiomeType;
+import com.sk89q.worldedit.BlockVector;
+import com.sk89q.worldedit.CuboidClipboard;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.EntityType;
+import com.sk89q.worldedit.LocalWorld;
+import com.sk89q.worldedit.Vector;
+import com.sk89q.worldedit.Vector2D;
+import com.sk89q.worldedit.blocks.BaseBlock;
+import com.sk89q.worldedit.blocks.BaseItemStack;
+import com.sk89q.worldedit.blocks.BlockID;
+import com.sk89q.worldedit.blocks.SignBlock;
+import com.sk89q.worldedit.regions.Region;
+
+public class StreamingPasteTest {
+    private final Random random = new Random(3);
+    private File file;
+    private CuboidClipboard clipboard;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("worldedit", ".schematic");
+
+        // Wide enough that cached section columns have to be replaced, and
+        // not a multiple of the section size
+        clipboard = new CuboidClipboard(new Vector(75, 37, 53), new Vector(3, 4, 5), new Vector(-7, 2, -9));
+        for (int x = 0; x < 75; ++x) {
+            for (int y = 0; y < 37; ++y) {
+                for (int z = 0; z < 53; ++z) {
+                    // Leave some sections empty
+                    if (y > 20 && x < 20) {
+                        continue;
+                    }
+                    BaseBlock block;
+                    if (random.nextInt(300) == 0) {
+                        block = new SignBlock(BlockID.SIGN_POST, 2, new String[] { "" + x, "" + y, "" + z, "" });
+                    } else {
+                        block = new BaseBlock(random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(30), random.nextInt(16));
+                    }
+                    clipboard.setBlock(new Vector(x, y, z), block);
+                }
+            }
+        }
+        SchematicFormat.COMPACT.save(clipboard, file);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testPaste() throws Exception {
+        for (boolean noAir : new boolean[] { false, true }) {
+            for (Vector pos : new Vector[] { new Vector(5, 10, -7), new Vector(-33, 0, 17) }) {
+                MemoryWorld expected = new MemoryWorld();
+                MemoryWorld actual = new MemoryWorld();
+                fill(expected, actual, pos);
+
+                EditSession expectedSession = new EditSession(expected, -1);
+                clipboard.paste(expectedSession, pos, noAir);
+
+                EditSession actualSession = new EditSession(actual, -1);
+                CompactSchematicReader reader = new CompactSchematicReader(file);
+                try {
+                    new StreamingPaste(reader).paste(actualSession, pos, noAir);
+                } finally {
+                    reader.close();
+                }
+
+                assertEquals(expectedSession.getBlockChangeCount(), actualSession.getBlockChangeCount());
+                assertSameBlocks(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testPlace() throws Exception {
+        MemoryWorld expected = new MemoryWorld();
+        MemoryWorld actual = new MemoryWorld();
+        fill(expected, actual, clipboard.getOrigin());
+
+        clipboard.place(new EditSession(expected, -1), clipboard.getOrigin(), false);
+        CompactSchematicReader reader = new CompactSchematicReader(file);
+        try {
+            StreamingPaste paste = new StreamingPaste(reader);
+            paste.place(new EditSession(actual, -1), paste.getOrigin(), false);
+        } finally {
+            reader.close();
+        }
+
+        assertFalse(expected.tileEntities.isEmpty());
+        assertSameBlocks(expected, actual);
+    }
+
+    /**
+     * Put the same blocks in both worlds around where the schematic goes,
+     * so that pasting without air leaves some of them.
+     *
+     * @param first
+     * @param second
+     * @param pos
+     */
+    private void fill(MemoryWorld first, MemoryWorld second, Vector pos) {
+        for (int i = 0; i < 2000; ++i) {
+            Vector pt = pos.add(random.nextInt(90) - 10, random.nextInt(40), random.nextInt(70) - 10);
+            first.setBlockType(pt, BlockID.GLASS);
+            second.setBlockType(pt, BlockID.GLASS);
+        }
+    }
+
+    private void assertSameBlocks(MemoryWorld expected, MemoryWorld actual) {
+        Set<BlockVector> positions = new HashSet<BlockVector>(expected.blocks.keySet());
+        positions.addAll(actual.blocks.keySet());
+        for (BlockVector pt : positions) {
+            assertEquals(expected.getBlockType(pt), actual.getBlockType(pt));
+            assertEquals(expected.getBlockData(pt), actual.getBlockData(pt));
+        }
+        assertEquals(expected.tileEntities, actual.tileEntities);
+    }
+
+    /**
+     * Stores blocks in a map.
+     */
+    private static class MemoryWorld extends LocalWorld {
+        private final Map<BlockVector, int[]> blocks = new HashMap<BlockVector, int[]>();
+        private final Set<BlockVector> tileEntities = new HashSet<BlockVector>();
+
+        private int[] get(Vector pt) {
+            int[] block = blocks.get(pt.toBlockVector());
+            return block == null ? new int[2] : block;
+        }
+
+        @Override
+        public String getName() {
+            return "memory";
+        }
+
+        @Override
+        public boolean setBlockType(Vector pt, int type) {
+            int previous = get(pt)[0];
+            blocks.put(pt.toBlockVector(), new int[] { type, 0 });
+            return previous != type;
+        }
+
+        @Override
+        public int getBlockType(Vector pt) {
+            return get(pt)[0];
+        }
+
+        @Override
+        public void setBlockData(Vector pt, int data) {
+            blocks.put(pt.toBlockVector(), new int[] { get(pt)[0], data });
+        }
+
+        @Override
+        public void setBlockDataFast(Vector pt, int data) {
+            setBlockData(pt, data);
+        }
+
+        @Override
+        public int getBlockData(Vector pt) {
+            return get(pt)[1];
+        }
+
+        @Override
+        public BiomeType getBiome(Vector2D pt) {
+            return null;
+        }
+
+        @Override
+        public void setBiome(Vector2D pt, BiomeType biome) {
+        }
+
+        @Override
+        public int getBlockLightLevel(Vector pt) {
+            return 0;
+        }
+
+        @Override
+        public boolean regenerate(Region region, EditSession editSession) {
+            return false;
+        }
+
+        @Override
+        public boolean copyToWorld(Vector pt, BaseBlock block) {
+            tileEntities.add(pt.toBlockVector());
+            return true;
+        }
+
+        @Override
+        public boolean copyFromWorld(Vector pt, BaseBlock block) {
+            return false;
+        }
+
+        @Override
+        public boolean clearContainerBlockContents(Vector pt) {
+            return false;
+        }
+
+        @Override
+        public void dropItem(Vector pt, BaseItemStack item) {
+        }
+
+        @Override
+        public int removeEntities(EntityType type, Vector origin, int radius) {
+            return 0;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other == this;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+}